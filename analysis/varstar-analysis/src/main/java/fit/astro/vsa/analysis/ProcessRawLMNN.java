@@ -21,12 +21,14 @@ import com.jmatio.types.MLCell;
 import com.jmatio.types.MLChar;
 import com.jmatio.types.MLDouble;
 import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.datahandling.training.CrossValidationExecutor;
 import fit.astro.vsa.common.datahandling.training.TrainCrossData;
 import fit.astro.vsa.common.utilities.io.MatlabFunctions;
 import fit.astro.vsa.utilities.ml.performance.ClassifierPerformance;
 import fit.astro.vsa.utilities.ml.performance.ConfusionMatrix;
 import fit.astro.vsa.common.utilities.math.linearalgebra.VectorOperations;
 import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import fit.astro.vsa.utilities.ml.knn.KNNProjectedMetric;
 import fit.astro.vsa.utilities.ml.knn.KNNVectorMetric;
 import fit.astro.vsa.utilities.ml.metriclearning.lmnn.LargeMarginNearestNeighbor;
 import fit.astro.vsa.utilities.ml.metriclearning.nca.NeighbourhoodComponentsAnalysis;
@@ -63,9 +65,9 @@ public class ProcessRawLMNN {
         // ==================================================================
         int[] kNeigh = VectorOperations.linearSpace(3, 1, 2);
 
-        RealMatrix errorTrain = new Array2DRowRealMatrix(kNeigh.length, 2);
+        CrossValidationExecutor executor = new CrossValidationExecutor(crossvalMap);
 
-        for (Integer idx : crossvalMap.keySet()) {
+        RealMatrix errorTrain = executor.execute((idx, rand) -> {
 
             TrainCrossData crossDataKNN = new TrainCrossData(
                     setOfPatterns_Training, setOfClasses_Training, crossvalMap, idx);
@@ -77,13 +79,13 @@ public class ProcessRawLMNN {
 
             RealMatrix mk = lmnn.generateMetric();
         
-            // =============== Train and Apply Classifiers
-            KNNVectorMetric knn = new KNNVectorMetric(
+            // =============== Train and Apply Classifiers, in the projected space
+            KNNProjectedMetric knn = new KNNProjectedMetric(
                     crossDataKNN.getSetOfTrainingPatterns(),
-                    crossDataKNN.getSetOfTrainingClasses());
+                    crossDataKNN.getSetOfTrainingClasses(), mk);
 
             Map<Integer, ClassificationResult> knnWithoutResults = knn.execute(kNeigh,
-                    "Missed", mk, crossDataKNN.getSetOfCrossvalPatterns());
+                    "Missed", crossDataKNN.getSetOfCrossvalPatterns());
 
             int counter = 0;
             RealMatrix errorMatrix = new Array2DRowRealMatrix(knnWithoutResults.size(), 2);
@@ -97,10 +99,8 @@ public class ProcessRawLMNN {
                 counter++;
             }
 
-            errorTrain = errorTrain.add(errorMatrix);
-        }
-
-        errorTrain = errorTrain.scalarMultiply((1 / (double) crossvalMap.keySet().size()));
+            return errorMatrix;
+        });
 
         for (int idx = 0; idx < kNeigh.length; idx++) {
             LOGGER.info("===========================================");
@@ -21,6 +21,7 @@ import com.jmatio.types.MLCell;
 import com.jmatio.types.MLChar;
 import com.jmatio.types.MLDouble;
 import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.datahandling.training.CrossValidationExecutor;
 import fit.astro.vsa.common.datahandling.training.multi.TrainCrossMultiViewData;
 import fit.astro.vsa.common.utilities.io.MatlabFunctions;
 import fit.astro.vsa.utilities.ml.knn.KNNMultiVectorMetric;
@@ -61,9 +62,9 @@ public class ProcessRawMultiViewKNN {
         // ==================================================================
         int[] kNeigh = VectorOperations.linearSpace(27, 1, 2);
 
-        RealMatrix errorTrain = new Array2DRowRealMatrix(kNeigh.length, 2);
+        CrossValidationExecutor executor = new CrossValidationExecutor(crossvalMap);
 
-        for (Integer idx : crossvalMap.keySet()) {
+        RealMatrix errorTrain = executor.execute((idx, rand) -> {
 
             TrainCrossMultiViewData crossDataKNN = new TrainCrossMultiViewData(
                     setOfPatterns_Training, setOfClasses_Training, crossvalMap, idx);
@@ -88,10 +89,8 @@ public class ProcessRawMultiViewKNN {
                 counter++;
             }
 
-            errorTrain = errorTrain.add(errorMatrix);
-        }
-
-        errorTrain = errorTrain.scalarMultiply((1 / (double) crossvalMap.keySet().size()));
+            return errorMatrix;
+        });
 
         for (int idx = 0; idx < kNeigh.length; idx++) {
             LOGGER.info("===========================================");
@@ -21,6 +21,7 @@ import com.jmatio.types.MLCell;
 import com.jmatio.types.MLChar;
 import com.jmatio.types.MLDouble;
 import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.datahandling.training.CrossValidationExecutor;
 import fit.astro.vsa.common.datahandling.training.TrainCrossData;
 import fit.astro.vsa.common.utilities.io.MatlabFunctions;
 import fit.astro.vsa.utilities.ml.performance.ClassifierPerformance;
@@ -65,9 +66,10 @@ public class ProcessRawRF {
         // ==================================================================
         double[] alphas = VectorOperations.logSpace(0.1, 0.001, 10);
 
-        RealMatrix errorTrain = new Array2DRowRealMatrix(alphas.length, 2);
+        CrossValidationExecutor executor = new CrossValidationExecutor(crossvalMap);
+        executor.setRand(RAND);
 
-        for (Integer idx : crossvalMap.keySet()) {
+        RealMatrix errorTrain = executor.execute((idx, rand) -> {
 
             TrainCrossData crossDataKNN = new TrainCrossData(
                     setOfPatterns_Training, setOfClasses_Training, crossvalMap, idx);
@@ -76,7 +78,7 @@ public class ProcessRawRF {
                     = new RandomForestGenerator(
                             crossDataKNN.getSetOfTrainingPatterns(),
                             crossDataKNN.getSetOfTrainingClasses(), 50);
-            rfGenerator.setRand(RAND);
+            rfGenerator.setRand(rand);
 
             int counter = 0;
             RealMatrix errorMatrix = new Array2DRowRealMatrix(alphas.length, 2);
@@ -97,10 +99,8 @@ public class ProcessRawRF {
                 counter++;
             }
 
-            errorTrain = errorTrain.add(errorMatrix);
-        }
-
-        errorTrain = errorTrain.scalarMultiply((1 / (double) crossvalMap.keySet().size()));
+            return errorMatrix;
+        });
 
         for (int idx = 0; idx < alphas.length; idx++) {
             LOGGER.info("===========================================");
@@ -21,12 +21,14 @@ import com.jmatio.types.MLCell;
 import com.jmatio.types.MLChar;
 import com.jmatio.types.MLDouble;
 import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.datahandling.training.CrossValidationExecutor;
 import fit.astro.vsa.common.datahandling.training.TrainCrossData;
 import fit.astro.vsa.common.utilities.io.MatlabFunctions;
 import fit.astro.vsa.utilities.ml.performance.ClassifierPerformance;
 import fit.astro.vsa.utilities.ml.performance.ConfusionMatrix;
 import fit.astro.vsa.common.utilities.math.linearalgebra.VectorOperations;
 import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import fit.astro.vsa.utilities.ml.knn.DTWIndex;
 import fit.astro.vsa.utilities.ml.knn.KNNVectorMetric;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -61,9 +63,9 @@ public class ProcessRawkNN {
         // ==================================================================
         int[] kNeigh = VectorOperations.linearSpace(3, 1, 2);
 
-        RealMatrix errorTrain = new Array2DRowRealMatrix(kNeigh.length, 2);
+        CrossValidationExecutor executor = new CrossValidationExecutor(crossvalMap);
 
-        for (Integer idx : crossvalMap.keySet()) {
+        RealMatrix errorTrain = executor.execute((idx, rand) -> {
 
             TrainCrossData crossDataKNN = new TrainCrossData(
                     setOfPatterns_Training, setOfClasses_Training, crossvalMap, idx);
@@ -88,10 +90,8 @@ public class ProcessRawkNN {
                 counter++;
             }
 
-            errorTrain = errorTrain.add(errorMatrix);
-        }
-
-        errorTrain = errorTrain.scalarMultiply((1 / (double) crossvalMap.keySet().size()));
+            return errorMatrix;
+        });
 
         for (int idx = 0; idx < kNeigh.length; idx++) {
             LOGGER.info("===========================================");
@@ -122,6 +122,96 @@ public class ProcessRawkNN {
         ClassificationResult knnWithoutResults = knn.execute(kNeig,
                 "Missed", setOfPatterns_Testing);
 
+        reportTest(knnWithoutResults, "Test-kNN-SingleView-Vector");
+    }
+
+    /**
+     * Cross validation of DTW-kNN on the raw series, exact neighbors through
+     * the lower bound cascade of the DTW index
+     *
+     * @param windowSize half width of the Sakoe-Chiba band, in samples
+     * @throws IOException
+     * @throws NotEnoughDataException
+     */
+    protected static void trainKNN_DTW(int windowSize)
+            throws IOException, NotEnoughDataException {
+
+        // ==================================================================
+        int[] kNeigh = VectorOperations.linearSpace(3, 1, 2);
+
+        CrossValidationExecutor executor = new CrossValidationExecutor(crossvalMap);
+
+        RealMatrix errorTrain = executor.execute((idx, rand) -> {
+
+            TrainCrossData crossDataKNN = new TrainCrossData(
+                    setOfPatterns_Training, setOfClasses_Training, crossvalMap, idx);
+
+            // =============== Train and Apply Classifiers
+            KNNVectorMetric knn = new KNNVectorMetric(
+                    crossDataKNN.getSetOfTrainingPatterns(),
+                    crossDataKNN.getSetOfTrainingClasses());
+
+            DTWIndex dtwIndex = new DTWIndex(
+                    crossDataKNN.getSetOfTrainingPatterns(), windowSize);
+
+            Map<Integer, ClassificationResult> knnWithoutResults = knn.execute(kNeigh,
+                    "Missed", dtwIndex, crossDataKNN.getSetOfCrossvalPatterns());
+
+            int counter = 0;
+            RealMatrix errorMatrix = new Array2DRowRealMatrix(knnWithoutResults.size(), 2);
+            for (Integer kValue : knnWithoutResults.keySet()) {
+
+                double errorWithoutNow = ClassifierPerformance
+                        .estimateMisclassificationError(knnWithoutResults.get(kValue),
+                                crossDataKNN.getSetOfCrossvalClasses());
+
+                errorMatrix.setRow(counter, new double[]{kValue, errorWithoutNow});
+                counter++;
+            }
+
+            return errorMatrix;
+        });
+
+        for (int idx = 0; idx < kNeigh.length; idx++) {
+            LOGGER.info("===========================================");
+            LOGGER.info("k-Vlaue: " + errorTrain.getEntry(idx, 0));
+            LOGGER.info("Misclassification Error: " + errorTrain.getEntry(idx, 1));
+        }
+
+        List<MLArray> list = new ArrayList<>();
+        list.add(new MLDouble("error", errorTrain.getData()));
+
+        MatlabFunctions.storeToFinal("Train-kNN-DTW", list);
+    }
+
+    /**
+     *
+     * @param kNeig
+     * @param windowSize half width of the Sakoe-Chiba band, in samples
+     * @throws IOException
+     * @throws NotEnoughDataException
+     */
+    protected static void testKNN_DTW(int kNeig, int windowSize)
+            throws IOException, NotEnoughDataException {
+
+        LOGGER.info("With DTW kNN, k-NN: " + kNeig + ", window: " + windowSize);
+
+        KNNVectorMetric knn = new KNNVectorMetric(
+                setOfPatterns_Training,
+                setOfClasses_Training);
+
+        DTWIndex dtwIndex = new DTWIndex(setOfPatterns_Training, windowSize);
+
+        // Test
+        ClassificationResult knnWithoutResults = knn.execute(new int[]{kNeig},
+                "Missed", dtwIndex, setOfPatterns_Testing).get(kNeig);
+
+        reportTest(knnWithoutResults, "Test-kNN-DTW");
+    }
+
+    private static void reportTest(ClassificationResult knnWithoutResults,
+            String fileName) throws IOException {
+
         double errorWithoutNow = ClassifierPerformance
                 .estimateMisclassificationError(knnWithoutResults,
                         setOfClasses_Testing);
@@ -164,7 +254,7 @@ public class ProcessRawkNN {
         list.add(countMLWithout);
         list.add(labelsML);
 
-        MatlabFunctions.storeToFinal("Test-kNN-SingleView-Vector", list);
+        MatlabFunctions.storeToFinal(fileName, list);
 
     }
 
@@ -29,6 +29,7 @@ import fit.astro.vsa.utilities.ml.knn.KNNMultiVectorMetric;
 import fit.astro.vsa.utilities.ml.metriclearning.l3ml.LargeMarginMultiMetricLearning;
 import fit.astro.vsa.utilities.ml.performance.ClassifierPerformance;
 import fit.astro.vsa.utilities.ml.performance.ConfusionMatrix;
+import fit.astro.vsa.common.datahandling.training.CrossValidationExecutor;
 import fit.astro.vsa.common.datahandling.training.multi.TrainCrossMultiViewData;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -78,9 +79,9 @@ public class ProcessTimeDomainViaL3ML {
         // ==================================================================
         int[] kNeigh = VectorOperations.linearSpace(19, 1, 2);
 
-        RealMatrix errorTrain = new Array2DRowRealMatrix(kNeigh.length, 3);
+        CrossValidationExecutor executor = new CrossValidationExecutor(crossvalMap);
 
-        for (Integer idx : crossvalMap.keySet()) {
+        RealMatrix errorTrain = executor.execute((idx, rand) -> {
 
             TrainCrossMultiViewData crossDataKNN = new TrainCrossMultiViewData(
                     setOfPatterns_Training, setOfClasses_Training, crossvalMap, idx);
@@ -112,10 +113,8 @@ public class ProcessTimeDomainViaL3ML {
                 counter++;
             }
 
-            errorTrain = errorTrain.add(errorMatrix);
-        }
-
-        errorTrain = errorTrain.scalarMultiply((1 / (double) crossvalMap.keySet().size()));
+            return errorMatrix;
+        });
 
         for (int idx = 0; idx < kNeigh.length; idx++) {
             LOGGER.info("===========================================");
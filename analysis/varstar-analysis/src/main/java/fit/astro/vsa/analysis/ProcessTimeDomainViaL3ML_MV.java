@@ -30,6 +30,7 @@ import fit.astro.vsa.utilities.ml.knn.KNNMultiMatrixMetric;
 import fit.astro.vsa.utilities.ml.metriclearning.l3ml_mv.LargeMarginMultiMetricLearning_MV;
 import fit.astro.vsa.utilities.ml.performance.ClassifierPerformance;
 import fit.astro.vsa.utilities.ml.performance.ConfusionMatrix;
+import fit.astro.vsa.common.datahandling.training.CrossValidationExecutor;
 import fit.astro.vsa.common.datahandling.training.multi.TrainCrossMultiViewData_MV;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -106,9 +107,9 @@ public class ProcessTimeDomainViaL3ML_MV {
         // ==================================================================
         int[] kNeigh = VectorOperations.linearSpace(19, 1, 2);
 
-        RealMatrix errorTrain = new Array2DRowRealMatrix(kNeigh.length, 3);
+        CrossValidationExecutor executor = new CrossValidationExecutor(crossvalMap);
 
-        for (Integer idx : crossvalMap.keySet()) {
+        RealMatrix errorTrain = executor.execute((idx, foldRand) -> {
 
             TrainCrossMultiViewData_MV crossDataKNN;
             try {
@@ -140,10 +141,8 @@ public class ProcessTimeDomainViaL3ML_MV {
                 counter++;
             }
 
-            errorTrain = errorTrain.add(errorMatrix);
-        }
-
-        errorTrain = errorTrain.scalarMultiply((1 / (double) crossvalMap.keySet().size()));
+            return errorMatrix;
+        });
 
         for (int idx = 0; idx < kNeigh.length; idx++) {
             LOGGER.info("===========================================");
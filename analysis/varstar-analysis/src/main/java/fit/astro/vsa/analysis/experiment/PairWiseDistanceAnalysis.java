@@ -18,7 +18,10 @@ package fit.astro.vsa.analysis.experiment;
 
 import fit.astro.vsa.common.bindings.math.vector.VectorDistanceType;
 import fit.astro.vsa.common.utilities.test.classification.GrabIrisData;
+import fit.astro.vsa.utilities.ml.DistanceMatrix;
+import fit.astro.vsa.utilities.ml.DistanceMatrixCache;
 import fit.astro.vsa.utilities.ml.PairWiseDistances;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -88,5 +91,24 @@ public class PairWiseDistanceAnalysis {
 
         LOGGER.info("Duration Delta Mean: " + delta);
 
+        //===================================== On Disk Cache
+        DistanceMatrixCache cache = new DistanceMatrixCache(
+                new File(System.getProperty("java.io.tmpdir"), "distance-cache"));
+        File cacheFile = cache.getCacheFile(patterns, "Random",
+                VectorDistanceType.EUCLIDEAN_DISTANCE, false);
+        cacheFile.delete();
+
+        long startTimeWrite = System.nanoTime();
+        cache.getDistances(patterns, "Random", VectorDistanceType.EUCLIDEAN_DISTANCE);
+        long durationWrite = System.nanoTime() - startTimeWrite;
+
+        long startTimeMapped = System.nanoTime();
+        DistanceMatrix mapped = cache.getDistances(patterns, "Random",
+                VectorDistanceType.EUCLIDEAN_DISTANCE);
+        long durationMapped = System.nanoTime() - startTimeMapped;
+
+        LOGGER.info("Duration Cache Write: " + durationWrite
+                + "  Mapped: " + durationMapped + "  d(0,1): " + mapped.getEntry(0, 1));
+
     }
 }
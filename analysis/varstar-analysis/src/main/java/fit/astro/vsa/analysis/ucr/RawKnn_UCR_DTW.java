@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2018 kjohnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.analysis.ucr;
+
+import fit.astro.vsa.analysis.ProcessRawkNN;
+import fit.astro.vsa.common.bindings.ml.TimeDomainAttributeMaps;
+import fit.astro.vsa.common.datahandling.training.TrainCrossGenerator;
+import fit.astro.vsa.common.utilities.io.ReadingInUCRData;
+import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DTW-kNN directly on the raw (already phased and z-normalized) UCR
+ * StarLightCurves series
+ *
+ * @author kjohnston
+ */
+public class RawKnn_UCR_DTW extends ProcessRawkNN {
+
+    private static final Random RAND = new Random(42L);
+
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(RawKnn_UCR_DTW.class);
+
+    /**
+     * Band half width as a fraction of the series length
+     */
+    private static final double WINDOW_FRACTION = 0.05;
+
+    /**
+     *
+     * @param args [k] a second option can be provided "-test" that will have
+     * the algorithm run in test mode.
+     */
+    public static void main(String[] args) {
+
+        String inputLocation = "UCR";
+        // =================================================================
+
+        int kValue = 1;
+        if (args.length > 0) {
+            try {
+                kValue = Integer.parseInt(args[0]);
+            } catch (NumberFormatException e) {
+                System.err.println("Argument" + args[0] + " must be a int. Using 1 instead");
+                kValue = 1;
+            }
+        }
+
+        boolean isTest = Boolean.FALSE;
+        if (args.length > 1) {
+            String testOption = args[1];
+            if (testOption.equalsIgnoreCase("-test")) {
+                isTest = Boolean.TRUE;
+            }
+        }
+
+        try {
+            execute(kValue, isTest, inputLocation);
+        } catch (IOException | NotEnoughDataException ex) {
+            LOGGER.warn(ex.getMessage());
+        }
+    }
+
+    /**
+     *
+     * @param kValue
+     * @param isTest
+     * @param inputLocation Local: "/Users/kjohnston/Google
+     * Drive/VarStarData/UCR"
+     * @throws IOException
+     * @throws NotEnoughDataException
+     */
+    public static void execute(int kValue, boolean isTest, String inputLocation)
+            throws IOException, NotEnoughDataException {
+
+        // Pull Data
+        ReadingInUCRData starLight = new ReadingInUCRData(inputLocation);
+
+        TimeDomainAttributeMaps trainingData = starLight.getTrainData("StarLightCurves");
+        TimeDomainAttributeMaps testingData = starLight.getTestData("StarLightCurves");
+
+        TrainCrossGenerator trainTest
+                = new TrainCrossGenerator(trainingData.getSetOfClasses(), RAND);
+
+        crossvalMap = trainTest.getCrossvalMap();
+
+        setOfClasses_Training = trainingData.getSetOfClasses();
+        setOfPatterns_Training = rawSeries(trainingData);
+
+        setOfClasses_Testing = testingData.getSetOfClasses();
+        setOfPatterns_Testing = rawSeries(testingData);
+
+        int windowSize = (int) Math.round(WINDOW_FRACTION
+                * setOfPatterns_Training.values().iterator().next().getDimension());
+
+        if (!isTest) {
+            trainKNN_DTW(windowSize);
+        } else {
+            testKNN_DTW(kValue, windowSize);
+        }
+    }
+
+    private static Map<Integer, RealVector> rawSeries(TimeDomainAttributeMaps data) {
+
+        Map<Integer, RealVector> setOfPatterns = new HashMap<>();
+        for (Integer idx : data.getSetOfClasses().keySet()) {
+            setOfPatterns.put(idx, new ArrayRealVector(
+                    data.getSetOfWaveforms().get(idx).getYArrayPrimitive()));
+        }
+        return setOfPatterns;
+    }
+}
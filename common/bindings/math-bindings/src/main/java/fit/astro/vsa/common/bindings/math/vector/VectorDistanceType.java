@@ -37,7 +37,11 @@ public enum VectorDistanceType {
     /**
      * Specifies the "Canberra"
      */
-    CANBERRA_DISTANCE("Canberra");
+    CANBERRA_DISTANCE("Canberra"),
+    /**
+     * Specifies the "Mutual Information"
+     */
+    MUTUAL_INFORMATION("Mutual Information");
 
 
     private final String methodLabel;
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.common.datahandling.training;
+
+import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Run the folds of a cross validation concurrently. Each fold is handed its
+ * own random stream, seeded up front in fold order, so results do not depend
+ * on how the folds are scheduled. Fold results are reduced in fold order.
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class CrossValidationExecutor {
+
+    /**
+     * Work performed on a single fold, typically: train, classify the
+     * crossval patterns, return the error matrix
+     */
+    @FunctionalInterface
+    public interface FoldEvaluation {
+
+        RealMatrix evaluate(Integer foldIdx, Random rand)
+                throws NotEnoughDataException;
+    }
+
+    private final Map<Integer, List<Integer>> crossvalMap;
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private Random rand = new Random();
+
+    /**
+     *
+     * @param crossvalMap fold index to crossval members
+     */
+    public CrossValidationExecutor(Map<Integer, List<Integer>> crossvalMap) {
+        this.crossvalMap = crossvalMap;
+    }
+
+    /**
+     * Evaluate every fold and return the mean of the fold results
+     *
+     * @param foldEvaluation
+     * @return mean error matrix over the folds
+     * @throws NotEnoughDataException
+     */
+    public RealMatrix execute(FoldEvaluation foldEvaluation)
+            throws NotEnoughDataException {
+
+        Map<Integer, RealMatrix> foldResults = executeFolds(foldEvaluation);
+
+        if (foldResults.isEmpty()) {
+            throw new NotEnoughDataException("No folds to evaluate");
+        }
+
+        RealMatrix meanResult = null;
+        for (RealMatrix foldResult : foldResults.values()) {
+            meanResult = (meanResult == null)
+                    ? foldResult.copy() : meanResult.add(foldResult);
+        }
+
+        return meanResult.scalarMultiply(1.0 / (double) foldResults.size());
+    }
+
+    /**
+     * Evaluate every fold, using a bounded pool of at most numThreads threads
+     *
+     * @param foldEvaluation
+     * @return fold index to fold result, in fold order
+     * @throws NotEnoughDataException
+     */
+    public Map<Integer, RealMatrix> executeFolds(FoldEvaluation foldEvaluation)
+            throws NotEnoughDataException {
+
+        // ============================================================
+        // Seed the fold streams in fold order
+        Map<Integer, Long> foldSeeds = new TreeMap<>();
+        for (Integer idx : new TreeMap<>(crossvalMap).keySet()) {
+            foldSeeds.put(idx, rand.nextLong());
+        }
+
+        int poolSize = Math.max(1, Math.min(numThreads, foldSeeds.size()));
+        ExecutorService executorService = Executors.newFixedThreadPool(poolSize);
+
+        try {
+            Map<Integer, Future<RealMatrix>> futures = new TreeMap<>();
+            for (Integer idx : foldSeeds.keySet()) {
+                Random foldRand = new Random(foldSeeds.get(idx));
+                futures.put(idx, executorService.submit(
+                        () -> foldEvaluation.evaluate(idx, foldRand)));
+            }
+
+            Map<Integer, RealMatrix> foldResults = new TreeMap<>();
+            for (Integer idx : futures.keySet()) {
+                foldResults.put(idx, futures.get(idx).get());
+            }
+
+            return foldResults;
+
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Cross validation interrupted", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof NotEnoughDataException) {
+                throw (NotEnoughDataException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * @param numThreads upper bound on folds run at once
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * @param rand source of the per-fold seeds
+     */
+    public void setRand(Random rand) {
+        this.rand = rand;
+    }
+
+}
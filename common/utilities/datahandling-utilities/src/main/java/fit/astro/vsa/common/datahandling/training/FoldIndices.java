@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.common.datahandling.training;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Training and crossval members of a single fold as sorted index arrays
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class FoldIndices {
+
+    private final int[] trainingIndices;
+    private final int[] crossvalIndices;
+
+    /**
+     *
+     * @param crossvalMap
+     * @param idx fold held out for crossval
+     */
+    public FoldIndices(Map<Integer, List<Integer>> crossvalMap, Integer idx) {
+
+        int sizeCrossval = crossvalMap.containsKey(idx)
+                ? crossvalMap.get(idx).size() : 0;
+        int sizeTraining = 0;
+        for (List<Integer> fold : crossvalMap.values()) {
+            sizeTraining += fold.size();
+        }
+        sizeTraining -= sizeCrossval;
+
+        this.trainingIndices = new int[sizeTraining];
+        this.crossvalIndices = new int[sizeCrossval];
+
+        int counterTraining = 0;
+        int counterCrossval = 0;
+        for (Integer jdx : crossvalMap.keySet()) {
+            if (idx.equals(jdx)) {
+                for (Integer kdx : crossvalMap.get(jdx)) {
+                    crossvalIndices[counterCrossval++] = kdx;
+                }
+            } else {
+                for (Integer kdx : crossvalMap.get(jdx)) {
+                    trainingIndices[counterTraining++] = kdx;
+                }
+            }
+        }
+
+        Arrays.sort(trainingIndices);
+        Arrays.sort(crossvalIndices);
+    }
+
+    /**
+     * @return the sorted training indices
+     */
+    public int[] getTrainingIndices() {
+        return trainingIndices;
+    }
+
+    /**
+     * @return the sorted crossval indices
+     */
+    public int[] getCrossvalIndices() {
+        return crossvalIndices;
+    }
+
+}
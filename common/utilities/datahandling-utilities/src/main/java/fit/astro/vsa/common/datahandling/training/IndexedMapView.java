@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.common.datahandling.training;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only view of a shared dataset restricted to a set of indices. Nothing
+ * is copied: lookups go straight to the backing map, the index set is a
+ * sorted int[].
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ * @param <V> pattern or label type
+ */
+public class IndexedMapView<V> extends AbstractMap<Integer, V> {
+
+    private final Map<Integer, V> backingMap;
+    private final int[] indices;
+
+    /**
+     *
+     * @param backingMap shared dataset
+     * @param indices members of the view; sorted in place
+     */
+    public IndexedMapView(Map<Integer, V> backingMap, int[] indices) {
+        this.backingMap = backingMap;
+        this.indices = indices;
+        Arrays.sort(this.indices);
+    }
+
+    @Override
+    public V get(Object key) {
+        return containsKey(key) ? backingMap.get(key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return (key instanceof Integer)
+                && Arrays.binarySearch(indices, (Integer) key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return indices.length;
+    }
+
+    @Override
+    public Set<Entry<Integer, V>> entrySet() {
+        return new AbstractSet<Entry<Integer, V>>() {
+
+            @Override
+            public Iterator<Entry<Integer, V>> iterator() {
+                return new Iterator<Entry<Integer, V>>() {
+
+                    private int position = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return position < indices.length;
+                    }
+
+                    @Override
+                    public Entry<Integer, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int idx = indices[position++];
+                        return new SimpleImmutableEntry<>(idx, backingMap.get(idx));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return indices.length;
+            }
+        };
+    }
+
+    /**
+     * @return the sorted indices of the view
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.common.datahandling.training;
+
+import fit.astro.vsa.common.datahandling.LabelHandling;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Stratified k-fold cross val: each class is shuffled on its own and dealt
+ * round robin over the folds, so every fold keeps the class proportions of
+ * the full set (to within one member per class).
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class StratifiedCrossGenerator {
+
+    private final Map<String, List<Integer>> classMembers;
+
+    private final List<Integer> trainingData;
+    private final Map<Integer, List<Integer>> crossvalMap;
+    private final Map<Integer, FoldIndices> foldIndices;
+
+    /**
+     * 5-fold cross val
+     *
+     * @param setOfClasses
+     * @param rand
+     */
+    public StratifiedCrossGenerator(
+            Map<Integer, String> setOfClasses, Random rand) {
+        this(setOfClasses, 5, rand);
+    }
+
+    /**
+     *
+     * @param setOfClasses
+     * @param numFolds
+     * @param rand
+     */
+    public StratifiedCrossGenerator(
+            Map<Integer, String> setOfClasses, int numFolds, Random rand) {
+
+        this.classMembers
+                = LabelHandling.sortIntoMaps(setOfClasses);
+
+        //=========================================================
+        // Deal each class over the folds
+        crossvalMap = new HashMap<>();
+        for (int idx = 0; idx < numFolds; idx++) {
+            crossvalMap.put(idx, new ArrayList<>());
+        }
+
+        trainingData = new ArrayList<>();
+
+        int counter = 0;
+        for (String label : new TreeMap<>(classMembers).keySet()) {
+
+            List<Integer> tempList = new ArrayList<>(classMembers.get(label));
+            Collections.shuffle(tempList, rand);
+
+            for (Integer idx : tempList) {
+                crossvalMap.get(counter % numFolds).add(idx);
+                counter++;
+            }
+
+            trainingData.addAll(tempList);
+        }
+
+        //=========================================================
+        // Index sets per fold
+        foldIndices = new HashMap<>();
+        for (Integer idx : crossvalMap.keySet()) {
+            foldIndices.put(idx, new FoldIndices(crossvalMap, idx));
+        }
+    }
+
+    public Map<String, List<Integer>> getClassMembers() {
+        return classMembers;
+    }
+
+    /**
+     * @return the crossvalMap
+     */
+    public Map<Integer, List<Integer>> getCrossvalMap() {
+        return crossvalMap;
+    }
+
+    /**
+     * @param idx fold held out for crossval
+     * @return the training and crossval indices of the fold
+     */
+    public FoldIndices getFoldIndices(Integer idx) {
+        return foldIndices.get(idx);
+    }
+
+    /**
+     * @return the trainingData
+     */
+    public List<Integer> getTrainingData() {
+        return trainingData;
+    }
+}
@@ -17,8 +17,8 @@
 
 package fit.astro.vsa.common.datahandling.training.matrix;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import fit.astro.vsa.common.datahandling.training.FoldIndices;
+import fit.astro.vsa.common.datahandling.training.IndexedMapView;
 import java.util.List;
 import java.util.Map;
 import org.apache.commons.math3.linear.RealMatrix;
@@ -47,37 +47,29 @@ public class TrainCrossMatrixData {
             Map<Integer, String> setOfClasses,
             Map<Integer, List<Integer>> crossvalMap,
             Integer idx) {
+        this(setOfPatterns, setOfClasses, new FoldIndices(crossvalMap, idx));
+    }
 
-        // Decompose the 5-Fold Crossval
-        this.setOfTrainingPatterns = new HashMap<>();
-        this.setOfTrainingClasses = new HashMap<>();
-        this.setOfCrossvalPatterns = new HashMap<>();
-        this.setOfCrossvalClasses = new HashMap<>();
-
-        List<Integer> trainingIdx = new ArrayList<>();
-        List<Integer> crossvalIdx = new ArrayList<>();
-
-        crossvalMap.keySet().stream().forEach((jdx) -> {
-            if (idx.equals(jdx)) {
-                crossvalIdx.addAll(crossvalMap.get(jdx));
-            } else {
-                trainingIdx.addAll(crossvalMap.get(jdx));
-            }
-        });
-
-        crossvalIdx.stream().map((jdx) -> {
-            setOfCrossvalPatterns.put(jdx, setOfPatterns.get(jdx));
-            return jdx;
-        }).forEach((jdx) -> {
-            setOfCrossvalClasses.put(jdx, setOfClasses.get(jdx));
-        });
-
-        trainingIdx.stream().map((jdx) -> {
-            setOfTrainingPatterns.put(jdx, setOfPatterns.get(jdx));
-            return jdx;
-        }).forEach((jdx) -> {
-            setOfTrainingClasses.put(jdx, setOfClasses.get(jdx));
-        });
+    /**
+     * Views of the shared dataset, no patterns are copied
+     *
+     * @param setOfPatterns
+     * @param setOfClasses
+     * @param foldIndices
+     */
+    public TrainCrossMatrixData(
+            Map<Integer, RealMatrix> setOfPatterns,
+            Map<Integer, String> setOfClasses,
+            FoldIndices foldIndices) {
+
+        this.setOfTrainingPatterns = new IndexedMapView<>(
+                setOfPatterns, foldIndices.getTrainingIndices());
+        this.setOfTrainingClasses = new IndexedMapView<>(
+                setOfClasses, foldIndices.getTrainingIndices());
+        this.setOfCrossvalPatterns = new IndexedMapView<>(
+                setOfPatterns, foldIndices.getCrossvalIndices());
+        this.setOfCrossvalClasses = new IndexedMapView<>(
+                setOfClasses, foldIndices.getCrossvalIndices());
     }
 
     /**
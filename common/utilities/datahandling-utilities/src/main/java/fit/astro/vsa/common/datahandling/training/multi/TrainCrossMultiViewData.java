@@ -16,8 +16,8 @@
  */
 package fit.astro.vsa.common.datahandling.training.multi;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import fit.astro.vsa.common.datahandling.training.FoldIndices;
+import fit.astro.vsa.common.datahandling.training.IndexedMapView;
 import java.util.List;
 import java.util.Map;
 import org.apache.commons.math3.linear.RealVector;
@@ -46,37 +46,29 @@ public class TrainCrossMultiViewData {
             Map<Integer, String> setOfClasses,
             Map<Integer, List<Integer>> crossvalMap,
             Integer idx) {
+        this(setOfPatterns, setOfClasses, new FoldIndices(crossvalMap, idx));
+    }
 
-        // Decompose the 5-Fold Crossval
-        this.setOfTrainingPatterns = new HashMap<>();
-        this.setOfTrainingClasses = new HashMap<>();
-        this.setOfCrossvalPatterns = new HashMap<>();
-        this.setOfCrossvalClasses = new HashMap<>();
-
-        List<Integer> trainingIdx = new ArrayList<>();
-        List<Integer> crossvalIdx = new ArrayList<>();
-
-        crossvalMap.keySet().stream().forEach((jdx) -> {
-            if (idx.equals(jdx)) {
-                crossvalIdx.addAll(crossvalMap.get(jdx));
-            } else {
-                trainingIdx.addAll(crossvalMap.get(jdx));
-            }
-        });
-
-        crossvalIdx.stream().map((jdx) -> {
-            setOfCrossvalPatterns.put(jdx, setOfPatterns.get(jdx));
-            return jdx;
-        }).forEach((jdx) -> {
-            setOfCrossvalClasses.put(jdx, setOfClasses.get(jdx));
-        });
+    /**
+     * Views of the shared dataset, no patterns are copied
+     *
+     * @param setOfPatterns
+     * @param setOfClasses
+     * @param foldIndices
+     */
+    public TrainCrossMultiViewData(
+            Map<Integer, Map<String, RealVector>> setOfPatterns,
+            Map<Integer, String> setOfClasses,
+            FoldIndices foldIndices) {
 
-        trainingIdx.stream().map((jdx) -> {
-            setOfTrainingPatterns.put(jdx, setOfPatterns.get(jdx));
-            return jdx;
-        }).forEach((jdx) -> {
-            setOfTrainingClasses.put(jdx, setOfClasses.get(jdx));
-        });
+        this.setOfTrainingPatterns = new IndexedMapView<>(
+                setOfPatterns, foldIndices.getTrainingIndices());
+        this.setOfTrainingClasses = new IndexedMapView<>(
+                setOfClasses, foldIndices.getTrainingIndices());
+        this.setOfCrossvalPatterns = new IndexedMapView<>(
+                setOfPatterns, foldIndices.getCrossvalIndices());
+        this.setOfCrossvalClasses = new IndexedMapView<>(
+                setOfClasses, foldIndices.getCrossvalIndices());
     }
 
     /**
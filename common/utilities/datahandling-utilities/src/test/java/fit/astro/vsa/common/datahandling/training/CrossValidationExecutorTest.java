@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.common.datahandling.training;
+
+import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class CrossValidationExecutorTest {
+
+    private Map<Integer, List<Integer>> crossvalMap;
+
+    @Before
+    public void setUp() {
+
+        Map<Integer, String> setOfClasses = new HashMap<>();
+        for (int idx = 0; idx < 50; idx++) {
+            setOfClasses.put(idx, (idx % 2 == 0) ? "A" : "B");
+        }
+
+        crossvalMap = new TrainCrossGenerator(setOfClasses, new Random(42L))
+                .getCrossvalMap();
+    }
+
+    @Test
+    public void testMeanOverFolds() throws NotEnoughDataException {
+
+        CrossValidationExecutor executor = new CrossValidationExecutor(crossvalMap);
+
+        RealMatrix meanSize = executor.execute((idx, rand)
+                -> MatrixUtils.createRealMatrix(new double[][]{
+                    {idx, crossvalMap.get(idx).size()}}));
+
+        double expectedIdx = 0;
+        double expectedSize = 0;
+        for (Integer idx : crossvalMap.keySet()) {
+            expectedIdx += idx / (double) crossvalMap.size();
+            expectedSize += crossvalMap.get(idx).size() / (double) crossvalMap.size();
+        }
+
+        assertEquals(expectedIdx, meanSize.getEntry(0, 0), 1e-12);
+        assertEquals(expectedSize, meanSize.getEntry(0, 1), 1e-12);
+    }
+
+    @Test
+    public void testFoldStreamsIndependentOfThreads() throws NotEnoughDataException {
+
+        List<Map<Integer, RealMatrix>> runs = new ArrayList<>();
+        for (int numThreads : new int[]{1, 5}) {
+
+            CrossValidationExecutor executor = new CrossValidationExecutor(crossvalMap);
+            executor.setNumThreads(numThreads);
+            executor.setRand(new Random(42L));
+
+            runs.add(executor.executeFolds((idx, rand)
+                    -> MatrixUtils.createRealMatrix(new double[][]{
+                        {rand.nextDouble(), rand.nextDouble()}})));
+        }
+
+        assertEquals(runs.get(0), runs.get(1));
+    }
+
+    @Test(expected = NotEnoughDataException.class)
+    public void testFoldExceptionPropagates() throws NotEnoughDataException {
+
+        CrossValidationExecutor executor = new CrossValidationExecutor(crossvalMap);
+
+        executor.execute((idx, rand) -> {
+            throw new NotEnoughDataException("Fold " + idx);
+        });
+    }
+}
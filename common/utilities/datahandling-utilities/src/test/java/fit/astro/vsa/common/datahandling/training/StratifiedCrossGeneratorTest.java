@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.common.datahandling.training;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class StratifiedCrossGeneratorTest {
+
+    private final Random RAND = new Random(42L);
+
+    private Map<Integer, RealVector> setOfPatterns;
+    private Map<Integer, String> setOfClasses;
+
+    @Before
+    public void setUp() {
+
+        setOfPatterns = new HashMap<>();
+        setOfClasses = new HashMap<>();
+
+        // 60 A, 30 B, 10 C
+        for (int idx = 0; idx < 100; idx++) {
+            setOfPatterns.put(idx, new ArrayRealVector(new double[]{idx, -idx}));
+            setOfClasses.put(idx, idx < 60 ? "A" : (idx < 90 ? "B" : "C"));
+        }
+    }
+
+    @Test
+    public void testFoldsAreStratified() {
+
+        StratifiedCrossGenerator generator
+                = new StratifiedCrossGenerator(setOfClasses, RAND);
+
+        assertEquals(5, generator.getCrossvalMap().size());
+
+        Set<Integer> seen = new HashSet<>();
+        for (List<Integer> fold : generator.getCrossvalMap().values()) {
+
+            assertEquals(20, fold.size());
+
+            Map<String, Integer> counts = new HashMap<>();
+            for (Integer idx : fold) {
+                assertTrue(seen.add(idx));
+                counts.merge(setOfClasses.get(idx), 1, Integer::sum);
+            }
+
+            assertEquals(12, counts.get("A"), 1);
+            assertEquals(6, counts.get("B"), 1);
+            assertEquals(2, counts.get("C"), 1);
+        }
+
+        assertEquals(setOfClasses.keySet(), seen);
+    }
+
+    @Test
+    public void testFoldViews() {
+
+        StratifiedCrossGenerator generator
+                = new StratifiedCrossGenerator(setOfClasses, RAND);
+
+        for (Integer idx : generator.getCrossvalMap().keySet()) {
+
+            TrainCrossData tcd = new TrainCrossData(setOfPatterns, setOfClasses,
+                    generator.getFoldIndices(idx));
+
+            Set<Integer> crossval = new HashSet<>(generator.getCrossvalMap().get(idx));
+
+            assertEquals(crossval, tcd.getSetOfCrossvalPatterns().keySet());
+            assertEquals(100 - crossval.size(), tcd.getSetOfTrainingPatterns().size());
+
+            for (Integer jdx : setOfPatterns.keySet()) {
+                boolean isCrossval = crossval.contains(jdx);
+
+                assertEquals(isCrossval, tcd.getSetOfCrossvalClasses().containsKey(jdx));
+                assertEquals(!isCrossval, tcd.getSetOfTrainingClasses().containsKey(jdx));
+
+                Map<Integer, RealVector> view = isCrossval
+                        ? tcd.getSetOfCrossvalPatterns()
+                        : tcd.getSetOfTrainingPatterns();
+                assertSame(setOfPatterns.get(jdx), view.get(jdx));
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Read access to a symmetric pairwise distance matrix with a zero diagonal,
+ * in memory or on disk
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public interface DistanceMatrix {
+
+    /**
+     *
+     * @param row
+     * @param column
+     * @return d(row, column), zero on the diagonal
+     */
+    double getEntry(int row, int column);
+
+    /**
+     * @return number of observations n
+     */
+    int getDimension();
+
+    /**
+     * Full row of the symmetric matrix
+     *
+     * @param row
+     * @return
+     */
+    default double[] getRow(int row) {
+
+        double[] distances = new double[getDimension()];
+        for (int column = 0; column < distances.length; column++) {
+            distances[column] = getEntry(row, column);
+        }
+        return distances;
+    }
+
+    /**
+     * @return the full n x n matrix
+     */
+    default RealMatrix toRealMatrix() {
+
+        int dimension = getDimension();
+        double[][] data = new double[dimension][dimension];
+        for (int row = 0; row < dimension; row++) {
+            for (int column = row + 1; column < dimension; column++) {
+                double distance = getEntry(row, column);
+                data[row][column] = distance;
+                data[column][row] = distance;
+            }
+        }
+        return new Array2DRowRealMatrix(data, false);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml;
+
+import fit.astro.vsa.common.bindings.math.vector.VectorDistanceType;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import org.apache.commons.math3.linear.RealVector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pairwise distances on local disk, keyed by a hash of the dataset, the view
+ * and the metric. A matrix is computed once, written in packed triangular
+ * form and memory mapped read only afterwards, so repeated experiments, and
+ * several processes on one machine, share the same pages instead of
+ * recomputing the O(n^2 d) step.
+ * <p>
+ * Files are written to a temporary name and moved into place atomically, so
+ * a reader never maps a partial file.
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class DistanceMatrixCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DistanceMatrixCache.class);
+
+    private static final int MAGIC = 0x56534144;
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * magic, version, n, bytes per entry, number of entries
+     */
+    private static final int HEADER_BYTES = 24;
+
+    /**
+     * Mapped in pieces, a single mapping is limited to 2 GB
+     */
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private final File cacheDirectory;
+
+    /**
+     *
+     * @param cacheDirectory where the distance files are kept
+     */
+    public DistanceMatrixCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Double precision distances
+     *
+     * @param observations the dataset
+     * @param view name of the view the observations come from
+     * @param distanceMetricType
+     * @return
+     * @throws IOException
+     */
+    public DistanceMatrix getDistances(List<RealVector> observations, String view,
+            VectorDistanceType distanceMetricType) throws IOException {
+        return getDistances(observations, view, distanceMetricType, false);
+    }
+
+    /**
+     *
+     * @param observations the dataset
+     * @param view name of the view the observations come from
+     * @param distanceMetricType
+     * @param isSinglePrecision store as float, half the disk and memory
+     * @return mapped distances, computed and written first on a miss
+     * @throws IOException
+     */
+    public DistanceMatrix getDistances(List<RealVector> observations, String view,
+            VectorDistanceType distanceMetricType, boolean isSinglePrecision)
+            throws IOException {
+
+        File cacheFile = getCacheFile(observations, view, distanceMetricType,
+                isSinglePrecision);
+
+        if (cacheFile.isFile()) {
+            DistanceMatrix distances = map(cacheFile, observations.size(),
+                    isSinglePrecision);
+            if (distances != null) {
+                return distances;
+            }
+            LOGGER.warn("Stale distance cache " + cacheFile + ", recomputing");
+        }
+
+        PackedDistanceMatrix distances = new PairWiseDistances(observations)
+                .generatePackedDistances(distanceMetricType, isSinglePrecision);
+
+        write(distances, cacheFile);
+
+        return map(cacheFile, observations.size(), isSinglePrecision);
+    }
+
+    /**
+     *
+     * @param observations the dataset
+     * @param view name of the view the observations come from
+     * @param distanceMetricType
+     * @param isSinglePrecision
+     * @return the file the distances are kept in
+     */
+    public File getCacheFile(List<RealVector> observations, String view,
+            VectorDistanceType distanceMetricType, boolean isSinglePrecision) {
+
+        String name = (view + "-" + distanceMetricType.getMethodLabel())
+                .replaceAll("[^A-Za-z0-9_.-]", "_")
+                + "-" + datasetHash(observations)
+                + (isSinglePrecision ? ".f32" : ".f64");
+
+        return new File(cacheDirectory, name);
+    }
+
+    /**
+     * SHA-256 over the number, the dimension and the values of the
+     * observations, in list order
+     *
+     * @param observations
+     * @return hex digest
+     */
+    public static String datasetHash(List<RealVector> observations) {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        buffer.putLong(observations.size());
+        digest.update(buffer.array());
+
+        for (RealVector observation : observations) {
+            double[] values = observation.toArray();
+
+            ByteBuffer valueBuffer = ByteBuffer.allocate(
+                    Integer.BYTES + values.length * Double.BYTES);
+            valueBuffer.putInt(values.length);
+            valueBuffer.asDoubleBuffer().put(values);
+            digest.update(valueBuffer.array());
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte value : digest.digest()) {
+            hex.append(String.format("%02x", value));
+        }
+        return hex.toString();
+    }
+
+    // ================================================================
+    // File Handling
+    private void write(PackedDistanceMatrix distances, File cacheFile)
+            throws IOException {
+
+        Files.createDirectories(cacheDirectory.toPath());
+        Path temporary = Files.createTempFile(cacheDirectory.toPath(),
+                cacheFile.getName(), ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temporary,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC);
+                header.putInt(FILE_VERSION);
+                header.putInt(distances.getDimension());
+                header.putInt(distances.isSinglePrecision() ? Float.BYTES : Double.BYTES);
+                header.putLong(PackedDistanceMatrix.packedSize(distances.getDimension()));
+                header = ByteBuffer.wrap(header.array());
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+
+                distances.write(channel);
+                channel.force(true);
+            }
+
+            Files.move(temporary, cacheFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @return the mapped matrix, null if the file does not match
+     */
+    private static DistanceMatrix map(File cacheFile, int dimension,
+            boolean isSinglePrecision) throws IOException {
+
+        int bytesPerEntry = isSinglePrecision ? Float.BYTES : Double.BYTES;
+        long size = PackedDistanceMatrix.packedSize(dimension);
+
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(),
+                StandardOpenOption.READ)) {
+
+            long fileBytes = channel.size();
+            if (fileBytes != HEADER_BYTES + size * bytesPerEntry) {
+                return null;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the full header
+            }
+            header = ByteBuffer.wrap(header.array());
+            if (header.getInt() != MAGIC || header.getInt() != FILE_VERSION
+                    || header.getInt() != dimension || header.getInt() != bytesPerEntry
+                    || header.getLong() != size) {
+                return null;
+            }
+
+            // The mappings stay valid once the channel is closed
+            int numSegments = (int) ((fileBytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+            MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+            for (int idx = 0; idx < numSegments; idx++) {
+                long start = idx * SEGMENT_BYTES;
+                segments[idx] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_BYTES, fileBytes - start));
+            }
+
+            return new MappedDistanceMatrix(dimension, isSinglePrecision, segments);
+        }
+    }
+
+    /**
+     * Read only view of a mapped cache file
+     */
+    private static class MappedDistanceMatrix implements DistanceMatrix {
+
+        private final int dimension;
+        private final boolean isSinglePrecision;
+        private final MappedByteBuffer[] segments;
+
+        MappedDistanceMatrix(int dimension, boolean isSinglePrecision,
+                MappedByteBuffer[] segments) {
+            this.dimension = dimension;
+            this.isSinglePrecision = isSinglePrecision;
+            this.segments = segments;
+        }
+
+        @Override
+        public double getEntry(int row, int column) {
+
+            if (row == column) {
+                return 0.0;
+            }
+
+            long index = PackedDistanceMatrix.packedIndex(dimension, row, column);
+            long offset = HEADER_BYTES + index * (isSinglePrecision ? Float.BYTES : Double.BYTES);
+
+            // Segments are a multiple of the entry size, entries never straddle
+            MappedByteBuffer segment = segments[(int) (offset / SEGMENT_BYTES)];
+            int position = (int) (offset % SEGMENT_BYTES);
+
+            return isSinglePrecision ? segment.getFloat(position) : segment.getDouble(position);
+        }
+
+        @Override
+        public int getDimension() {
+            return dimension;
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml;
+
+import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric;
+import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric_MV;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Multi-view distance as a single kernel over primitive arrays: patterns are
+ * flattened once (one double[] per view, matrices row major), the views are
+ * evaluated cheapest first into a primitive accumulator, and the evaluation
+ * is abandoned once the partial sum passes the caller's bound (the current
+ * k-th neighbor). Per view terms are summed in the original view order, so a
+ * distance that is not abandoned matches the unfused one.
+ * <p>
+ * Abandoning needs every term to be non-negative; it is switched off if a
+ * weight is negative or a metric is not PSD.
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class FusedMultiViewDistance {
+
+    /**
+     * Relative slack on the bound for round off
+     */
+    private static final double SLACK = 1e-12;
+
+    private static final double PSD_TOLERANCE = 1e-10;
+
+    // ============================================
+    // Views, in the order of the metric map
+    private final List<String> views;
+    private final double[] weights;
+    private final int[] rows;
+    private final int[] columns;
+
+    // M_k (vectors) or V_k (matrices) row major, null for the identity
+    private final double[][] leftMetric;
+    // U_k (matrices only) row major, null for the identity
+    private final double[][] rightMetric;
+
+    // sqrt of the quadratic term, as ||delta|| / frobenius
+    private final boolean isNorm;
+    private final double scale;
+
+    private final int[] costOrder;
+    private final boolean canAbandon;
+
+    private final ThreadLocal<double[]> workspace;
+
+    private FusedMultiViewDistance(List<String> views, double[] weights, int[] rows,
+            int[] columns, double[][] leftMetric, double[][] rightMetric,
+            boolean isNorm, double scale) {
+
+        this.views = views;
+        this.weights = weights;
+        this.rows = rows;
+        this.columns = columns;
+        this.leftMetric = leftMetric;
+        this.rightMetric = rightMetric;
+        this.isNorm = isNorm;
+        this.scale = scale;
+
+        int numViews = views.size();
+        long[] cost = new long[numViews];
+        boolean isNonNegative = scale >= 0.0;
+        int workspaceSize = numViews;
+        for (int vdx = 0; vdx < numViews; vdx++) {
+            long size = (long) rows[vdx] * columns[vdx];
+            cost[vdx] = size
+                    + ((leftMetric[vdx] == null) ? 0 : (long) rows[vdx] * size)
+                    + ((rightMetric[vdx] == null) ? 0 : (long) columns[vdx] * size);
+
+            isNonNegative = isNonNegative && weights[vdx] >= 0.0
+                    && isPSD(leftMetric[vdx], rows[vdx])
+                    && isPSD(rightMetric[vdx], columns[vdx]);
+
+            workspaceSize = Math.max(workspaceSize, numViews
+                    + 2 * rows[vdx] * columns[vdx] + columns[vdx]);
+        }
+
+        // Cheapest views first, the expensive ones are the ones worth skipping
+        this.costOrder = IntStream.range(0, numViews).boxed()
+                .sorted(Comparator.comparingLong((vdx) -> cost[vdx]))
+                .mapToInt(Integer::intValue).toArray();
+        this.canAbandon = isNonNegative;
+
+        int size = workspaceSize;
+        this.workspace = ThreadLocal.withInitial(() -> new double[size]);
+    }
+
+    // ================================================================
+    // Construction
+    /**
+     * sum_k w_k (x_i - x_j)'M_k(x_i - x_j)
+     *
+     * @param multiMatrix
+     * @return
+     */
+    public static FusedMultiViewDistance vectorMetric(
+            Map<String, MultiViewMetric> multiMatrix) {
+
+        int numViews = multiMatrix.size();
+        List<String> views = new ArrayList<>(multiMatrix.keySet());
+        double[] weights = new double[numViews];
+        int[] rows = new int[numViews];
+        int[] columns = new int[numViews];
+        double[][] leftMetric = new double[numViews][];
+
+        for (int vdx = 0; vdx < numViews; vdx++) {
+            MultiViewMetric metric = multiMatrix.get(views.get(vdx));
+            weights[vdx] = metric.getWeight();
+            rows[vdx] = metric.getMk().getRowDimension();
+            columns[vdx] = 1;
+            leftMetric[vdx] = flattenMetric(metric.getMk());
+        }
+
+        return new FusedMultiViewDistance(views, weights, rows, columns,
+                leftMetric, new double[numViews][], false, 1.0);
+    }
+
+    /**
+     * sum_k w_k tr{U_k*(x_i - x_j)'*V_k*(x_i - x_j)}
+     *
+     * @param multiMatrix
+     * @return
+     */
+    public static FusedMultiViewDistance matrixMetric(
+            Map<String, MultiViewMetric_MV> multiMatrix) {
+
+        int numViews = multiMatrix.size();
+        List<String> views = new ArrayList<>(multiMatrix.keySet());
+        double[] weights = new double[numViews];
+        int[] rows = new int[numViews];
+        int[] columns = new int[numViews];
+        double[][] leftMetric = new double[numViews][];
+        double[][] rightMetric = new double[numViews][];
+
+        for (int vdx = 0; vdx < numViews; vdx++) {
+            MultiViewMetric_MV metric = multiMatrix.get(views.get(vdx));
+            weights[vdx] = metric.getWeight();
+            rows[vdx] = metric.getVk().getRowDimension();
+            columns[vdx] = metric.getUk().getRowDimension();
+            leftMetric[vdx] = flattenMetric(metric.getVk());
+            rightMetric[vdx] = flattenMetric(metric.getUk());
+        }
+
+        return new FusedMultiViewDistance(views, weights, rows, columns,
+                leftMetric, rightMetric, false, 1.0);
+    }
+
+    /**
+     * sum_k ||x_i - x_j|| / K, Euclidean for vectors, Frobenius for matrices
+     *
+     * @param views view names, in summation order
+     * @param viewSizes number of elements of each view
+     * @return
+     */
+    public static FusedMultiViewDistance euclidean(List<String> views,
+            int[] viewSizes) {
+
+        int numViews = views.size();
+        double[] weights = new double[numViews];
+        int[] columns = new int[numViews];
+        for (int vdx = 0; vdx < numViews; vdx++) {
+            weights[vdx] = 1.0;
+            columns[vdx] = 1;
+        }
+
+        return new FusedMultiViewDistance(new ArrayList<>(views), weights,
+                viewSizes.clone(), columns, new double[numViews][],
+                new double[numViews][], true, 1.0 / (double) numViews);
+    }
+
+    /**
+     * Row major, null for the identity
+     */
+    private static double[] flattenMetric(RealMatrix metric) {
+
+        int dimension = metric.getRowDimension();
+        double[] flat = new double[dimension * metric.getColumnDimension()];
+        boolean isIdentity = metric.getColumnDimension() == dimension;
+
+        for (int idx = 0; idx < dimension; idx++) {
+            double[] row = metric.getRow(idx);
+            System.arraycopy(row, 0, flat, idx * row.length, row.length);
+            for (int jdx = 0; jdx < row.length; jdx++) {
+                isIdentity = isIdentity && row[jdx] == ((idx == jdx) ? 1.0 : 0.0);
+            }
+        }
+
+        return isIdentity ? null : flat;
+    }
+
+    private static boolean isPSD(double[] metric, int dimension) {
+
+        if (metric == null) {
+            return true;
+        }
+
+        double[][] symmetric = new double[dimension][dimension];
+        for (int idx = 0; idx < dimension; idx++) {
+            for (int jdx = 0; jdx < dimension; jdx++) {
+                symmetric[idx][jdx] = 0.5 * (metric[idx * dimension + jdx]
+                        + metric[jdx * dimension + idx]);
+            }
+        }
+
+        double[] eigenValues = new EigenDecomposition(
+                new Array2DRowRealMatrix(symmetric, false)).getRealEigenvalues();
+
+        double largest = 0.0;
+        double smallest = Double.POSITIVE_INFINITY;
+        for (double eigenValue : eigenValues) {
+            largest = Math.max(largest, Math.abs(eigenValue));
+            smallest = Math.min(smallest, eigenValue);
+        }
+        return smallest >= -PSD_TOLERANCE * Math.max(largest, 1.0);
+    }
+
+    // ================================================================
+    // Flattening
+    /**
+     *
+     * @param pattern
+     * @return one array per view, in this kernel's view order
+     */
+    public double[][] flattenVectors(Map<String, RealVector> pattern) {
+
+        double[][] flat = new double[views.size()][];
+        for (int vdx = 0; vdx < views.size(); vdx++) {
+            flat[vdx] = pattern.get(views.get(vdx)).toArray();
+        }
+        return flat;
+    }
+
+    /**
+     *
+     * @param pattern
+     * @return one row major array per view, in this kernel's view order
+     */
+    public double[][] flattenMatrices(Map<String, RealMatrix> pattern) {
+
+        double[][] flat = new double[views.size()][];
+        for (int vdx = 0; vdx < views.size(); vdx++) {
+            flat[vdx] = flattenMatrix(pattern.get(views.get(vdx)));
+        }
+        return flat;
+    }
+
+    /**
+     * @param matrix
+     * @return row major copy
+     */
+    public static double[] flattenMatrix(RealMatrix matrix) {
+
+        int numColumns = matrix.getColumnDimension();
+        double[] flat = new double[matrix.getRowDimension() * numColumns];
+        for (int idx = 0; idx < matrix.getRowDimension(); idx++) {
+            System.arraycopy(matrix.getRow(idx), 0, flat, idx * numColumns, numColumns);
+        }
+        return flat;
+    }
+
+    // ================================================================
+    // Distance
+    /**
+     *
+     * @param x_i flattened pattern
+     * @param x_j flattened pattern
+     * @return
+     */
+    public double distance(double[][] x_i, double[][] x_j) {
+        return distance(x_i, x_j, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     *
+     * @param x_i flattened pattern
+     * @param x_j flattened pattern
+     * @param bound the distance to beat, e.g. the current k-th neighbor
+     * @return the distance, infinite if it can not be within the bound
+     */
+    public double distance(double[][] x_i, double[][] x_j, double bound) {
+
+        int numViews = views.size();
+        double[] work = workspace.get();
+        double threshold = bound + SLACK * Math.abs(bound);
+
+        // Terms in work[0, K), cheapest first
+        double partial = 0.0;
+        for (int vdx : costOrder) {
+            double term = viewTerm(vdx, x_i[vdx], x_j[vdx], work, numViews);
+            work[vdx] = term;
+
+            partial += term;
+            if (canAbandon && partial * scale > threshold) {
+                return Double.POSITIVE_INFINITY;
+            }
+        }
+
+        double distance = 0.0;
+        for (int vdx = 0; vdx < numViews; vdx++) {
+            distance += work[vdx];
+        }
+        return isNorm ? distance / (double) numViews : distance;
+    }
+
+    private double viewTerm(int vdx, double[] x_i, double[] x_j, double[] work,
+            int offset) {
+
+        int numRows = rows[vdx];
+        int numColumns = columns[vdx];
+        int size = x_i.length;
+        double[] left = leftMetric[vdx];
+        double[] right = rightMetric[vdx];
+
+        // delta in work[offset, offset + size)
+        for (int idx = 0; idx < size; idx++) {
+            work[offset + idx] = x_i[idx] - x_j[idx];
+        }
+
+        double quadratic = 0.0;
+        if (left == null && right == null) {
+            for (int idx = 0; idx < size; idx++) {
+                double delta = work[offset + idx];
+                quadratic += delta * delta;
+            }
+        } else if (numColumns == 1) {
+            // delta'M delta, same order as dotProduct(operate)
+            for (int idx = 0; idx < numRows; idx++) {
+                double row = 0.0;
+                int rowOffset = idx * numRows;
+                for (int jdx = 0; jdx < numRows; jdx++) {
+                    row += left[rowOffset + jdx] * work[offset + jdx];
+                }
+                quadratic += work[offset + idx] * row;
+            }
+        } else {
+            quadratic = traceTerm(left, right, numRows, numColumns, work, offset);
+        }
+
+        if (isNorm) {
+            return Math.sqrt(quadratic);
+        }
+        return weights[vdx] * quadratic;
+    }
+
+    /**
+     * tr{U delta' V delta} = sum_rc delta_rc (V delta U)_rc
+     */
+    private static double traceTerm(double[] left, double[] right, int numRows,
+            int numColumns, double[] work, int offset) {
+
+        int size = numRows * numColumns;
+        int product = offset + size;
+        int rowBuffer = product + size;
+
+        // V delta
+        if (left == null) {
+            System.arraycopy(work, offset, work, product, size);
+        } else {
+            for (int idx = 0; idx < numRows; idx++) {
+                for (int cdx = 0; cdx < numColumns; cdx++) {
+                    double sum = 0.0;
+                    for (int sdx = 0; sdx < numRows; sdx++) {
+                        sum += left[idx * numRows + sdx]
+                                * work[offset + sdx * numColumns + cdx];
+                    }
+                    work[product + idx * numColumns + cdx] = sum;
+                }
+            }
+        }
+
+        double trace = 0.0;
+        for (int idx = 0; idx < numRows; idx++) {
+
+            // Row of (V delta) U
+            int rowStart = product + idx * numColumns;
+            if (right == null) {
+                System.arraycopy(work, rowStart, work, rowBuffer, numColumns);
+            } else {
+                for (int cdx = 0; cdx < numColumns; cdx++) {
+                    double sum = 0.0;
+                    for (int bdx = 0; bdx < numColumns; bdx++) {
+                        sum += work[rowStart + bdx] * right[bdx * numColumns + cdx];
+                    }
+                    work[rowBuffer + cdx] = sum;
+                }
+            }
+
+            for (int cdx = 0; cdx < numColumns; cdx++) {
+                trace += work[offset + idx * numColumns + cdx] * work[rowBuffer + cdx];
+            }
+        }
+
+        return trace;
+    }
+
+    /**
+     * @return view names, in the order of the flattened patterns
+     */
+    public List<String> getViews() {
+        return views;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml;
+
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.apache.commons.math3.linear.CholeskyDecomposition;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.NonPositiveDefiniteMatrixException;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Factor a PSD metric M = L'L once, then (x_i - x_j)'M(x_i - x_j) =
+ * ||L x_i - L x_j||^2. Cholesky when M is positive definite, otherwise the
+ * eigen square root with negative eigenvalues clipped (as ProjectMToPSD).
+ *
+ * @author Kyle Johnston
+ */
+public class MetricTransform {
+
+    private final RealMatrix transformMatrix;
+
+    /**
+     *
+     * @param metricMatrix learned PSD metric M
+     */
+    public MetricTransform(RealMatrix metricMatrix) {
+
+        // Learned metrics are only symmetric up to round off
+        RealMatrix symmetricMatrix = metricMatrix.add(metricMatrix.transpose())
+                .scalarMultiply(0.5);
+
+        RealMatrix factor;
+        try {
+            factor = new CholeskyDecomposition(symmetricMatrix).getLT();
+        } catch (NonPositiveDefiniteMatrixException ex) {
+            factor = eigenSquareRoot(symmetricMatrix);
+        }
+
+        this.transformMatrix = factor;
+    }
+
+    /**
+     * L = sqrt(max(D, 0)) V'
+     *
+     * @param metricMatrix
+     * @return
+     */
+    private static RealMatrix eigenSquareRoot(RealMatrix metricMatrix) {
+
+        EigenDecomposition eigenDecomposition = new EigenDecomposition(metricMatrix);
+
+        double[] eigenValues = eigenDecomposition.getRealEigenvalues();
+        double[] rootValues = new double[eigenValues.length];
+        for (int idx = 0; idx < eigenValues.length; idx++) {
+            rootValues[idx] = Math.sqrt(Math.max(eigenValues[idx], 0.0));
+        }
+
+        return MatrixUtils.createRealDiagonalMatrix(rootValues)
+                .multiply(eigenDecomposition.getVT());
+    }
+
+    /**
+     * L x
+     *
+     * @param x_i
+     * @return
+     */
+    public RealVector transform(RealVector x_i) {
+        return transformMatrix.operate(x_i);
+    }
+
+    /**
+     * L x for every pattern in the set
+     *
+     * @param mapOfPatterns
+     * @return
+     */
+    public Map<Integer, RealVector> transform(Map<Integer, RealVector> mapOfPatterns) {
+        return mapOfPatterns.keySet().parallelStream()
+                .collect(Collectors.toMap(Function.identity(),
+                        (idx) -> transformMatrix.operate(mapOfPatterns.get(idx))));
+    }
+
+    /**
+     * @return L
+     */
+    public RealMatrix getTransformMatrix() {
+        return transformMatrix;
+    }
+}
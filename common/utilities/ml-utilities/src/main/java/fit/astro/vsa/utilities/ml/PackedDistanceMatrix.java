@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Symmetric distance matrix with a zero diagonal, only the strict upper
+ * triangle is stored, row by row: n(n-1)/2 entries instead of n^2, in double
+ * or float precision.
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class PackedDistanceMatrix implements DistanceMatrix {
+
+    private final int dimension;
+    private final double[] doubleData;
+    private final float[] floatData;
+
+    /**
+     *
+     * @param dimension number of observations n
+     * @param isSinglePrecision store as float
+     */
+    public PackedDistanceMatrix(int dimension, boolean isSinglePrecision) {
+
+        long size = packedSize(dimension);
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Packed distance matrix of "
+                    + dimension + " observations exceeds the maximum array size");
+        }
+
+        this.dimension = dimension;
+        this.doubleData = isSinglePrecision ? null : new double[(int) size];
+        this.floatData = isSinglePrecision ? new float[(int) size] : null;
+    }
+
+    /**
+     * @param dimension
+     * @return n(n-1)/2
+     */
+    public static long packedSize(int dimension) {
+        return (long) dimension * (dimension - 1) / 2;
+    }
+
+    /**
+     * Position of (row, column), row != column, in the packed order
+     *
+     * @param dimension number of observations n
+     * @param row
+     * @param column
+     * @return
+     */
+    public static long packedIndex(int dimension, int row, int column) {
+        if (row > column) {
+            return packedIndex(dimension, column, row);
+        }
+        return (long) row * (2L * dimension - row - 1) / 2 + (column - row - 1);
+    }
+
+    /**
+     * Row of a packed index, inverse of packedIndex
+     *
+     * @param dimension number of observations n
+     * @param index in the packed order
+     * @return
+     */
+    public static int packedRow(int dimension, long index) {
+
+        double b = 2.0 * dimension - 1.0;
+        int row = (int) Math.floor((b - Math.sqrt(b * b - 8.0 * index)) / 2.0);
+
+        // Rounding of the square root
+        row = Math.max(0, Math.min(dimension - 2, row));
+        while (row > 0 && rowStart(dimension, row) > index) {
+            row--;
+        }
+        while (row < dimension - 2 && rowStart(dimension, row + 1) <= index) {
+            row++;
+        }
+        return row;
+    }
+
+    /**
+     * Column of a packed index, inverse of packedIndex
+     *
+     * @param dimension number of observations n
+     * @param row packedRow of the index
+     * @param index in the packed order
+     * @return
+     */
+    public static int packedColumn(int dimension, int row, long index) {
+        return (int) (index - rowStart(dimension, row)) + row + 1;
+    }
+
+    private static long rowStart(int dimension, int row) {
+        return (long) row * (2L * dimension - row - 1) / 2;
+    }
+
+    private int index(int row, int column) {
+        return (int) packedIndex(dimension, row, column);
+    }
+
+    /**
+     *
+     * @param row
+     * @param column
+     * @return d(row, column), zero on the diagonal
+     */
+    @Override
+    public double getEntry(int row, int column) {
+
+        if (row == column) {
+            return 0.0;
+        }
+        int index = index(row, column);
+        return (doubleData != null) ? doubleData[index] : floatData[index];
+    }
+
+    /**
+     *
+     * @param row
+     * @param column must differ from row
+     * @param distance
+     */
+    public void setEntry(int row, int column, double distance) {
+
+        int index = index(row, column);
+        if (doubleData != null) {
+            doubleData[index] = distance;
+        } else {
+            floatData[index] = (float) distance;
+        }
+    }
+
+    @Override
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Write the packed entries, big endian, in packed order
+     *
+     * @param channel
+     * @throws IOException
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+
+        int size = (doubleData != null) ? doubleData.length : floatData.length;
+        int bytesPerEntry = (doubleData != null) ? Double.BYTES : Float.BYTES;
+        int chunk = 1 << 16;
+
+        byte[] bytes = new byte[chunk * bytesPerEntry];
+        for (int start = 0; start < size; start += chunk) {
+            int end = Math.min(size, start + chunk);
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, (end - start) * bytesPerEntry);
+            if (doubleData != null) {
+                buffer.asDoubleBuffer().put(doubleData, start, end - start);
+            } else {
+                buffer.asFloatBuffer().put(floatData, start, end - start);
+            }
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return true if stored as float
+     */
+    public boolean isSinglePrecision() {
+        return floatData != null;
+    }
+}
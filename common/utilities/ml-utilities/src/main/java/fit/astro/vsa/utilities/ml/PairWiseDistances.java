@@ -17,10 +17,10 @@
 package fit.astro.vsa.utilities.ml;
 
 import fit.astro.vsa.common.bindings.math.vector.VectorDistanceType;
+import fit.astro.vsa.utilities.ml.distance.MutualInformationDistance;
 import fit.astro.vsa.utilities.ml.distance.PearsonDistance;
 import java.util.List;
 import java.util.stream.IntStream;
-import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.ml.distance.CanberraDistance;
@@ -38,9 +38,19 @@ public class PairWiseDistances {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PairWiseDistances.class);
 
+    /**
+     * Rows per parallel task
+     */
+    private static final int BLOCK_ROWS = 32;
+
+    /**
+     * Samples per joint histogram cell aimed for when choosing nBins
+     */
+    private static final int SAMPLES_PER_CELL = 5;
+
     // ======== Input
-    private final List<RealVector> inputObservations;
-    
+    private final double[][] observations;
+
     // ======== Internal
     private final int[] nBins;
 
@@ -49,7 +59,11 @@ public class PairWiseDistances {
      * @param inputObservations
      */
     public PairWiseDistances(List<RealVector> inputObservations) {
-        this.inputObservations = inputObservations;
+        // Primitive copies once, not per pair
+        this.observations = new double[inputObservations.size()][];
+        for (int idx = 0; idx < observations.length; idx++) {
+            observations[idx] = inputObservations.get(idx).toArray();
+        }
 
         // Mutual information distance.
         this.nBins = new int[29];
@@ -69,25 +83,18 @@ public class PairWiseDistances {
     public RealMatrix generateDistances(
             VectorDistanceType distanceMetricType) {
 
-        RealMatrix distanceMatrix = MatrixUtils.createRealMatrix(
-                inputObservations.size(), inputObservations.size());
+        PackedDistanceMatrix distanceMatrix = new PackedDistanceMatrix(
+                observations.length, false);
 
         /**
          * Upper Triangular Distance Matrix
          */
-        for (int i = 0; i < inputObservations.size(); i++) {
-            RealVector prime = inputObservations.get(i);
-            for (int j = i + 1; j < inputObservations.size(); j++) {
-
-                distanceMatrix.setEntry(i, j,
-                        estimateDistance(prime,
-                                inputObservations.get(j),
-                                distanceMetricType));
-            }
-
+        DistanceMeasure distMeasure = createDistanceMeasure(distanceMetricType);
+        for (int i = 0; i < observations.length; i++) {
+            fillRow(distanceMatrix, i, distMeasure);
         }
-        //
-        return distanceMatrix.add(distanceMatrix.transpose());
+
+        return distanceMatrix.toRealMatrix();
     }
 
     /**
@@ -99,52 +106,72 @@ public class PairWiseDistances {
     public RealMatrix generateDistancesParallel(
             VectorDistanceType distanceMetricType) {
 
-        RealMatrix distanceMatrix = MatrixUtils.createRealMatrix(
-                inputObservations.size(), inputObservations.size());
+        return generatePackedDistances(distanceMetricType, false).toRealMatrix();
+    }
 
-        /**
-         * Upper Triangular Distance Matrix
-         */
-        IntStream.range(0, inputObservations.size()).parallel().forEach(idx -> {
-            RealVector prime = inputObservations.get(idx);
+    /**
+     * Upper triangle only, computed in parallel blocks of rows with one
+     * distance measure per thread
+     *
+     * @param distanceMetricType
+     * @param isSinglePrecision store as float, half the memory
+     * <p>
+     * @return
+     */
+    public PackedDistanceMatrix generatePackedDistances(
+            VectorDistanceType distanceMetricType, boolean isSinglePrecision) {
 
-            for (int j = idx + 1; j < inputObservations.size(); j++) {
-                distanceMatrix.setEntry(idx, j,
-                        estimateDistance(prime, inputObservations.get(j),
-                                distanceMetricType));
-            }
+        PackedDistanceMatrix distanceMatrix = new PackedDistanceMatrix(
+                observations.length, isSinglePrecision);
+
+        // Fail on an unsupported type before starting any threads
+        createDistanceMeasure(distanceMetricType);
+        ThreadLocal<DistanceMeasure> distMeasure = ThreadLocal.withInitial(
+                () -> createDistanceMeasure(distanceMetricType));
+
+        int numBlocks = (observations.length + BLOCK_ROWS - 1) / BLOCK_ROWS;
 
+        IntStream.range(0, numBlocks).parallel().forEach(block -> {
+            DistanceMeasure measure = distMeasure.get();
+
+            int end = Math.min(observations.length, (block + 1) * BLOCK_ROWS);
+            for (int idx = block * BLOCK_ROWS; idx < end; idx++) {
+                fillRow(distanceMatrix, idx, measure);
+            }
         });
 
-        return distanceMatrix.add(distanceMatrix.transpose());
+        return distanceMatrix;
+    }
+
+    private void fillRow(PackedDistanceMatrix distanceMatrix, int row,
+            DistanceMeasure distMeasure) {
+
+        double[] prime = observations[row];
+        for (int j = row + 1; j < observations.length; j++) {
+            distanceMatrix.setEntry(row, j,
+                    distMeasure.compute(prime, observations[j]));
+        }
     }
 
     /**
      *
-     * @param prime
-     * @param other
      * @param distanceMetricType
      * @return
      */
-    private double estimateDistance(RealVector prime, RealVector other,
-            VectorDistanceType distanceMetricType) {
-        double distance;
-        DistanceMeasure distMeasure;
-        
+    private DistanceMeasure createDistanceMeasure(VectorDistanceType distanceMetricType) {
+
         switch (distanceMetricType) {
-            
+
             case CANBERRA_DISTANCE:
-                distMeasure = new CanberraDistance();
-                break;
+                return new CanberraDistance();
             case CITY_BLOCK:
-                distMeasure = new ManhattanDistance();
-                break;
+                return new ManhattanDistance();
             case EUCLIDEAN_DISTANCE:
-                distMeasure = new EuclideanDistance();
-                break;
+                return new EuclideanDistance();
             case PEARSON_DISTANCE:
-                distMeasure = new PearsonDistance();
-                break;
+                return new PearsonDistance();
+            case MUTUAL_INFORMATION:
+                return new MutualInformationDistance(selectBins());
             default:
                 LOGGER.debug("Distance Type: "
                         + distanceMetricType.getMethodLabel()
@@ -153,10 +180,27 @@ public class PairWiseDistances {
                         + distanceMetricType.getMethodLabel()
                         + " not for use in PairWise Distances");
         }
+    }
+
+    /**
+     * Bin count for the mutual information histograms: the candidate in
+     * nBins closest to sqrt(d / 5), so the joint histogram has about five
+     * samples per cell
+     *
+     * @return
+     */
+    private int selectBins() {
+
+        int numSamples = (observations.length > 0) ? observations[0].length : 0;
+        double target = Math.sqrt((double) numSamples / (double) SAMPLES_PER_CELL);
 
-        distance =  distMeasure.compute(prime.toArray(), other.toArray());
-        
-        return distance;
+        int selected = nBins[0];
+        for (int candidate : nBins) {
+            if (Math.abs(candidate - target) < Math.abs(selected - target)) {
+                selected = candidate;
+            }
+        }
+        return selected;
     }
 
 }
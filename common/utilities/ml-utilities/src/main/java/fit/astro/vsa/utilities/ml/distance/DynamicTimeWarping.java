@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2018 kjohnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.distance;
+
+import java.util.Arrays;
+import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.ml.distance.DistanceMeasure;
+
+/**
+ * Rakthanmanon, T., et al. (2012). Searching and mining trillions of time
+ * series subsequences under dynamic time warping. In KDD (pp. 262-270).
+ *
+ * Dynamic time warping constrained to a Sakoe-Chiba band of half width r,
+ * with the LB_Kim and LB_Keogh lower bounds and early abandoning. Costs are
+ * squared differences, so the distance is comparable with the bounds without
+ * a square root.
+ *
+ * @author kjohnston
+ */
+public class DynamicTimeWarping implements DistanceMeasure {
+
+    private static final long serialVersionUID = -3822049153561781242L;
+
+    private final int windowSize;
+
+    /**
+     *
+     * @param windowSize half width of the Sakoe-Chiba band, in samples
+     */
+    public DynamicTimeWarping(int windowSize) {
+        this.windowSize = Math.max(0, windowSize);
+    }
+
+    @Override
+    public double compute(double[] arg0, double[] arg1) {
+        return distance(arg0, arg1, null, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Banded DTW, abandoned once every open path costs more than the
+     * threshold
+     *
+     * @param query series indexing the rows
+     * @param candidate series indexing the columns
+     * @param cumulativeBound lower bound on the cost of rows i and later, of
+     * length n + 1 (null for none)
+     * @param threshold best so far
+     * @return the distance, infinite if abandoned
+     */
+    public double distance(double[] query, double[] candidate,
+            double[] cumulativeBound, double threshold) {
+
+        if (query.length != candidate.length) {
+            throw new DimensionMismatchException(candidate.length, query.length);
+        }
+
+        int length = query.length;
+        if (length == 0) {
+            return 0.0;
+        }
+
+        // Cells outside the band stay infinite
+        double[] previous = new double[length];
+        double[] current = new double[length];
+        Arrays.fill(previous, Double.POSITIVE_INFINITY);
+        Arrays.fill(current, Double.POSITIVE_INFINITY);
+
+        for (int idx = 0; idx < length; idx++) {
+
+            int start = Math.max(0, idx - windowSize);
+            int end = Math.min(length - 1, idx + windowSize);
+
+            // The row buffer still holds row i - 2 left of the band
+            if (start > 0) {
+                current[start - 1] = Double.POSITIVE_INFINITY;
+            }
+
+            double rowMin = Double.POSITIVE_INFINITY;
+            for (int jdx = start; jdx <= end; jdx++) {
+
+                double delta = query[idx] - candidate[jdx];
+                double cost = delta * delta;
+
+                if (idx == 0 && jdx == 0) {
+                    current[jdx] = cost;
+                } else {
+                    double best = previous[jdx];
+                    if (jdx > 0) {
+                        best = Math.min(best,
+                                Math.min(previous[jdx - 1], current[jdx - 1]));
+                    }
+                    current[jdx] = cost + best;
+                }
+                rowMin = Math.min(rowMin, current[jdx]);
+            }
+
+            double remaining = (cumulativeBound == null)
+                    ? 0.0 : cumulativeBound[idx + 1];
+            if (rowMin + remaining > threshold) {
+                return Double.POSITIVE_INFINITY;
+            }
+
+            double[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        return previous[length - 1];
+    }
+
+    // ================================================================
+    // Lower Bounds
+    /**
+     * LB_Kim (first and last points): every warping path matches the first
+     * and the last points of the two series
+     *
+     * @param query
+     * @param candidate
+     * @return
+     */
+    public static double lowerBoundKim(double[] query, double[] candidate) {
+
+        int last = query.length - 1;
+        if (last < 0) {
+            return 0.0;
+        }
+
+        double first = query[0] - candidate[0];
+        if (last == 0) {
+            return first * first;
+        }
+        double end = query[last] - candidate[last];
+        return first * first + end * end;
+    }
+
+    /**
+     * Upper and lower envelope of the series over the band, Lemire's
+     * streaming min / max
+     *
+     * @param series
+     * @return {upper, lower}
+     */
+    public double[][] envelope(double[] series) {
+
+        int length = series.length;
+        double[] upper = new double[length];
+        double[] lower = new double[length];
+
+        // Monotone deques of indices
+        int[] maxQueue = new int[length];
+        int[] minQueue = new int[length];
+        int maxHead = 0;
+        int maxTail = 0;
+        int minHead = 0;
+        int minTail = 0;
+
+        for (int jdx = 0; jdx < length + windowSize; jdx++) {
+
+            if (jdx < length) {
+                while (maxTail > maxHead && series[maxQueue[maxTail - 1]] <= series[jdx]) {
+                    maxTail--;
+                }
+                maxQueue[maxTail++] = jdx;
+
+                while (minTail > minHead && series[minQueue[minTail - 1]] >= series[jdx]) {
+                    minTail--;
+                }
+                minQueue[minTail++] = jdx;
+            }
+
+            // Window [idx - r, idx + r] is complete
+            int idx = jdx - windowSize;
+            if (idx >= 0) {
+                while (maxQueue[maxHead] < idx - windowSize) {
+                    maxHead++;
+                }
+                while (minQueue[minHead] < idx - windowSize) {
+                    minHead++;
+                }
+                upper[idx] = series[maxQueue[maxHead]];
+                lower[idx] = series[minQueue[minHead]];
+            }
+        }
+
+        return new double[][]{upper, lower};
+    }
+
+    /**
+     * LB_Keogh of the series against the envelope of another series, stops
+     * once the threshold is passed
+     *
+     * @param series
+     * @param envelope {upper, lower} of the other series
+     * @param contributions per point contributions, filled if not null
+     * @param threshold best so far
+     * @return the bound, or a partial sum above the threshold
+     */
+    public static double lowerBoundKeogh(double[] series, double[][] envelope,
+            double[] contributions, double threshold) {
+
+        double[] upper = envelope[0];
+        double[] lower = envelope[1];
+
+        double bound = 0.0;
+        for (int idx = 0; idx < series.length; idx++) {
+
+            double contribution = 0.0;
+            if (series[idx] > upper[idx]) {
+                double delta = series[idx] - upper[idx];
+                contribution = delta * delta;
+            } else if (series[idx] < lower[idx]) {
+                double delta = series[idx] - lower[idx];
+                contribution = delta * delta;
+            }
+            bound += contribution;
+
+            if (contributions != null) {
+                contributions[idx] = contribution;
+            } else if (bound > threshold) {
+                return bound;
+            }
+        }
+
+        return bound;
+    }
+
+    /**
+     * Suffix sums of the LB_Keogh contributions, element i bounds the cost
+     * of rows i and later
+     *
+     * @param contributions
+     * @return array of length n + 1
+     */
+    public static double[] cumulativeBound(double[] contributions) {
+
+        double[] cumulative = new double[contributions.length + 1];
+        for (int idx = contributions.length - 1; idx >= 0; idx--) {
+            cumulative[idx] = cumulative[idx + 1] + contributions[idx];
+        }
+        return cumulative;
+    }
+
+    /**
+     * @return half width of the Sakoe-Chiba band
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018 kjohnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.distance;
+
+import java.util.Arrays;
+import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.ml.distance.DistanceMeasure;
+
+/**
+ * Kraskov, A., Stogbauer, H., Andrzejak, R. G., & Grassberger, P. (2003).
+ * Hierarchical clustering using mutual information. arXiv q-bio/0311037.
+ *
+ * 1 - I(X;Y) / H(X,Y) with the elements of the two vectors as paired samples,
+ * I and H estimated from an equal width nBins x nBins joint histogram. The
+ * distance is a metric in [0, 1], zero for vectors that determine each other.
+ * <p>
+ * Holds its histograms, so one instance per thread.
+ *
+ * @author kjohnston
+ */
+public class MutualInformationDistance implements DistanceMeasure {
+
+    private static final long serialVersionUID = 4637790513240978318L;
+
+    private final int nBins;
+
+    private final int[] jointCounts;
+    private final int[] marginalCountsX;
+    private final int[] marginalCountsY;
+
+    /**
+     *
+     * @param nBins number of bins along each vector
+     */
+    public MutualInformationDistance(int nBins) {
+        this.nBins = nBins;
+        this.jointCounts = new int[nBins * nBins];
+        this.marginalCountsX = new int[nBins];
+        this.marginalCountsY = new int[nBins];
+    }
+
+    @Override
+    public double compute(double[] arg0, double[] arg1) {
+
+        if (arg0.length != arg1.length) {
+            throw new DimensionMismatchException(arg1.length, arg0.length);
+        }
+
+        int numSamples = arg0.length;
+        if (numSamples == 0) {
+            return 0.0;
+        }
+
+        Arrays.fill(jointCounts, 0);
+        Arrays.fill(marginalCountsX, 0);
+        Arrays.fill(marginalCountsY, 0);
+
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int idx = 0; idx < numSamples; idx++) {
+            minX = Math.min(minX, arg0[idx]);
+            maxX = Math.max(maxX, arg0[idx]);
+            minY = Math.min(minY, arg1[idx]);
+            maxY = Math.max(maxY, arg1[idx]);
+        }
+
+        for (int idx = 0; idx < numSamples; idx++) {
+            int binX = bin(arg0[idx], minX, maxX);
+            int binY = bin(arg1[idx], minY, maxY);
+            jointCounts[binX * nBins + binY]++;
+            marginalCountsX[binX]++;
+            marginalCountsY[binY]++;
+        }
+
+        // ========================================
+        // Plug in entropies, nats
+        double jointEntropy = entropy(jointCounts, numSamples);
+        if (jointEntropy <= 0.0) {
+            // Both constant, nothing to tell them apart
+            return 0.0;
+        }
+
+        double mutualInformation = entropy(marginalCountsX, numSamples)
+                + entropy(marginalCountsY, numSamples) - jointEntropy;
+
+        return Math.min(1.0, Math.max(0.0, 1.0 - mutualInformation / jointEntropy));
+    }
+
+    private int bin(double value, double min, double max) {
+        if (max <= min) {
+            return 0;
+        }
+        int bin = (int) ((value - min) / (max - min) * nBins);
+        return Math.min(bin, nBins - 1);
+    }
+
+    private static double entropy(int[] counts, int numSamples) {
+
+        double entropy = 0.0;
+        for (int count : counts) {
+            if (count > 0) {
+                double probability = (double) count / (double) numSamples;
+                entropy -= probability * Math.log(probability);
+            }
+        }
+        return entropy;
+    }
+
+    /**
+     * @return number of bins along each vector
+     */
+    public int getNumberOfBins() {
+        return nBins;
+    }
+}
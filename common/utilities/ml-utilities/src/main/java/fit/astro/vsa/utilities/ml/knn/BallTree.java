@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.math.vector.VectorDistanceType;
+import java.util.Map;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Omohundro, S. M. (1989). Five balltree construction algorithms.
+ * International Computer Science Institute, Berkeley.
+ *
+ * Exact ball-tree, each node keeps the centroid of its points and the radius
+ * that covers them. Holds up better than the KD-tree as the dimension grows.
+ *
+ * @author Kyle Johnston kyjohnst2000@my.fit.edu
+ */
+public class BallTree extends SpatialTree {
+
+    /**
+     * Relative slack on the triangle inequality for round off, keeps the
+     * search exact
+     */
+    private static final double SLACK = 1e-12;
+
+    private final double[] centers;
+    private final double[] radii;
+
+    /**
+     *
+     * @param setOfTrainingData the set of training data
+     * @param distanceType Euclidean or city block
+     */
+    public BallTree(Map<Integer, RealVector> setOfTrainingData,
+            VectorDistanceType distanceType) {
+        super(setOfTrainingData, distanceType);
+
+        this.centers = new double[numNodes * dimension];
+        this.radii = new double[numNodes];
+
+        for (int node = 0; node < numNodes; node++) {
+            int offset = node * dimension;
+            double count = nodeEnd[node] - nodeStart[node];
+
+            double[] center = new double[dimension];
+            for (int idx = nodeStart[node]; idx < nodeEnd[node]; idx++) {
+                int pointOffset = order[idx] * dimension;
+                for (int jdx = 0; jdx < dimension; jdx++) {
+                    center[jdx] += trainingData[pointOffset + jdx] / count;
+                }
+            }
+            System.arraycopy(center, 0, centers, offset, dimension);
+
+            double radius = 0.0;
+            for (int idx = nodeStart[node]; idx < nodeEnd[node]; idx++) {
+                radius = Math.max(radius, distance(center, order[idx]));
+            }
+            radii[node] = radius;
+        }
+    }
+
+    /**
+     * d(q, c) - r by the triangle inequality
+     */
+    @Override
+    protected double lowerBound(int node, double[] query) {
+
+        int offset = node * dimension;
+        double distance = 0.0;
+
+        for (int idx = 0; idx < dimension; idx++) {
+            double delta = centers[offset + idx] - query[idx];
+            distance += (distanceType == VectorDistanceType.CITY_BLOCK)
+                    ? Math.abs(delta) : delta * delta;
+        }
+        if (distanceType == VectorDistanceType.EUCLIDEAN_DISTANCE) {
+            distance = Math.sqrt(distance);
+        }
+
+        return distance - radii[node] - SLACK * (distance + radii[node]);
+    }
+}
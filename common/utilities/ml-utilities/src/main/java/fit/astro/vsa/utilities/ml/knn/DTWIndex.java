@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.utilities.ml.distance.DynamicTimeWarping;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Exact nearest neighbors of raw series under banded DTW. Each candidate goes
+ * through the cascade LB_Kim, LB_Keogh (query against the cached candidate
+ * envelope), LB_Keogh (candidate against the query envelope) and only then a
+ * full DTW, abandoned early against the k-th best so far. Candidates are
+ * visited in order of LB_Kim so the bound tightens quickly.
+ * <p>
+ * A candidate is pruned only when its bound is strictly worse than the k-th
+ * neighbor, so the neighbors are those of a brute force DTW search.
+ *
+ * @author Kyle Johnston kyjohnst2000@my.fit.edu
+ */
+public class DTWIndex implements NeighborIndex<double[]> {
+
+    /**
+     * Relative slack on the bounds for round off
+     */
+    private static final double SLACK = 1e-12;
+
+    // ============================================
+    // Training Data
+    private final int[] trainingIDs;
+    private final double[][] trainingSeries;
+    private final double[][][] trainingEnvelopes;
+
+    private final DynamicTimeWarping dynamicTimeWarping;
+
+    /**
+     *
+     * @param setOfTrainingData the set of training series, equal lengths
+     * @param windowSize half width of the Sakoe-Chiba band, in samples
+     */
+    public DTWIndex(Map<Integer, RealVector> setOfTrainingData, int windowSize) {
+
+        this.dynamicTimeWarping = new DynamicTimeWarping(windowSize);
+
+        int numTraining = setOfTrainingData.size();
+        this.trainingIDs = new int[numTraining];
+        this.trainingSeries = new double[numTraining][];
+        this.trainingEnvelopes = new double[numTraining][][];
+
+        int position = 0;
+        for (Map.Entry<Integer, RealVector> entry : setOfTrainingData.entrySet()) {
+            trainingIDs[position] = entry.getKey();
+            trainingSeries[position] = entry.getValue().toArray();
+            position++;
+        }
+
+        // Envelopes once, reused by every query
+        Arrays.parallelSetAll(trainingEnvelopes,
+                (idx) -> dynamicTimeWarping.envelope(trainingSeries[idx]));
+    }
+
+    /**
+     *
+     * @param setOfTrainingData the set of training series, equal lengths
+     * @param windowFraction band half width as a fraction of the series
+     * length
+     * @return
+     */
+    public static DTWIndex withWindowFraction(Map<Integer, RealVector> setOfTrainingData,
+            double windowFraction) {
+
+        int length = setOfTrainingData.values().iterator().next().getDimension();
+
+        return new DTWIndex(setOfTrainingData,
+                (int) Math.round(windowFraction * length));
+    }
+
+    // ================================================================
+    // Search
+    @Override
+    public NeighborHeap search(double[] query, int kValue) {
+
+        int numTraining = trainingIDs.length;
+        NeighborHeap heap = new NeighborHeap(Math.min(kValue, numTraining));
+        if (numTraining == 0) {
+            return heap;
+        }
+
+        double[][] queryEnvelope = dynamicTimeWarping.envelope(query);
+        double[] contributions = new double[query.length];
+
+        // Cheapest bound first, it also fixes the visiting order
+        double[] kimBounds = new double[numTraining];
+        Integer[] visitOrder = new Integer[numTraining];
+        for (int position = 0; position < numTraining; position++) {
+            kimBounds[position] = DynamicTimeWarping.lowerBoundKim(query,
+                    trainingSeries[position]);
+            visitOrder[position] = position;
+        }
+        Arrays.sort(visitOrder, Comparator.comparingDouble((idx) -> kimBounds[idx]));
+
+        for (int position : visitOrder) {
+
+            double threshold = threshold(heap.getBound());
+
+            // Sorted by LB_Kim, nothing after this can compete
+            if (kimBounds[position] > threshold) {
+                break;
+            }
+
+            double keoghBound = DynamicTimeWarping.lowerBoundKeogh(query,
+                    trainingEnvelopes[position], contributions, threshold);
+            if (keoghBound > threshold) {
+                continue;
+            }
+
+            if (DynamicTimeWarping.lowerBoundKeogh(trainingSeries[position],
+                    queryEnvelope, null, threshold) > threshold) {
+                continue;
+            }
+
+            double distance = dynamicTimeWarping.distance(query,
+                    trainingSeries[position],
+                    DynamicTimeWarping.cumulativeBound(contributions), threshold);
+
+            if (distance < Double.POSITIVE_INFINITY) {
+                heap.offer(distance, position);
+            }
+        }
+
+        return heap;
+    }
+
+    private static double threshold(double bound) {
+        return bound + SLACK * bound;
+    }
+
+    @Override
+    public int getTrainingID(int position) {
+        return trainingIDs[position];
+    }
+
+    @Override
+    public int size() {
+        return trainingIDs.length;
+    }
+
+    /**
+     * @return the DTW distance with this index's band
+     */
+    public DynamicTimeWarping getDynamicTimeWarping() {
+        return dynamicTimeWarping;
+    }
+}
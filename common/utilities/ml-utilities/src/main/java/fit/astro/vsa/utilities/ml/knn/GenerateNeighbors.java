@@ -16,19 +16,23 @@
  */
 package fit.astro.vsa.utilities.ml.knn;
 
-import fit.astro.vsa.common.datahandling.LabelHandling;
-import fit.astro.vsa.common.utilities.math.support.SortingOperations;
+import fit.astro.vsa.utilities.ml.DistanceMatrix;
 import fit.astro.vsa.utilities.ml.MetricDistance;
+import fit.astro.vsa.utilities.ml.knn.NeighborSelection.PairDistance;
 import fit.astro.vsa.utilities.ml.ecva.CanonicalVariates;
 import fit.astro.vsa.utilities.ml.ecva.ECVA;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 
 /**
+ * Target neighbors and impostors, see {@link NeighborSelection}. Each query
+ * evaluates its distances row by row without a pairwise block. With
+ * setCacheDistances the block of the last metric is kept instead, so a
+ * learner that refreshes its neighbors only pays for the distances when the
+ * metric has moved.
  *
  * @author kjohnston
  */
@@ -38,6 +42,12 @@ public class GenerateNeighbors {
     private final Map<Integer, RealVector> mapOfPatterns;
     private final Map<Integer, String> mapOfClasses;
 
+    // Internal
+    private final NeighborSelection neighborSelection;
+    private boolean cacheDistances = false;
+    private RealMatrix cachedMetric;
+    private DistanceMatrix cachedDistances;
+
     /**
      *
      * @param mapOfPatterns
@@ -48,9 +58,11 @@ public class GenerateNeighbors {
             Map<Integer, String> mapOfClasses) {
         this.mapOfPatterns = mapOfPatterns;
         this.mapOfClasses = mapOfClasses;
+        this.neighborSelection = new NeighborSelection(mapOfClasses);
     }
 
     /**
+     * Euclidean target neighbors, never cached
      *
      * @param kValue
      * @return
@@ -60,101 +72,92 @@ public class GenerateNeighbors {
         RealVector startingSet = mapOfPatterns.values().iterator()
                 .next();
 
-        Map<Integer, List<Integer>> classMemberNear = new HashMap<>();
-
-        Map<String, List<Integer>> classMembers = LabelHandling
-                .sortIntoMaps(mapOfClasses);
-
-        MetricDistance metricDistance
-                = new MetricDistance(MatrixUtils.createRealIdentityMatrix(startingSet.getDimension()));
-
-        // ============= Neighbors =====================
-        for (String labelSimilar : classMembers.keySet()) {
+        return neighborSelection.targetNeighbors(kValue, pairDistance(
+                MatrixUtils.createRealIdentityMatrix(startingSet.getDimension())));
+    }
 
-            List<Integer> mapOfSimilar = classMembers.get(labelSimilar);
+    /**
+     *
+     * @param kValue
+     * @param metric M of (x_i - x_j)'M(x_i - x_j)
+     * @return the kValue nearest of the same class
+     */
+    public Map<Integer, List<Integer>> kNN(int kValue, RealMatrix metric) {
+        return neighborSelection.targetNeighbors(kValue, distances(metric));
+    }
 
-            // ==========================================
-            for (Integer idx : mapOfSimilar) {
+    /**
+     *
+     * @param kValue
+     * @param metric M of (x_i - x_j)'M(x_i - x_j)
+     * @return the kValue nearest of the other classes
+     */
+    public Map<Integer, List<Integer>> impostors(int kValue, RealMatrix metric) {
+        return neighborSelection.impostors(kValue, distances(metric));
+    }
 
-                RealVector x_i = mapOfPatterns.get(idx);
+    /**
+     *
+     * @param kValue
+     * @return
+     */
+    public Map<Integer, List<Integer>> ecva_MV(int kValue) {
 
-                Map<Integer, Double> setOfDistances = new HashMap<>();
+        ECVA ecva = new ECVA(mapOfPatterns, mapOfClasses);
 
-                // pair wise distances
-                mapOfSimilar.stream().filter((jdx) -> !(idx.compareTo(jdx) == 0))
-                        .forEachOrdered((jdx) -> {
-                            setOfDistances.put(jdx, metricDistance
-                                    .distance(x_i, mapOfPatterns.get(jdx)));
-                        });
+        CanonicalVariates cva = ecva.execute();
 
-                Map<Integer, Double> sortedDistances
-                        = SortingOperations.sortByAcendingValue(setOfDistances);
+        RealVector[] variates = patternsByPosition(cva.getCanonicalVariates());
 
-                List<Integer> setOfNeighbors = new ArrayList<>();
-                int counter = 0;
-                for (Integer jdx : sortedDistances.keySet()) {
-                    setOfNeighbors.add(jdx);
-                    counter++;
-                    if (counter == kValue) {
-                        break;
-                    }
-                }
-                classMemberNear.put(idx, setOfNeighbors);
-            }
-        }
-        return classMemberNear;
+        return neighborSelection.targetNeighbors(kValue, (row, column)
+                -> variates[row].getDistance(variates[column]));
     }
 
     /**
+     * Keep the distance block of the last metric, for repeated queries
      *
-     * @param kValue
-     * @return
+     * @param cacheDistances
      */
-    public Map<Integer, List<Integer>> ecva_MV(int kValue) {
+    public synchronized void setCacheDistances(boolean cacheDistances) {
+        this.cacheDistances = cacheDistances;
+        if (!cacheDistances) {
+            cachedMetric = null;
+            cachedDistances = null;
+        }
+    }
 
-        Map<Integer, List<Integer>> classMemberNear = new HashMap<>();
+    // ================================================================
+    // Distances
+    private synchronized PairDistance distances(RealMatrix metric) {
 
-        Map<String, List<Integer>> classMembers = LabelHandling
-                .sortIntoMaps(mapOfClasses);
+        if (!cacheDistances) {
+            return pairDistance(metric);
+        }
 
-        ECVA ecva = new ECVA(mapOfPatterns, mapOfClasses);
+        if (cachedDistances == null || !metric.equals(cachedMetric)) {
+            cachedDistances = neighborSelection.distanceBlock(pairDistance(metric));
+            cachedMetric = metric.copy();
+        }
+        return cachedDistances::getEntry;
+    }
 
-        CanonicalVariates cva = ecva.execute();
+    private PairDistance pairDistance(RealMatrix metric) {
 
-        // ============= Neighbors =====================
-        for (String labelSimilar : classMembers.keySet()) {
-
-            List<Integer> mapOfSimilar = classMembers.get(labelSimilar);
-
-            // ==========================================
-            for (Integer idx : mapOfSimilar) {
-                Map<Integer, Double> setOfDistances = new HashMap<>();
-
-                // pair wise distances
-                mapOfSimilar.stream().filter((jdx) -> !(idx == jdx)).forEachOrdered((jdx) -> {
-                    double distance = cva.getCanonicalVariates().get(idx).getDistance(
-                            cva.getCanonicalVariates().get(jdx));
-
-                    setOfDistances.put(jdx, distance);
-                });
-
-                Map<Integer, Double> sortedDistances
-                        = SortingOperations.sortByAcendingValue(setOfDistances);
-
-                List<Integer> setOfNeighbors = new ArrayList<>();
-                int counter = 0;
-                for (Integer jdx : sortedDistances.keySet()) {
-                    setOfNeighbors.add(jdx);
-                    counter++;
-                    if (counter == kValue) {
-                        break;
-                    }
-                }
-                classMemberNear.put(idx, setOfNeighbors);
-            }
-        }
+        MetricDistance metricDistance = new MetricDistance(metric);
+        RealVector[] patterns = patternsByPosition(mapOfPatterns);
 
-        return classMemberNear;
+        return (row, column)
+                -> metricDistance.distance(patterns[row], patterns[column]);
+    }
+
+    private RealVector[] patternsByPosition(Map<Integer, RealVector> patterns) {
+
+        int[] trainingIDs = neighborSelection.getTrainingIDs();
+        RealVector[] byPosition = new RealVector[trainingIDs.length];
+        for (int idx = 0; idx < trainingIDs.length; idx++) {
+            byPosition[idx] = patterns.get(trainingIDs[idx]);
+        }
+        return byPosition;
     }
 
 }
@@ -17,11 +17,11 @@
 package fit.astro.vsa.utilities.ml.knn;
 
 import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric;
-import fit.astro.vsa.common.datahandling.LabelHandling;
-import fit.astro.vsa.common.utilities.math.support.SortingOperations;
-import fit.astro.vsa.utilities.ml.MultiViewMetricDistance;
+import fit.astro.vsa.utilities.ml.DistanceMatrix;
+import fit.astro.vsa.utilities.ml.FusedMultiViewDistance;
 import fit.astro.vsa.utilities.ml.ecva.CanonicalVariates;
 import fit.astro.vsa.utilities.ml.ecva.ECVA;
+import fit.astro.vsa.utilities.ml.knn.NeighborSelection.PairDistance;
 import fit.astro.vsa.utilities.ml.metriclearning.l3ml.L3MLVariable;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -34,6 +34,11 @@ import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealVector;
 
 /**
+ * Target neighbors and impostors, see {@link NeighborSelection}. Each query
+ * evaluates its distances row by row without a pairwise block. With
+ * setCacheDistances the block of the last set of metrics is kept instead, so
+ * a learner that refreshes its neighbors only pays for the distances when a
+ * metric or weight has moved.
  *
  * @author kjohnston
  */
@@ -45,6 +50,10 @@ public class GenerateNeighbors_Multi {
 
     // Internal
     private final Set<String> features;
+    private final NeighborSelection neighborSelection;
+    private boolean cacheDistances = false;
+    private Map<String, MultiViewMetric> cachedMetrics;
+    private DistanceMatrix cachedDistances;
 
     /**
      *
@@ -58,9 +67,11 @@ public class GenerateNeighbors_Multi {
         this.mapOfClasses = mapOfClasses;
         int idx = mapOfPatterns.keySet().iterator().next();
         this.features = mapOfPatterns.get(idx).keySet();
+        this.neighborSelection = new NeighborSelection(mapOfClasses);
     }
 
     /**
+     * Equally weighted Euclidean target neighbors, never cached
      *
      * @param kValue
      * @return
@@ -79,11 +90,6 @@ public class GenerateNeighbors_Multi {
                     1.0 / (double) startingSet.size(), 0.0, 0.0));
         });
 
-        Map<Integer, List<Integer>> classMemberNear = new HashMap<>();
-
-        Map<String, List<Integer>> classMembers = LabelHandling
-                .sortIntoMaps(mapOfClasses);
-
         Map<String, MultiViewMetric> inputTmp = new HashMap<>(features.size());
         for (String view : features) {
             L3MLVariable var = l3mlVariables.get(view);
@@ -93,44 +99,29 @@ public class GenerateNeighbors_Multi {
                     var.getWeight()));
         }
 
-        MultiViewMetricDistance matrix_MetricDistance
-                = new MultiViewMetricDistance(inputTmp);
-
-        // ============= Neighbors =====================
-        for (String labelSimilar : classMembers.keySet()) {
-
-            List<Integer> mapOfSimilar = classMembers.get(labelSimilar);
-
-            // ==========================================
-            for (Integer idx : mapOfSimilar) {
-
-                Map<String, RealVector> x_i = mapOfPatterns.get(idx);
-
-                Map<Integer, Double> setOfDistances = new HashMap<>();
-
-                // pair wise distances
-                mapOfSimilar.stream().filter((jdx) -> !(idx.compareTo(jdx) == 0))
-                        .forEachOrdered((jdx) -> {
-                            setOfDistances.put(jdx, matrix_MetricDistance
-                                    .multiviewDistance(x_i, mapOfPatterns.get(jdx)));
-                        });
+        return neighborSelection.targetNeighbors(kValue, pairDistance(inputTmp));
+    }
 
-                Map<Integer, Double> sortedDistances
-                        = SortingOperations.sortByAcendingValue(setOfDistances);
+    /**
+     *
+     * @param kValue
+     * @param multiMatrix metric and weight per view
+     * @return the kValue nearest of the same class
+     */
+    public Map<Integer, List<Integer>> kNN(int kValue,
+            Map<String, MultiViewMetric> multiMatrix) {
+        return neighborSelection.targetNeighbors(kValue, distances(multiMatrix));
+    }
 
-                List<Integer> setOfNeighbors = new ArrayList<>();
-                int counter = 0;
-                for (Integer jdx : sortedDistances.keySet()) {
-                    setOfNeighbors.add(jdx);
-                    counter++;
-                    if (counter == kValue) {
-                        break;
-                    }
-                }
-                classMemberNear.put(idx, setOfNeighbors);
-            }
-        }
-        return classMemberNear;
+    /**
+     *
+     * @param kValue
+     * @param multiMatrix metric and weight per view
+     * @return the kValue nearest of the other classes
+     */
+    public Map<Integer, List<Integer>> impostors(int kValue,
+            Map<String, MultiViewMetric> multiMatrix) {
+        return neighborSelection.impostors(kValue, distances(multiMatrix));
     }
 
     /**
@@ -140,11 +131,6 @@ public class GenerateNeighbors_Multi {
      */
     public Map<Integer, List<Integer>> ecva_MV(int kValue) {
 
-        Map<Integer, List<Integer>> classMemberNear = new HashMap<>();
-
-        Map<String, List<Integer>> classMembers = LabelHandling
-                .sortIntoMaps(mapOfClasses);
-
         Map<String, Map<Integer, RealVector>> setOfPatterns_Training = new HashMap<>(features.size());
 
         for (String view : features) {
@@ -171,41 +157,84 @@ public class GenerateNeighbors_Multi {
         }
 
         // ============= Neighbors =====================
-        for (String labelSimilar : classMembers.keySet()) {
-
-            List<Integer> mapOfSimilar = classMembers.get(labelSimilar);
-
-            // ==========================================
-            for (Integer idx : mapOfSimilar) {
-                Map<Integer, Double> setOfDistances = new HashMap<>();
-
-                // pair wise distances
-                mapOfSimilar.stream().filter((jdx) -> !(idx == jdx)).forEachOrdered((jdx) -> {
-                    double distance = 0;
-                    distance = features.stream().map((views) -> cva.get(views).getCanonicalVariates().get(idx).getDistance(
-                            cva.get(views).getCanonicalVariates().get(jdx)))
-                            .reduce(distance, (accumulator, _item) -> accumulator + _item);
-
-                    setOfDistances.put(jdx, distance);
-                });
-
-                Map<Integer, Double> sortedDistances
-                        = SortingOperations.sortByAcendingValue(setOfDistances);
-
-                List<Integer> setOfNeighbors = new ArrayList<>();
-                int counter = 0;
-                for (Integer jdx : sortedDistances.keySet()) {
-                    setOfNeighbors.add(jdx);
-                    counter++;
-                    if (counter == kValue) {
-                        break;
-                    }
-                }
-                classMemberNear.put(idx, setOfNeighbors);
+        int[] trainingIDs = neighborSelection.getTrainingIDs();
+        List<RealVector[]> variates = new ArrayList<>(features.size());
+        for (String view : features) {
+            RealVector[] byPosition = new RealVector[trainingIDs.length];
+            for (int idx = 0; idx < trainingIDs.length; idx++) {
+                byPosition[idx] = cva.get(view).getCanonicalVariates()
+                        .get(trainingIDs[idx]);
+            }
+            variates.add(byPosition);
+        }
+
+        return neighborSelection.targetNeighbors(kValue, (row, column) -> {
+            double distance = 0;
+            for (RealVector[] byPosition : variates) {
+                distance += byPosition[row].getDistance(byPosition[column]);
             }
+            return distance;
+        });
+    }
+
+    /**
+     * Keep the distance block of the last set of metrics, for repeated
+     * queries
+     *
+     * @param cacheDistances
+     */
+    public synchronized void setCacheDistances(boolean cacheDistances) {
+        this.cacheDistances = cacheDistances;
+        if (!cacheDistances) {
+            cachedMetrics = null;
+            cachedDistances = null;
+        }
+    }
+
+    // ================================================================
+    // Distances
+    private synchronized PairDistance distances(
+            Map<String, MultiViewMetric> multiMatrix) {
+
+        if (!cacheDistances) {
+            return pairDistance(multiMatrix);
         }
 
-        return classMemberNear;
+        if (cachedDistances == null || !isSameMetric(multiMatrix)) {
+
+            cachedDistances = neighborSelection.distanceBlock(pairDistance(multiMatrix));
+
+            cachedMetrics = new HashMap<>(multiMatrix.size());
+            multiMatrix.forEach((view, metric) -> cachedMetrics.put(view,
+                    new MultiViewMetric(metric.getMk().copy(), metric.getWeight())));
+        }
+        return cachedDistances::getEntry;
+    }
+
+    private PairDistance pairDistance(Map<String, MultiViewMetric> multiMatrix) {
+
+        FusedMultiViewDistance fusedDistance
+                = FusedMultiViewDistance.vectorMetric(multiMatrix);
+
+        int[] trainingIDs = neighborSelection.getTrainingIDs();
+        double[][][] patterns = new double[trainingIDs.length][][];
+        for (int idx = 0; idx < trainingIDs.length; idx++) {
+            patterns[idx] = fusedDistance.flattenVectors(
+                    mapOfPatterns.get(trainingIDs[idx]));
+        }
+
+        return (row, column)
+                -> fusedDistance.distance(patterns[row], patterns[column]);
+    }
+
+    private boolean isSameMetric(Map<String, MultiViewMetric> multiMatrix) {
+
+        if (!multiMatrix.keySet().equals(cachedMetrics.keySet())) {
+            return false;
+        }
+        return multiMatrix.keySet().stream().allMatch((view)
+                -> multiMatrix.get(view).getWeight() == cachedMetrics.get(view).getWeight()
+                && multiMatrix.get(view).getMk().equals(cachedMetrics.get(view).getMk()));
     }
 
 }
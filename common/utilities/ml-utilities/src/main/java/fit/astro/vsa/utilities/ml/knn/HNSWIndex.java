@@ -0,0 +1,629 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.linear.RealVector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Malkov, Y. A., & Yashunin, D. A. (2018). Efficient and robust approximate
+ * nearest neighbor search using hierarchical navigable small world graphs.
+ * IEEE transactions on pattern analysis and machine intelligence.
+ *
+ * Approximate Euclidean neighbors for survey sized training sets. The graph
+ * is built in parallel (so its exact shape varies from run to run), can be
+ * saved to and loaded from a local file, and the neighbors it returns carry
+ * exact distances. Use estimateRecall to check a setting of efSearch against
+ * brute force.
+ *
+ * @author Kyle Johnston kyjohnst2000@my.fit.edu
+ */
+public class HNSWIndex implements NeighborIndex<double[]> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HNSWIndex.class);
+
+    private static final int FILE_VERSION = 1;
+
+    // ============================================
+    // Settings
+    private final int maxConnections;
+    private final int efConstruction;
+    private int efSearch;
+
+    // ============================================
+    // Training Data
+    private final int[] trainingIDs;
+    private final double[] trainingData;
+    private final int dimension;
+
+    // ============================================
+    // Graph, links[node][level] holds linkCounts[node][level] neighbors
+    private final int[] levels;
+    private final int[][][] links;
+    private final int[][] linkCounts;
+    private final Object[] locks;
+
+    private final Object entryLock = new Object();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private final ThreadLocal<VisitedSet> visitedSets;
+
+    /**
+     * M = 16, efConstruction = 200, efSearch = 50
+     *
+     * @param setOfTrainingData the set of training data
+     */
+    public HNSWIndex(Map<Integer, RealVector> setOfTrainingData) {
+        this(setOfTrainingData, 16, 200, 50, new Random());
+    }
+
+    /**
+     *
+     * @param setOfTrainingData the set of training data
+     * @param maxConnections M, links per node above level 0 (2M at level 0)
+     * @param efConstruction candidate list size while building
+     * @param efSearch candidate list size while searching
+     * @param rand level assignment
+     */
+    public HNSWIndex(Map<Integer, RealVector> setOfTrainingData,
+            int maxConnections, int efConstruction, int efSearch, Random rand) {
+
+        this.maxConnections = maxConnections;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+
+        int numTraining = setOfTrainingData.size();
+        this.trainingIDs = new int[numTraining];
+        this.dimension = (numTraining > 0)
+                ? setOfTrainingData.values().iterator().next().getDimension() : 0;
+        this.trainingData = new double[numTraining * dimension];
+
+        int position = 0;
+        for (Map.Entry<Integer, RealVector> entry : setOfTrainingData.entrySet()) {
+            trainingIDs[position] = entry.getKey();
+            System.arraycopy(entry.getValue().toArray(), 0,
+                    trainingData, position * dimension, dimension);
+            position++;
+        }
+
+        // ============================================
+        // Levels up front, so they do not depend on the build order
+        double levelMultiplier = 1.0 / Math.log(Math.max(2, maxConnections));
+
+        this.levels = new int[numTraining];
+        this.links = new int[numTraining][][];
+        this.linkCounts = new int[numTraining][];
+        this.locks = new Object[numTraining];
+
+        for (int node = 0; node < numTraining; node++) {
+            levels[node] = (int) Math.floor(
+                    -Math.log(1.0 - rand.nextDouble()) * levelMultiplier);
+            links[node] = new int[levels[node] + 1][];
+            for (int level = 0; level <= levels[node]; level++) {
+                links[node][level] = new int[maxLinks(level)];
+            }
+            linkCounts[node] = new int[levels[node] + 1];
+            locks[node] = new Object();
+        }
+
+        this.visitedSets = ThreadLocal.withInitial(() -> new VisitedSet(numTraining));
+
+        // ============================================
+        // Build
+        if (numTraining > 0) {
+            entryPoint = 0;
+            maxLevel = levels[0];
+            IntStream.range(1, numTraining).parallel().forEach(this::insert);
+        }
+    }
+
+    private HNSWIndex(int maxConnections, int efConstruction, int efSearch,
+            int[] trainingIDs, double[] trainingData, int dimension,
+            int[] levels, int[][][] links, int[][] linkCounts,
+            int entryPoint, int maxLevel) {
+
+        this.maxConnections = maxConnections;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.trainingIDs = trainingIDs;
+        this.trainingData = trainingData;
+        this.dimension = dimension;
+        this.levels = levels;
+        this.links = links;
+        this.linkCounts = linkCounts;
+        this.entryPoint = entryPoint;
+        this.maxLevel = maxLevel;
+
+        this.locks = new Object[trainingIDs.length];
+        for (int node = 0; node < locks.length; node++) {
+            locks[node] = new Object();
+        }
+        this.visitedSets = ThreadLocal.withInitial(() -> new VisitedSet(trainingIDs.length));
+    }
+
+    private int maxLinks(int level) {
+        return (level == 0) ? 2 * maxConnections : maxConnections;
+    }
+
+    // ================================================================
+    // Construction
+    private void insert(int node) {
+
+        double[] query = pattern(node);
+        int level = levels[node];
+
+        int currentEntry;
+        int currentMax;
+        synchronized (entryLock) {
+            currentEntry = entryPoint;
+            currentMax = maxLevel;
+        }
+
+        int nearest = currentEntry;
+        for (int layer = currentMax; layer > level; layer--) {
+            nearest = greedySearch(query, nearest, layer);
+        }
+
+        for (int layer = Math.min(level, currentMax); layer >= 0; layer--) {
+
+            List<Candidate> candidates = searchLayer(query, nearest, efConstruction, layer);
+
+            int[] selected = selectNeighbors(candidates, maxConnections);
+            synchronized (locks[node]) {
+                System.arraycopy(selected, 0, links[node][layer], 0, selected.length);
+                linkCounts[node][layer] = selected.length;
+            }
+
+            for (int neighbor : selected) {
+                addLink(neighbor, node, layer);
+            }
+
+            nearest = candidates.get(0).position;
+        }
+
+        if (level > currentMax) {
+            synchronized (entryLock) {
+                if (level > maxLevel) {
+                    maxLevel = level;
+                    entryPoint = node;
+                }
+            }
+        }
+    }
+
+    private void addLink(int node, int newNeighbor, int layer) {
+
+        synchronized (locks[node]) {
+            int count = linkCounts[node][layer];
+            int[] nodeLinks = links[node][layer];
+
+            if (count < nodeLinks.length) {
+                nodeLinks[count] = newNeighbor;
+                linkCounts[node][layer] = count + 1;
+                return;
+            }
+
+            // Full, keep the best by the selection heuristic
+            double[] query = pattern(node);
+            List<Candidate> candidates = new ArrayList<>(count + 1);
+            for (int idx = 0; idx < count; idx++) {
+                candidates.add(new Candidate(distance(query, nodeLinks[idx]), nodeLinks[idx]));
+            }
+            candidates.add(new Candidate(distance(query, newNeighbor), newNeighbor));
+            Collections.sort(candidates, Candidate.ORDER);
+
+            int[] selected = selectNeighbors(candidates, nodeLinks.length);
+            System.arraycopy(selected, 0, nodeLinks, 0, selected.length);
+            linkCounts[node][layer] = selected.length;
+        }
+    }
+
+    /**
+     * Keep a candidate only if it is closer to the base than to every
+     * neighbor already kept, then top up with the closest of the rest
+     *
+     * @param candidates sorted nearest first
+     * @param numLinks
+     * @return
+     */
+    private int[] selectNeighbors(List<Candidate> candidates, int numLinks) {
+
+        int[] selected = new int[Math.min(numLinks, candidates.size())];
+        boolean[] kept = new boolean[candidates.size()];
+        int count = 0;
+
+        for (int idx = 0; idx < candidates.size() && count < selected.length; idx++) {
+            Candidate candidate = candidates.get(idx);
+            double[] candidatePattern = pattern(candidate.position);
+
+            boolean isDiverse = true;
+            for (int jdx = 0; jdx < count && isDiverse; jdx++) {
+                isDiverse = distance(candidatePattern, selected[jdx]) > candidate.distance;
+            }
+
+            if (isDiverse) {
+                selected[count++] = candidate.position;
+                kept[idx] = true;
+            }
+        }
+
+        for (int idx = 0; idx < candidates.size() && count < selected.length; idx++) {
+            if (!kept[idx]) {
+                selected[count++] = candidates.get(idx).position;
+            }
+        }
+
+        return selected;
+    }
+
+    // ================================================================
+    // Search
+    @Override
+    public NeighborHeap search(double[] query, int kValue) {
+
+        NeighborHeap heap = new NeighborHeap(Math.min(kValue, trainingIDs.length));
+        if (trainingIDs.length == 0) {
+            return heap;
+        }
+
+        int nearest;
+        int topLevel;
+        synchronized (entryLock) {
+            nearest = entryPoint;
+            topLevel = maxLevel;
+        }
+
+        for (int layer = topLevel; layer > 0; layer--) {
+            nearest = greedySearch(query, nearest, layer);
+        }
+
+        for (Candidate candidate : searchLayer(query, nearest,
+                Math.max(efSearch, kValue), 0)) {
+            heap.offer(Math.sqrt(candidate.distance), candidate.position);
+        }
+
+        return heap;
+    }
+
+    private int greedySearch(double[] query, int start, int layer) {
+
+        int nearest = start;
+        double nearestDistance = distance(query, start);
+
+        boolean isImproved = true;
+        while (isImproved) {
+            isImproved = false;
+            for (int neighbor : neighbors(nearest, layer)) {
+                double neighborDistance = distance(query, neighbor);
+                if (neighborDistance < nearestDistance) {
+                    nearestDistance = neighborDistance;
+                    nearest = neighbor;
+                    isImproved = true;
+                }
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * Best first search of a single layer
+     *
+     * @return the ef nearest found, nearest first
+     */
+    private List<Candidate> searchLayer(double[] query, int start, int ef, int layer) {
+
+        VisitedSet visited = visitedSets.get();
+        visited.clear();
+
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(Candidate.ORDER);
+        PriorityQueue<Candidate> nearest = new PriorityQueue<>(Candidate.ORDER.reversed());
+
+        Candidate first = new Candidate(distance(query, start), start);
+        visited.visit(start);
+        candidates.add(first);
+        nearest.add(first);
+
+        while (!candidates.isEmpty()) {
+            Candidate current = candidates.poll();
+            if (current.distance > nearest.peek().distance) {
+                break;
+            }
+
+            for (int neighbor : neighbors(current.position, layer)) {
+                if (!visited.visit(neighbor)) {
+                    continue;
+                }
+
+                double neighborDistance = distance(query, neighbor);
+                if (nearest.size() < ef || neighborDistance < nearest.peek().distance) {
+                    Candidate candidate = new Candidate(neighborDistance, neighbor);
+                    candidates.add(candidate);
+                    nearest.add(candidate);
+                    if (nearest.size() > ef) {
+                        nearest.poll();
+                    }
+                }
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(nearest);
+        Collections.sort(sorted, Candidate.ORDER);
+        return sorted;
+    }
+
+    private int[] neighbors(int node, int layer) {
+        synchronized (locks[node]) {
+            return Arrays.copyOf(links[node][layer], linkCounts[node][layer]);
+        }
+    }
+
+    /**
+     * Squared Euclidean distance to a training position, same arithmetic as
+     * the brute force search
+     */
+    private double distance(double[] query, int position) {
+
+        int offset = position * dimension;
+
+        double distance = 0.0;
+        for (int idx = 0; idx < dimension; idx++) {
+            double delta = trainingData[offset + idx] - query[idx];
+            distance += delta * delta;
+        }
+        return distance;
+    }
+
+    private double[] pattern(int position) {
+        return Arrays.copyOfRange(trainingData,
+                position * dimension, (position + 1) * dimension);
+    }
+
+    // ================================================================
+    // Recall
+    /**
+     * Fraction of the true k nearest (brute force) found by the index
+     *
+     * @param inputPatternMap queries
+     * @param kValue number of neighbors
+     * @return recall at k
+     */
+    public double estimateRecall(Map<Integer, RealVector> inputPatternMap, int kValue) {
+
+        int found = inputPatternMap.values().parallelStream().mapToInt((pattern) -> {
+
+            double[] query = pattern.toArray();
+
+            NeighborHeap exact = new NeighborHeap(Math.min(kValue, trainingIDs.length));
+            for (int position = 0; position < trainingIDs.length; position++) {
+                exact.offer(Math.sqrt(distance(query, position)), position);
+            }
+
+            int[] approximate = search(query, kValue).getSortedPositions();
+            Arrays.sort(approximate);
+
+            int matches = 0;
+            for (int position : exact.getSortedPositions()) {
+                if (Arrays.binarySearch(approximate, position) >= 0) {
+                    matches++;
+                }
+            }
+            return matches;
+        }).sum();
+
+        double recall = found / (double) (Math.min(kValue, trainingIDs.length)
+                * inputPatternMap.size());
+
+        LOGGER.info("HNSW Recall@" + kValue + ": " + recall
+                + " (M: " + maxConnections + ", efConstruction: " + efConstruction
+                + ", efSearch: " + efSearch + ")");
+
+        return recall;
+    }
+
+    // ================================================================
+    // File Storage
+    /**
+     *
+     * @param file destination
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+
+            output.writeInt(FILE_VERSION);
+            output.writeInt(maxConnections);
+            output.writeInt(efConstruction);
+            output.writeInt(efSearch);
+            output.writeInt(trainingIDs.length);
+            output.writeInt(dimension);
+            output.writeInt(entryPoint);
+            output.writeInt(maxLevel);
+
+            for (int position = 0; position < trainingIDs.length; position++) {
+                output.writeInt(trainingIDs[position]);
+            }
+            for (double value : trainingData) {
+                output.writeDouble(value);
+            }
+
+            for (int node = 0; node < trainingIDs.length; node++) {
+                output.writeInt(levels[node]);
+                for (int level = 0; level <= levels[node]; level++) {
+                    output.writeInt(linkCounts[node][level]);
+                    for (int idx = 0; idx < linkCounts[node][level]; idx++) {
+                        output.writeInt(links[node][level][idx]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @param file written by save
+     * @return the index
+     * @throws IOException
+     */
+    public static HNSWIndex load(File file) throws IOException {
+
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+
+            int version = input.readInt();
+            if (version != FILE_VERSION) {
+                throw new IOException("Unknown HNSW file version: " + version);
+            }
+
+            int maxConnections = input.readInt();
+            int efConstruction = input.readInt();
+            int efSearch = input.readInt();
+            int numTraining = input.readInt();
+            int dimension = input.readInt();
+            int entryPoint = input.readInt();
+            int maxLevel = input.readInt();
+
+            int[] trainingIDs = new int[numTraining];
+            for (int position = 0; position < numTraining; position++) {
+                trainingIDs[position] = input.readInt();
+            }
+            double[] trainingData = new double[numTraining * dimension];
+            for (int idx = 0; idx < trainingData.length; idx++) {
+                trainingData[idx] = input.readDouble();
+            }
+
+            int[] levels = new int[numTraining];
+            int[][][] links = new int[numTraining][][];
+            int[][] linkCounts = new int[numTraining][];
+            for (int node = 0; node < numTraining; node++) {
+                levels[node] = input.readInt();
+                links[node] = new int[levels[node] + 1][];
+                linkCounts[node] = new int[levels[node] + 1];
+                for (int level = 0; level <= levels[node]; level++) {
+                    links[node][level] = new int[(level == 0)
+                            ? 2 * maxConnections : maxConnections];
+                    linkCounts[node][level] = input.readInt();
+                    for (int idx = 0; idx < linkCounts[node][level]; idx++) {
+                        links[node][level][idx] = input.readInt();
+                    }
+                }
+            }
+
+            return new HNSWIndex(maxConnections, efConstruction, efSearch,
+                    trainingIDs, trainingData, dimension, levels, links, linkCounts,
+                    entryPoint, maxLevel);
+        }
+    }
+
+    // ================================================================
+    // Getters/Setters
+    @Override
+    public int getTrainingID(int position) {
+        return trainingIDs[position];
+    }
+
+    @Override
+    public int size() {
+        return trainingIDs.length;
+    }
+
+    /**
+     * @return candidate list size while searching
+     */
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    /**
+     * @param efSearch candidate list size while searching, trades speed for
+     * recall
+     */
+    public void setEfSearch(int efSearch) {
+        this.efSearch = efSearch;
+    }
+
+    // ================================================================
+    // Support
+    private static final class Candidate {
+
+        private static final Comparator<Candidate> ORDER = (a, b) -> {
+            int compare = Double.compare(a.distance, b.distance);
+            return (compare != 0) ? compare : Integer.compare(a.position, b.position);
+        };
+
+        private final double distance;
+        private final int position;
+
+        private Candidate(double distance, int position) {
+            this.distance = distance;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Generation stamped visited flags, cleared in O(1)
+     */
+    private static final class VisitedSet {
+
+        private final int[] stamps;
+        private int generation = 0;
+
+        private VisitedSet(int size) {
+            this.stamps = new int[size];
+        }
+
+        private void clear() {
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(stamps, 0);
+                generation = 1;
+            }
+        }
+
+        /**
+         * @return true the first time the node is seen
+         */
+        private boolean visit(int node) {
+            if (stamps[node] == generation) {
+                return false;
+            }
+            stamps[node] = generation;
+            return true;
+        }
+    }
+}
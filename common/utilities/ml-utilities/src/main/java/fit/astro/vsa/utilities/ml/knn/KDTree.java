@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.math.vector.VectorDistanceType;
+import java.util.Map;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Bentley, J. L. (1975). Multidimensional binary search trees used for
+ * associative searching. Communications of the ACM, 18(9), 509-517.
+ *
+ * Exact KD-tree for low dimensional features, each node keeps the bounding
+ * box of its points.
+ *
+ * @author Kyle Johnston kyjohnst2000@my.fit.edu
+ */
+public class KDTree extends SpatialTree {
+
+    private final double[] boxLower;
+    private final double[] boxUpper;
+
+    /**
+     *
+     * @param setOfTrainingData the set of training data
+     * @param distanceType Euclidean or city block
+     */
+    public KDTree(Map<Integer, RealVector> setOfTrainingData,
+            VectorDistanceType distanceType) {
+        super(setOfTrainingData, distanceType);
+
+        this.boxLower = new double[numNodes * dimension];
+        this.boxUpper = new double[numNodes * dimension];
+
+        for (int node = 0; node < numNodes; node++) {
+            int offset = node * dimension;
+            for (int jdx = 0; jdx < dimension; jdx++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int idx = nodeStart[node]; idx < nodeEnd[node]; idx++) {
+                    double value = trainingData[order[idx] * dimension + jdx];
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+                boxLower[offset + jdx] = min;
+                boxUpper[offset + jdx] = max;
+            }
+        }
+    }
+
+    /**
+     * Distance from the query to the bounding box. Each term is no larger
+     * than the matching term for any point in the box, so the bound also
+     * holds in floating point.
+     */
+    @Override
+    protected double lowerBound(int node, double[] query) {
+
+        int offset = node * dimension;
+        double distance = 0.0;
+
+        for (int idx = 0; idx < dimension; idx++) {
+            double gap = 0.0;
+            if (query[idx] < boxLower[offset + idx]) {
+                gap = boxLower[offset + idx] - query[idx];
+            } else if (query[idx] > boxUpper[offset + idx]) {
+                gap = query[idx] - boxUpper[offset + idx];
+            }
+
+            distance += (distanceType == VectorDistanceType.CITY_BLOCK)
+                    ? gap : gap * gap;
+        }
+
+        return (distanceType == VectorDistanceType.CITY_BLOCK)
+                ? distance : Math.sqrt(distance);
+    }
+}
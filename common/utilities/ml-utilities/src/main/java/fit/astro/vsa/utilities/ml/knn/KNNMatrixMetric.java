@@ -28,6 +28,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 
@@ -233,99 +236,80 @@ public class KNNMatrixMetric {
 
         MetricDistance_MV metricDistance = new MetricDistance_MV(metricMatrix);
 
-        Map<String, Integer> uniqueLabelCount
-                = LabelHandling.countUniqueClasses(setOfTrainingClasses);
-
-        Map<Integer, ClassificationResult> results = new HashMap<>();
-
-        for (int idx = 0; idx < kValues.length; idx++) {
-            Map<Integer, String> labelEstimate = new HashMap<>();
-            Map<Integer, Map<String, Double>> labelPostProb = new HashMap<>();
-
-            results.put(kValues[idx], new ClassificationResult(labelEstimate, labelPostProb, uniqueLabelCount));
-        }
+        int[] trainingIDs = setOfTrainingData.keySet().stream()
+                .mapToInt(Integer::intValue).toArray();
+        int depth = IntStream.of(kValues).max().orElse(0);
 
         // ========================================        
-        // Loop Over Input Data
-        for (Integer idx : inputPatternMap.keySet()) {
-
-            RealMatrix crossvalPattern = inputPatternMap.get(idx);
-
-            // ==============================================================
-            // Generate Distances
-            Map<Integer, Double> setOfDistances = new HashMap<>();
-
-            for (Integer trainingDataID : setOfTrainingData.keySet()) {
-
-                Double distance;
-                if (isEuclidean) {
-                    distance = (setOfTrainingData.get(trainingDataID)
-                            .subtract(crossvalPattern)).getFrobeniusNorm();
-                } else {
-                    distance = metricDistance.matrixDistance(
-                            setOfTrainingData.get(trainingDataID),
-                            crossvalPattern);
-                }
-
-                setOfDistances.put(trainingDataID, distance);
-            }
-
-            // ==============================================================
-            // Find Nearest Neighbors
-            Map<Integer, Double> sortedDistances
-                    = SortingOperations.sortByAcendingValue(setOfDistances);
-
-            // Post Prob Estimates for Class
-            Map<String, Double> nearestNeighborResponse = new HashMap<>();
-
-            uniqueLabelCount.keySet().stream().forEach((uniqueLabels) -> {
-                nearestNeighborResponse.put(uniqueLabels, 0.0);
-            });
-
-            // ================================================
-            for (int kdx = 0; kdx < kValues.length; kdx++) {
-
-                int kValue = kValues[kdx];
-
-                // k nearest
-                int counter = 0;
-                for (Integer jdx : sortedDistances.keySet()) {
-                    if (nearestNeighborResponse.containsKey(setOfTrainingClasses.get(jdx))) {
-                        String classLabel = setOfTrainingClasses.get(jdx);
-                        Double currentCount = nearestNeighborResponse.get(classLabel);
-                        nearestNeighborResponse.put(classLabel,
-                                currentCount + 1.0 / (double) kValue);
-                        counter++;
-                    }
-
-                    if (counter == kValue) {
-                        break;
-                    }
-                }
-
-                results.get(kValue).getLabelAndPostProb().put(idx, nearestNeighborResponse);
+        // One neighbor list of depth max(k) per input
+        Map<Integer, int[]> setOfNeighbors = inputPatternMap
+                .keySet().parallelStream()
+                .collect(Collectors.toMap(Function.identity(), (idx) -> {
+
+                    RealMatrix crossvalPattern = inputPatternMap.get(idx);
+
+                    return KNNMultiKEvaluator.nearestNeighbors(trainingIDs, depth,
+                            (position) -> {
+                        RealMatrix trainingPattern
+                                = setOfTrainingData.get(trainingIDs[position]);
+                        if (isEuclidean) {
+                            return (trainingPattern.subtract(crossvalPattern))
+                                    .getFrobeniusNorm();
+                        } else {
+                            return metricDistance.matrixDistance(
+                                    trainingPattern, crossvalPattern);
+                        }
+                            });
+                }));
+
+        return new KNNMultiKEvaluator(setOfTrainingClasses)
+                .execute(kValues, missedLabel, setOfNeighbors);
+    }
 
-                // ==============================================================
-                // Determine Class Based on Sorted Post Prob           
-                Map<String, Double> sortedNeighbors
-                        = SortingOperations.sortByDecendingValue(nearestNeighborResponse);
+    /**
+     * VP-tree over the training data, build once and pass to execute for
+     * every batch of inputs
+     *
+     * @param metricMatrix
+     *
+     * @return
+     */
+    public NeighborIndex<RealMatrix> generateNeighborIndex(RealMatrix[] metricMatrix) {
+        return new VPTree<>(setOfTrainingData, VPTree.matrixMetric(metricMatrix));
+    }
 
-                List<Entry<String, Double>> knnList = new ArrayList<>(
-                        sortedNeighbors.entrySet());
+    /**
+     * LAESA pivot table over the training data, fewer metric evaluations
+     * than the VP-tree when the metric is expensive
+     *
+     * @param metricMatrix U and V, positive semi-definite
+     * @param numPivots number of pivots
+     *
+     * @return
+     */
+    public NeighborIndex<RealMatrix> generatePivotIndex(RealMatrix[] metricMatrix,
+            int numPivots) {
+        return new PivotTable<>(setOfTrainingData, VPTree.matrixMetric(metricMatrix),
+                numPivots);
+    }
 
-                if (NumericTests.isApproxEqual(
-                        knnList.get(0).getValue(),
-                        knnList.get(1).getValue())) {
-                    // tie is "missed"
-                    results.get(kValue).getLabelEstimate().put(idx, missedLabel);
-                } else {
-                    // winner take all
-                    results.get(kValue).getLabelEstimate().put(idx, knnList.get(0).getKey());
-                }
-            }
+    /**
+     *
+     * @param kValues
+     * @param missedLabel
+     * @param neighborIndex index built over this classifier's training data
+     * @param inputPatternMap
+     *
+     * @return
+     */
+    public Map<Integer, ClassificationResult> execute(int[] kValues, String missedLabel,
+            NeighborIndex<RealMatrix> neighborIndex, Map<Integer, RealMatrix> inputPatternMap) {
 
-        }
+        Map<Integer, int[]> setOfNeighbors = neighborIndex.nearestNeighbors(
+                inputPatternMap, IntStream.of(kValues).max().orElse(0));
 
-        return results;
+        return new KNNMultiKEvaluator(setOfTrainingClasses)
+                .execute(kValues, missedLabel, setOfNeighbors);
     }
+
 }
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.datahandling.LabelHandling;
+import fit.astro.vsa.common.utilities.math.NumericTests;
+import fit.astro.vsa.common.utilities.math.support.SortingOperations;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Function;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluate several k at once. Each query needs one neighbor list of depth
+ * max(k), the votes for every k are prefix counts of that list, so a sweep
+ * over k costs the same as the largest k alone.
+ *
+ * @author Kyle Johnston kyjohnst2000@my.fit.edu
+ */
+public class KNNMultiKEvaluator {
+
+    private final Map<Integer, String> setOfTrainingClasses;
+    private final Map<String, Integer> uniqueLabelCount;
+
+    /**
+     *
+     * @param setOfTrainingClasses the set of training labels
+     */
+    public KNNMultiKEvaluator(Map<Integer, String> setOfTrainingClasses) {
+        this.setOfTrainingClasses = setOfTrainingClasses;
+        this.uniqueLabelCount = LabelHandling.countUniqueClasses(setOfTrainingClasses);
+    }
+
+    /**
+     *
+     * @param kValues
+     * @param missedLabel
+     * @param setOfNeighbors query ID to training IDs, nearest first, depth of
+     * at least max(kValues) where available
+     *
+     * @return k to classification result
+     */
+    public Map<Integer, ClassificationResult> execute(int[] kValues,
+            String missedLabel, Map<Integer, int[]> setOfNeighbors) {
+
+        int[] sortedK = IntStream.of(kValues).distinct().sorted().toArray();
+
+        Map<Integer, List<Map<String, Double>>> setOfResponses = setOfNeighbors
+                .keySet().parallelStream()
+                .collect(Collectors.toMap(Function.identity(),
+                        (idx) -> prefixResponses(setOfNeighbors.get(idx), sortedK)));
+
+        Map<Integer, ClassificationResult> results = new HashMap<>();
+
+        for (int kdx = 0; kdx < sortedK.length; kdx++) {
+            Map<Integer, String> labelEstimate = new HashMap<>();
+            Map<Integer, Map<String, Double>> labelPostProb = new HashMap<>();
+
+            for (Integer idx : setOfResponses.keySet()) {
+                Map<String, Double> nearestNeighborResponse
+                        = setOfResponses.get(idx).get(kdx);
+
+                labelPostProb.put(idx, nearestNeighborResponse);
+                labelEstimate.put(idx, determineClass(nearestNeighborResponse, missedLabel));
+            }
+
+            results.put(sortedK[kdx], new ClassificationResult(
+                    labelEstimate, labelPostProb, uniqueLabelCount));
+        }
+
+        return results;
+    }
+
+    /**
+     * Leave one out over the training set, every training pattern is
+     * classified by all of the others
+     *
+     * @param kValues
+     * @param missedLabel
+     * @param trainingIDs IDs of the rows/columns of the distance matrix
+     * @param distanceMatrix pairwise training distances
+     *
+     * @return k to classification result
+     */
+    public Map<Integer, ClassificationResult> executeLeaveOneOut(int[] kValues,
+            String missedLabel, int[] trainingIDs, double[][] distanceMatrix) {
+
+        int depth = IntStream.of(kValues).max().orElse(0);
+
+        Map<Integer, int[]> setOfNeighbors = IntStream.range(0, trainingIDs.length)
+                .parallel().boxed()
+                .collect(Collectors.toMap((position) -> trainingIDs[position],
+                        (position) -> nearestNeighbors(trainingIDs, depth,
+                                (jdx, bound) -> distanceMatrix[position][jdx], position)));
+
+        return execute(kValues, missedLabel, setOfNeighbors);
+    }
+
+    /**
+     * Distance from the query to a training position that may give up, and
+     * return infinity, once it can not beat the bound
+     */
+    @FunctionalInterface
+    public interface AbandoningDistance {
+
+        /**
+         *
+         * @param position training position
+         * @param bound distance of the current k-th neighbor
+         * @return the distance, or infinity if abandoned
+         */
+        double applyAsDouble(int position, double bound);
+    }
+
+    /**
+     * Sorted neighbor list for a single query
+     *
+     * @param trainingIDs training IDs by position
+     * @param depth number of neighbors to keep
+     * @param distanceToPosition distance from the query to a training position
+     * @return training IDs, nearest first
+     */
+    public static int[] nearestNeighbors(int[] trainingIDs, int depth,
+            IntToDoubleFunction distanceToPosition) {
+        return nearestNeighbors(trainingIDs, depth,
+                (position, bound) -> distanceToPosition.applyAsDouble(position), -1);
+    }
+
+    /**
+     * Sorted neighbor list for a single query, each distance is told the
+     * current k-th neighbor so it can abandon early
+     *
+     * @param trainingIDs training IDs by position
+     * @param depth number of neighbors to keep
+     * @param distanceToPosition distance from the query to a training position
+     * @return training IDs, nearest first
+     */
+    public static int[] nearestNeighbors(int[] trainingIDs, int depth,
+            AbandoningDistance distanceToPosition) {
+        return nearestNeighbors(trainingIDs, depth, distanceToPosition, -1);
+    }
+
+    private static int[] nearestNeighbors(int[] trainingIDs, int depth,
+            AbandoningDistance distanceToPosition, int excluded) {
+
+        int available = (excluded < 0) ? trainingIDs.length : trainingIDs.length - 1;
+        NeighborHeap heap = new NeighborHeap(Math.min(depth, available));
+
+        for (int position = 0; position < trainingIDs.length; position++) {
+            if (position != excluded) {
+                heap.offer(distanceToPosition.applyAsDouble(position,
+                        heap.getBound()), position);
+            }
+        }
+
+        int[] sortedPositions = heap.getSortedPositions();
+        int[] sortedIDs = new int[sortedPositions.length];
+        for (int idx = 0; idx < sortedPositions.length; idx++) {
+            sortedIDs[idx] = trainingIDs[sortedPositions[idx]];
+        }
+        return sortedIDs;
+    }
+
+    // ==============================================================
+    // Voting
+    private List<Map<String, Double>> prefixResponses(int[] sortedIDs, int[] sortedK) {
+
+        int[] labelCount = new int[uniqueLabelCount.size()];
+        List<String> labels = new ArrayList<>(uniqueLabelCount.keySet());
+        Map<String, Integer> labelIndex = new HashMap<>();
+        for (int idx = 0; idx < labels.size(); idx++) {
+            labelIndex.put(labels.get(idx), idx);
+        }
+
+        List<Map<String, Double>> responses = new ArrayList<>(sortedK.length);
+
+        int depth = 0;
+        for (int kValue : sortedK) {
+
+            // extend the prefix to the next k
+            while (depth < kValue && depth < sortedIDs.length) {
+                labelCount[labelIndex.get(setOfTrainingClasses.get(sortedIDs[depth]))]++;
+                depth++;
+            }
+
+            Map<String, Double> nearestNeighborResponse = new HashMap<>();
+            for (int idx = 0; idx < labels.size(); idx++) {
+                nearestNeighborResponse.put(labels.get(idx),
+                        vote(labelCount[idx], kValue));
+            }
+            responses.add(nearestNeighborResponse);
+        }
+
+        return responses;
+    }
+
+    /**
+     * Post prob estimates for class, votes weighted 1/k
+     *
+     * @param sortedIDs training IDs, nearest first, at most k of them
+     * @param kValue
+     * @param setOfTrainingClasses
+     * @param uniqueLabelCount
+     * @return
+     */
+    static Map<String, Double> postProbEstimate(int[] sortedIDs, int kValue,
+            Map<Integer, String> setOfTrainingClasses,
+            Map<String, Integer> uniqueLabelCount) {
+
+        Map<String, Integer> labelCount = new HashMap<>();
+        uniqueLabelCount.keySet().stream().forEach((uniqueLabels) -> {
+            labelCount.put(uniqueLabels, 0);
+        });
+
+        for (int jdx : sortedIDs) {
+            String classLabel = setOfTrainingClasses.get(jdx);
+            labelCount.put(classLabel, labelCount.get(classLabel) + 1);
+        }
+
+        Map<String, Double> nearestNeighborResponse = new HashMap<>();
+        labelCount.keySet().stream().forEach((classLabel) -> {
+            nearestNeighborResponse.put(classLabel,
+                    vote(labelCount.get(classLabel), kValue));
+        });
+
+        return nearestNeighborResponse;
+    }
+
+    /**
+     * Accumulated one vote at a time, so the value is bit for bit the
+     * running sum the single k classifiers have always produced
+     */
+    private static double vote(int count, int kValue) {
+        double currentCount = 0.0;
+        for (int idx = 0; idx < count; idx++) {
+            currentCount = currentCount + 1.0 / (double) kValue;
+        }
+        return currentCount;
+    }
+
+    /**
+     * Determine class based on sorted post prob, a tie is "missed"
+     *
+     * @param nearestNeighborResponse
+     * @param missedLabel
+     * @return
+     */
+    static String determineClass(Map<String, Double> nearestNeighborResponse,
+            String missedLabel) {
+
+        Map<String, Double> sortedNeighbors
+                = SortingOperations.sortByDecendingValue(nearestNeighborResponse);
+
+        List<Entry<String, Double>> knnList = new ArrayList<>(
+                sortedNeighbors.entrySet());
+
+        if (NumericTests.isApproxEqual(
+                knnList.get(0).getValue(),
+                knnList.get(1).getValue())) {
+            // tie is "missed"
+            return missedLabel;
+        } else {
+            // winner take all
+            return knnList.get(0).getKey();
+        }
+    }
+}
@@ -16,18 +16,18 @@
  */
 package fit.astro.vsa.utilities.ml.knn;
 
-import fit.astro.vsa.common.utilities.math.NumericTests;
 import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
-import fit.astro.vsa.common.utilities.math.support.SortingOperations;
 import fit.astro.vsa.common.bindings.ml.ClassificationResult;
-import fit.astro.vsa.utilities.ml.MultiViewMetricDistance;
+import fit.astro.vsa.utilities.ml.FusedMultiViewDistance;
 import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric;
-import fit.astro.vsa.common.datahandling.LabelHandling;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
@@ -109,96 +109,11 @@ public class KNNMultiVectorMetric {
             Map<String, MultiViewMetric> multiMatrix,
             Map<Integer, Map<String, RealVector>> inputPatternMap) {
 
-        MultiViewMetricDistance metricDistance
-                = new MultiViewMetricDistance(multiMatrix);
+        Map<Integer, int[]> setOfNeighbors = nearestNeighbors(kValue,
+                fusedDistance(multiMatrix), inputPatternMap);
 
-        Map<Integer, String> labelEstimate = new HashMap<>();
-        Map<Integer, Map<String, Double>> labelPostProb = new HashMap<>();
-
-        Map<String, Integer> uniqueLabelCount
-                = LabelHandling.countUniqueClasses(setOfTrainingClasses);
-        // ========================================        
-        // Loop Over Input Data
-        for (Integer idx : inputPatternMap.keySet()) {
-
-            Map<String, RealVector> crossvalPattern = inputPatternMap.get(idx);
-
-            // ==============================================================
-            // Generate Distances
-            Map<Integer, Double> setOfDistances = new HashMap<>(setOfTrainingData.size());
-
-            setOfTrainingData.keySet().stream().forEach((trainingDataID) -> {
-
-                Double distance = 0.0;
-                if (isEuclidean) {
-
-                    for (String view : multiMatrix.keySet()) {
-                        distance += setOfTrainingData.get(trainingDataID).get(view)
-                                .getDistance(crossvalPattern.get(view));
-                    }
-                    distance = distance / (double) multiMatrix.keySet().size();
-
-                } else {
-
-                    distance = metricDistance.multiviewDistance(
-                            setOfTrainingData.get(trainingDataID),
-                            crossvalPattern);
-
-                }
-                setOfDistances.put(trainingDataID, distance);
-            });
-
-            // ==============================================================
-            // Find Nearest Neighbors
-            Map<Integer, Double> sortedDistances
-                    = SortingOperations.sortByAcendingValue(setOfDistances);
-
-            // Post Prob Estimates for Class
-            Map<String, Double> nearestNeighborResponse = new HashMap<>();
-
-            uniqueLabelCount.keySet().stream().forEach((uniqueLabels) -> {
-                nearestNeighborResponse.put(uniqueLabels, 0.0);
-            });
-
-            // k nearest
-            int counter = 0;
-            for (Integer jdx : sortedDistances.keySet()) {
-                if (nearestNeighborResponse.containsKey(setOfTrainingClasses.get(jdx))) {
-                    String classLabel = setOfTrainingClasses.get(jdx);
-                    Double currentCount = nearestNeighborResponse.get(classLabel);
-                    nearestNeighborResponse.put(classLabel,
-                            currentCount + 1.0 / (double) kValue);
-                    counter++;
-                }
-
-                if (counter == kValue) {
-                    break;
-                }
-            }
-
-            labelPostProb.put(idx, nearestNeighborResponse);
-
-            // ==============================================================
-            // Determine Class Based on Sorted Post Prob           
-            Map<String, Double> sortedNeighbors
-                    = SortingOperations.sortByDecendingValue(nearestNeighborResponse);
-
-            List<Entry<String, Double>> knnList = new ArrayList<>(
-                    sortedNeighbors.entrySet());
-
-            if (NumericTests.isApproxEqual(
-                    knnList.get(0).getValue(),
-                    knnList.get(1).getValue())) {
-                // tie is "missed"
-                labelEstimate.put(idx, missedLabel);
-            } else {
-                // winner take all
-                labelEstimate.put(idx, knnList.get(0).getKey());
-            }
-
-        }
-
-        return new ClassificationResult(labelEstimate, labelPostProb, uniqueLabelCount);
+        return new KNNMultiKEvaluator(setOfTrainingClasses)
+                .execute(new int[]{kValue}, missedLabel, setOfNeighbors).get(kValue);
     }
 
     /**
@@ -233,109 +148,94 @@ public class KNNMultiVectorMetric {
             Map<String, MultiViewMetric> multiMatrix,
             Map<Integer, Map<String, RealVector>> inputPatternMap) {
 
-        MultiViewMetricDistance metricDistance
-                = new MultiViewMetricDistance(multiMatrix);
+        Map<Integer, int[]> setOfNeighbors = nearestNeighbors(
+                IntStream.of(kValues).max().orElse(0),
+                fusedDistance(multiMatrix), inputPatternMap);
+
+        return new KNNMultiKEvaluator(setOfTrainingClasses)
+                .execute(kValues, missedLabel, setOfNeighbors);
+    }
+
+    /**
+     * VP-tree over the training data, build once and pass to execute for
+     * every batch of inputs
+     *
+     * @param multiMatrix
+     *
+     * @return
+     */
+    public NeighborIndex<Map<String, RealVector>> generateNeighborIndex(
+            Map<String, MultiViewMetric> multiMatrix) {
+        return new VPTree<>(setOfTrainingData, VPTree.multiViewMetric(multiMatrix));
+    }
+
+    /**
+     *
+     * @param kValues
+     * @param missedLabel
+     * @param neighborIndex index built over this classifier's training data
+     * @param inputPatternMap
+     *
+     * @return
+     */
+    public Map<Integer, ClassificationResult> execute(int[] kValues, String missedLabel,
+            NeighborIndex<Map<String, RealVector>> neighborIndex,
+            Map<Integer, Map<String, RealVector>> inputPatternMap) {
+
+        Map<Integer, int[]> setOfNeighbors = neighborIndex.nearestNeighbors(
+                inputPatternMap, IntStream.of(kValues).max().orElse(0));
 
-        Map<String, Integer> uniqueLabelCount
-                = LabelHandling.countUniqueClasses(setOfTrainingClasses);
+        return new KNNMultiKEvaluator(setOfTrainingClasses)
+                .execute(kValues, missedLabel, setOfNeighbors);
+    }
 
-        Map<Integer, ClassificationResult> results = new HashMap<>();
+    // ================================================================
+    // Fused Distance
+    /**
+     * One neighbor list of depth max(k) per input, each training distance
+     * abandoned once it can not beat the current k-th neighbor
+     */
+    private Map<Integer, int[]> nearestNeighbors(int depth,
+            FusedMultiViewDistance fusedDistance,
+            Map<Integer, Map<String, RealVector>> inputPatternMap) {
 
-        for (int idx = 0; idx < kValues.length; idx++) {
-            Map<Integer, String> labelEstimate = new HashMap<>();
-            Map<Integer, Map<String, Double>> labelPostProb = new HashMap<>();
+        int[] trainingIDs = setOfTrainingData.keySet().stream()
+                .mapToInt(Integer::intValue).toArray();
 
-            results.put(kValues[idx], new ClassificationResult(labelEstimate, labelPostProb, uniqueLabelCount));
-        }
+        double[][][] trainingPatterns = new double[trainingIDs.length][][];
+        Arrays.parallelSetAll(trainingPatterns, (position) -> fusedDistance
+                .flattenVectors(setOfTrainingData.get(trainingIDs[position])));
 
-        // ========================================        
-        // Loop Over Input Data
-        for (Integer idx : inputPatternMap.keySet()) {
-
-            Map<String, RealVector> crossvalPattern = inputPatternMap.get(idx);
-
-            // ==============================================================
-            // Generate Distances
-            Map<Integer, Double> setOfDistances = new HashMap<>();
-
-            setOfTrainingData.keySet().stream().forEach((trainingDataID) -> {
-                Double distance = 0.0;
-                if (isEuclidean) {
-
-                    for (String view : multiMatrix.keySet()) {
-                        distance += setOfTrainingData.get(trainingDataID).get(view)
-                                .getDistance(crossvalPattern.get(view));
-                    }
-                    distance = distance / (double) multiMatrix.keySet().size();
-
-                } else {
-
-                    distance = metricDistance.multiviewDistance(
-                            setOfTrainingData.get(trainingDataID),
-                            crossvalPattern);
-
-                }
-
-                setOfDistances.put(trainingDataID, distance);
-            });
-
-            // ==============================================================
-            // Find Nearest Neighbors
-            Map<Integer, Double> sortedDistances
-                    = SortingOperations.sortByAcendingValue(setOfDistances);
-
-            // Post Prob Estimates for Class
-            Map<String, Double> nearestNeighborResponse = new HashMap<>();
-
-            uniqueLabelCount.keySet().stream().forEach((uniqueLabels) -> {
-                nearestNeighborResponse.put(uniqueLabels, 0.0);
-            });
-
-            // ================================================
-            for (int kdx = 0; kdx < kValues.length; kdx++) {
-
-                int kValue = kValues[kdx];
-
-                // k nearest
-                int counter = 0;
-                for (Integer jdx : sortedDistances.keySet()) {
-                    if (nearestNeighborResponse.containsKey(setOfTrainingClasses.get(jdx))) {
-                        String classLabel = setOfTrainingClasses.get(jdx);
-                        Double currentCount = nearestNeighborResponse.get(classLabel);
-                        nearestNeighborResponse.put(classLabel,
-                                currentCount + 1.0 / (double) kValue);
-                        counter++;
-                    }
-
-                    if (counter == kValue) {
-                        break;
-                    }
-                }
-
-                results.get(kValue).getLabelAndPostProb().put(idx, nearestNeighborResponse);
-
-                // ==============================================================
-                // Determine Class Based on Sorted Post Prob           
-                Map<String, Double> sortedNeighbors
-                        = SortingOperations.sortByDecendingValue(nearestNeighborResponse);
-
-                List<Entry<String, Double>> knnList = new ArrayList<>(
-                        sortedNeighbors.entrySet());
-
-                if (NumericTests.isApproxEqual(
-                        knnList.get(0).getValue(),
-                        knnList.get(1).getValue())) {
-                    // tie is "missed"
-                    results.get(kValue).getLabelEstimate().put(idx, missedLabel);
-                } else {
-                    // winner take all
-                    results.get(kValue).getLabelEstimate().put(idx, knnList.get(0).getKey());
-                }
-            }
+        return inputPatternMap.keySet().parallelStream()
+                .collect(Collectors.toMap(Function.identity(), (idx) -> {
 
-        }
+                    double[][] crossvalPattern = fusedDistance
+                            .flattenVectors(inputPatternMap.get(idx));
 
-        return results;
+                    return KNNMultiKEvaluator.nearestNeighbors(trainingIDs, depth,
+                            (position, bound) -> fusedDistance.distance(
+                                    trainingPatterns[position], crossvalPattern, bound));
+                }));
     }
 
+    /**
+     * Mean of the per view Euclidean distances when isEuclidean, otherwise
+     * the weighted metric
+     */
+    private FusedMultiViewDistance fusedDistance(Map<String, MultiViewMetric> multiMatrix) {
+
+        if (isEuclidean) {
+            List<String> views = new ArrayList<>(multiMatrix.keySet());
+            Map<String, RealVector> firstPattern
+                    = setOfTrainingData.values().iterator().next();
+
+            int[] viewSizes = new int[views.size()];
+            for (int vdx = 0; vdx < views.size(); vdx++) {
+                viewSizes[vdx] = firstPattern.get(views.get(vdx)).getDimension();
+            }
+            return FusedMultiViewDistance.euclidean(views, viewSizes);
+        }
+
+        return FusedMultiViewDistance.vectorMetric(multiMatrix);
+    }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import fit.astro.vsa.utilities.ml.MetricTransform;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * kNN under a learned metric M (NCA, LMNN, ITML, MMC, ...) in the projected
+ * space: M is factored once, the training data are transformed once, and
+ * every distance is then a squared Euclidean distance, O(d) instead of
+ * O(d^2) per pair.
+ *
+ * @author Kyle Johnston kyjohnst2000@my.fit.edu
+ */
+public class KNNProjectedMetric {
+
+    // ============================================
+    // Input
+    private final Map<Integer, String> setOfTrainingClasses;
+
+    private final MetricTransform metricTransform;
+    private final NearestNeighborSearch nearestNeighborSearch;
+
+    /**
+     *
+     * @param setOfTrainingData the set of training data which is n x p
+     * @param setOfTrainingClasses the set of training labels which are 1 x p
+     * @param metricMatrix the learned metric
+     * @throws NotEnoughDataException
+     */
+    public KNNProjectedMetric(
+            Map<Integer, RealVector> setOfTrainingData,
+            Map<Integer, String> setOfTrainingClasses,
+            RealMatrix metricMatrix) throws NotEnoughDataException {
+        this.setOfTrainingClasses = setOfTrainingClasses;
+
+        if (setOfTrainingData == null
+                || setOfTrainingData.values() == null
+                || setOfTrainingData.size() < 1) {
+            throw new NotEnoughDataException("No data given, can not make classifier");
+        }
+
+        this.metricTransform = new MetricTransform(metricMatrix);
+        this.nearestNeighborSearch = new NearestNeighborSearch(
+                metricTransform.transform(setOfTrainingData));
+    }
+
+    /**
+     *
+     * @param kValue
+     * @param missedLabel
+     * @param inputPatternMap
+     *
+     * @return
+     */
+    public ClassificationResult execute(int kValue,
+            String missedLabel, Map<Integer, RealVector> inputPatternMap) {
+
+        Map<Integer, ClassificationResult> results = execute(
+                new int[]{kValue}, missedLabel, inputPatternMap);
+
+        return results.get(kValue);
+    }
+
+    /**
+     *
+     * @param kValues
+     * @param missedLabel
+     * @param inputPatternMap
+     *
+     * @return
+     */
+    public Map<Integer, ClassificationResult> execute(int[] kValues,
+            String missedLabel, Map<Integer, RealVector> inputPatternMap) {
+
+        int depth = IntStream.of(kValues).max().orElse(0);
+
+        // ========================================
+        // Project each input once, one neighbor list of depth max(k)
+        Map<Integer, int[]> setOfNeighbors = inputPatternMap
+                .keySet().parallelStream()
+                .collect(Collectors.toMap(Function.identity(), (idx) -> {
+
+                    double[] crossvalPattern = metricTransform
+                            .transform(inputPatternMap.get(idx)).toArray();
+
+                    int[] sortedPositions = nearestNeighborSearch
+                            .searchSquaredEuclidean(crossvalPattern, depth)
+                            .getSortedPositions();
+
+                    int[] sortedIDs = new int[sortedPositions.length];
+                    for (int jdx = 0; jdx < sortedPositions.length; jdx++) {
+                        sortedIDs[jdx] = nearestNeighborSearch
+                                .getTrainingID(sortedPositions[jdx]);
+                    }
+                    return sortedIDs;
+                }));
+
+        return new KNNMultiKEvaluator(setOfTrainingClasses)
+                .execute(kValues, missedLabel, setOfNeighbors);
+    }
+
+    /**
+     * @return the factor L of M = L'L
+     */
+    public MetricTransform getMetricTransform() {
+        return metricTransform;
+    }
+}
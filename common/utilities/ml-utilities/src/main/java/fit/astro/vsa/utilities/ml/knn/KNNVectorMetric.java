@@ -16,17 +16,16 @@
  */
 package fit.astro.vsa.utilities.ml.knn;
 
-import fit.astro.vsa.common.utilities.math.NumericTests;
 import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
-import fit.astro.vsa.common.utilities.math.support.SortingOperations;
+import fit.astro.vsa.common.bindings.math.vector.VectorDistanceType;
 import fit.astro.vsa.common.bindings.ml.ClassificationResult;
-import fit.astro.vsa.utilities.ml.MetricDistance;
 import fit.astro.vsa.common.datahandling.LabelHandling;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
@@ -49,6 +48,12 @@ public class KNNVectorMetric {
     private final Map<Integer, RealVector> setOfTrainingData;
     private final Map<Integer, String> setOfTrainingClasses;
 
+    private final NearestNeighborSearch nearestNeighborSearch;
+    private final Map<VectorDistanceType, NeighborIndex<double[]>> setOfIndexes
+            = new ConcurrentHashMap<>();
+
+    private static final int KD_TREE_MAX_DIMENSION = 16;
+
     private boolean isEuclidean = Boolean.FALSE;
 
     /**
@@ -68,6 +73,8 @@ public class KNNVectorMetric {
                 || setOfTrainingData.size() < 1) {
             throw new NotEnoughDataException("No data given, can not make classifier");
         }
+
+        this.nearestNeighborSearch = new NearestNeighborSearch(setOfTrainingData);
     }
 
     /**
@@ -103,84 +110,34 @@ public class KNNVectorMetric {
     public ClassificationResult execute(int kValue, String missedLabel,
             RealMatrix metricMatrix, Map<Integer, RealVector> inputPatternMap) {
 
-        MetricDistance metricDistance = new MetricDistance(metricMatrix);
-        Map<Integer, String> labelEstimate = new HashMap<>();
-        Map<Integer, Map<String, Double>> labelPostProb = new HashMap<>();
+        double[][] metricData = metricMatrix.getData();
 
         Map<String, Integer> uniqueLabelCount
                 = LabelHandling.countUniqueClasses(setOfTrainingClasses);
+
         // ========================================        
-        // Loop Over Input Data
-        for (Integer idx : inputPatternMap.keySet()) {
+        // Loop Over Input Data, k nearest via bounded heap
+        Map<Integer, Map<String, Double>> labelPostProb = inputPatternMap
+                .keySet().parallelStream()
+                .collect(Collectors.toMap(Function.identity(), (idx) -> {
+
+                    double[] crossvalPattern = inputPatternMap.get(idx).toArray();
+
+                    NeighborHeap nearest = isEuclidean
+                            ? nearestNeighborSearch.searchEuclidean(crossvalPattern, kValue)
+                            : nearestNeighborSearch.searchMetric(crossvalPattern, kValue, metricData);
 
-            RealVector crossvalPattern = inputPatternMap.get(idx);
-
-            // ==============================================================
-            // Generate Distances
-            Map<Integer, Double> setOfDistances = new HashMap<>();
-
-            for (Integer trainingDataID : setOfTrainingData.keySet()) {
-
-                Double distance;
-                if (isEuclidean) {
-                    distance = setOfTrainingData.get(trainingDataID).getDistance(crossvalPattern);
-                } else {
-                    distance = metricDistance.distance(
-                            setOfTrainingData.get(trainingDataID),
-                            crossvalPattern);
-                }
-
-                setOfDistances.put(trainingDataID, distance);
-            }
-
-            // ==============================================================
-            // Find Nearest Neighbors
-            Map<Integer, Double> sortedDistances
-                    = SortingOperations.sortByAcendingValue(setOfDistances);
-
-            // Post Prob Estimates for Class
-            Map<String, Double> nearestNeighborResponse = new HashMap<>();
-
-            uniqueLabelCount.keySet().stream().forEach((uniqueLabels) -> {
-                nearestNeighborResponse.put(uniqueLabels, 0.0);
-            });
-
-            // k nearest
-            int counter = 0;
-            for (Integer jdx : sortedDistances.keySet()) {
-                if (nearestNeighborResponse.containsKey(setOfTrainingClasses.get(jdx))) {
-                    String classLabel = setOfTrainingClasses.get(jdx);
-                    Double currentCount = nearestNeighborResponse.get(classLabel);
-                    nearestNeighborResponse.put(classLabel,
-                            currentCount + 1.0 / (double) kValue);
-                    counter++;
-                }
-
-                if (counter == kValue) {
-                    break;
-                }
-            }
-
-            labelPostProb.put(idx, nearestNeighborResponse);
-
-            // ==============================================================
-            // Determine Class Based on Sorted Post Prob           
-            Map<String, Double> sortedNeighbors
-                    = SortingOperations.sortByDecendingValue(nearestNeighborResponse);
-
-            List<Entry<String, Double>> knnList = new ArrayList<>(
-                    sortedNeighbors.entrySet());
-
-            if (NumericTests.isApproxEqual(
-                    knnList.get(0).getValue(),
-                    knnList.get(1).getValue())) {
-                // tie is "missed"
-                labelEstimate.put(idx, missedLabel);
-            } else {
-                // winner take all
-                labelEstimate.put(idx, knnList.get(0).getKey());
-            }
+                    return KNNMultiKEvaluator.postProbEstimate(
+                            trainingIDs(nearest.getSortedPositions()), kValue,
+                            setOfTrainingClasses, uniqueLabelCount);
+                }));
 
+        // ==============================================================
+        // Determine Class Based on Sorted Post Prob
+        Map<Integer, String> labelEstimate = new HashMap<>();
+        for (Integer idx : labelPostProb.keySet()) {
+            labelEstimate.put(idx, KNNMultiKEvaluator.determineClass(
+                    labelPostProb.get(idx), missedLabel));
         }
 
         return new ClassificationResult(labelEstimate, labelPostProb, uniqueLabelCount);
@@ -218,100 +175,146 @@ public class KNNVectorMetric {
     public Map<Integer, ClassificationResult> execute(int[] kValues, String missedLabel,
             RealMatrix metricMatrix, Map<Integer, RealVector> inputPatternMap) {
 
-        MetricDistance metricDistance = new MetricDistance(metricMatrix);
+        double[][] metricData = metricMatrix.getData();
+        int depth = IntStream.of(kValues).max().orElse(0);
 
-        Map<String, Integer> uniqueLabelCount
-                = LabelHandling.countUniqueClasses(setOfTrainingClasses);
+        // ========================================        
+        // One neighbor list of depth max(k) per input
+        Map<Integer, int[]> setOfNeighbors = inputPatternMap
+                .keySet().parallelStream()
+                .collect(Collectors.toMap(Function.identity(), (idx) -> {
 
-        Map<Integer, ClassificationResult> results = new HashMap<>();
+                    double[] crossvalPattern = inputPatternMap.get(idx).toArray();
 
-        for (int idx = 0; idx < kValues.length; idx++) {
-            Map<Integer, String> labelEstimate = new HashMap<>();
-            Map<Integer, Map<String, Double>> labelPostProb = new HashMap<>();
+                    NeighborHeap nearest = isEuclidean
+                            ? nearestNeighborSearch.searchEuclidean(crossvalPattern, depth)
+                            : nearestNeighborSearch.searchMetric(crossvalPattern, depth, metricData);
 
-            results.put(kValues[idx], new ClassificationResult(labelEstimate, labelPostProb, uniqueLabelCount));
-        }
+                    return trainingIDs(nearest.getSortedPositions());
+                }));
 
-        // ========================================        
-        // Loop Over Input Data
+        return new KNNMultiKEvaluator(setOfTrainingClasses)
+                .execute(kValues, missedLabel, setOfNeighbors);
+    }
+
+    /**
+     * Exact kNN through a spatial index, built on first use for each
+     * distance type and kept for later calls
+     *
+     * @param kValue
+     * @param missedLabel
+     * @param distanceType Euclidean or city block
+     * @param inputPatternMap
+     *
+     * @return
+     */
+    public ClassificationResult execute(int kValue, String missedLabel,
+            VectorDistanceType distanceType, Map<Integer, RealVector> inputPatternMap) {
+
+        return execute(new int[]{kValue}, missedLabel, distanceType,
+                inputPatternMap).get(kValue);
+    }
+
+    /**
+     *
+     * @param kValues
+     * @param missedLabel
+     * @param distanceType Euclidean or city block
+     * @param inputPatternMap
+     *
+     * @return
+     */
+    public Map<Integer, ClassificationResult> execute(int[] kValues, String missedLabel,
+            VectorDistanceType distanceType, Map<Integer, RealVector> inputPatternMap) {
+
+        return execute(kValues, missedLabel, getNeighborIndex(distanceType),
+                inputPatternMap);
+    }
+
+    /**
+     *
+     * @param kValues
+     * @param missedLabel
+     * @param neighborIndex index built over this classifier's training data
+     * @param inputPatternMap
+     *
+     * @return
+     */
+    public Map<Integer, ClassificationResult> execute(int[] kValues, String missedLabel,
+            NeighborIndex<double[]> neighborIndex, Map<Integer, RealVector> inputPatternMap) {
+
+        Map<Integer, double[]> setOfQueries = new HashMap<>();
         for (Integer idx : inputPatternMap.keySet()) {
+            setOfQueries.put(idx, inputPatternMap.get(idx).toArray());
+        }
+
+        Map<Integer, int[]> setOfNeighbors = neighborIndex.nearestNeighbors(
+                setOfQueries, IntStream.of(kValues).max().orElse(0));
+
+        return new KNNMultiKEvaluator(setOfTrainingClasses)
+                .execute(kValues, missedLabel, setOfNeighbors);
+    }
 
-            RealVector crossvalPattern = inputPatternMap.get(idx);
-
-            // ==============================================================
-            // Generate Distances
-            Map<Integer, Double> setOfDistances = new HashMap<>();
-
-            for (Integer trainingDataID : setOfTrainingData.keySet()) {
-
-                Double distance;
-                if (isEuclidean) {
-                    distance = setOfTrainingData.get(trainingDataID).getDistance(crossvalPattern);
-                } else {
-                    distance = metricDistance.distance(
-                            setOfTrainingData.get(trainingDataID),
-                            crossvalPattern);
-                }
-
-                setOfDistances.put(trainingDataID, distance);
-            }
-
-            // ==============================================================
-            // Find Nearest Neighbors
-            Map<Integer, Double> sortedDistances
-                    = SortingOperations.sortByAcendingValue(setOfDistances);
-
-            // Post Prob Estimates for Class
-            Map<String, Double> nearestNeighborResponse = new HashMap<>();
-
-            uniqueLabelCount.keySet().stream().forEach((uniqueLabels) -> {
-                nearestNeighborResponse.put(uniqueLabels, 0.0);
-            });
-
-            // ================================================
-            for (int kdx = 0; kdx < kValues.length; kdx++) {
-
-                int kValue = kValues[kdx];
-
-                // k nearest
-                int counter = 0;
-                for (Integer jdx : sortedDistances.keySet()) {
-                    if (nearestNeighborResponse.containsKey(setOfTrainingClasses.get(jdx))) {
-                        String classLabel = setOfTrainingClasses.get(jdx);
-                        Double currentCount = nearestNeighborResponse.get(classLabel);
-                        nearestNeighborResponse.put(classLabel,
-                                currentCount + 1.0 / (double) kValue);
-                        counter++;
-                    }
-
-                    if (counter == kValue) {
-                        break;
-                    }
-                }
-
-                results.get(kValue).getLabelAndPostProb().put(idx, nearestNeighborResponse);
-
-                // ==============================================================
-                // Determine Class Based on Sorted Post Prob           
-                Map<String, Double> sortedNeighbors
-                        = SortingOperations.sortByDecendingValue(nearestNeighborResponse);
-
-                List<Entry<String, Double>> knnList = new ArrayList<>(
-                        sortedNeighbors.entrySet());
-
-                if (NumericTests.isApproxEqual(
-                        knnList.get(0).getValue(),
-                        knnList.get(1).getValue())) {
-                    // tie is "missed"
-                    results.get(kValue).getLabelEstimate().put(idx, missedLabel);
-                } else {
-                    // winner take all
-                    results.get(kValue).getLabelEstimate().put(idx, knnList.get(0).getKey());
-                }
-            }
+    /**
+     * KD-tree for low dimensional data, ball-tree otherwise
+     *
+     * @param distanceType Euclidean or city block
+     * @return the index for the training data
+     */
+    public NeighborIndex<double[]> getNeighborIndex(VectorDistanceType distanceType) {
+        return setOfIndexes.computeIfAbsent(distanceType, (type)
+                -> (nearestNeighborSearch.getDimension() <= KD_TREE_MAX_DIMENSION)
+                        ? new KDTree(setOfTrainingData, type)
+                        : new BallTree(setOfTrainingData, type));
+    }
 
+    /**
+     * LAESA pivot table under a learned metric, build once and pass to
+     * execute for every batch of inputs
+     *
+     * @param metricMatrix M, positive semi-definite
+     * @param numPivots number of pivots
+     * @return the index for the training data
+     */
+    public NeighborIndex<double[]> generatePivotIndex(RealMatrix metricMatrix,
+            int numPivots) {
+
+        Map<Integer, double[]> setOfTrainingArrays = new HashMap<>();
+        for (Integer idx : setOfTrainingData.keySet()) {
+            setOfTrainingArrays.put(idx, setOfTrainingData.get(idx).toArray());
         }
 
-        return results;
+        return new PivotTable<>(setOfTrainingArrays,
+                PivotTable.vectorMetric(metricMatrix), numPivots);
+    }
+
+    /**
+     * Leave one out over the training data, from a single distance matrix
+     *
+     * @param kValues
+     * @param missedLabel
+     * @param metricMatrix
+     *
+     * @return
+     */
+    public Map<Integer, ClassificationResult> executeLeaveOneOut(int[] kValues,
+            String missedLabel, RealMatrix metricMatrix) {
+
+        double[][] distanceMatrix = nearestNeighborSearch
+                .trainingDistances(metricMatrix.getData());
+
+        int[] trainingIDs = IntStream.range(0, nearestNeighborSearch.size())
+                .map(nearestNeighborSearch::getTrainingID).toArray();
+
+        return new KNNMultiKEvaluator(setOfTrainingClasses)
+                .executeLeaveOneOut(kValues, missedLabel, trainingIDs, distanceMatrix);
+    }
+
+    private int[] trainingIDs(int[] sortedPositions) {
+        int[] sortedIDs = new int[sortedPositions.length];
+        for (int idx = 0; idx < sortedPositions.length; idx++) {
+            sortedIDs[idx] = nearestNeighborSearch.getTrainingID(sortedPositions[idx]);
+        }
+        return sortedIDs;
     }
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Brute force nearest neighbor search over a training set held as one
+ * contiguous row-major double[]. Positions refer to the iteration order of
+ * the training map given to the constructor.
+ *
+ * @author Kyle Johnston kyjohnst2000@my.fit.edu
+ */
+public class NearestNeighborSearch {
+
+    private final int[] trainingIDs;
+    private final double[] trainingData;
+    private final int dimension;
+
+    /**
+     *
+     * @param setOfTrainingData the set of training data
+     */
+    public NearestNeighborSearch(Map<Integer, RealVector> setOfTrainingData) {
+
+        this.trainingIDs = new int[setOfTrainingData.size()];
+        this.dimension = setOfTrainingData.values().iterator().next()
+                .getDimension();
+        this.trainingData = new double[trainingIDs.length * dimension];
+
+        int position = 0;
+        for (Map.Entry<Integer, RealVector> entry : setOfTrainingData.entrySet()) {
+            trainingIDs[position] = entry.getKey();
+            System.arraycopy(entry.getValue().toArray(), 0,
+                    trainingData, position * dimension, dimension);
+            position++;
+        }
+    }
+
+    /**
+     * k nearest under sqrt((x_i - x_j)'(x_i - x_j))
+     *
+     * @param query pattern
+     * @param kValue number of neighbors
+     * @return the k nearest training positions
+     */
+    public NeighborHeap searchEuclidean(double[] query, int kValue) {
+
+        NeighborHeap heap = new NeighborHeap(Math.min(kValue, trainingIDs.length));
+
+        for (int position = 0; position < trainingIDs.length; position++) {
+            heap.offer(Math.sqrt(squaredEuclidean(query, position)), position);
+        }
+
+        return heap;
+    }
+
+    /**
+     * k nearest under (x_i - x_j)'(x_i - x_j), the distance of a metric
+     * pretransformed dataset (see MetricTransform)
+     *
+     * @param query pattern
+     * @param kValue number of neighbors
+     * @return the k nearest training positions
+     */
+    public NeighborHeap searchSquaredEuclidean(double[] query, int kValue) {
+
+        NeighborHeap heap = new NeighborHeap(Math.min(kValue, trainingIDs.length));
+
+        for (int position = 0; position < trainingIDs.length; position++) {
+            heap.offer(squaredEuclidean(query, position), position);
+        }
+
+        return heap;
+    }
+
+    private double squaredEuclidean(double[] query, int position) {
+
+        int offset = position * dimension;
+
+        double distance = 0.0;
+        for (int idx = 0; idx < dimension; idx++) {
+            double delta = trainingData[offset + idx] - query[idx];
+            distance += delta * delta;
+        }
+        return distance;
+    }
+
+    /**
+     * k nearest under (x_i - x_j)'M(x_i - x_j)
+     *
+     * @param query pattern
+     * @param kValue number of neighbors
+     * @param metricMatrix M as returned by getData()
+     * @return the k nearest training positions
+     */
+    public NeighborHeap searchMetric(double[] query, int kValue,
+            double[][] metricMatrix) {
+
+        NeighborHeap heap = new NeighborHeap(Math.min(kValue, trainingIDs.length));
+        double[] delta = new double[dimension];
+
+        for (int position = 0; position < trainingIDs.length; position++) {
+            heap.offer(metricDistance(query, position, metricMatrix, delta), position);
+        }
+
+        return heap;
+    }
+
+    private double metricDistance(double[] query, int position,
+            double[][] metricMatrix, double[] delta) {
+
+        int offset = position * dimension;
+        for (int idx = 0; idx < dimension; idx++) {
+            delta[idx] = trainingData[offset + idx] - query[idx];
+        }
+
+        double distance = 0.0;
+        for (int idx = 0; idx < dimension; idx++) {
+            double[] metricRow = metricMatrix[idx];
+            double operate = 0.0;
+            for (int jdx = 0; jdx < dimension; jdx++) {
+                operate += metricRow[jdx] * delta[jdx];
+            }
+            distance += delta[idx] * operate;
+        }
+        return distance;
+    }
+
+    /**
+     * Pairwise (x_i - x_j)'M(x_i - x_j) over the training set, rows and
+     * columns by position; the upper triangle is computed and mirrored
+     *
+     * @param metricMatrix M as returned by getData()
+     * @return n x n distance matrix
+     */
+    public double[][] trainingDistances(double[][] metricMatrix) {
+
+        int numTraining = trainingIDs.length;
+        double[][] distanceMatrix = new double[numTraining][numTraining];
+
+        IntStream.range(0, numTraining).parallel().forEach((position) -> {
+
+            double[] query = Arrays.copyOfRange(trainingData,
+                    position * dimension, (position + 1) * dimension);
+            double[] delta = new double[dimension];
+
+            for (int other = position + 1; other < numTraining; other++) {
+                double distance = metricDistance(query, other, metricMatrix, delta);
+                distanceMatrix[position][other] = distance;
+                distanceMatrix[other][position] = distance;
+            }
+        });
+
+        return distanceMatrix;
+    }
+
+    /**
+     * @param position position in the training set
+     * @return the training ID at that position
+     */
+    public int getTrainingID(int position) {
+        return trainingIDs[position];
+    }
+
+    /**
+     * @return number of training patterns
+     */
+    public int size() {
+        return trainingIDs.length;
+    }
+
+    /**
+     * @return pattern dimension
+     */
+    public int getDimension() {
+        return dimension;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+/**
+ * Bounded max-heap of (distance, position) pairs, keeps the k smallest. Equal
+ * distances are ordered by position, so the result matches a stable ascending
+ * sort of the distances in position order.
+ *
+ * @author Kyle Johnston kyjohnst2000@my.fit.edu
+ */
+public class NeighborHeap {
+
+    private final int capacity;
+    private final double[] distances;
+    private final int[] positions;
+    private int size = 0;
+
+    /**
+     *
+     * @param capacity number of neighbors kept (k)
+     */
+    public NeighborHeap(int capacity) {
+        this.capacity = capacity;
+        this.distances = new double[capacity];
+        this.positions = new int[capacity];
+    }
+
+    /**
+     * Offer a candidate, kept if the heap is not full or if it precedes the
+     * current worst
+     *
+     * @param distance
+     * @param position
+     * @return true if the candidate was kept
+     */
+    public boolean offer(double distance, int position) {
+
+        if (size < capacity) {
+            distances[size] = distance;
+            positions[size] = position;
+            siftUp(size++);
+            return true;
+        }
+
+        if (capacity == 0 || !precedes(distance, position, distances[0], positions[0])) {
+            return false;
+        }
+
+        distances[0] = distance;
+        positions[0] = position;
+        siftDown(0, size);
+        return true;
+    }
+
+    /**
+     * @return the distance a candidate has to beat, infinite until full
+     */
+    public double getBound() {
+        return (size < capacity || capacity == 0)
+                ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+    /**
+     * @return number of neighbors held
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Empty the heap for reuse
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return positions of the held neighbors, nearest first
+     */
+    public int[] getSortedPositions() {
+        int[] sorted = new int[size];
+        double[] sortedDistances = new double[size];
+        sortInto(sorted, sortedDistances);
+        return sorted;
+    }
+
+    /**
+     * @return distances of the held neighbors, nearest first
+     */
+    public double[] getSortedDistances() {
+        int[] sorted = new int[size];
+        double[] sortedDistances = new double[size];
+        sortInto(sorted, sortedDistances);
+        return sortedDistances;
+    }
+
+    // ================================================================
+    // Heap Operations
+    private void sortInto(int[] sortedPositions, double[] sortedDistances) {
+
+        double[] heapDistances = distances.clone();
+        int[] heapPositions = positions.clone();
+
+        // Pop the worst into the tail
+        for (int end = size - 1; end >= 0; end--) {
+            sortedDistances[end] = heapDistances[0];
+            sortedPositions[end] = heapPositions[0];
+
+            heapDistances[0] = heapDistances[end];
+            heapPositions[0] = heapPositions[end];
+            siftDown(heapDistances, heapPositions, 0, end);
+        }
+    }
+
+    private void siftUp(int child) {
+        while (child > 0) {
+            int parent = (child - 1) / 2;
+            if (!precedes(distances[parent], positions[parent],
+                    distances[child], positions[child])) {
+                return;
+            }
+            swap(distances, positions, parent, child);
+            child = parent;
+        }
+    }
+
+    private void siftDown(int parent, int end) {
+        siftDown(distances, positions, parent, end);
+    }
+
+    private static void siftDown(double[] heapDistances, int[] heapPositions,
+            int parent, int end) {
+        while (true) {
+            int largest = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+
+            if (left < end && precedes(heapDistances[largest], heapPositions[largest],
+                    heapDistances[left], heapPositions[left])) {
+                largest = left;
+            }
+            if (right < end && precedes(heapDistances[largest], heapPositions[largest],
+                    heapDistances[right], heapPositions[right])) {
+                largest = right;
+            }
+            if (largest == parent) {
+                return;
+            }
+            swap(heapDistances, heapPositions, parent, largest);
+            parent = largest;
+        }
+    }
+
+    private static boolean precedes(double distanceA, int positionA,
+            double distanceB, int positionB) {
+        int compare = Double.compare(distanceA, distanceB);
+        return compare < 0 || (compare == 0 && positionA < positionB);
+    }
+
+    private static void swap(double[] heapDistances, int[] heapPositions,
+            int idx, int jdx) {
+        double distance = heapDistances[idx];
+        heapDistances[idx] = heapDistances[jdx];
+        heapDistances[jdx] = distance;
+
+        int position = heapPositions[idx];
+        heapPositions[idx] = heapPositions[jdx];
+        heapPositions[jdx] = position;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Build once / query many source of nearest neighbors over a training set.
+ * Positions refer to the iteration order of the training map the index was
+ * built from.
+ *
+ * @author Kyle Johnston kyjohnst2000@my.fit.edu
+ * @param <T> pattern type
+ */
+public interface NeighborIndex<T> {
+
+    /**
+     *
+     * @param query pattern
+     * @param kValue number of neighbors
+     * @return the k nearest training positions
+     */
+    NeighborHeap search(T query, int kValue);
+
+    /**
+     * @param position position in the training set
+     * @return the training ID at that position
+     */
+    int getTrainingID(int position);
+
+    /**
+     * @return number of training patterns
+     */
+    int size();
+
+    /**
+     *
+     * @param query pattern
+     * @param kValue number of neighbors
+     * @return training IDs, nearest first
+     */
+    default int[] nearestNeighbors(T query, int kValue) {
+
+        int[] sortedPositions = search(query, kValue).getSortedPositions();
+
+        int[] sortedIDs = new int[sortedPositions.length];
+        for (int idx = 0; idx < sortedPositions.length; idx++) {
+            sortedIDs[idx] = getTrainingID(sortedPositions[idx]);
+        }
+        return sortedIDs;
+    }
+
+    /**
+     * Batch query, in parallel over the queries
+     *
+     * @param inputPatternMap query ID to pattern
+     * @param kValue number of neighbors
+     * @return query ID to training IDs, nearest first
+     */
+    default Map<Integer, int[]> nearestNeighbors(Map<Integer, T> inputPatternMap,
+            int kValue) {
+        return inputPatternMap.keySet().parallelStream()
+                .collect(Collectors.toMap(Function.identity(),
+                        (idx) -> nearestNeighbors(inputPatternMap.get(idx), kValue)));
+    }
+}
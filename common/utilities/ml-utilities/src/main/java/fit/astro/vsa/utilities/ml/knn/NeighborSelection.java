@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2018 kjohnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.utilities.ml.PackedDistanceMatrix;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Target neighbors and impostors for the large margin learners. For each
+ * sample the k nearest of its own class, or of any other class, are kept in
+ * a bounded heap instead of sorting every distance, in parallel over the
+ * samples. Distances are evaluated row by row as the heap asks for them,
+ * target neighbors only within the class, so no pairwise block is held. A
+ * caller that queries repeatedly at a fixed metric can compute the packed
+ * block once with distanceBlock and select from it.
+ * <p>
+ * Positions index the training IDs in ascending order, equal distances go to
+ * the smaller ID.
+ *
+ * @author kjohnston
+ */
+public class NeighborSelection {
+
+    /**
+     * Distance between the samples at two positions
+     */
+    @FunctionalInterface
+    public interface PairDistance {
+
+        double distance(int row, int column);
+    }
+
+    // Input
+    private final int[] trainingIDs;
+
+    // Internal
+    private final int[] classIndex;
+    private final int[][] members;
+
+    /**
+     *
+     * @param mapOfClasses
+     */
+    public NeighborSelection(Map<Integer, String> mapOfClasses) {
+
+        this.trainingIDs = mapOfClasses.keySet().stream()
+                .mapToInt(Integer::intValue).sorted().toArray();
+
+        Map<String, Integer> labels = new HashMap<>();
+        this.classIndex = new int[trainingIDs.length];
+        for (int idx = 0; idx < trainingIDs.length; idx++) {
+            String label = mapOfClasses.get(trainingIDs[idx]);
+            if (!labels.containsKey(label)) {
+                labels.put(label, labels.size());
+            }
+            classIndex[idx] = labels.get(label);
+        }
+
+        // Positions of each class, ascending
+        int[] counts = new int[labels.size()];
+        for (int label : classIndex) {
+            counts[label]++;
+        }
+        this.members = new int[labels.size()][];
+        for (int cdx = 0; cdx < members.length; cdx++) {
+            members[cdx] = new int[counts[cdx]];
+            counts[cdx] = 0;
+        }
+        for (int idx = 0; idx < classIndex.length; idx++) {
+            members[classIndex[idx]][counts[classIndex[idx]]++] = idx;
+        }
+    }
+
+    /**
+     * Upper triangle of the pairwise distances, rows in parallel, for
+     * repeated queries at a fixed metric
+     *
+     * @param pairDistance symmetric, by position
+     * @return
+     */
+    public PackedDistanceMatrix distanceBlock(PairDistance pairDistance) {
+
+        int numSamples = trainingIDs.length;
+        PackedDistanceMatrix distances = new PackedDistanceMatrix(numSamples, false);
+
+        // Each row writes its own entries
+        IntStream.range(0, numSamples).parallel().forEach((row) -> {
+            for (int column = row + 1; column < numSamples; column++) {
+                distances.setEntry(row, column, pairDistance.distance(row, column));
+            }
+        });
+
+        return distances;
+    }
+
+    /**
+     *
+     * @param kValue
+     * @param pairDistance by position, evaluated only within each class
+     * @return the kValue nearest of the same class, nearest first
+     */
+    public Map<Integer, List<Integer>> targetNeighbors(int kValue,
+            PairDistance pairDistance) {
+        return select(kValue, pairDistance, true);
+    }
+
+    /**
+     *
+     * @param kValue
+     * @param pairDistance by position, evaluated only between classes
+     * @return the kValue nearest of the other classes, nearest first
+     */
+    public Map<Integer, List<Integer>> impostors(int kValue,
+            PairDistance pairDistance) {
+        return select(kValue, pairDistance, false);
+    }
+
+    /**
+     * @return the training IDs in position order
+     */
+    public int[] getTrainingIDs() {
+        return trainingIDs;
+    }
+
+    private Map<Integer, List<Integer>> select(int kValue,
+            PairDistance pairDistance, boolean isSameClass) {
+
+        int numSamples = trainingIDs.length;
+
+        List<List<Integer>> neighbors = IntStream.range(0, numSamples).parallel()
+                .mapToObj((row) -> {
+                    NeighborHeap heap = new NeighborHeap(kValue);
+                    if (isSameClass) {
+                        for (int column : members[classIndex[row]]) {
+                            if (column != row) {
+                                heap.offer(pairDistance.distance(row, column), column);
+                            }
+                        }
+                    } else {
+                        for (int column = 0; column < numSamples; column++) {
+                            if (classIndex[column] != classIndex[row]) {
+                                heap.offer(pairDistance.distance(row, column), column);
+                            }
+                        }
+                    }
+
+                    int[] positions = heap.getSortedPositions();
+                    List<Integer> setOfNeighbors = new ArrayList<>(positions.length);
+                    for (int position : positions) {
+                        setOfNeighbors.add(trainingIDs[position]);
+                    }
+                    return setOfNeighbors;
+                }).collect(Collectors.toList());
+
+        Map<Integer, List<Integer>> classMemberNear = new HashMap<>(numSamples);
+        for (int idx = 0; idx < numSamples; idx++) {
+            classMemberNear.put(trainingIDs[idx], neighbors.get(idx));
+        }
+        return classMemberNear;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.ToDoubleBiFunction;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Mico, M. L., Oncina, J., & Vidal, E. (1994). A new version of the
+ * nearest-neighbour approximating and eliminating search algorithm (AESA)
+ * with linear preprocessing time and memory requirements. Pattern Recognition
+ * Letters, 15(1), 9-17.
+ *
+ * LAESA pivot table for a fixed metric. The distances from a few pivots,
+ * chosen farthest first, to every training pattern are stored once; for a
+ * query max_p |d(q,p) - d(p,x)| bounds d(q,x) from below, so candidates are
+ * visited in order of that bound and the search stops as soon as it exceeds
+ * the k-th neighbor. Only the survivors pay for a full metric evaluation.
+ * <p>
+ * Needs the triangle inequality, use the square root of the learned forms
+ * (see the static factories and those of {@link VPTree}). A candidate is
+ * pruned only when its bound is strictly worse than the k-th neighbor, so the
+ * neighbors are those of a brute force search.
+ *
+ * @author Kyle Johnston kyjohnst2000@my.fit.edu
+ * @param <T> pattern type
+ */
+public class PivotTable<T> implements NeighborIndex<T> {
+
+    /**
+     * Relative slack on the triangle inequality for round off
+     */
+    private static final double SLACK = 1e-12;
+
+    // ============================================
+    // Training Data
+    private final int[] trainingIDs;
+    private final List<T> trainingPatterns;
+    private final ToDoubleBiFunction<T, T> metric;
+
+    // ============================================
+    // Pivots, distances by pivot then training position
+    private final int[] pivotPositions;
+    private final boolean[] isPivot;
+    private final double[][] pivotDistances;
+
+    /**
+     *
+     * @param setOfTrainingData the set of training data
+     * @param metric distance satisfying the triangle inequality
+     * @param numPivots number of pivots, capped at the training size
+     */
+    public PivotTable(Map<Integer, T> setOfTrainingData, ToDoubleBiFunction<T, T> metric,
+            int numPivots) {
+        this(setOfTrainingData, metric, numPivots, new Random());
+    }
+
+    /**
+     *
+     * @param setOfTrainingData the set of training data
+     * @param metric distance satisfying the triangle inequality
+     * @param numPivots number of pivots, capped at the training size
+     * @param rand choice of the first pivot
+     */
+    public PivotTable(Map<Integer, T> setOfTrainingData, ToDoubleBiFunction<T, T> metric,
+            int numPivots, Random rand) {
+
+        this.metric = metric;
+
+        int numTraining = setOfTrainingData.size();
+        this.trainingIDs = new int[numTraining];
+        this.trainingPatterns = new ArrayList<>(numTraining);
+
+        int position = 0;
+        for (Map.Entry<Integer, T> entry : setOfTrainingData.entrySet()) {
+            trainingIDs[position] = entry.getKey();
+            trainingPatterns.add(entry.getValue());
+            position++;
+        }
+
+        int numSelected = Math.max(0, Math.min(numPivots, numTraining));
+        this.pivotPositions = new int[numSelected];
+        this.isPivot = new boolean[numTraining];
+        this.pivotDistances = new double[numSelected][];
+
+        // ========================================
+        // Farthest first, each pivot's row gives the next pivot
+        double[] nearestPivot = new double[numTraining];
+        Arrays.fill(nearestPivot, Double.POSITIVE_INFINITY);
+
+        int next = (numSelected > 0) ? rand.nextInt(numTraining) : -1;
+        for (int pdx = 0; pdx < numSelected; pdx++) {
+
+            pivotPositions[pdx] = next;
+            isPivot[next] = true;
+
+            T pivot = trainingPatterns.get(next);
+            double[] row = new double[numTraining];
+            Arrays.parallelSetAll(row, (idx)
+                    -> metric.applyAsDouble(pivot, trainingPatterns.get(idx)));
+            pivotDistances[pdx] = row;
+
+            double farthest = -1.0;
+            for (int idx = 0; idx < numTraining; idx++) {
+                nearestPivot[idx] = Math.min(nearestPivot[idx], row[idx]);
+                if (!isPivot[idx] && nearestPivot[idx] > farthest) {
+                    farthest = nearestPivot[idx];
+                    next = idx;
+                }
+            }
+        }
+    }
+
+    // ================================================================
+    // Search
+    @Override
+    public NeighborHeap search(T query, int kValue) {
+
+        int numTraining = trainingIDs.length;
+        int numPivots = pivotPositions.length;
+        NeighborHeap heap = new NeighborHeap(Math.min(kValue, numTraining));
+
+        // Pivots are training patterns too
+        double[] queryDistances = new double[numPivots];
+        for (int pdx = 0; pdx < numPivots; pdx++) {
+            queryDistances[pdx] = metric.applyAsDouble(
+                    trainingPatterns.get(pivotPositions[pdx]), query);
+            heap.offer(queryDistances[pdx], pivotPositions[pdx]);
+        }
+
+        double[] lowerBounds = new double[numTraining];
+        Integer[] visitOrder = new Integer[numTraining - numPivots];
+        int counter = 0;
+        for (int position = 0; position < numTraining; position++) {
+            if (isPivot[position]) {
+                continue;
+            }
+
+            double lowerBound = 0.0;
+            for (int pdx = 0; pdx < numPivots; pdx++) {
+                double pivotDistance = pivotDistances[pdx][position];
+                lowerBound = Math.max(lowerBound,
+                        Math.abs(queryDistances[pdx] - pivotDistance)
+                        - SLACK * (queryDistances[pdx] + pivotDistance));
+            }
+            lowerBounds[position] = lowerBound;
+            visitOrder[counter++] = position;
+        }
+        Arrays.sort(visitOrder, Comparator.comparingDouble((idx) -> lowerBounds[idx]));
+
+        for (int position : visitOrder) {
+
+            // Sorted by the bound, nothing after this can compete
+            if (lowerBounds[position] > heap.getBound()) {
+                break;
+            }
+
+            heap.offer(metric.applyAsDouble(trainingPatterns.get(position), query),
+                    position);
+        }
+
+        return heap;
+    }
+
+    @Override
+    public int getTrainingID(int position) {
+        return trainingIDs[position];
+    }
+
+    @Override
+    public int size() {
+        return trainingIDs.length;
+    }
+
+    /**
+     * @return number of pivots
+     */
+    public int getNumberOfPivots() {
+        return pivotPositions.length;
+    }
+
+    // ================================================================
+    // Metrics
+    /**
+     * sqrt((x_i - x_j)'M(x_i - x_j)), a metric for positive semi-definite M
+     *
+     * @param metricMatrix M
+     * @return
+     */
+    public static ToDoubleBiFunction<double[], double[]> vectorMetric(
+            RealMatrix metricMatrix) {
+
+        double[][] metricData = metricMatrix.getData();
+        int dimension = metricData.length;
+
+        return (x_i, x_j) -> {
+            double[] delta = new double[dimension];
+            for (int idx = 0; idx < dimension; idx++) {
+                delta[idx] = x_i[idx] - x_j[idx];
+            }
+
+            double distance = 0.0;
+            for (int idx = 0; idx < dimension; idx++) {
+                double[] metricRow = metricData[idx];
+                double operate = 0.0;
+                for (int jdx = 0; jdx < dimension; jdx++) {
+                    operate += metricRow[jdx] * delta[jdx];
+                }
+                distance += delta[idx] * operate;
+            }
+            return Math.sqrt(Math.max(0.0, distance));
+        };
+    }
+}
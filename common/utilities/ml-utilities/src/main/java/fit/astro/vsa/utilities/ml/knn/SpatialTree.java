@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.math.vector.VectorDistanceType;
+import java.util.Map;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Common structure of the KD-tree and the ball-tree: a binary tree over a
+ * permutation of the training positions, each node owns a contiguous range
+ * of that permutation. Nodes are split at the median of the dimension with
+ * the largest spread. Subclasses supply the node bound.
+ * <p>
+ * Searches are exact: a node is skipped only when its lower bound is strictly
+ * worse than the current k-th neighbor, so ties resolve by position exactly
+ * as in a brute force search.
+ *
+ * @author Kyle Johnston kyjohnst2000@my.fit.edu
+ */
+public abstract class SpatialTree implements NeighborIndex<double[]> {
+
+    private static final int LEAF_SIZE = 16;
+
+    // ============================================
+    // Training Data
+    private final int[] trainingIDs;
+    protected final double[] trainingData;
+    protected final int dimension;
+    protected final VectorDistanceType distanceType;
+
+    // ============================================
+    // Tree
+    protected final int[] order;
+    protected final int[] nodeStart;
+    protected final int[] nodeEnd;
+    private final int[] nodeLeft;
+    private final int[] nodeRight;
+    protected int numNodes = 0;
+
+    /**
+     *
+     * @param setOfTrainingData the set of training data
+     * @param distanceType Euclidean or city block
+     */
+    protected SpatialTree(Map<Integer, RealVector> setOfTrainingData,
+            VectorDistanceType distanceType) {
+
+        if (distanceType != VectorDistanceType.EUCLIDEAN_DISTANCE
+                && distanceType != VectorDistanceType.CITY_BLOCK) {
+            throw new ArithmeticException("Distance Type: "
+                    + distanceType.getMethodLabel()
+                    + " not for use in Spatial Trees");
+        }
+        this.distanceType = distanceType;
+
+        int numTraining = setOfTrainingData.size();
+        this.trainingIDs = new int[numTraining];
+        this.dimension = setOfTrainingData.values().iterator().next()
+                .getDimension();
+        this.trainingData = new double[numTraining * dimension];
+        this.order = new int[numTraining];
+
+        int position = 0;
+        for (Map.Entry<Integer, RealVector> entry : setOfTrainingData.entrySet()) {
+            trainingIDs[position] = entry.getKey();
+            System.arraycopy(entry.getValue().toArray(), 0,
+                    trainingData, position * dimension, dimension);
+            order[position] = position;
+            position++;
+        }
+
+        // A binary tree over n points has fewer than 2n nodes
+        int maxNodes = Math.max(1, 2 * numTraining);
+        this.nodeStart = new int[maxNodes];
+        this.nodeEnd = new int[maxNodes];
+        this.nodeLeft = new int[maxNodes];
+        this.nodeRight = new int[maxNodes];
+
+        build(0, numTraining);
+    }
+
+    // ================================================================
+    // Construction
+    private int build(int start, int end) {
+
+        int node = numNodes++;
+        nodeStart[node] = start;
+        nodeEnd[node] = end;
+        nodeLeft[node] = -1;
+        nodeRight[node] = -1;
+
+        if (end - start > LEAF_SIZE) {
+            int splitDim = widestDimension(start, end);
+            int middle = (start + end) >>> 1;
+            select(start, end, middle, splitDim);
+
+            nodeLeft[node] = build(start, middle);
+            nodeRight[node] = build(middle, end);
+        }
+
+        return node;
+    }
+
+    private int widestDimension(int start, int end) {
+
+        int widest = 0;
+        double widestSpread = -1.0;
+        for (int jdx = 0; jdx < dimension; jdx++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int idx = start; idx < end; idx++) {
+                double value = trainingData[order[idx] * dimension + jdx];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widestSpread) {
+                widestSpread = max - min;
+                widest = jdx;
+            }
+        }
+        return widest;
+    }
+
+    /**
+     * Quickselect on order[start, end) so the k-th smallest coordinate along
+     * splitDim lands at k
+     */
+    private void select(int start, int end, int kth, int splitDim) {
+
+        int lo = start;
+        int hi = end - 1;
+        while (hi > lo) {
+            double pivot = trainingData[order[(lo + hi) >>> 1] * dimension + splitDim];
+
+            int left = lo;
+            int right = hi;
+            while (left <= right) {
+                while (trainingData[order[left] * dimension + splitDim] < pivot) {
+                    left++;
+                }
+                while (trainingData[order[right] * dimension + splitDim] > pivot) {
+                    right--;
+                }
+                if (left <= right) {
+                    int swap = order[left];
+                    order[left] = order[right];
+                    order[right] = swap;
+                    left++;
+                    right--;
+                }
+            }
+
+            if (kth <= right) {
+                hi = right;
+            } else if (kth >= left) {
+                lo = left;
+            } else {
+                return;
+            }
+        }
+    }
+
+    // ================================================================
+    // Search
+    @Override
+    public NeighborHeap search(double[] query, int kValue) {
+
+        NeighborHeap heap = new NeighborHeap(Math.min(kValue, trainingIDs.length));
+        if (trainingIDs.length > 0) {
+            searchNode(0, query, heap);
+        }
+        return heap;
+    }
+
+    private void searchNode(int node, double[] query, NeighborHeap heap) {
+
+        if (nodeLeft[node] < 0) {
+            for (int idx = nodeStart[node]; idx < nodeEnd[node]; idx++) {
+                int position = order[idx];
+                heap.offer(distance(query, position), position);
+            }
+            return;
+        }
+
+        // Nearer child first, then the other if it can still compete
+        int left = nodeLeft[node];
+        int right = nodeRight[node];
+        double leftBound = lowerBound(left, query);
+        double rightBound = lowerBound(right, query);
+
+        int first = (leftBound <= rightBound) ? left : right;
+        int second = (first == left) ? right : left;
+        double secondBound = (first == left) ? rightBound : leftBound;
+
+        if (Math.min(leftBound, rightBound) <= heap.getBound()) {
+            searchNode(first, query, heap);
+        }
+        if (secondBound <= heap.getBound()) {
+            searchNode(second, query, heap);
+        }
+    }
+
+    /**
+     * Same arithmetic as the brute force classifiers, so distances agree
+     * bit for bit
+     *
+     * @param query
+     * @param position
+     * @return
+     */
+    protected double distance(double[] query, int position) {
+
+        int offset = position * dimension;
+        double distance = 0.0;
+
+        if (distanceType == VectorDistanceType.CITY_BLOCK) {
+            for (int idx = 0; idx < dimension; idx++) {
+                distance += Math.abs(trainingData[offset + idx] - query[idx]);
+            }
+            return distance;
+        }
+
+        for (int idx = 0; idx < dimension; idx++) {
+            double delta = trainingData[offset + idx] - query[idx];
+            distance += delta * delta;
+        }
+        return Math.sqrt(distance);
+    }
+
+    /**
+     * Lower bound on the distance from the query to any point in the node
+     *
+     * @param node
+     * @param query
+     * @return
+     */
+    protected abstract double lowerBound(int node, double[] query);
+
+    @Override
+    public int getTrainingID(int position) {
+        return trainingIDs[position];
+    }
+
+    @Override
+    public int size() {
+        return trainingIDs.length;
+    }
+
+    /**
+     * @return pattern dimension
+     */
+    public int getDimension() {
+        return dimension;
+    }
+}
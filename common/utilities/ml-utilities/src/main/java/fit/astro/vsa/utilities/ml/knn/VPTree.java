@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric;
+import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric_MV;
+import fit.astro.vsa.utilities.ml.MetricDistance_MV;
+import fit.astro.vsa.utilities.ml.MultiViewMetricDistance;
+import fit.astro.vsa.utilities.ml.MultiViewMetricDistance_MV;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.ToDoubleBiFunction;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Yianilos, P. N. (1993). Data structures and algorithms for nearest neighbor
+ * search in general metric spaces. In SODA (Vol. 93, No. 194, pp. 311-321).
+ *
+ * Vantage-point tree, needs nothing but a distance that satisfies the
+ * triangle inequality, so it works for matrix variate and multi-view
+ * patterns where no coordinate tree applies. The squared forms used by the
+ * metric learners are not metrics, their square roots are (see the static
+ * factories); the ordering, and so the neighbors, are the same.
+ *
+ * @author Kyle Johnston kyjohnst2000@my.fit.edu
+ * @param <T> pattern type
+ */
+public class VPTree<T> implements NeighborIndex<T> {
+
+    private static final int LEAF_SIZE = 8;
+
+    /**
+     * Relative slack on the triangle inequality for round off
+     */
+    private static final double SLACK = 1e-12;
+
+    // ============================================
+    // Training Data
+    private final int[] trainingIDs;
+    private final List<T> trainingPatterns;
+    private final ToDoubleBiFunction<T, T> metric;
+
+    // ============================================
+    // Tree, vantage point first in each node range
+    private final int[] order;
+    private final double[] buildDistances;
+    private final int[] nodeStart;
+    private final int[] nodeEnd;
+    private final double[] nodeRadius;
+    private final int[] nodeInside;
+    private final int[] nodeOutside;
+    private int numNodes = 0;
+
+    /**
+     *
+     * @param setOfTrainingData the set of training data
+     * @param metric distance satisfying the triangle inequality
+     */
+    public VPTree(Map<Integer, T> setOfTrainingData, ToDoubleBiFunction<T, T> metric) {
+        this(setOfTrainingData, metric, new Random());
+    }
+
+    /**
+     *
+     * @param setOfTrainingData the set of training data
+     * @param metric distance satisfying the triangle inequality
+     * @param rand choice of vantage points
+     */
+    public VPTree(Map<Integer, T> setOfTrainingData, ToDoubleBiFunction<T, T> metric,
+            Random rand) {
+
+        this.metric = metric;
+
+        int numTraining = setOfTrainingData.size();
+        this.trainingIDs = new int[numTraining];
+        this.trainingPatterns = new ArrayList<>(numTraining);
+        this.order = new int[numTraining];
+
+        int position = 0;
+        for (Map.Entry<Integer, T> entry : setOfTrainingData.entrySet()) {
+            trainingIDs[position] = entry.getKey();
+            trainingPatterns.add(entry.getValue());
+            order[position] = position;
+            position++;
+        }
+
+        int maxNodes = Math.max(1, 2 * numTraining);
+        this.buildDistances = new double[numTraining];
+        this.nodeStart = new int[maxNodes];
+        this.nodeEnd = new int[maxNodes];
+        this.nodeRadius = new double[maxNodes];
+        this.nodeInside = new int[maxNodes];
+        this.nodeOutside = new int[maxNodes];
+
+        if (numTraining > 0) {
+            build(0, numTraining, rand);
+        }
+    }
+
+    // ================================================================
+    // Construction
+    private int build(int start, int end, Random rand) {
+
+        int node = numNodes++;
+        nodeStart[node] = start;
+        nodeEnd[node] = end;
+        nodeInside[node] = -1;
+        nodeOutside[node] = -1;
+
+        if (end - start <= LEAF_SIZE) {
+            return node;
+        }
+
+        // Vantage point to the front of the range
+        swap(start, start + rand.nextInt(end - start));
+        T vantagePoint = trainingPatterns.get(order[start]);
+
+        for (int idx = start + 1; idx < end; idx++) {
+            buildDistances[idx] = metric.applyAsDouble(vantagePoint,
+                    trainingPatterns.get(order[idx]));
+        }
+
+        // Median split, inside <= radius <= outside
+        int middle = (start + 1 + end) >>> 1;
+        select(start + 1, end, middle);
+        nodeRadius[node] = buildDistances[middle];
+
+        nodeInside[node] = build(start + 1, middle, rand);
+        nodeOutside[node] = build(middle, end, rand);
+
+        return node;
+    }
+
+    private void select(int start, int end, int kth) {
+
+        int lo = start;
+        int hi = end - 1;
+        while (hi > lo) {
+            double pivot = buildDistances[(lo + hi) >>> 1];
+
+            int left = lo;
+            int right = hi;
+            while (left <= right) {
+                while (buildDistances[left] < pivot) {
+                    left++;
+                }
+                while (buildDistances[right] > pivot) {
+                    right--;
+                }
+                if (left <= right) {
+                    swap(left, right);
+                    left++;
+                    right--;
+                }
+            }
+
+            if (kth <= right) {
+                hi = right;
+            } else if (kth >= left) {
+                lo = left;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int idx, int jdx) {
+        int position = order[idx];
+        order[idx] = order[jdx];
+        order[jdx] = position;
+
+        double distance = buildDistances[idx];
+        buildDistances[idx] = buildDistances[jdx];
+        buildDistances[jdx] = distance;
+    }
+
+    // ================================================================
+    // Search
+    @Override
+    public NeighborHeap search(T query, int kValue) {
+
+        NeighborHeap heap = new NeighborHeap(Math.min(kValue, trainingIDs.length));
+        if (trainingIDs.length > 0) {
+            searchNode(0, query, heap);
+        }
+        return heap;
+    }
+
+    private void searchNode(int node, T query, NeighborHeap heap) {
+
+        if (nodeInside[node] < 0) {
+            for (int idx = nodeStart[node]; idx < nodeEnd[node]; idx++) {
+                int position = order[idx];
+                heap.offer(metric.applyAsDouble(trainingPatterns.get(position), query),
+                        position);
+            }
+            return;
+        }
+
+        int vantagePosition = order[nodeStart[node]];
+        double distance = metric.applyAsDouble(
+                trainingPatterns.get(vantagePosition), query);
+        heap.offer(distance, vantagePosition);
+
+        double radius = nodeRadius[node];
+        double slack = SLACK * (distance + radius);
+
+        // Likely side first, the other only if the triangle inequality allows
+        if (distance <= radius) {
+            if (distance - radius - slack <= heap.getBound()) {
+                searchNode(nodeInside[node], query, heap);
+            }
+            if (radius - distance - slack <= heap.getBound()) {
+                searchNode(nodeOutside[node], query, heap);
+            }
+        } else {
+            if (radius - distance - slack <= heap.getBound()) {
+                searchNode(nodeOutside[node], query, heap);
+            }
+            if (distance - radius - slack <= heap.getBound()) {
+                searchNode(nodeInside[node], query, heap);
+            }
+        }
+    }
+
+    @Override
+    public int getTrainingID(int position) {
+        return trainingIDs[position];
+    }
+
+    @Override
+    public int size() {
+        return trainingIDs.length;
+    }
+
+    // ================================================================
+    // Metrics
+    /**
+     * sqrt(tr{U*(x_i - x_j)'*V*(x_i - x_j)})
+     *
+     * @param metricMatrix U and V
+     * @return
+     */
+    public static ToDoubleBiFunction<RealMatrix, RealMatrix> matrixMetric(
+            RealMatrix[] metricMatrix) {
+
+        MetricDistance_MV metricDistance = new MetricDistance_MV(metricMatrix);
+
+        return (x_i, x_j) -> Math.sqrt(Math.max(0.0,
+                metricDistance.matrixDistance(x_i, x_j)));
+    }
+
+    /**
+     * sqrt(sum_k w_k (x_i - x_j)'M_k(x_i - x_j))
+     *
+     * @param multiMatrix
+     * @return
+     */
+    public static ToDoubleBiFunction<Map<String, RealVector>, Map<String, RealVector>> multiViewMetric(
+            Map<String, MultiViewMetric> multiMatrix) {
+
+        MultiViewMetricDistance metricDistance = new MultiViewMetricDistance(multiMatrix);
+
+        return (x_i, x_j) -> Math.sqrt(Math.max(0.0,
+                metricDistance.multiviewDistance(x_i, x_j)));
+    }
+
+    /**
+     * sqrt(sum_k w_k tr{U_k*(x_i - x_j)'*V_k*(x_i - x_j)})
+     *
+     * @param multiMatrix
+     * @return
+     */
+    public static ToDoubleBiFunction<Map<String, RealMatrix>, Map<String, RealMatrix>> multiViewMetric_MV(
+            Map<String, MultiViewMetric_MV> multiMatrix) {
+
+        MultiViewMetricDistance_MV metricDistance = new MultiViewMetricDistance_MV(multiMatrix);
+
+        return (x_i, x_j) -> Math.sqrt(Math.max(0.0,
+                metricDistance.multiviewDistance(x_i, x_j)));
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning.itml;
+
+import fit.astro.vsa.common.utilities.math.NumericTests;
+import java.util.List;
+import java.util.Random;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bregman projections of ITML on a primitive metric. The projection onto the
+ * constraint of v = x_i - x_j is the rank-one correction
+ * A = A + beta (A v)(A v)', applied in place from A v and p = v' A v: O(d^2)
+ * per constraint instead of the two d x d products of A v v' A.
+ * <p>
+ * A sweep visits every constraint once, in the order of the constraints or in
+ * a random permutation. The projections stop once a sweep changes the slack
+ * variables by less than REL_ERROR, relative to their norm.
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class ITMLProjectionEngine {
+
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(ITMLProjectionEngine.class);
+
+    /**
+     * Order of the constraints within a sweep
+     */
+    public enum ConstraintOrder {
+        CYCLIC, RANDOM
+    }
+
+    // ==================================
+    // Constraints
+    private final double[][] deltas;
+    private final double[] y;
+    private final double[] bounds;
+
+    // ==================================
+    // Parameters and Settings
+    private ConstraintOrder order = ConstraintOrder.CYCLIC;
+    private Random random = new Random();
+    private double slack = 1e-4;
+    private double REL_ERROR = 1e-10;
+    private int maxIter = Integer.MAX_VALUE;
+
+    // ==================================
+    // Dual and slack variables of the last run
+    private double[] lambda;
+    private double[] bHat;
+
+    /**
+     *
+     * @param constraints
+     */
+    public ITMLProjectionEngine(List<ITMLConstraint> constraints) {
+
+        int numConstraints = constraints.size();
+        this.deltas = new double[numConstraints][];
+        this.y = new double[numConstraints];
+        this.bounds = new double[numConstraints];
+
+        for (int idx = 0; idx < numConstraints; idx++) {
+            ITMLConstraint constraint = constraints.get(idx);
+            deltas[idx] = constraint.getDeltaij().toArray();
+            y[idx] = constraint.getY();
+            bounds[idx] = constraint.getBound();
+        }
+    }
+
+    /**
+     *
+     * @param a_0 starting metric, not changed
+     * @return the learned metric
+     */
+    public double[][] execute(double[][] a_0) {
+
+        int D = a_0.length;
+        int numConstraints = deltas.length;
+
+        double[][] a = new double[D][];
+        for (int idx = 0; idx < D; idx++) {
+            a[idx] = a_0[idx].clone();
+        }
+
+        this.lambda = new double[numConstraints];
+        this.bHat = bounds.clone();
+
+        int[] sweep = new int[numConstraints];
+        for (int idx = 0; idx < numConstraints; idx++) {
+            sweep[idx] = idx;
+        }
+
+        double gammaProjected = slack / (slack + 1);
+        double[] av = new double[D];
+
+        long numProjections = 0;
+        while (true) {
+
+            double[] bHatOld = bHat.clone();
+
+            if (order == ConstraintOrder.RANDOM) {
+                shuffle(sweep);
+            }
+
+            for (int kdx : sweep) {
+
+                if (++numProjections > maxIter) {
+                    LOGGER.error("Convergence Time Out");
+                    throw new ArithmeticException("Convergence Time Out");
+                }
+
+                double[] v = deltas[kdx];
+
+                // A v and the distance p = v' A v
+                double distance = 0;
+                for (int idx = 0; idx < D; idx++) {
+                    double sum = 0;
+                    for (int jdx = 0; jdx < D; jdx++) {
+                        sum += a[idx][jdx] * v[jdx];
+                    }
+                    av[idx] = sum;
+                    distance += v[idx] * sum;
+                }
+
+                double alpha = Math.min(lambda[kdx],
+                        y[kdx] * gammaProjected * (1 / distance - 1 / bHat[kdx]));
+
+                if (alpha == 0.0) {
+                    continue;
+                }
+
+                lambda[kdx] = lambda[kdx] - alpha;
+
+                double beta = y[kdx] * alpha / (1 - y[kdx] * alpha * distance);
+
+                bHat[kdx] = 1 / ((1 / bHat[kdx]) + y[kdx] * (alpha / slack));
+
+                // A = A + beta (A v)(A v)', upper triangle mirrored
+                for (int idx = 0; idx < D; idx++) {
+                    double scaled = beta * av[idx];
+                    for (int jdx = idx; jdx < D; jdx++) {
+                        a[idx][jdx] += scaled * av[jdx];
+                        a[jdx][idx] = a[idx][jdx];
+                    }
+                }
+            }
+
+            // =================================================
+            // Test For Convergence, on the slack variables
+            double normSum = norm(bHat) + norm(bHatOld);
+            if (NumericTests.isApproxZero(normSum)) {
+                break;
+            }
+
+            double conv = normDelta(bHatOld, bHat) / normSum;
+            LOGGER.debug("Slack Change: " + conv);
+
+            if (conv < REL_ERROR) {
+                break;
+            }
+        }
+
+        return a;
+    }
+
+    private void shuffle(int[] sweep) {
+        for (int idx = sweep.length - 1; idx > 0; idx--) {
+            int jdx = random.nextInt(idx + 1);
+            int tmp = sweep[idx];
+            sweep[idx] = sweep[jdx];
+            sweep[jdx] = tmp;
+        }
+    }
+
+    private static double normDelta(double[] a1, double[] b1) {
+        double sumSquare = 0;
+        for (int idx = 0; idx < a1.length; idx++) {
+            double delta = a1[idx] - b1[idx];
+            sumSquare += delta * delta;
+        }
+        return Math.sqrt(sumSquare);
+    }
+
+    private static double norm(double[] a1) {
+        double sumSquare = 0;
+        for (double value : a1) {
+            sumSquare += value * value;
+        }
+        return Math.sqrt(sumSquare);
+    }
+
+    // ==========================================================
+    /**
+     * @return dual variables of the last run
+     */
+    public double[] getLambda() {
+        return lambda;
+    }
+
+    /**
+     * @return slack variables of the last run
+     */
+    public double[] getbHat() {
+        return bHat;
+    }
+
+    /**
+     * Default is CYCLIC
+     *
+     * @param order
+     */
+    public void setOrder(ConstraintOrder order) {
+        this.order = order;
+    }
+
+    /**
+     * Set random generator, for the RANDOM order
+     *
+     * @param random
+     */
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    public void setSlack(double slack) {
+        this.slack = slack;
+    }
+
+    /**
+     * Maximum number of projections
+     *
+     * @param maxIter
+     */
+    public void setMaxIter(int maxIter) {
+        this.maxIter = maxIter;
+    }
+
+    /**
+     *
+     * @param REL_ERROR
+     */
+    public void setREL_ERROR(double REL_ERROR) {
+        this.REL_ERROR = REL_ERROR;
+    }
+}
@@ -18,6 +18,7 @@ package fit.astro.vsa.utilities.ml.metriclearning.itml;
 
 import fit.astro.vsa.common.utilities.math.NumericTests;
 import fit.astro.vsa.utilities.ml.MetricDistance;
+import fit.astro.vsa.utilities.ml.metriclearning.itml.ITMLProjectionEngine.ConstraintOrder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -25,14 +26,11 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.PrimitiveIterator.OfInt;
 import java.util.Random;
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.util.Pair;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * Davis, J. V., Kulis, B., Jain, P., Sra, S., & Dhillon, I. S. (2007, June).
@@ -43,9 +41,6 @@ import org.slf4j.LoggerFactory;
  */
 public class InformationTheoreticMetricLearning {
 
-    private static final Logger LOGGER
-            = LoggerFactory.getLogger(InformationTheoreticMetricLearning.class);
-
     // ==================================
     // System Constraints
     private int maxIter = Integer.MAX_VALUE;
@@ -57,6 +52,7 @@ public class InformationTheoreticMetricLearning {
     private Random random = new Random();
     private RealMatrix a_0_matrix;
     private double slack = 1e-4;
+    private ConstraintOrder order = ConstraintOrder.CYCLIC;
 
     // ==================================
     // Internal Variables
@@ -101,133 +97,21 @@ public class InformationTheoreticMetricLearning {
         getConstraints();
 
         // ========================================
-        int sizeOfConstraints = setOfPairs.size();
-        List<Double> bHat = new ArrayList<>();
-        List<Double> lambda = new ArrayList<>(sizeOfConstraints);
-        List<Double> lambdaOld = new ArrayList<>(sizeOfConstraints);
-
+        List<ITMLConstraint> listOfConstraints = new ArrayList<>(setOfPairs.size());
         for (Pair<Integer, Integer> pair : setOfPairs) {
-            lambda.add(0.0);
-            lambdaOld.add(0.0);
-            bHat.add(constraints.get(pair).getBound());
+            listOfConstraints.add(constraints.get(pair));
         }
 
-        RealMatrix a_matrix = new Array2DRowRealMatrix(a_0_matrix.getData());
-
         // ========================================
-        // Algorithm Step 3 (Repeat)
-        int idx = 0, iter = 0;
-        double normSum, conv;
-        for (int jdx = 0; jdx < maxIter; jdx++) {
-
-            MetricDistance distanceMetric = new MetricDistance(a_0_matrix);
-
-            // Step 3.1 (Pick a Constraint)
-            Pair<Integer, Integer> pairing = setOfPairs.get(idx);
-            ITMLConstraint constraint = constraints.get(pairing);
-
-            RealVector deltaij = constraint.getDeltaij();
-
-            // Step 3.2 (Estimate p, the distance)
-            double distance = distanceMetric.distance(deltaij);
-
-            if(NumericTests.isApproxZero(distance) || NumericTests.isApproxZero(bHat.get(idx))){
-                LOGGER.debug("Distance: " + distance);
-                LOGGER.debug("bHat: " + bHat.get(idx));
-            }
-            
-            // Generate slack
-            double gammaProjected = slack / (slack + 1);
-
-            // Step 3.3 Delta
-            double adj = ((double) constraint.getY());
-
-            // Step 3.4 Alpha
-            double alpha = Math.min(lambda.get(idx),
-                    adj * gammaProjected * (1 / distance - 1 / bHat.get(idx)));
-
-            lambda.set(idx, lambda.get(idx) - alpha);
-
-            // Step 3.5 Beta
-            double beta = adj * alpha / (1 - adj * alpha * distance);
-
-            // Step 3.6 Eta_ij update
-            bHat.set(idx, 1/((1 / bHat.get(idx)) + adj*(alpha / slack)));
-
-            // Step 3.8 Update Metric
-            RealMatrix grad = a_matrix.multiply(deltaij.outerProduct(deltaij))
-                    .multiply(a_matrix);
-
-            if(Double.isNaN(grad.getEntry(0, 0))){
-                LOGGER.debug("Distance: " + distance);
-            }
-            
-            a_matrix = a_matrix.add(grad.scalarMultiply(beta));
-
-            // =================================================
-            // Test For Convergence
-            if (idx == sizeOfConstraints - 1) {
-                normSum = normList(lambda) + normList(lambdaOld);
-
-                if (NumericTests.isApproxZero(normSum)) {
-                    break;
-                } else {
-                    conv = normDelta(lambdaOld, lambda) / normSum;
-                    if (conv < REL_ERROR || iter > maxIter) {
-                        break;
-                    }
-                }
-
-                LOGGER.info("Norm Sum: " + normSum);
-                lambdaOld = new ArrayList<>(lambda);
-            }
-
-            // =================================================
-            // Next Constraint
-            idx = idx % (sizeOfConstraints - 1) + 1;
-
-            // =================================================
-            // Too Many Iterations
-            if (jdx > maxIter - 10) {
-                LOGGER.error("Convergence Time Out");
-                throw new ArithmeticException("Convergence Time Out");
-            }
-
-        }
-
-        return a_matrix;
-    }
-
-    /**
-     * Find the NORM of the diff between a1 and b1
-     *
-     * @param a1
-     * @param b1
-     * @return norm
-     */
-    private double normDelta(List<Double> a1, List<Double> b1) {
-        double sumSquare = 0;
-        for (int idx = 0; idx < a1.size(); idx++) {
-            double delta = a1.get(idx) - b1.get(idx);
-            sumSquare += delta * delta;
-        }
-        return Math.sqrt(sumSquare);
-    }
-
-    /**
-     * Find the Norm of a1
-     *
-     * @param a1
-     * @return norm
-     */
-    private double normList(List<Double> a1) {
-
-        double sumSquare = 0;
-        sumSquare = a1.stream().map((d) -> d * d)
-                .reduce(sumSquare, (accumulator, _item) -> accumulator + _item);
-
-        return Math.sqrt(sumSquare);
-
+        // Algorithm Step 3 (Repeat), rank-one projections
+        ITMLProjectionEngine engine = new ITMLProjectionEngine(listOfConstraints);
+        engine.setOrder(order);
+        engine.setRandom(random);
+        engine.setSlack(slack);
+        engine.setMaxIter(maxIter);
+        engine.setREL_ERROR(REL_ERROR);
+
+        return MatrixUtils.createRealMatrix(engine.execute(a_0_matrix.getData()));
     }
 
     /**
@@ -245,10 +129,16 @@ public class InformationTheoreticMetricLearning {
 
         int num_constraints = constFactor * (mapOfPatterns.size()
                 * (mapOfPatterns.size() - 1));
+        int num_pairs = mapOfPatterns.size() * (mapOfPatterns.size() - 1) / 2;
 
         // Generate unique constraints for 
         for (int kdx = 0; kdx < num_constraints; kdx++) {
 
+            // Every pair is taken
+            if (setOfPairs.size() == num_pairs) {
+                break;
+            }
+
             for (int m = 0; m < 20; m++) {
                 Integer idx = idxs.get(streamIntI.next());
                 Integer jdx = jdxs.get(streamIntJ.next());
@@ -259,37 +149,36 @@ public class InformationTheoreticMetricLearning {
                 
                 
                 // Generate ordered pair
-                Pair ijPair;
-                RealVector deltaij;
+                Pair<Integer, Integer> ijPair;
                 if (idx < jdx) {
                     ijPair = new Pair<>(idx, jdx);
-                    deltaij = mapOfPatterns.get(idx).subtract(
-                            mapOfPatterns.get(jdx));
                 } else {
                     ijPair = new Pair<>(jdx, idx);
-                    deltaij = mapOfPatterns.get(jdx).subtract(
-                            mapOfPatterns.get(idx));
                 }
-                
+
+                // Test for duplication, before the difference is formed
+                if (constraints.containsKey(ijPair)) {
+                    continue;
+                }
+
+                RealVector deltaij = mapOfPatterns.get(ijPair.getFirst()).subtract(
+                        mapOfPatterns.get(ijPair.getSecond()));
+
                 if(NumericTests.isApproxZero(deltaij.getNorm())){
                     continue;
                 }
                 
-                // Test for duplication
-                if (!constraints.containsKey(ijPair)) {
-
-                    setOfPairs.add(ijPair);
-                    
-                    String label_i = mapOfClasses.get(idx);
-                    String label_j = mapOfClasses.get(jdx);
-
-                    if (label_i.equalsIgnoreCase(label_j)) {
-                        constraints.put(ijPair, new ITMLConstraint(1, lowerBound, deltaij));
-                    } else {
-                        constraints.put(ijPair, new ITMLConstraint(-1, upperBound, deltaij));
-                    }
-                    break;
+                setOfPairs.add(ijPair);
+
+                String label_i = mapOfClasses.get(idx);
+                String label_j = mapOfClasses.get(jdx);
+
+                if (label_i.equalsIgnoreCase(label_j)) {
+                    constraints.put(ijPair, new ITMLConstraint(1, lowerBound, deltaij));
+                } else {
+                    constraints.put(ijPair, new ITMLConstraint(-1, upperBound, deltaij));
                 }
+                break;
             }
         }
 
@@ -363,6 +252,15 @@ public class InformationTheoreticMetricLearning {
         this.slack = slack;
     }
 
+    /**
+     * Order of the constraints in a sweep, default is CYCLIC
+     *
+     * @param order
+     */
+    public void setConstraintOrder(ConstraintOrder order) {
+        this.order = order;
+    }
+
     
 
     /**
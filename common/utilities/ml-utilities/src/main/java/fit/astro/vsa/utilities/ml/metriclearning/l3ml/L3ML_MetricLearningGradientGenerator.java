@@ -17,31 +17,33 @@
 package fit.astro.vsa.utilities.ml.metriclearning.l3ml;
 
 import fit.astro.vsa.common.utilities.math.NumericTests;
-import fit.astro.vsa.utilities.ml.MetricDistance;
+import fit.astro.vsa.utilities.ml.utils.ParallelReduction;
 import fit.astro.vsa.utilities.ml.utils.SupportingFunctionality;
+import fit.astro.vsa.utilities.ml.utils.ViewScheduler;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 
 /**
+ * The gradient is a sum over the pairs of samples, each pair is visited once
+ * for both of its orders. Rows are summed in chunks by ParallelReduction, so
+ * the result does not depend on the number of threads.
  *
  * @author Kyle Johnston
  */
 public class L3ML_MetricLearningGradientGenerator {
 
+    private static final int CHUNK_ROWS = 8;
+
     //============================================================
     // Input
     private final Map<Integer, Map<String, RealVector>> mapOfPatterns;
     private final Map<Integer, String> mapOfClasses;
 
-    //============================================================
-    // Internal
-    private RealMatrix sumij_Cross;
-    private RealMatrix sumij;
-
     //============================================================ 
     private double LAMBDA = 0.1;
     private final L3ML_MetricLearningObjective l3mlObj;
@@ -76,80 +78,94 @@ public class L3ML_MetricLearningGradientGenerator {
         L3MLVariable l3mlVariable_k = l3mlVariables.get(kdx);
 
         RealMatrix lk = l3mlVariable_k.getLk();
-        RealMatrix mk = (lk.transpose()).multiply(lk);
-        MetricDistance metricDistanceK = new MetricDistance(mk);
 
         // ===================================================
-        sumij = MatrixUtils.createRealMatrix(
-                mk.getRowDimension(), mk.getColumnDimension());
-
-        mapOfPatterns.keySet().stream().forEach((idx) -> {
-            RealVector x_i = mapOfPatterns.get(idx).get(kdx);
-
-            mapOfPatterns.keySet().parallelStream().filter((jdx) -> !(Objects.equals(idx, jdx))).forEachOrdered((jdx) -> {
-                RealVector x_j = mapOfPatterns.get(jdx).get(kdx);
-                double dSquare = metricDistanceK.distance(x_i, x_j);
-
-                double y_ij;
-                if (mapOfClasses.get(jdx)
-                        .equalsIgnoreCase(mapOfClasses.get(idx))) {
-                    y_ij = 1;
-                } else {
-                    y_ij = -1;
-                }
-
-                double z = l3mlVariable_k.getTau() - y_ij * (l3mlVariable_k.getMu() - dSquare);
-                double hPrime = SupportingFunctionality.HingePrimeApproxGLL(z);
-
-                RealVector deltaij = x_i.subtract(x_j);
-                RealMatrix cij = deltaij.outerProduct(deltaij);
-
-                sumij = sumij.add(cij.scalarMultiply(hPrime * y_ij));
-            });
-        });
-
-        sumij = sumij.scalarMultiply(Math.pow(l3mlVariable_k.getWeight(), p));
+        // Samples of view k, and the projection L x of every view
+        int[] ids = mapOfPatterns.keySet().stream()
+                .mapToInt(Integer::intValue).toArray();
+        String[] labels = new String[ids.length];
+        double[][] patterns_k = new double[ids.length][];
+        for (int idx = 0; idx < ids.length; idx++) {
+            labels[idx] = mapOfClasses.get(ids[idx]);
+            patterns_k[idx] = mapOfPatterns.get(ids[idx]).get(kdx).toArray();
+        }
 
-        // ==========================================================
-        sumij_Cross = MatrixUtils.createRealMatrix(
-                mk.getRowDimension(), mk.getColumnDimension());
+        double[][] projected_k = project(kdx, lk, ids);
 
+        List<double[][]> projected_l = new ArrayList<>();
         for (String ldx : l3mlVariables.keySet()) {
-
-            if (ldx.contentEquals(kdx)) {
-                continue;
+            if (!ldx.contentEquals(kdx)) {
+                projected_l.add(project(ldx, l3mlVariables.get(ldx).getLk(), ids));
             }
+        }
 
-            L3MLVariable l3mlVariable_l = l3mlVariables.get(ldx);
-
-            RealMatrix ll = l3mlVariable_l.getLk();
-            RealMatrix ml = (ll.transpose()).multiply(ll);
-            MetricDistance metricDistanceL = new MetricDistance(ml);
-
-            mapOfPatterns.keySet().stream().forEach((idx) -> {
-                RealVector x_i_l = mapOfPatterns.get(idx).get(ldx);
-                RealVector x_i_k = mapOfPatterns.get(idx).get(kdx);
-
-                mapOfPatterns.keySet().parallelStream().filter((jdx) -> !(Objects.equals(idx, jdx))).forEachOrdered((jdx) -> {
-                    RealVector x_j_l = mapOfPatterns.get(jdx).get(ldx);
-                    RealVector x_j_k = mapOfPatterns.get(jdx).get(kdx);
-
-                    RealVector deltaij = x_i_k.subtract(x_j_k);
-                    RealMatrix cij = deltaij.outerProduct(deltaij);
+        double weight_p = Math.pow(l3mlVariable_k.getWeight(), p);
+        double tau = l3mlVariable_k.getTau();
+        double mu = l3mlVariable_k.getMu();
+        int dimension = lk.getColumnDimension();
 
-                    double d_l = metricDistanceL.distanceSqrt(x_i_l, x_j_l);
-                    double d_k = metricDistanceK.distanceSqrt(x_i_k, x_j_k);
-                    if (!(NumericTests.isApproxZero(d_k))) {
-                        sumij_Cross = sumij_Cross.add(cij.scalarMultiply(1 - d_l / d_k));
+        // ===================================================
+        // w^p h'(z) y_ij C_ij + LAMBDA sum_l (1 - d_l / d_k) C_ij, i < j
+        double[][][] sums = ParallelReduction.sum(ids.length, CHUNK_ROWS,
+                new int[][]{{dimension, dimension}}, (idx, partials) -> {
+
+                    double[] deltaij = new double[dimension];
+                    for (int jdx = idx + 1; jdx < ids.length; jdx++) {
+
+                        double dSquare = squaredDistance(projected_k[idx], projected_k[jdx]);
+
+                        double y_ij;
+                        if (labels[jdx].equalsIgnoreCase(labels[idx])) {
+                            y_ij = 1;
+                        } else {
+                            y_ij = -1;
+                        }
+
+                        double z = tau - y_ij * (mu - dSquare);
+                        double pairWeight = weight_p * y_ij
+                                * SupportingFunctionality.HingePrimeApproxGLL(z);
+
+                        double d_k = Math.sqrt(dSquare);
+                        if (!(NumericTests.isApproxZero(d_k))) {
+                            for (double[][] projected : projected_l) {
+                                double d_l = Math.sqrt(squaredDistance(
+                                        projected[idx], projected[jdx]));
+                                pairWeight += LAMBDA * (1 - d_l / d_k);
+                            }
+                        }
+
+                        for (int ddx = 0; ddx < dimension; ddx++) {
+                            deltaij[ddx] = patterns_k[idx][ddx] - patterns_k[jdx][ddx];
+                        }
+
+                        // (i, j) and (j, i)
+                        ParallelReduction.addOuterProduct(partials[0], deltaij, 2.0 * pairWeight);
                     }
                 });
-            });
 
+        return lk.multiply(MatrixUtils.createRealMatrix(sums[0])).scalarMultiply(2.0);
+    }
+
+    /**
+     * @return L x of the view, in the order of ids
+     */
+    private double[][] project(String view, RealMatrix lk, int[] ids) {
+
+        double[][] projected = new double[ids.length][];
+        for (int idx = 0; idx < ids.length; idx++) {
+            projected[idx] = lk.operate(mapOfPatterns.get(ids[idx]).get(view).toArray());
         }
+        return projected;
+    }
 
-        sumij_Cross = sumij_Cross.scalarMultiply(LAMBDA);
+    private static double squaredDistance(double[] y_i, double[] y_j) {
 
-        return lk.multiply(sumij.add(sumij_Cross)).scalarMultiply(2.0);
+        double sum = 0;
+        for (int idx = 0; idx < y_i.length; idx++) {
+            double delta = y_i[idx] - y_j[idx];
+            sum += delta * delta;
+        }
+        return sum;
     }
 
     /**
@@ -160,12 +176,13 @@ public class L3ML_MetricLearningGradientGenerator {
     public Map<String, Double> updateWeight(
             Map<String, L3MLVariable> l3mlVariables) {
 
-        Map<String, Double> ikMap = new HashMap<>(l3mlVariables.keySet().size()); 
+        // Views in parallel
+        Map<String, Double> ikMap = new HashMap<>(ViewScheduler.map(
+                l3mlVariables.keySet(), (ldx) -> l3mlObj.valueIK(ldx, l3mlVariables)));
         Map<String, Double> ikNumMap = new HashMap<>(l3mlVariables.keySet().size());
 
         double sumOverK = 0;
         for (String ldx : l3mlVariables.keySet()) {
-            ikMap.put(ldx, l3mlObj.valueIK(ldx, l3mlVariables));
             double lkNum = Math.pow(1.0 / ikMap.get(ldx),  1.0 / (1.0 - p));
 
             ikNumMap.put(ldx, lkNum);
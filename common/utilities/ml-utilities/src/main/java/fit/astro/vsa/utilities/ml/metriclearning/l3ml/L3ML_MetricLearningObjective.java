@@ -24,6 +24,8 @@ import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 
 /**
+ * Sums are kept in local variables, the values of several views can be taken
+ * at the same time.
  *
  * @author Kyle Johnston
  */
@@ -32,9 +34,6 @@ public class L3ML_MetricLearningObjective {
     private final Map<Integer, Map<String, RealVector>> mapOfPatterns;
     private final Map<Integer, String> mapOfClasses;
 
-    //============================================================ 
-    private double iObjective;
-    private double sumijl;
     //============================================================ 
     private double LAMBDA = 0.1;
     //============================================================ 
@@ -69,11 +68,11 @@ public class L3ML_MetricLearningObjective {
         RealMatrix mk = (lk.transpose()).multiply(lk);
         MetricDistance metricDistanceK = new MetricDistance(mk);
 
-        iObjective = 0;
+        double iObjective = 0;
         for (Integer idx : mapOfPatterns.keySet()) {
             RealVector x_i = mapOfPatterns.get(idx).get(kdx);
 
-            mapOfPatterns.keySet().parallelStream().filter((jdx) -> !(Objects.equals(idx, jdx))).map((jdx) -> {
+            double[] hinges = mapOfPatterns.keySet().parallelStream().filter((jdx) -> !(Objects.equals(idx, jdx))).map((jdx) -> {
                 RealVector x_j = mapOfPatterns.get(jdx).get(kdx);
                 double dSquared = metricDistanceK.distance(x_i, x_j);
 
@@ -86,9 +85,11 @@ public class L3ML_MetricLearningObjective {
                 }
 
                 return l3mlVariable.getTau() - y_ij * (l3mlVariable.getMu() - dSquared);
-            }).map((z) -> SupportingFunctionality.HingeApproxGLL(z)).forEachOrdered((h) -> {
+            }).mapToDouble((z) -> SupportingFunctionality.HingeApproxGLL(z)).toArray();
+
+            for (double h : hinges) {
                 iObjective = iObjective + h;
-            });
+            }
         }
 
         return iObjective;
@@ -108,7 +109,7 @@ public class L3ML_MetricLearningObjective {
 
         double ik = Math.pow(l3mlVariable_K.getWeight(), p) * ikMap.get(kdx);
 
-        sumijl = generateSumijl(kdx, l3mlVariables);
+        double sumijl = generateSumijl(kdx, l3mlVariables);
 
         return ik + LAMBDA * sumijl;
 
@@ -128,7 +129,7 @@ public class L3ML_MetricLearningObjective {
         double ik = Math.pow(l3mlVariable_K.getWeight(), p) * valueIK(kdx,
                 l3mlVariables);
 
-        sumijl = generateSumijl(kdx, l3mlVariables);
+        double sumijl = generateSumijl(kdx, l3mlVariables);
 
         return ik + LAMBDA * sumijl;
 
@@ -143,7 +144,7 @@ public class L3ML_MetricLearningObjective {
         RealMatrix mk = (lk.transpose()).multiply(lk);
         MetricDistance metricDistanceK = new MetricDistance(mk);
 
-        sumijl = 0;
+        double sumijl = 0;
         for (String ldx : l3mlVariables.keySet()) {
 
             if (ldx.contentEquals(kdx)) {
@@ -156,20 +157,24 @@ public class L3ML_MetricLearningObjective {
             RealMatrix ml = (ll.transpose()).multiply(ll);
             MetricDistance metricDistanceL = new MetricDistance(ml);
 
-            mapOfPatterns.keySet().stream().forEach((idx) -> {
+            for (Integer idx : mapOfPatterns.keySet()) {
                 RealVector x_i_l = mapOfPatterns.get(idx).get(ldx);
                 RealVector x_i_k = mapOfPatterns.get(idx).get(kdx);
 
-                mapOfPatterns.keySet().parallelStream().filter((jdx) -> !(Objects.equals(idx, jdx))).forEachOrdered((jdx) -> {
+                double[] terms = mapOfPatterns.keySet().parallelStream().filter((jdx) -> !(Objects.equals(idx, jdx))).mapToDouble((jdx) -> {
                     RealVector x_j_l = mapOfPatterns.get(jdx).get(ldx);
                     RealVector x_j_k = mapOfPatterns.get(jdx).get(kdx);
 
                     double d_l = metricDistanceL.distanceSqrt(x_i_l, x_j_l);
                     double d_k = metricDistanceK.distanceSqrt(x_i_k, x_j_k);
 
-                    sumijl = sumijl + (d_k - d_l) * (d_k - d_l);
-                });
-            });
+                    return (d_k - d_l) * (d_k - d_l);
+                }).toArray();
+
+                for (double term : terms) {
+                    sumijl = sumijl + term;
+                }
+            }
         }
 
         return sumijl;
@@ -17,6 +17,7 @@
 package fit.astro.vsa.utilities.ml.metriclearning.l3ml;
 
 import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric;
+import fit.astro.vsa.utilities.ml.utils.ViewScheduler;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -30,6 +31,9 @@ import org.slf4j.LoggerFactory;
  * Hu, J., Lu, J., Yuan, J., & Tan, Y. P. (2014, November). Large margin
  * multi-metric learning for face and kinship verification in the wild. In Asian
  * Conference on Computer Vision (pp. 252-267). Springer, Cham.
+ * <p>
+ * The gradients of the views are taken in parallel from the metrics of the
+ * previous iteration, then every view takes its step.
  *
  * @author Kyle Johnston
  */
@@ -117,11 +121,13 @@ public class LargeMarginMultiMetricLearning {
         for (int idx = 0; idx < MAX_ITER; idx++) {
 
             // ================================================
-            // Step 1 Update Lk
+            // Step 1 Update Lk, views in parallel
+            Map<String, RealMatrix> gradients = ViewScheduler.map(features,
+                    (kdx) -> learningGradientGenerator.generateLk(kdx, l3mlVariables));
+
             for (String kdx : features) {
 
-                RealMatrix gradiantOfJwrtLMatrix = learningGradientGenerator
-                        .generateLk(kdx, l3mlVariables);
+                RealMatrix gradiantOfJwrtLMatrix = gradients.get(kdx);
 
                 // ================================================
                 double stepSize;
@@ -147,9 +153,12 @@ public class LargeMarginMultiMetricLearning {
             Map<String, Double> ikMap = learningGradientGenerator.updateWeight(l3mlVariables);
 
             // estimate delta opt change
+            Map<String, Double> jk = ViewScheduler.map(features,
+                    (kdx) -> learningObjective.valueJK(kdx, l3mlVariables, ikMap));
+
             double jt_1 = 0;
             for (String kdx : features) {
-                jt_1 += learningObjective.valueJK(kdx, l3mlVariables, ikMap);
+                jt_1 += jk.get(kdx);
             }
 
             double delta = Math.abs(jt_1 - jt);
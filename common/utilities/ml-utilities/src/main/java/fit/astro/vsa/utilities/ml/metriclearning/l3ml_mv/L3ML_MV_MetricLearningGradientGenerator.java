@@ -17,22 +17,38 @@
 package fit.astro.vsa.utilities.ml.metriclearning.l3ml_mv;
 
 import fit.astro.vsa.utilities.ml.MetricDistance_MV;
+import fit.astro.vsa.utilities.ml.utils.ParallelReduction;
 import fit.astro.vsa.utilities.ml.utils.SupportingFunctionality;
+import fit.astro.vsa.utilities.ml.utils.ViewScheduler;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.stream.IntStream;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.util.Pair;
 
 /**
+ * The pull, push and cross sums are gathered per row: the pair matrices
+ * A = d' V d and B = d U d' of the target neighbors and impostors of a row
+ * are computed once and weighted by the summed hinge derivatives. Rows are
+ * summed in chunks by ParallelReduction, so the result does not depend on the
+ * number of threads.
  *
  * @author Kyle Johnston
  */
 public class L3ML_MV_MetricLearningGradientGenerator {
 
+    private static final int CHUNK_ROWS = 4;
+
+    // Sums gathered per row
+    private static final int PULL_G = 0;
+    private static final int PULL_N = 1;
+    private static final int PUSH_G = 2;
+    private static final int PUSH_N = 3;
+    private static final int CROSS_G = 4;
+    private static final int CROSS_N = 5;
+
     //============================================================ 
     // Input
     private final Map<Integer, List<Integer>> classMemberNear;
@@ -41,17 +57,6 @@ public class L3ML_MV_MetricLearningGradientGenerator {
 
     private final L3ML_MV_MetricLearningObjective l3mlObj;
 
-    //============================================================ 
-    // Internal
-    private RealMatrix sumij_g;
-    private RealMatrix sumij_n;
-
-    private RealMatrix sumijl_g;
-    private RealMatrix sumijl_n;
-
-    private RealMatrix sumijq_g;
-    private RealMatrix sumijq_n;
-
     //============================================================ 
     private double LAMBDA = 0.5;
     private double GAMMA = 0.5;
@@ -94,94 +99,120 @@ public class L3ML_MV_MetricLearningGradientGenerator {
         RealMatrix uk = l3mlVariable.getUk();
         RealMatrix vk = l3mlVariable.getVk();
 
-        MetricDistance_MV metricDistanceK = new MetricDistance_MV(uk, vk);
-
         double scaleMN = l3mlVariable.getUk().getColumnDimension()*l3mlVariable.getVk().getColumnDimension();
-        
-        // =============================================
-        // Pull Terms
-        sumij_g = MatrixUtils.createRealMatrix(
-                gammak.getRowDimension(), gammak.getColumnDimension());
-
-        sumij_n = MatrixUtils.createRealMatrix(
-                nuk.getRowDimension(), nuk.getColumnDimension());
-
-        // In neighborhood
-        Map<Integer, List<Pair<RealMatrix, RealMatrix>>> abijs
-                = new HashMap<>(classMemberNear.size());
 
         // =============================================
-        // generate aij, bij, and sums
-        for (Integer idx : classMemberNear.keySet()) {
-
-            RealMatrix x_i = mapOfPatterns.get(idx).get(kdx);
-            abijs.put(idx, new ArrayList<>(classMemberNear.get(idx).size()));
-
-            classMemberNear.get(idx).parallelStream().map((jdx)
-                    -> mapOfPatterns.get(jdx).get(kdx)).map((x_j)
-                    -> x_i.subtract(x_j)).forEachOrdered((deltaij) -> {
-                // =============================================
-                // sum_ij for gamma
-                RealMatrix aij = makeAij(deltaij, vk);
-                sumij_g = sumij_g.add(aij);
-
-                // =============================================
-                // sum_ij for nu
-                RealMatrix bij = makeBij(deltaij, uk);
-                sumij_n = sumij_n.add(bij);
-
-                abijs.get(idx).add(new Pair<>(aij, bij));
-            });
-        }
-
-        sumij_g = sumij_g.scalarMultiply(1.0/scaleMN);
-        sumij_n = sumij_n.scalarMultiply(1.0/scaleMN);
-        
-        // ================================================
-        // Push Terms
-        sumijl_g = MatrixUtils.createRealMatrix(
-                gammak.getRowDimension(), gammak.getColumnDimension());
-
-        sumijl_n = MatrixUtils.createRealMatrix(
-                nuk.getRowDimension(), nuk.getColumnDimension());
-
-        for (Integer idx : classMemberNear.keySet()) {
-
-            RealMatrix x_i = mapOfPatterns.get(idx).get(kdx);
-            // pre generated neighbors
-            List<Pair<RealMatrix, RealMatrix>> pairAB = abijs.get(idx);
-
-            for (Pair<RealMatrix, RealMatrix> pairab : pairAB) {
-
-                mapOfPatterns.keySet().parallelStream().filter((ldx) -> !(mapOfClasses.get(ldx)
-                        .equalsIgnoreCase(mapOfClasses.get(idx)))).map((ldx)
-                        -> mapOfPatterns.get(ldx).get(kdx)).forEachOrdered((x_l) -> {
-                    RealMatrix deltail = x_i.subtract(x_l);
-
-                    RealMatrix delA_ijl = pairab.getFirst()
-                            .subtract(makeAij(deltail, vk));
-
-                    RealMatrix delB_ijl = pairab.getSecond()
-                            .subtract(makeBij(deltail, uk));
-
-                    double distanceij = (uk.multiply(pairab.getFirst())).getTrace();
-
-                    double z = 1 + distanceij
-                            - metricDistanceK.matrixDistance(x_i, x_l);
-
-                    // εi,j,lm=1−( xi−xlm)TLTL( xi−xlm)+( xi− xj )TLTL( xi− xj ),
-                    // and if εijlm > 0, [εijlm]+ = 1, otherwise, [εijlm]+ = 0.
-                    double hPrime = SupportingFunctionality.HingePrimeApproxGLL(z);
+        // Distances of the other views, scaled as d_q / scaleAB^2
+        List<String> views = new ArrayList<>();
+        List<MetricDistance_MV> metricDistances = new ArrayList<>();
+        List<Double> scales = new ArrayList<>();
+        for (String qdx : l3mlVariables.keySet()) {
+            if (qdx.contentEquals(kdx)) {
+                continue;
+            }
+            L3MLVariable_MV l3mlVariableQ = l3mlVariables.get(qdx);
 
-                    sumijl_g = sumijl_g.add(delA_ijl.scalarMultiply(hPrime));
+            views.add(qdx);
+            metricDistances.add(new MetricDistance_MV(
+                    l3mlVariableQ.getUk(), l3mlVariableQ.getVk()));
+            scales.add((double) l3mlVariableQ.getUk().getColumnDimension()
+                    * l3mlVariableQ.getVk().getColumnDimension());
+        }
 
-                    sumijl_n = sumijl_n.add(delB_ijl.scalarMultiply(hPrime));
+        int[] rows = classMemberNear.keySet().stream()
+                .mapToInt(Integer::intValue).toArray();
+        int[] columns = mapOfPatterns.keySet().stream()
+                .mapToInt(Integer::intValue).toArray();
+
+        int dimensionG = gammak.getColumnDimension();
+        int dimensionN = nuk.getColumnDimension();
+        int[] shapeG = {dimensionG, dimensionG};
+        int[] shapeN = {dimensionN, dimensionN};
+
+        double[][][] sums = ParallelReduction.sum(rows.length, CHUNK_ROWS,
+                new int[][]{shapeG, shapeN, shapeG, shapeN, shapeG, shapeN},
+                (row, partials) -> {
+
+                    int idx = rows[row];
+                    RealMatrix x_i = mapOfPatterns.get(idx).get(kdx);
+                    String label = mapOfClasses.get(idx);
+                    List<Integer> listxj = classMemberNear.get(idx);
+
+                    // ====================================
+                    // Target neighbors
+                    double[][][] aij = new double[listxj.size()][][];
+                    double[][][] bij = new double[listxj.size()][][];
+                    double[] distanceij = new double[listxj.size()];
+
+                    for (int jdx = 0; jdx < listxj.size(); jdx++) {
+                        RealMatrix deltaij = x_i.subtract(mapOfPatterns.get(listxj.get(jdx)).get(kdx));
+                        RealMatrix a = makeAij(deltaij, vk);
+
+                        aij[jdx] = a.getData();
+                        bij[jdx] = makeBij(deltaij, uk).getData();
+                        distanceij[jdx] = (uk.multiply(a)).getTrace();
+                    }
+
+                    // ====================================
+                    // Impostors
+                    int[] impostors = IntStream.of(columns).filter((ldx) -> !(mapOfClasses
+                            .get(ldx).equalsIgnoreCase(label))).toArray();
+
+                    double[] hPrimeOfTarget = new double[listxj.size()];
+                    for (int ldx : impostors) {
+                        RealMatrix deltail = x_i.subtract(mapOfPatterns.get(ldx).get(kdx));
+                        RealMatrix a = makeAij(deltail, vk);
+                        double distanceil = (uk.multiply(a)).getTrace();
+
+                        // sum_j h'(z_ijl) over the targets, the weight of A_il
+                        double hPrimeOfImpostor = 0;
+                        for (int jdx = 0; jdx < listxj.size(); jdx++) {
+                            double hPrime = SupportingFunctionality.HingePrimeApproxGLL(
+                                    1 + distanceij[jdx] - distanceil);
+                            hPrimeOfTarget[jdx] += hPrime;
+                            hPrimeOfImpostor += hPrime;
+                        }
+
+                        if (hPrimeOfImpostor != 0.0) {
+                            addScaled(partials[PUSH_G], a.getData(), -hPrimeOfImpostor);
+                            addScaled(partials[PUSH_N], makeBij(deltail, uk).getData(),
+                                    -hPrimeOfImpostor);
+                        }
+                    }
+
+                    // ====================================
+                    for (int jdx = 0; jdx < listxj.size(); jdx++) {
+                        addScaled(partials[PULL_G], aij[jdx], 1.0);
+                        addScaled(partials[PULL_N], bij[jdx], 1.0);
+
+                        addScaled(partials[PUSH_G], aij[jdx], hPrimeOfTarget[jdx]);
+                        addScaled(partials[PUSH_N], bij[jdx], hPrimeOfTarget[jdx]);
+
+                        int jdxID = listxj.get(jdx);
+                        if (jdxID == idx) {
+                            continue;
+                        }
+
+                        // Cross term, sum_q (d_k - d_q)
+                        double cross = 0;
+                        for (int qdx = 0; qdx < views.size(); qdx++) {
+                            double d_ij_q = metricDistances.get(qdx).matrixDistance(
+                                    mapOfPatterns.get(idx).get(views.get(qdx)),
+                                    mapOfPatterns.get(jdxID).get(views.get(qdx)))
+                                    / scales.get(qdx) / scales.get(qdx);
+                            cross += distanceij[jdx] / scaleMN / scaleMN - d_ij_q;
+                        }
+
+                        addScaled(partials[CROSS_G], aij[jdx], cross);
+                        addScaled(partials[CROSS_N], bij[jdx], cross);
+                    }
                 });
-            }
-        }
 
-        sumijl_g = sumijl_g.scalarMultiply(1.0/scaleMN);
-        sumijl_n = sumijl_n.scalarMultiply(1.0/scaleMN);
+        RealMatrix sumij_g = MatrixUtils.createRealMatrix(sums[PULL_G]).scalarMultiply(1.0/scaleMN);
+        RealMatrix sumij_n = MatrixUtils.createRealMatrix(sums[PULL_N]).scalarMultiply(1.0/scaleMN);
+
+        RealMatrix sumijl_g = MatrixUtils.createRealMatrix(sums[PUSH_G]).scalarMultiply(1.0/scaleMN);
+        RealMatrix sumijl_n = MatrixUtils.createRealMatrix(sums[PUSH_N]).scalarMultiply(1.0/scaleMN);
         
         // ==========================================================
         RealMatrix regGamma = MatrixUtils.createRealIdentityMatrix(
@@ -206,56 +237,9 @@ public class L3ML_MV_MetricLearningGradientGenerator {
         gradOut_ik[1] = gradOut_ik[1].scalarMultiply(Math.pow(l3mlVariable.getWeight(), p));
 
         // ==========================================================
-        sumijq_g = MatrixUtils.createRealMatrix(
-                gammak.getRowDimension(), gammak.getColumnDimension());
-
-        sumijq_n = MatrixUtils.createRealMatrix(
-                nuk.getRowDimension(), nuk.getColumnDimension());
-
-        
-        for (String qdx : l3mlVariables.keySet()) {
-
-            if (qdx.contentEquals(kdx)) {
-                continue;
-            }
-
-            L3MLVariable_MV l3mlVariableQ = l3mlVariables.get(qdx);
-
-
-            RealMatrix uq = l3mlVariableQ.getUk();
-            RealMatrix vq = l3mlVariableQ.getVk();
-
-            MetricDistance_MV metricDistanceQ = new MetricDistance_MV(uq, vq);
-
-            double scaleAB = l3mlVariableQ.getUk().getColumnDimension()*l3mlVariableQ.getVk().getColumnDimension();
-            
-            for (Integer idx : mapOfPatterns.keySet()) {
-                RealMatrix x_i_q = mapOfPatterns.get(idx).get(qdx);
-                RealMatrix x_i_k = mapOfPatterns.get(idx).get(kdx);
-
-                List<Integer> listxj = classMemberNear.get(idx);
-
-                listxj.parallelStream().filter((jdx) -> !(Objects.equals(idx, jdx))).forEachOrdered((jdx) -> {
-                    RealMatrix x_j_q = mapOfPatterns.get(jdx).get(qdx);
-                    RealMatrix x_j_k = mapOfPatterns.get(jdx).get(kdx);
-
-                    RealMatrix deltaij_k = x_i_k.subtract(x_j_k);
-                    RealMatrix aij_k = makeAij(deltaij_k, vk)
-                            .scalarMultiply(1.0/(uk.getColumnDimension()*vk.getColumnDimension()));
-                    RealMatrix bij_k = makeBij(deltaij_k, uk)
-                            .scalarMultiply(1.0/(uk.getColumnDimension()*vk.getColumnDimension()));
-
-                    double d_ij_q = metricDistanceQ.matrixDistance(x_i_q, x_j_q)
-                            /(uq.getColumnDimension()*vq.getColumnDimension())/scaleAB;
-                    double d_ij_k = metricDistanceK.matrixDistance(x_i_k, x_j_k)
-                            /(uk.getColumnDimension()*vk.getColumnDimension())/scaleMN;
-
-                    sumijq_g = sumijq_g.add(aij_k.scalarMultiply((d_ij_k - d_ij_q)));
-                    sumijq_n = sumijq_n.add(bij_k.scalarMultiply((d_ij_k - d_ij_q)));
-                });
-            }
-
-        }
+        // Cross terms, A_ij / scaleMN
+        RealMatrix sumijq_g = MatrixUtils.createRealMatrix(sums[CROSS_G]).scalarMultiply(1.0/scaleMN);
+        RealMatrix sumijq_n = MatrixUtils.createRealMatrix(sums[CROSS_N]).scalarMultiply(1.0/scaleMN);
 
         sumijq_g = gammak.multiply(sumijq_g).scalarMultiply(4.0 * MU).scalarMultiply(1.0/scaleMN);
         sumijq_n = nuk.multiply(sumijq_n).scalarMultiply(4.0 * MU).scalarMultiply(1.0/scaleMN);
@@ -276,12 +260,12 @@ public class L3ML_MV_MetricLearningGradientGenerator {
             Map<String, L3MLVariable_MV> l3mlVariables) {
 
         Map<String, Double> ikNumMap = new HashMap<>(l3mlVariables.keySet().size());
-        Map<String, Double> ik = new HashMap<>(l3mlVariables.keySet().size());
+        // Views in parallel
+        Map<String, Double> ik = new HashMap<>(ViewScheduler.map(
+                l3mlVariables.keySet(), (ldx) -> l3mlObj.valueIK(ldx, l3mlVariables)));
         
         double sumOverK = 0;
         for (String ldx : l3mlVariables.keySet()) {
-            ik.put(ldx, l3mlObj.valueIK(ldx, l3mlVariables));
-            
             double lkNum = Math.pow(1.0 / ik.get(ldx), 1.0 / (1.0 - p));
 
             ikNumMap.put(ldx, lkNum);
@@ -296,6 +280,17 @@ public class L3ML_MV_MetricLearningGradientGenerator {
         return ik;
     }
 
+    /**
+     * sum += weight * term
+     */
+    private static void addScaled(double[][] sum, double[][] term, double weight) {
+        for (int idx = 0; idx < sum.length; idx++) {
+            for (int jdx = 0; jdx < sum[idx].length; jdx++) {
+                sum[idx][jdx] += weight * term[idx][jdx];
+            }
+        }
+    }
+
     private RealMatrix makeAij(RealMatrix deltaij, RealMatrix vk) {
         return deltaij.transpose().multiply(vk).multiply(deltaij);
     }
@@ -18,7 +18,6 @@ package fit.astro.vsa.utilities.ml.metriclearning.l3ml_mv;
 
 import fit.astro.vsa.utilities.ml.MetricDistance_MV;
 import fit.astro.vsa.utilities.ml.utils.SupportingFunctionality;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +25,8 @@ import java.util.Objects;
 import org.apache.commons.math3.linear.RealMatrix;
 
 /**
+ * Sums are kept in local variables, the values of several views can be taken
+ * at the same time.
  *
  * @author Kyle Johnston
  */
@@ -38,11 +39,6 @@ public class L3ML_MV_MetricLearningObjective {
     private final Map<Integer, Map<String, RealMatrix>> mapOfPatterns;
     private final Map<Integer, String> mapOfClasses;
 
-    //============================================================ 
-    // Internal
-    private double sumij;
-    private double sumijl;
-
     //============================================================ 
     private double LAMBDA_REG = 0.5;
     private double GAMMA_PP = 0.5;
@@ -87,45 +83,46 @@ public class L3ML_MV_MetricLearningObjective {
         double scaleMN = l3mlVariable.getUk().getColumnDimension()*l3mlVariable.getVk().getColumnDimension();
         
         // ===============  Pull Error ========================
-        sumij = 0;
-        Map<Integer, List<Double>> mapDistancesIJ = new HashMap<>(mapOfPatterns.keySet().size());
+        double sumij = 0;
+        Map<Integer, double[]> mapDistancesIJ = new HashMap<>(mapOfPatterns.keySet().size());
         for (Integer idx : mapOfPatterns.keySet()) {
 
             RealMatrix x_i = mapOfPatterns.get(idx).get(kdx);
-            mapDistancesIJ.put(idx, new ArrayList<>(classMemberNear.get(idx).size()));
 
             // sum_ij
-            classMemberNear.get(idx).parallelStream().map((jdx)
-                    -> mapOfPatterns.get(jdx).get(kdx)).map((x_j)
-                    -> metricDistanceK.matrixDistance(x_i, x_j)).map((distance) -> {
+            double[] distances = classMemberNear.get(idx).parallelStream().map((jdx)
+                    -> mapOfPatterns.get(jdx).get(kdx)).mapToDouble((x_j)
+                    -> metricDistanceK.matrixDistance(x_i, x_j)).toArray();
+
+            for (double distance : distances) {
                 sumij = sumij + distance;
-                return distance;
-            }).forEachOrdered((distance) -> {
-                mapDistancesIJ.get(idx).add(distance);
-            });
+            }
+            mapDistancesIJ.put(idx, distances);
         }
 
         sumij = sumij/ scaleMN;
         
         // ===============  Push Error ========================
-        sumijl = 0;
+        double sumijl = 0;
         for (Integer idx : classMemberNear.keySet()) {
 
             RealMatrix x_i = mapOfPatterns.get(idx).get(kdx);
 
             // sum_ij
-            for (Double distance_ij : mapDistancesIJ.get(idx)) {
+            for (double distance_ij : mapDistancesIJ.get(idx)) {
                 // sum_ik
-                mapOfPatterns.keySet().parallelStream().filter((ldx) -> !(mapOfClasses.get(ldx)
+                double[] hinges = mapOfPatterns.keySet().parallelStream().filter((ldx) -> !(mapOfClasses.get(ldx)
                         .equalsIgnoreCase(mapOfClasses.get(idx)))).map((ldx)
-                        -> mapOfPatterns.get(ldx).get(kdx)).map((x_l)
+                        -> mapOfPatterns.get(ldx).get(kdx)).mapToDouble((x_l)
                         -> metricDistanceK.matrixDistance(x_i, x_l)).map((distance_il)
                         -> 1 + distance_ij/scaleMN - distance_il/scaleMN).map((z)
-                        -> SupportingFunctionality.HingeApproxGLL(z)).forEachOrdered((hinge) -> {
-                    // 1 - y_il
-                    // Hinge Loss Function
+                        -> SupportingFunctionality.HingeApproxGLL(z)).toArray();
+
+                // 1 - y_il
+                // Hinge Loss Function
+                for (double hinge : hinges) {
                     sumijl = sumijl + hinge;
-                });
+                }
             }
         }
 
@@ -150,7 +147,7 @@ public class L3ML_MV_MetricLearningObjective {
         double ik = Math.pow(l3mlVariable_K.getWeight(), p)
                 * ikMap.get(kdx);
 
-        sumijl = generateSumIJL(kdx, l3mlVariables);
+        double sumijl = generateSumIJL(kdx, l3mlVariables);
 
         return ik + MU_CR * sumijl;
 
@@ -170,7 +167,7 @@ public class L3ML_MV_MetricLearningObjective {
         double ik = Math.pow(l3mlVariable_K.getWeight(), p)
                 * valueIK(kdx, l3mlVariables);
 
-        sumijl = generateSumIJL(kdx, l3mlVariables);
+        double sumijl = generateSumIJL(kdx, l3mlVariables);
 
         return ik + MU_CR * sumijl;
 
@@ -187,7 +184,7 @@ public class L3ML_MV_MetricLearningObjective {
 
         double scaleMN = l3mlVariable_K.getUk().getColumnDimension()*l3mlVariable_K.getVk().getColumnDimension();
         
-        sumijl = 0;
+        double sumijl = 0;
         for (String ldx : l3mlVariables.keySet()) {
 
             if (ldx.contentEquals(kdx)) {
@@ -203,13 +200,13 @@ public class L3ML_MV_MetricLearningObjective {
             
             double scaleAB = l3mlVariable_L.getUk().getColumnDimension()*l3mlVariable_L.getVk().getColumnDimension();
 
-            mapOfPatterns.keySet().stream().forEach((idx) -> {
+            for (Integer idx : mapOfPatterns.keySet()) {
                 RealMatrix x_i_l = mapOfPatterns.get(idx).get(ldx);
                 RealMatrix x_i_k = mapOfPatterns.get(idx).get(kdx);
 
                 List<Integer> listxj = classMemberNear.get(idx);
 
-                listxj.parallelStream().filter((jdx) -> !(Objects.equals(idx, jdx))).forEachOrdered((jdx) -> {
+                double[] terms = listxj.parallelStream().filter((jdx) -> !(Objects.equals(idx, jdx))).mapToDouble((jdx) -> {
                     RealMatrix x_j_l = mapOfPatterns.get(jdx).get(ldx);
                     RealMatrix x_j_k = mapOfPatterns.get(jdx).get(kdx);
 
@@ -219,9 +216,13 @@ public class L3ML_MV_MetricLearningObjective {
                     double d_ij_k = metricDistanceK.matrixDistance(x_i_k, x_j_k)
                             /(uk.getColumnDimension()*vk.getColumnDimension());
 
-                    sumijl = sumijl + (d_ij_k/scaleMN - d_ij_l/scaleAB) * (d_ij_k/scaleMN - d_ij_l/scaleAB);
-                });
-            });
+                    return (d_ij_k/scaleMN - d_ij_l/scaleAB) * (d_ij_k/scaleMN - d_ij_l/scaleAB);
+                }).toArray();
+
+                for (double term : terms) {
+                    sumijl = sumijl + term;
+                }
+            }
         }
 
         return sumijl;
@@ -25,6 +25,7 @@ import fit.astro.vsa.common.utilities.math.linearalgebra.MatrixOperations;
 import fit.astro.vsa.utilities.ml.MultiViewMetricDistance;
 import fit.astro.vsa.utilities.ml.ecva.CanonicalVariates;
 import fit.astro.vsa.utilities.ml.ecva.ECVA;
+import fit.astro.vsa.utilities.ml.utils.ViewScheduler;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -45,6 +46,9 @@ import org.slf4j.LoggerFactory;
  * Hu, J., Lu, J., Yuan, J., & Tan, Y. P. (2014, November). Large margin
  * multi-metric learning for face and kinship verification in the wild. In Asian
  * Conference on Computer Vision (pp. 252-267). Springer, Cham.
+ * <p>
+ * The gradients of the views are taken in parallel from the metrics of the
+ * previous iteration, then every view takes its step.
  *
  * @author Kyle Johnston
  */
@@ -150,11 +154,13 @@ public class LargeMarginMultiMetricLearning_MV {
             double step_u;
             double step_v;
 
-            // Step 2 Update Lk
+            // Step 2 Update Lk, views in parallel
+            Map<String, RealMatrix[]> gradients = ViewScheduler.map(features,
+                    (kdx) -> learningGradientGenerator.generateLk(kdx, l3mlVariables));
+
             for (String kdx : features) {
 
-                RealMatrix[] gradiantOfJwrtLMatrix = learningGradientGenerator
-                        .generateLk(kdx, l3mlVariables);
+                RealMatrix[] gradiantOfJwrtLMatrix = gradients.get(kdx);
 
                 // ======
                 if (idx == 0) {
@@ -191,9 +197,12 @@ public class LargeMarginMultiMetricLearning_MV {
 //            Map<String, Double> ikMap = learningGradientGenerator.updateWeight(l3mlVariables);
 
             // estimate delta opt change
+            Map<String, Double> jk = ViewScheduler.map(features,
+                    (kdx) -> learningObjective.valueJK(kdx, l3mlVariables));
+
             double jt_1 = 0;
             for (String kdx : features) {
-                double tmp = learningObjective.valueJK(kdx, l3mlVariables);
+                double tmp = jk.get(kdx);
                 LOGGER.info("Objective: " + tmp + "  kdx: " + kdx);
                 jt_1 += tmp;
             }
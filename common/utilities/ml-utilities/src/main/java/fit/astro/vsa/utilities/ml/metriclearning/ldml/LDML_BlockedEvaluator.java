@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning.ldml;
+
+import fit.astro.vsa.common.utilities.math.NumericTests;
+import fit.astro.vsa.utilities.ml.PackedDistanceMatrix;
+import fit.astro.vsa.utilities.ml.utils.ParallelReduction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * LDML_MetricLearningObjective and LDML_MetricLearningGradientGenerator in a
+ * single pass over tiles of pairs. The patterns are projected by L once, a
+ * tile of rows against a tile of columns then takes its distances from the
+ * projections and adds its pairs to the scatter sum(w_ij (x_i - x_j)(x_i -
+ * x_j)') as X_I' diag(W 1) X_I + X_J' diag(W' 1) X_J - X_I' W X_J - X_J' W'
+ * X_I, without an outer product per pair. Only the tiles of the upper
+ * triangle are visited, every pair counts for both of its orders.
+ * <p>
+ * With a pair budget the pairs of the same class and of different classes
+ * are sampled, each stratum at its own rate, and a sampled pair is weighted
+ * by the inverse of its rate: the objective and the gradient are unbiased. A
+ * pair is kept or not by a hash of its packed index, the sample is the same
+ * at every evaluation and nothing is stored per pair.
+ * <p>
+ * The tiles are summed in parallel by ParallelReduction, a tile of the
+ * upper triangle found from its index by packed arithmetic. The projections,
+ * the partial sums and the buffers of the tiles are kept within MAX_MEMORY:
+ * the number of partials, then the tile size, is reduced as needed, a
+ * ceiling below a single partial and a tile of one sample is rejected.
+ *
+ * @author Kyle Johnston
+ */
+public class LDML_BlockedEvaluator {
+
+    // Partial sums, the partials are held until added
+    private static final int MAX_PARTIALS = 64;
+
+    private final double[][] patterns;
+    private final double[][] yVectors;
+    private final int[] classIndex;
+
+    // ===============================================
+    private double threshold = 0.01;
+
+    private int TILE_SIZE = 64;
+    private long MAX_MEMORY = 64L << 20;
+
+    // Zero for every pair
+    private long PAIR_BUDGET = 0;
+    private long SEED = 0;
+
+    // Result of the last evaluation
+    private double value;
+    private RealMatrix gradient;
+
+    /**
+     *
+     * @param setOfPatterns
+     * @param ySet
+     */
+    public LDML_BlockedEvaluator(
+            Map<Integer, RealVector> setOfPatterns,
+            Map<Integer, RealVector> ySet) {
+
+        int[] ids = setOfPatterns.keySet().stream()
+                .mapToInt(Integer::intValue).sorted().toArray();
+
+        this.patterns = new double[ids.length][];
+        this.yVectors = new double[ids.length][];
+        this.classIndex = new int[ids.length];
+
+        // Samples of one class share their y
+        List<double[]> labels = new ArrayList<>();
+        for (int idx = 0; idx < ids.length; idx++) {
+            patterns[idx] = setOfPatterns.get(ids[idx]).toArray();
+            yVectors[idx] = ySet.get(ids[idx]).toArray();
+
+            int label = 0;
+            while (label < labels.size() && !Arrays.equals(labels.get(label), yVectors[idx])) {
+                label++;
+            }
+            if (label == labels.size()) {
+                labels.add(yVectors[idx]);
+            }
+            classIndex[idx] = label;
+        }
+    }
+
+    /**
+     * Objective and gradient at lk
+     *
+     * @param lk
+     */
+    public void evaluate(RealMatrix lk) {
+
+        int numSamples = patterns.length;
+        int dimension = patterns[0].length;
+
+        // {tile size, partials}, before any allocation
+        int[] layout = layout(numSamples, dimension, lk.getRowDimension());
+        int tileSize = layout[0];
+
+        // ========================================
+        // Projections, z_i = L x_i
+        double[][] lkData = lk.getData();
+        double[][] projected = new double[numSamples][lkData.length];
+        for (int idx = 0; idx < numSamples; idx++) {
+            for (int rdx = 0; rdx < lkData.length; rdx++) {
+                projected[idx][rdx] = dotProduct(lkData[rdx], patterns[idx]);
+            }
+        }
+
+        // ========================================
+        // Sampling rates of the strata
+        long[] strata = new long[2];
+        int[] counts = new int[numSamples];
+        for (int label : classIndex) {
+            counts[label]++;
+        }
+        for (int count : counts) {
+            strata[0] += PackedDistanceMatrix.packedSize(count);
+        }
+        strata[1] = PackedDistanceMatrix.packedSize(numSamples) - strata[0];
+
+        double[] rates = samplingRates(strata);
+
+        // ========================================
+        // Tiles of the upper triangle, diagonal included: tile t is the
+        // packed index t of numTiles + 1, its column shifted by one
+        int numTiles = (numSamples + tileSize - 1) / tileSize;
+        long numPairedTiles = PackedDistanceMatrix.packedSize(numTiles + 1);
+        if (numPairedTiles > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("LDML of " + numSamples
+                    + " samples needs a larger TILE_SIZE or MAX_MEMORY");
+        }
+
+        int chunkSize = (int) ((numPairedTiles + layout[1] - 1) / layout[1]);
+
+        double[][][] sums = ParallelReduction.sum((int) numPairedTiles, chunkSize,
+                new int[][]{{dimension, dimension}, {1, 1}}, (tile, partials) -> {
+                    int row = PackedDistanceMatrix.packedRow(numTiles + 1, tile);
+                    int column = PackedDistanceMatrix.packedColumn(numTiles + 1, row, tile) - 1;
+                    addTile(row * tileSize, column * tileSize, tileSize,
+                            projected, rates, partials[0], partials[1]);
+                });
+
+        // ========================================
+        // Pairs of a sample with itself, no scatter
+        double expectation = 2.0 * sums[1][0][0];
+        double p_ii = probability(0.0);
+        for (int idx = 0; idx < numSamples; idx++) {
+            double t_ii = dotProduct(yVectors[idx], yVectors[idx]);
+            expectation += t_ii * Math.log(p_ii) + (1 - t_ii) * Math.log(1 - p_ii);
+        }
+
+        this.value = expectation;
+
+        // Equation 4, both orders of each pair
+        this.gradient = lk.multiply(MatrixUtils.createRealMatrix(sums[0]))
+                .scalarMultiply(2.0);
+    }
+
+    /**
+     * @return objective at the last evaluation
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @return gradient at the last evaluation
+     */
+    public RealMatrix getGradient() {
+        return gradient;
+    }
+
+    /**
+     *
+     * @param threshold
+     */
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     *
+     * @param TILE_SIZE samples per side of a tile
+     */
+    public void setTILE_SIZE(int TILE_SIZE) {
+        this.TILE_SIZE = TILE_SIZE;
+    }
+
+    /**
+     *
+     * @param MAX_MEMORY bytes for the projections, the partial sums and the
+     * buffers of the tiles of an evaluation
+     */
+    public void setMAX_MEMORY(long MAX_MEMORY) {
+        this.MAX_MEMORY = MAX_MEMORY;
+    }
+
+    /**
+     * Pairs sampled, half of the same class and half of different classes;
+     * zero (default) for every pair
+     *
+     * @param PAIR_BUDGET
+     */
+    public void setPAIR_BUDGET(long PAIR_BUDGET) {
+        this.PAIR_BUDGET = PAIR_BUDGET;
+    }
+
+    /**
+     *
+     * @param SEED of the pair sample
+     */
+    public void setSEED(long SEED) {
+        this.SEED = SEED;
+    }
+
+    // ================================================================
+    /**
+     * Pairs with row &lt; column of one tile, their weighted scatter and
+     * objective terms
+     */
+    private void addTile(int rowStart, int columnStart, int tileSize,
+            double[][] projected, double[] rates, double[][] scatter,
+            double[][] expectation) {
+
+        int numSamples = patterns.length;
+        int dimension = patterns[0].length;
+
+        int rowEnd = Math.min(numSamples, rowStart + tileSize);
+        int columnEnd = Math.min(numSamples, columnStart + tileSize);
+
+        double[] rowWeights = new double[rowEnd - rowStart];
+        double[] columnWeights = new double[columnEnd - columnStart];
+
+        // W X_J, row by row
+        double[][] crossed = new double[rowEnd - rowStart][dimension];
+
+        for (int idx = rowStart; idx < rowEnd; idx++) {
+            double[] crossedRow = crossed[idx - rowStart];
+
+            for (int jdx = Math.max(columnStart, idx + 1); jdx < columnEnd; jdx++) {
+
+                int stratum = (classIndex[idx] == classIndex[jdx]) ? 0 : 1;
+                if (rates[stratum] < 1.0 && !isSampled(idx, jdx, rates[stratum])) {
+                    continue;
+                }
+                double weight = 1.0 / rates[stratum];
+
+                double t_ij = dotProduct(yVectors[idx], yVectors[jdx]);
+                double p_ij = probability(distance(projected[idx], projected[jdx]));
+
+                expectation[0][0] += weight
+                        * (t_ij * Math.log(p_ij) + (1 - t_ij) * Math.log(1 - p_ij));
+
+                double w_ij = weight * (t_ij - p_ij);
+                rowWeights[idx - rowStart] += w_ij;
+                columnWeights[jdx - columnStart] += w_ij;
+
+                double[] x_j = patterns[jdx];
+                for (int kdx = 0; kdx < dimension; kdx++) {
+                    crossedRow[kdx] += w_ij * x_j[kdx];
+                }
+            }
+        }
+
+        // ========================================
+        // X_I' diag(W 1) X_I + X_J' diag(W' 1) X_J - X_I' W X_J - X_J' W' X_I
+        for (int idx = rowStart; idx < rowEnd; idx++) {
+            double[] x_i = patterns[idx];
+            double[] crossedRow = crossed[idx - rowStart];
+
+            ParallelReduction.addOuterProduct(scatter, x_i, rowWeights[idx - rowStart]);
+            for (int kdx = 0; kdx < dimension; kdx++) {
+                double[] row = scatter[kdx];
+                double xk = x_i[kdx];
+                double ck = crossedRow[kdx];
+                for (int ldx = 0; ldx < dimension; ldx++) {
+                    row[ldx] -= xk * crossedRow[ldx] + ck * x_i[ldx];
+                }
+            }
+        }
+        for (int jdx = columnStart; jdx < columnEnd; jdx++) {
+            ParallelReduction.addOuterProduct(scatter, patterns[jdx],
+                    columnWeights[jdx - columnStart]);
+        }
+    }
+
+    private double probability(double distance) {
+
+        double p_ij = 1.0 / (1.0 + Math.exp(-(threshold - distance)));
+
+        if (NumericTests.isApproxZero(p_ij)) {
+            p_ij = 1e-16;
+        } else if (NumericTests.isApproxEqual(p_ij, 1.0)) {
+            p_ij = 1.0 - 1e-16;
+        }
+        return p_ij;
+    }
+
+    /**
+     * Rates of the same class and different class strata for the budget,
+     * the budget a stratum cannot use goes to the other
+     */
+    private double[] samplingRates(long[] strata) {
+
+        if (PAIR_BUDGET <= 0) {
+            return new double[]{1.0, 1.0};
+        }
+
+        long similar = Math.min(strata[0], PAIR_BUDGET / 2);
+        long dissimilar = Math.min(strata[1], PAIR_BUDGET - similar);
+        similar = Math.min(strata[0], PAIR_BUDGET - dissimilar);
+
+        return new double[]{
+            (strata[0] == 0) ? 1.0 : Math.max(1.0 / strata[0], (double) similar / strata[0]),
+            (strata[1] == 0) ? 1.0 : Math.max(1.0 / strata[1], (double) dissimilar / strata[1])};
+    }
+
+    private boolean isSampled(int row, int column, double rate) {
+
+        // SplitMix64 of the packed index
+        long hash = PackedDistanceMatrix.packedIndex(patterns.length, row, column)
+                + SEED * 0x9E3779B97F4A7C15L;
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        hash = hash ^ (hash >>> 31);
+
+        return (hash >>> 11) * 0x1.0p-53 < rate;
+    }
+
+    /**
+     * Partials, then tile size, halved until the working memory fits in
+     * MAX_MEMORY. A partial is summed by one task at a time, so no more tiles
+     * than partials are in use at once.
+     *
+     * @return {tile size, partials}
+     */
+    private int[] layout(int numSamples, int dimension, int rank) {
+
+        int tileSize = Math.max(1, Math.min(TILE_SIZE, numSamples));
+        int numPartials = MAX_PARTIALS;
+
+        while (footprint(numSamples, dimension, rank, tileSize, numPartials) > MAX_MEMORY) {
+            if (numPartials > 1) {
+                numPartials /= 2;
+            } else if (tileSize > 1) {
+                tileSize /= 2;
+            } else {
+                throw new IllegalArgumentException("MAX_MEMORY of " + MAX_MEMORY
+                        + " bytes is below the " + footprint(numSamples, dimension,
+                                rank, 1, 1) + " bytes of the projections, one partial"
+                        + " sum and one tile");
+            }
+        }
+        return new int[]{tileSize, numPartials};
+    }
+
+    /**
+     * Bytes of the projections, the partials and their total, and one tile
+     * per partial
+     */
+    private static long footprint(int numSamples, int dimension, int rank,
+            int tileSize, int numPartials) {
+
+        long projections = (long) numSamples * rank;
+        long partials = (numPartials + 1L) * ((long) dimension * dimension + 1);
+        long tiles = (long) numPartials * tileSize * (dimension + 2);
+
+        return Double.BYTES * (projections + partials + tiles);
+    }
+
+    private static double distance(double[] z_i, double[] z_j) {
+
+        double sum = 0;
+        for (int idx = 0; idx < z_i.length; idx++) {
+            double delta = z_i[idx] - z_j[idx];
+            sum += delta * delta;
+        }
+        return sum;
+    }
+
+    private static double dotProduct(double[] a, double[] b) {
+
+        double sum = 0;
+        for (int idx = 0; idx < a.length; idx++) {
+            sum += a[idx] * b[idx];
+        }
+        return sum;
+    }
+}
@@ -16,26 +16,18 @@
  */
 package fit.astro.vsa.utilities.ml.metriclearning.ldml;
 
-import fit.astro.vsa.common.utilities.math.NumericTests;
-import fit.astro.vsa.utilities.ml.MetricDistance;
 import java.util.Map;
-import org.apache.commons.math3.analysis.UnivariateFunction;
-import org.apache.commons.math3.analysis.function.Sigmoid;
-import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 
 /**
+ * Gradient by LDML_BlockedEvaluator
  *
  * @author Kyle Johnston 
  */
 public class LDML_MetricLearningGradientGenerator {
 
-    private final Map<Integer, RealVector> ySet;
-    private final Map<Integer, RealVector> setOfPatterns;
-    // ===============================================
-    private double threshold = 0.01;
-    private final UnivariateFunction sigmoid = new Sigmoid();
+    private final LDML_BlockedEvaluator evaluator;
 
     /**
      * 
@@ -45,9 +37,7 @@ public class LDML_MetricLearningGradientGenerator {
     public LDML_MetricLearningGradientGenerator(
             Map<Integer, RealVector> setOfPatterns,
             Map<Integer, RealVector> ySet) {
-        this.ySet = ySet;
-        this.setOfPatterns = setOfPatterns;
-
+        this.evaluator = new LDML_BlockedEvaluator(setOfPatterns, ySet);
     }
 
     /**
@@ -58,45 +48,10 @@ public class LDML_MetricLearningGradientGenerator {
      */
     public RealMatrix execute(RealMatrix lk) {
 
-        RealMatrix metric = lk.transpose().multiply(lk);
-        MetricDistance metricDistance = new MetricDistance(metric);
-
-        RealMatrix sumij = MatrixUtils.createRealMatrix(
-                lk.getRowDimension(), lk.getColumnDimension());
-
-        for (Integer idx : setOfPatterns.keySet()) {
-
-            RealVector x_i = setOfPatterns.get(idx);
-
-            for (Integer jdx : setOfPatterns.keySet()) {
-
-                RealVector x_j = setOfPatterns.get(jdx);
-
-                RealVector yi = ySet.get(idx);
-                RealVector yj = ySet.get(jdx);
-
-                double t_ij = yi.dotProduct(yj);
-
-                double p_ij = sigmoid.value(threshold - 
-                        metricDistance.distance(x_i, x_j));
-
-                if(NumericTests.isApproxZero(p_ij)){
-                    p_ij = 1e-16;
-                }else if(NumericTests.isApproxEqual(p_ij, 1.0)){
-                    p_ij = 1.0 - 1e-16;
-                }
-                
-                
-                RealVector delta = x_i.subtract(x_j);
-                RealMatrix c_ij = delta.outerProduct(delta);
-
-                sumij = sumij.add(c_ij.scalarMultiply(t_ij - p_ij));
-
-            }
-        }
+        evaluator.evaluate(lk);
 
         // Equation 4
-        return lk.multiply(sumij);
+        return evaluator.getGradient();
     }
 
     /**
@@ -104,7 +59,7 @@ public class LDML_MetricLearningGradientGenerator {
      * @param threshold 
      */
     public void setThreshold(double threshold) {
-        this.threshold = threshold;
+        evaluator.setThreshold(threshold);
     }
 
 }
@@ -16,25 +16,18 @@
  */
 package fit.astro.vsa.utilities.ml.metriclearning.ldml;
 
-import fit.astro.vsa.common.utilities.math.NumericTests;
-import fit.astro.vsa.utilities.ml.MetricDistance;
 import java.util.Map;
-import org.apache.commons.math3.analysis.UnivariateFunction;
-import org.apache.commons.math3.analysis.function.Sigmoid;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 
 /**
+ * Objective by LDML_BlockedEvaluator
  *
  * @author Kyle 
  */
 public class LDML_MetricLearningObjective {
 
-    private final Map<Integer, RealVector> setOfPatterns;
-    private final Map<Integer, RealVector> ySet;
-    // ===========================================
-    private double threshold = 0.01;
-    private final UnivariateFunction sigmoid = new Sigmoid();
+    private final LDML_BlockedEvaluator evaluator;
 
     /**
      *
@@ -44,8 +37,7 @@ public class LDML_MetricLearningObjective {
     public LDML_MetricLearningObjective(
             Map<Integer, RealVector> setOfPatterns,
             Map<Integer, RealVector> ySet) {
-        this.ySet = ySet;
-        this.setOfPatterns = setOfPatterns;
+        this.evaluator = new LDML_BlockedEvaluator(setOfPatterns, ySet);
     }
 
 
@@ -56,44 +48,9 @@ public class LDML_MetricLearningObjective {
      */
     public double valueL(RealMatrix lk) {
 
-        // Update Based on Gradient (Steepest Descent "Accent")
-        RealMatrix metric = (lk.transpose()).multiply(lk);
-        MetricDistance metricDistance = new MetricDistance(metric);
+        evaluator.evaluate(lk);
 
-        double expectation = 0;
-
-        for (Integer idx : setOfPatterns.keySet()) {
-
-            RealVector x_i = setOfPatterns.get(idx);
-
-            for (Integer jdx : setOfPatterns.keySet()) {
-
-                RealVector x_j = setOfPatterns.get(jdx);
-
-                // =============================================
-                RealVector yi = ySet.get(idx);
-                RealVector yj = ySet.get(jdx);
-
-                double t_ij = yi.dotProduct(yj);
-
-                double p_ij = sigmoid.value(threshold -
-                        metricDistance.distance(x_i, x_j));
-
-                // =============================================
-                // sum over points in training set
-       
-                if(NumericTests.isApproxZero(p_ij)){
-                    p_ij = 1e-16;
-                }else if(NumericTests.isApproxEqual(p_ij, 1.0)){
-                    p_ij = 1.0 - 1e-16;
-                }
-                
-                expectation = expectation
-                        + t_ij * Math.log(p_ij) + (1 - t_ij) * Math.log(1 - p_ij);
-            }
-        }
-
-        return expectation;
+        return evaluator.getValue();
     }
 
     /**
@@ -101,7 +58,7 @@ public class LDML_MetricLearningObjective {
      * @param threshold 
      */
     public void setThreshold(double threshold) {
-        this.threshold = threshold;
+        evaluator.setThreshold(threshold);
     }
     
     
@@ -39,6 +39,9 @@ import org.slf4j.LoggerFactory;
  * European conference on Computer Vision (pp. 634-647). Springer, Berlin,
  * Heidelberg.
  *
+ * The objective and gradient are evaluated together, once per step, by
+ * LDML_BlockedEvaluator.
+ *
  * @author Kyle Johnston
  */
 public class LogDiscriminantMetricLearning {
@@ -55,6 +58,11 @@ public class LogDiscriminantMetricLearning {
     // ===============================================
     private final int MAX_ITER = Integer.MAX_VALUE;
 
+    // Zero for every pair
+    private long PAIR_BUDGET = 0;
+    private long SEED = 0;
+    private long MAX_MEMORY = 64L << 20;
+
     /**
      *
      * @param mapOfPatterns
@@ -120,16 +128,17 @@ public class LogDiscriminantMetricLearning {
         }
 
         // ========================================
-        // Construct Generator to Produce Gradient
-        LDML_MetricLearningObjective metricLearningObjective
-                = new LDML_MetricLearningObjective(mapOfPatterns, ySet);
-
-        LDML_MetricLearningGradientGenerator ldmlMetricLearningGradientGenerator
-                = new LDML_MetricLearningGradientGenerator(mapOfPatterns, ySet);
+        // Construct Evaluator to Produce Objective and Gradient
+        LDML_BlockedEvaluator evaluator
+                = new LDML_BlockedEvaluator(mapOfPatterns, ySet);
+        evaluator.setPAIR_BUDGET(PAIR_BUDGET);
+        evaluator.setSEED(SEED);
+        evaluator.setMAX_MEMORY(MAX_MEMORY);
 
         //======================================================
         // Determine the gradiant of the objective function
-        double jt = metricLearningObjective.valueL(lk);
+        evaluator.evaluate(lk);
+        double jt = evaluator.getValue();
 
         double alphaK = 1.0, jt_1;
 
@@ -145,8 +154,7 @@ public class LogDiscriminantMetricLearning {
              * Build Gradient Matrix, Direction of Maximum Increase Relative
              * Increase in f relative to L
              */
-            RealMatrix gradientOfLwrtL
-                    = ldmlMetricLearningGradientGenerator.execute(lk);
+            RealMatrix gradientOfLwrtL = evaluator.getGradient();
 
             // ======
             if (idx != 0) {
@@ -159,7 +167,8 @@ public class LogDiscriminantMetricLearning {
 
             lk = lk.add(gradientOfLwrtL.scalarMultiply(alphaK));
 
-            jt_1 = metricLearningObjective.valueL(lk);
+            evaluator.evaluate(lk);
+            jt_1 = evaluator.getValue();
 
             double delta = Math.abs(jt_1 - jt);
 
@@ -200,4 +209,31 @@ public class LogDiscriminantMetricLearning {
         this.REL_ERROR = REL_ERROR;
     }
 
+    /**
+     * Pairs sampled, half of the same class and half of different classes,
+     * reweighted to keep the objective unbiased; zero (default) for every
+     * pair
+     *
+     * @param PAIR_BUDGET
+     */
+    public void setPAIR_BUDGET(long PAIR_BUDGET) {
+        this.PAIR_BUDGET = PAIR_BUDGET;
+    }
+
+    /**
+     *
+     * @param SEED of the pair sample
+     */
+    public void setSEED(long SEED) {
+        this.SEED = SEED;
+    }
+
+    /**
+     *
+     * @param MAX_MEMORY bytes for the working buffers of the evaluation
+     */
+    public void setMAX_MEMORY(long MAX_MEMORY) {
+        this.MAX_MEMORY = MAX_MEMORY;
+    }
+
 }
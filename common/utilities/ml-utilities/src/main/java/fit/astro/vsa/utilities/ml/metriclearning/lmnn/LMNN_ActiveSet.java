@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning.lmnn;
+
+import fit.astro.vsa.utilities.ml.utils.SupportingFunctionality;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Active set form of LMNN_MetricLearningObjective and
+ * LMNN_MetricLearningGradientGenerator. A triplet (i, j, l), j a target
+ * neighbor of i and l of another class, is active while the derivative of the
+ * smoothed hinge is non-zero. The full search over every l is only done on
+ * refresh, in between only the triplets active at the last refresh are
+ * evaluated.
+ * <p>
+ * The push part of the gradient is kept as the weighted scatter
+ * sum_t h'(z_t) (C_ij - C_il); an update adds and subtracts only the triplets
+ * whose weight changed, saturated triplets cost nothing. Distances are taken
+ * in the projected space L x.
+ *
+ * @author Kyle Johnston
+ */
+public class LMNN_ActiveSet {
+
+    private static final int CHUNK = 256;
+
+    private double GAMMA = 0.5;
+
+    // Input, by position
+    private final int numSamples;
+    private final int dimension;
+    private final double[][] patterns;
+    private final int[] classIndex;
+
+    // Target neighbor pairs, those of row i in [targetStart[i], targetStart[i + 1])
+    private final int[] targetStart;
+    private final int[] targetRow;
+    private final int[] targetColumn;
+    private final double[][] pullScatter;
+
+    // Tracked impostor pairs and triplets, those of row i in
+    // [tripletStart[i], tripletStart[i + 1])
+    private int[] impostorRow = new int[0];
+    private int[] impostorColumn = new int[0];
+    private int[] tripletStart;
+    private int[] tripletTarget = new int[0];
+    private int[] tripletImpostor = new int[0];
+    private double[] weights = new double[0];
+    private double[][] pushScatter;
+
+    // State at the last evaluation
+    private RealMatrix lk;
+    private double value;
+
+    /**
+     *
+     * @param classMemberNear target neighbors
+     * @param mapOfPatterns
+     * @param mapOfClasses
+     */
+    public LMNN_ActiveSet(
+            Map<Integer, List<Integer>> classMemberNear,
+            Map<Integer, RealVector> mapOfPatterns,
+            Map<Integer, String> mapOfClasses) {
+
+        int[] ids = mapOfPatterns.keySet().stream()
+                .mapToInt(Integer::intValue).sorted().toArray();
+
+        this.numSamples = ids.length;
+        this.dimension = mapOfPatterns.get(ids[0]).getDimension();
+        this.patterns = new double[numSamples][];
+        this.classIndex = new int[numSamples];
+
+        Map<Integer, Integer> positions = new HashMap<>(numSamples);
+        List<String> labels = new ArrayList<>();
+        for (int idx = 0; idx < numSamples; idx++) {
+            positions.put(ids[idx], idx);
+            patterns[idx] = mapOfPatterns.get(ids[idx]).toArray();
+
+            // Same class as the objective, ignoring case
+            String label = mapOfClasses.get(ids[idx]);
+            int index = 0;
+            while (index < labels.size() && !labels.get(index).equalsIgnoreCase(label)) {
+                index++;
+            }
+            if (index == labels.size()) {
+                labels.add(label);
+            }
+            classIndex[idx] = index;
+        }
+
+        // ========================================
+        // Target neighbor pairs
+        this.targetStart = new int[numSamples + 1];
+        List<Integer> columns = new ArrayList<>();
+        for (int idx = 0; idx < numSamples; idx++) {
+            targetStart[idx] = columns.size();
+            for (Integer jdx : classMemberNear.get(ids[idx])) {
+                columns.add(positions.get(jdx));
+            }
+        }
+        targetStart[numSamples] = columns.size();
+
+        this.targetColumn = columns.stream().mapToInt(Integer::intValue).toArray();
+        this.targetRow = new int[targetColumn.length];
+        for (int idx = 0; idx < numSamples; idx++) {
+            for (int pdx = targetStart[idx]; pdx < targetStart[idx + 1]; pdx++) {
+                targetRow[pdx] = idx;
+            }
+        }
+
+        double[] ones = new double[targetColumn.length];
+        Arrays.fill(ones, 1.0);
+        this.pullScatter = scatter(targetRow, targetColumn, ones);
+        this.tripletStart = new int[numSamples + 1];
+    }
+
+    /**
+     * Full search over every triplet, the accumulated scatter is rebuilt
+     *
+     * @param lk
+     */
+    public void refresh(RealMatrix lk) {
+
+        double[][] projected = project(lk);
+        double[] targetDistances = distances(projected, targetRow, targetColumn);
+
+        // Active impostors of each row, rows in parallel
+        List<int[][]> rowTriplets = IntStream.range(0, numSamples).parallel()
+                .mapToObj((row) -> activeTriplets(row, projected, targetDistances))
+                .collect(Collectors.toList());
+
+        int numImpostors = 0;
+        int numTriplets = 0;
+        for (int[][] triplets : rowTriplets) {
+            numImpostors += triplets[0].length;
+            numTriplets += triplets[1].length;
+        }
+
+        impostorRow = new int[numImpostors];
+        impostorColumn = new int[numImpostors];
+        tripletTarget = new int[numTriplets];
+        tripletImpostor = new int[numTriplets];
+
+        int impostorOffset = 0;
+        int tripletOffset = 0;
+        for (int row = 0; row < numSamples; row++) {
+            tripletStart[row] = tripletOffset;
+            int[][] triplets = rowTriplets.get(row);
+            for (int column : triplets[0]) {
+                impostorRow[impostorOffset] = row;
+                impostorColumn[impostorOffset++] = column;
+            }
+            int localOffset = impostorOffset - triplets[0].length;
+            for (int tdx = 0; tdx < triplets[1].length; tdx++) {
+                tripletTarget[tripletOffset] = triplets[1][tdx];
+                tripletImpostor[tripletOffset++] = localOffset + triplets[2][tdx];
+            }
+        }
+        tripletStart[numSamples] = tripletOffset;
+
+        weights = new double[numTriplets];
+        double[] impostorWeights = new double[numImpostors];
+        double[] targetWeights = new double[targetColumn.length];
+
+        evaluate(lk, projected, targetDistances, targetWeights, impostorWeights);
+
+        pushScatter = subtract(scatter(targetRow, targetColumn, targetWeights),
+                scatter(impostorRow, impostorColumn, impostorWeights));
+    }
+
+    /**
+     * Evaluate the tracked triplets only, the scatter is updated by the
+     * triplets whose hinge weight changed
+     *
+     * @param lk
+     */
+    public void update(RealMatrix lk) {
+
+        double[][] projected = project(lk);
+        double[] targetDistances = distances(projected, targetRow, targetColumn);
+
+        double[] impostorDeltas = new double[impostorRow.length];
+        double[] targetDeltas = new double[targetColumn.length];
+
+        evaluate(lk, projected, targetDistances, targetDeltas, impostorDeltas);
+
+        double[][] change = subtract(
+                scatter(targetRow, targetColumn, targetDeltas),
+                scatter(impostorRow, impostorColumn, impostorDeltas));
+        for (int idx = 0; idx < dimension; idx++) {
+            for (int jdx = 0; jdx < dimension; jdx++) {
+                pushScatter[idx][jdx] += change[idx][jdx];
+            }
+        }
+    }
+
+    /**
+     * @return objective at the last evaluation
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Same as LMNN_MetricLearningGradientGenerator over the tracked triplets
+     *
+     * @return gradiantOfFwrtL at the last evaluation
+     */
+    public RealMatrix getGradient() {
+
+        RealMatrix combined = MatrixUtils.createRealMatrix(pullScatter)
+                .add(MatrixUtils.createRealMatrix(pushScatter).scalarMultiply(GAMMA));
+
+        return lk.multiply(combined).scalarMultiply(2.0);
+    }
+
+    /**
+     * @return number of tracked triplets
+     */
+    public int getNumberOfTriplets() {
+        return weights.length;
+    }
+
+    public void setGAMMA(double GAMMA) {
+        this.GAMMA = GAMMA;
+    }
+
+    // ================================================================
+    /**
+     * New hinge weights of the tracked triplets, the change of each is added
+     * to its target and impostor pair. The pairs of a triplet belong to its
+     * row, so rows are evaluated in parallel, each with its own hinge sum.
+     */
+    private void evaluate(RealMatrix lk, double[][] projected,
+            double[] targetDistances, double[] targetDeltas, double[] impostorDeltas) {
+
+        double[] impostorDistances = distances(projected, impostorRow, impostorColumn);
+
+        double sumij = 0;
+        for (double distance : targetDistances) {
+            sumij += distance;
+        }
+
+        double[] rowSums = new double[numSamples];
+        IntStream.range(0, numSamples).parallel().forEach((row) -> {
+            double sum = 0;
+            for (int tdx = tripletStart[row]; tdx < tripletStart[row + 1]; tdx++) {
+                int target = tripletTarget[tdx];
+                int impostor = tripletImpostor[tdx];
+
+                double z = 1 + targetDistances[target] - impostorDistances[impostor];
+                sum += SupportingFunctionality.HingeApproxGLL(z);
+
+                double delta = SupportingFunctionality.HingePrimeApproxGLL(z) - weights[tdx];
+                if (delta != 0.0) {
+                    weights[tdx] += delta;
+                    targetDeltas[target] += delta;
+                    impostorDeltas[impostor] += delta;
+                }
+            }
+            rowSums[row] = sum;
+        });
+
+        double sumijl = 0;
+        for (double sum : rowSums) {
+            sumijl += sum;
+        }
+
+        this.lk = lk.copy();
+        this.value = GAMMA * sumij + (1 - GAMMA) * sumijl;
+    }
+
+    /**
+     * @return {impostor columns, target pairs, local impostor of each triplet}
+     */
+    private int[][] activeTriplets(int row, double[][] projected,
+            double[] targetDistances) {
+
+        IntStream.Builder impostors = IntStream.builder();
+        IntStream.Builder targets = IntStream.builder();
+        IntStream.Builder locals = IntStream.builder();
+
+        int numLocal = 0;
+        for (int column = 0; column < numSamples; column++) {
+            if (classIndex[column] == classIndex[row]) {
+                continue;
+            }
+
+            double distance = squaredDistance(projected[row], projected[column]);
+
+            boolean isActive = false;
+            for (int pdx = targetStart[row]; pdx < targetStart[row + 1]; pdx++) {
+                double z = 1 + targetDistances[pdx] - distance;
+                if (SupportingFunctionality.HingePrimeApproxGLL(z) > 0.0) {
+                    targets.add(pdx);
+                    locals.add(numLocal);
+                    isActive = true;
+                }
+            }
+
+            if (isActive) {
+                impostors.add(column);
+                numLocal++;
+            }
+        }
+
+        return new int[][]{impostors.build().toArray(),
+            targets.build().toArray(), locals.build().toArray()};
+    }
+
+    private double[][] project(RealMatrix lk) {
+
+        double[][] lkData = lk.getData();
+
+        double[][] projected = new double[numSamples][];
+        IntStream.range(0, numSamples).parallel().forEach((idx) -> {
+            double[] y = new double[lkData.length];
+            for (int rdx = 0; rdx < lkData.length; rdx++) {
+                double sum = 0;
+                for (int ddx = 0; ddx < dimension; ddx++) {
+                    sum += lkData[rdx][ddx] * patterns[idx][ddx];
+                }
+                y[rdx] = sum;
+            }
+            projected[idx] = y;
+        });
+        return projected;
+    }
+
+    private static double[] distances(double[][] projected, int[] rows, int[] columns) {
+
+        double[] distances = new double[rows.length];
+        IntStream.range(0, rows.length).parallel().forEach((idx)
+                -> distances[idx] = squaredDistance(projected[rows[idx]], projected[columns[idx]]));
+        return distances;
+    }
+
+    private static double squaredDistance(double[] y_i, double[] y_j) {
+
+        double sum = 0;
+        for (int idx = 0; idx < y_i.length; idx++) {
+            double delta = y_i[idx] - y_j[idx];
+            sum += delta * delta;
+        }
+        return sum;
+    }
+
+    /**
+     * sum_p w_p (x_i - x_j)(x_i - x_j)' over the pairs with a non-zero
+     * weight, chunks in parallel each with its own partial sum
+     */
+    private double[][] scatter(int[] rows, int[] columns, double[] pairWeights) {
+
+        int numChunks = (rows.length + CHUNK - 1) / CHUNK;
+
+        return IntStream.range(0, numChunks).parallel().mapToObj((chunk) -> {
+            double[][] partial = new double[dimension][dimension];
+            double[] delta = new double[dimension];
+
+            int end = Math.min(rows.length, (chunk + 1) * CHUNK);
+            for (int pdx = chunk * CHUNK; pdx < end; pdx++) {
+                double weight = pairWeights[pdx];
+                if (weight == 0.0) {
+                    continue;
+                }
+
+                double[] x_i = patterns[rows[pdx]];
+                double[] x_j = patterns[columns[pdx]];
+                for (int idx = 0; idx < dimension; idx++) {
+                    delta[idx] = x_i[idx] - x_j[idx];
+                }
+                for (int idx = 0; idx < dimension; idx++) {
+                    double scaled = weight * delta[idx];
+                    for (int jdx = 0; jdx < dimension; jdx++) {
+                        partial[idx][jdx] += scaled * delta[jdx];
+                    }
+                }
+            }
+            return partial;
+        }).reduce(new double[dimension][dimension], LMNN_ActiveSet::add);
+    }
+
+    private static double[][] add(double[][] left, double[][] right) {
+
+        double[][] sum = new double[left.length][left.length];
+        for (int idx = 0; idx < left.length; idx++) {
+            for (int jdx = 0; jdx < left.length; jdx++) {
+                sum[idx][jdx] = left[idx][jdx] + right[idx][jdx];
+            }
+        }
+        return sum;
+    }
+
+    private static double[][] subtract(double[][] left, double[][] right) {
+
+        double[][] difference = new double[left.length][left.length];
+        for (int idx = 0; idx < left.length; idx++) {
+            for (int jdx = 0; jdx < left.length; jdx++) {
+                difference[idx][jdx] = left[idx][jdx] - right[idx][jdx];
+            }
+        }
+        return difference;
+    }
+}
@@ -16,12 +16,8 @@
  */
 package fit.astro.vsa.utilities.ml.metriclearning.lmnn;
 
-import fit.astro.vsa.common.utilities.math.support.SortingOperations;
-import fit.astro.vsa.utilities.ml.MetricDistance;
-import fit.astro.vsa.common.datahandling.LabelHandling;
+import fit.astro.vsa.utilities.ml.knn.GenerateNeighbors;
 import fit.astro.vsa.utilities.ml.metriclearning.nca.NCA_MetricLearningObjective;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
@@ -51,6 +47,7 @@ public class LargeMarginNearestNeighbor {
     private Map<Integer, List<Integer>> classMemberNear;
     // ===============================================
     private final int MAX_ITER = Integer.MAX_VALUE;
+    private int REFRESH_INTERVAL = 10;
 
     /**
      *
@@ -99,23 +96,15 @@ public class LargeMarginNearestNeighbor {
         }
 
         // ========================================
-        // Set up: Split Input Patterns Into Class Groups
-        Map<String, Map<Integer, RealVector>> classMembers
-                = LabelHandling.sortIntoMaps(mapOfPatterns, mapOfClasses);
-
-        // ========================================
-        // Construct Generator to Produce Gradient
-        LMNN_MetricLearningObjective metricLearningObjective
-                = new LMNN_MetricLearningObjective(
-                        classMemberNear, mapOfPatterns, mapOfClasses);
-
-        LMNN_MetricLearningGradientGenerator lmnnMetricLearningGradientGenerator
-                = new LMNN_MetricLearningGradientGenerator(
-                        classMemberNear, mapOfPatterns, mapOfClasses);
+        // Objective and gradient over the active triplets, the full
+        // impostor search is only repeated every REFRESH_INTERVAL steps
+        LMNN_ActiveSet activeSet = new LMNN_ActiveSet(
+                classMemberNear, mapOfPatterns, mapOfClasses);
 
         //======================================================
         // Determine the gradiant of the objective function @ initial
-        double jt = metricLearningObjective.valueL(lk);
+        activeSet.refresh(lk);
+        double jt = activeSet.getValue();
         double alphaK = 1.0, jt_1;
         
         RealMatrix grad_A_k = new Array2DRowRealMatrix(lk.getData());
@@ -130,8 +119,7 @@ public class LargeMarginNearestNeighbor {
              * Build Gradient Matrix, Direction of Maximum Increase Relative
              * Increase in f relative to L
              */
-            RealMatrix gradientOfLwrtL
-                    = lmnnMetricLearningGradientGenerator.execute(lk);
+            RealMatrix gradientOfLwrtL = activeSet.getGradient();
 
             // ======
             if (idx != 0) {
@@ -144,17 +132,33 @@ public class LargeMarginNearestNeighbor {
             
             lk = lk.subtract(gradientOfLwrtL.scalarMultiply(alphaK));
             
-            jt_1 = metricLearningObjective.valueL(lk);
+            boolean isRefreshed = (idx + 1) % REFRESH_INTERVAL == 0;
+            if (isRefreshed) {
+                activeSet.refresh(lk);
+            } else {
+                activeSet.update(lk);
+            }
+            jt_1 = activeSet.getValue();
             
             double delta = Math.abs(jt_1 - jt);
             
             if(idx%2 == 0){
-                LOGGER.info("Objective: " + jt_1 + "  delta:" + delta);
+                LOGGER.info("Objective: " + jt_1 + "  delta:" + delta
+                        + "  active triplets:" + activeSet.getNumberOfTriplets());
             }
 
             // Update Matrix;
             if (delta < REL_ERROR) {
-                break;
+                if (isRefreshed) {
+                    break;
+                }
+
+                // Converged on the tracked triplets, confirm on all of them
+                activeSet.refresh(lk);
+                if (Math.abs(activeSet.getValue() - jt_1) < REL_ERROR) {
+                    break;
+                }
+                jt_1 = activeSet.getValue();
             }
             jt = jt_1;
         }
@@ -188,58 +192,23 @@ public class LargeMarginNearestNeighbor {
      */
     private void initializeNeighbors(int kValue) {
 
-        Map<String, Map<Integer, RealVector>> classMembers = LabelHandling
-                .sortIntoMaps(mapOfPatterns, mapOfClasses);
-
-        int intDimensions = mapOfPatterns.values().iterator()
-                .next().getDimension();
-        RealMatrix mk = MatrixUtils.createRealIdentityMatrix(
-                intDimensions);
-        MetricDistance metricDistance = new MetricDistance(mk);
-
-        classMemberNear = new HashMap<>();
-        // ============= Neighbors =====================
-        for (String labelSimilar : classMembers.keySet()) {
-
-            Map<Integer, RealVector> mapOfSimilar
-                    = classMembers.get(labelSimilar);
-
-            // ==========================================
-            
-            for (Integer idx : mapOfSimilar.keySet()) {
-
-                RealVector x_i = mapOfSimilar.get(idx);
-
-                Map<Integer, Double> setOfDistances = new HashMap<>();
-                
-                // pair wise distances
-                mapOfSimilar.keySet().stream()
-                        .filter((jdx) -> !(idx.compareTo(jdx) == 0))
-                        .forEachOrdered((jdx) -> {
-                            setOfDistances.put(jdx,
-                                    metricDistance.distance(x_i, mapOfSimilar.get(jdx)));
-                        });
-
-                Map<Integer, Double> sortedDistances
-                        = SortingOperations.sortByAcendingValue(setOfDistances);
-
-                List<Integer> setOfNeighbors = new ArrayList<>();
-                int counter = 0;
-                for (Integer jdx : sortedDistances.keySet()) {
-                    setOfNeighbors.add(jdx);
-                    counter++;
-                    if (counter == kValue) {
-                        break;
-                    }
-                }
-                classMemberNear.put(idx, setOfNeighbors);
-            }
-        }
+        // Euclidean target neighbors, selected in parallel
+        classMemberNear = new GenerateNeighbors(mapOfPatterns, mapOfClasses)
+                .kNN(kValue);
     }
 
     public void setREL_ERROR(double REL_ERROR) {
         this.REL_ERROR = REL_ERROR;
     }
 
+    /**
+     *
+     * @param REFRESH_INTERVAL steps between full impostor searches, 1 to
+     * search on every step
+     */
+    public void setREFRESH_INTERVAL(int REFRESH_INTERVAL) {
+        this.REFRESH_INTERVAL = REFRESH_INTERVAL;
+    }
+
     
 }
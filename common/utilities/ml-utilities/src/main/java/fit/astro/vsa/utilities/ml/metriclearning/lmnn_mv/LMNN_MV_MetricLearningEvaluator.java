@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning.lmnn_mv;
+
+import fit.astro.vsa.utilities.ml.MetricDistance_MV;
+import fit.astro.vsa.utilities.ml.utils.SupportingFunctionality;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * LMNN_MV_MetricLearningObjective and LMNN_MV_MetricLearningGradientGenerator
+ * in a single pass. The distances, hinge arguments and the pair matrices
+ * A = d' V d and B = d U d' are computed once per evaluation, those of an
+ * impostor once per row instead of once per target neighbor.
+ * <p>
+ * Rows are taken in blocks: the terms of the rows of a block are computed in
+ * parallel, then every entry of the scatter matrices is summed by its own
+ * task over the triplets in row, target, impostor order. The Barzilai-Borwein
+ * steps amplify any rounding difference, the fixed order keeps the gradient,
+ * and so the steps, the same for any number of threads.
+ *
+ * @author Kyle Johnston
+ */
+public class LMNN_MV_MetricLearningEvaluator {
+
+    private static final int BLOCK_ROWS = 16;
+
+    private final Map<Integer, RealMatrix> mapOfPatterns;
+    private final Map<Integer, String> mapOfClasses;
+
+    // =======================================
+    private final Map<Integer, List<Integer>> classMemberNear;
+
+    private double GAMMA = 0.5;
+    private double LAMBDA = 0.5;
+
+    // Result of the last evaluation
+    private double value;
+    private RealMatrix[] gradient;
+
+    /**
+     *
+     * @param classMemberNear
+     * @param mapOfPatterns
+     * @param mapOfClasses
+     */
+    public LMNN_MV_MetricLearningEvaluator(
+            Map<Integer, List<Integer>> classMemberNear,
+            Map<Integer, RealMatrix> mapOfPatterns,
+            Map<Integer, String> mapOfClasses) {
+        this.mapOfPatterns = mapOfPatterns;
+        this.mapOfClasses = mapOfClasses;
+
+        // ============= Neighbors =====================
+        this.classMemberNear = classMemberNear;
+    }
+
+    /**
+     * Objective and gradient at (gammak, nuk)
+     *
+     * @param gammak
+     * @param nuk
+     */
+    public void evaluate(RealMatrix gammak, RealMatrix nuk) {
+
+        RealMatrix uk = (gammak.transpose()).multiply(gammak);
+        RealMatrix vk = (nuk.transpose()).multiply(nuk);
+
+        MetricDistance_MV metricDistanceK = new MetricDistance_MV(uk, vk);
+
+        int[] rows = classMemberNear.keySet().stream()
+                .mapToInt(Integer::intValue).toArray();
+        int[] columns = mapOfPatterns.keySet().stream()
+                .mapToInt(Integer::intValue).toArray();
+
+        int entries_g = gammak.getRowDimension() * gammak.getColumnDimension();
+        int entries_n = nuk.getRowDimension() * nuk.getColumnDimension();
+
+        double[] sumij_g = new double[entries_g];
+        double[] sumij_n = new double[entries_n];
+        double[] sumijl_g = new double[entries_g];
+        double[] sumijl_n = new double[entries_n];
+
+        double sumij = 0;
+        double sumijl = 0;
+
+        for (int blockStart = 0; blockStart < rows.length; blockStart += BLOCK_ROWS) {
+
+            RowTerms[] block = IntStream.range(blockStart,
+                    Math.min(rows.length, blockStart + BLOCK_ROWS)).parallel()
+                    .mapToObj((row) -> new RowTerms(rows[row], columns, uk, vk,
+                    metricDistanceK)).toArray(RowTerms[]::new);
+
+            // ========================================
+            // Objective, in the order of the objective
+            for (RowTerms terms : block) {
+                for (double distance : terms.distanceObjective) {
+                    sumij = sumij + distance;
+                }
+                for (double hinge : terms.hinges) {
+                    sumijl = sumijl + hinge;
+                }
+            }
+
+            // ========================================
+            // Each entry is its own running sum
+            IntStream.range(0, entries_g + entries_n).parallel().forEach((entry) -> {
+                boolean isGamma = entry < entries_g;
+                int index = isGamma ? entry : entry - entries_g;
+
+                double pull = isGamma ? sumij_g[index] : sumij_n[index];
+                double push = isGamma ? sumijl_g[index] : sumijl_n[index];
+
+                for (RowTerms terms : block) {
+                    double[][] targets = isGamma ? terms.aij : terms.bij;
+                    double[][] impostors = isGamma ? terms.ail : terms.bil;
+
+                    for (int jdx = 0; jdx < targets.length; jdx++) {
+                        pull = pull + targets[jdx][index];
+                    }
+                    for (int jdx = 0; jdx < targets.length; jdx++) {
+                        double target = targets[jdx][index];
+                        double[] hPrime = terms.hPrime[jdx];
+                        for (int ldx = 0; ldx < impostors.length; ldx++) {
+                            push = push + (target - impostors[ldx][index]) * hPrime[ldx];
+                        }
+                    }
+                }
+
+                if (isGamma) {
+                    sumij_g[index] = pull;
+                    sumijl_g[index] = push;
+                } else {
+                    sumij_n[index] = pull;
+                    sumijl_n[index] = push;
+                }
+            });
+        }
+
+        // ========================================
+        // Regularization of uk and vk
+        double normUK = uk.getFrobeniusNorm();
+        double normVK = vk.getFrobeniusNorm();
+
+        this.value = GAMMA * sumij + (1 - GAMMA) * sumijl
+                + (LAMBDA) * normUK * normUK + (LAMBDA) * normVK * normVK;
+
+        RealMatrix regGamma = MatrixUtils.createRealIdentityMatrix(
+                gammak.getColumnDimension()).scalarMultiply(LAMBDA);
+        RealMatrix regNu = MatrixUtils.createRealIdentityMatrix(
+                nuk.getColumnDimension()).scalarMultiply(LAMBDA);
+
+        // Complete Grad for Metric
+        this.gradient = new RealMatrix[2];
+        gradient[0] = gammak.multiply(
+                (unflatten(sumij_g, gammak).scalarMultiply(1 - GAMMA))
+                        .add(unflatten(sumijl_g, gammak).scalarMultiply(GAMMA))
+                        .add(regGamma)).scalarAdd(2.0);
+        gradient[1] = nuk.multiply(
+                (unflatten(sumij_n, nuk).scalarMultiply(1 - GAMMA))
+                        .add(unflatten(sumijl_n, nuk).scalarMultiply(GAMMA))
+                        .add(regNu)).scalarAdd(2.0);
+    }
+
+    /**
+     * @return objective at the last evaluation
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @return gradient for gamma and nu at the last evaluation
+     */
+    public RealMatrix[] getGradient() {
+        return gradient;
+    }
+
+    public void setGAMMA(double GAMMA) {
+        this.GAMMA = GAMMA;
+    }
+
+    public void setLAMBDA(double LAMBDA) {
+        this.LAMBDA = LAMBDA;
+    }
+
+    // ================================================================
+    private static RealMatrix unflatten(double[] entries, RealMatrix shape) {
+
+        int numColumns = shape.getColumnDimension();
+        double[][] data = new double[shape.getRowDimension()][numColumns];
+        for (int idx = 0; idx < data.length; idx++) {
+            System.arraycopy(entries, idx * numColumns, data[idx], 0, numColumns);
+        }
+        return MatrixUtils.createRealMatrix(data);
+    }
+
+    private static double[] flatten(RealMatrix matrix) {
+
+        double[][] data = matrix.getData();
+        int numColumns = matrix.getColumnDimension();
+
+        double[] entries = new double[data.length * numColumns];
+        for (int idx = 0; idx < data.length; idx++) {
+            System.arraycopy(data[idx], 0, entries, idx * numColumns, numColumns);
+        }
+        return entries;
+    }
+
+    /**
+     * Pair matrices, distances and hinges of one row
+     */
+    private class RowTerms {
+
+        // Target neighbors
+        private final double[][] aij;
+        private final double[][] bij;
+        private final double[] distanceObjective;
+
+        // Impostors, in key order
+        private final double[][] ail;
+        private final double[][] bil;
+
+        // Hinge derivative for the gradient, hinge for the objective
+        private final double[][] hPrime;
+        private final double[] hinges;
+
+        RowTerms(int idx, int[] columns, RealMatrix uk, RealMatrix vk,
+                MetricDistance_MV metricDistanceK) {
+
+            RealMatrix x_i = mapOfPatterns.get(idx);
+            List<Integer> listxj = classMemberNear.get(idx);
+            String label = mapOfClasses.get(idx);
+
+            int numTargets = listxj.size();
+            this.aij = new double[numTargets][];
+            this.bij = new double[numTargets][];
+            this.distanceObjective = new double[numTargets];
+            double[] distanceGradient = new double[numTargets];
+
+            for (int jdx = 0; jdx < numTargets; jdx++) {
+                RealMatrix x_j = mapOfPatterns.get(listxj.get(jdx));
+                RealMatrix deltaij = x_i.subtract(x_j);
+
+                RealMatrix a = deltaij.transpose().multiply(vk).multiply(deltaij);
+                aij[jdx] = flatten(a);
+                bij[jdx] = flatten(deltaij.multiply(uk).multiply(deltaij.transpose()));
+
+                distanceGradient[jdx] = (uk.multiply(a)).getTrace();
+                distanceObjective[jdx] = metricDistanceK.matrixDistance(x_i, x_j);
+            }
+
+            int[] impostors = IntStream.of(columns).filter((ldx) -> !(mapOfClasses
+                    .get(ldx).equalsIgnoreCase(label))).toArray();
+
+            this.ail = new double[impostors.length][];
+            this.bil = new double[impostors.length][];
+            double[] distanceil = new double[impostors.length];
+
+            for (int ldx = 0; ldx < impostors.length; ldx++) {
+                RealMatrix x_l = mapOfPatterns.get(impostors[ldx]);
+                RealMatrix deltail = x_i.subtract(x_l);
+
+                ail[ldx] = flatten(deltail.transpose().multiply(vk).multiply(deltail));
+                bil[ldx] = flatten(deltail.multiply(uk).multiply(deltail.transpose()));
+                distanceil[ldx] = metricDistanceK.matrixDistance(x_i, x_l);
+            }
+
+            this.hPrime = new double[numTargets][impostors.length];
+            this.hinges = new double[numTargets * impostors.length];
+            for (int jdx = 0; jdx < numTargets; jdx++) {
+                for (int ldx = 0; ldx < impostors.length; ldx++) {
+                    hPrime[jdx][ldx] = SupportingFunctionality.HingePrimeApproxGLL(
+                            1 + distanceGradient[jdx] - distanceil[ldx]);
+                    hinges[jdx * impostors.length + ldx] = SupportingFunctionality
+                            .HingeApproxGLL(1 + distanceObjective[jdx] - distanceil[ldx]);
+                }
+            }
+        }
+    }
+}
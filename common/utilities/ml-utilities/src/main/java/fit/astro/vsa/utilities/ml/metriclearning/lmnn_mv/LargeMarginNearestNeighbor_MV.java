@@ -98,18 +98,16 @@ public class LargeMarginNearestNeighbor_MV {
         RealMatrix nuk = MatrixUtils.createRealIdentityMatrix(intRow);
 
         // ========================================
-        // Construct Generator to Produce Gradient
-        LMNN_MV_MetricLearningObjective metricLearningObjective
-                = new LMNN_MV_MetricLearningObjective(
-                        classMemberNear, mapOfPatterns, mapOfClasses);
-
-        LMNN_MV_MetricLearningGradientGenerator lmnnMetricLearningGradientGenerator
-                = new LMNN_MV_MetricLearningGradientGenerator(
+        // Objective and gradient in one pass, the gradient of a step is the
+        // one evaluated with the objective at the end of the last step
+        LMNN_MV_MetricLearningEvaluator metricLearningEvaluator
+                = new LMNN_MV_MetricLearningEvaluator(
                         classMemberNear, mapOfPatterns, mapOfClasses);
 
         //======================================================
         // Determine the gradiant of the objective function @ initial
-        double jt = metricLearningObjective.valueL(gammak, nuk);
+        metricLearningEvaluator.evaluate(gammak, nuk);
+        double jt = metricLearningEvaluator.getValue();
         double step_u = 1.0, step_v = 1.0, jt_1;
 
         RealMatrix gradU_k = new Array2DRowRealMatrix(gammak.getData());
@@ -127,8 +125,7 @@ public class LargeMarginNearestNeighbor_MV {
              * Build Gradient Matrix, Direction of Maximum Increase Relative
              * Increase in f relative to L
              */
-            RealMatrix[] gradientOfLwrtL
-                    = lmnnMetricLearningGradientGenerator.execute(gammak, nuk);
+            RealMatrix[] gradientOfLwrtL = metricLearningEvaluator.getGradient();
 
             // ======
             if (idx != 0) {
@@ -143,7 +140,8 @@ public class LargeMarginNearestNeighbor_MV {
 
             nuk = nuk.subtract(gradientOfLwrtL[1].scalarMultiply(step_v));
 
-            jt_1 = metricLearningObjective.valueL(gammak, nuk);
+            metricLearningEvaluator.evaluate(gammak, nuk);
+            jt_1 = metricLearningEvaluator.getValue();
 
             double delta = Math.abs(jt_1 - jt);
 
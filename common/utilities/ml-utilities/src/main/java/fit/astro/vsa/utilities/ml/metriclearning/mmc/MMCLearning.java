@@ -17,9 +17,9 @@
 package fit.astro.vsa.utilities.ml.metriclearning.mmc;
 
 import fit.astro.vsa.common.datahandling.LabelHandling;
+import fit.astro.vsa.utilities.ml.utils.PSDProjection;
 import fit.astro.vsa.utilities.ml.utils.SupportingFunctionality;
 import java.util.Map;
-import org.apache.commons.math3.analysis.UnivariateFunction;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
@@ -36,6 +36,10 @@ import org.slf4j.LoggerFactory;
  * Xing, E. P., Jordan, M. I., Russell, S. J., & Ng, A. Y. (2003). Distance
  * metric learning with application to clustering with side-information. In
  * Advances in neural information processing systems (pp. 521-528).
+ * <p>
+ * The PSD projection is warm started from the previous iteration, the line
+ * search for the step size evaluates the objective from cached pairwise
+ * statistics (MMC_LineSearch).
  *
  * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
  */
@@ -87,6 +91,10 @@ public class MMCLearning {
                 = new MMC_MetricLearningGradientGenerator(
                         mapOfPatterns, mapOfClasses, classMembers);
 
+        PSDProjection psdProjection = new PSDProjection();
+        MMC_LineSearch lineSearch = new MMC_LineSearch(
+                mapOfPatterns, mapOfClasses, psdProjection);
+
         //======================================================
         // Determine the gradiant of the execute function @ initial
         double jt = metricLearningObjective.execute(mk);
@@ -107,10 +115,12 @@ public class MMCLearning {
 
             if (isDynamic) {
                 // Dynamic Estimation of Beta
+                lineSearch.setLine(mk, gradientOfLwrtL);
+
                 BrentOptimizer optimizer = new BrentOptimizer(REL_ERROR, 1e-8);
                 UnivariatePointValuePair optimum
                         = optimizer.optimize(new UnivariateObjectiveFunction(
-                                estimateBeta(metricLearningObjective, mk, gradientOfLwrtL)),
+                                lineSearch::value),
                                 new MaxEval(100),
                                 GoalType.MAXIMIZE,
                                 new SearchInterval(0.0, 1.0));
@@ -128,7 +138,7 @@ public class MMCLearning {
 
             // ==========================================
             // Constraint C2
-            mk = SupportingFunctionality.ProjectMToPSD(mk);
+            mk = psdProjection.project(mk);
 
             jt_1 = metricLearningObjective.execute(mk);
 
@@ -154,21 +164,6 @@ public class MMCLearning {
         return mk;
     }
 
-    private UnivariateFunction estimateBeta(
-            MMC_MetricLearningObjective metricLearningObjective,
-            RealMatrix mk,
-            RealMatrix gradientOfLwrtL) {
-
-        return (double x) -> {
-
-            // Project into PSD Space
-            RealMatrix tmpmk = mk.add(gradientOfLwrtL.scalarMultiply(x));
-            tmpmk = SupportingFunctionality.ProjectMToPSD(tmpmk);
-
-            return metricLearningObjective.execute(tmpmk);
-        };
-    }
-
     /**
      *
      * <p>
@@ -192,6 +187,10 @@ public class MMCLearning {
                 = new MMC_Diag_MetricLearningGradientGenerator(
                         mapOfPatterns, mapOfClasses, classMembers);
 
+        PSDProjection psdProjection = new PSDProjection();
+        MMC_LineSearch lineSearch = new MMC_LineSearch(
+                mapOfPatterns, mapOfClasses, psdProjection);
+
         //======================================================
         // Determine the gradiant of the execute function @ initial
         double jt = metricLearningObjective.execute(mk);
@@ -213,10 +212,12 @@ public class MMCLearning {
 
             if (isDynamic) {
                 // Dynamic Estimation of Beta
+                lineSearch.setLine(mk, gradientOfLwrtL.scalarMultiply(-1.0));
+
                 BrentOptimizer optimizer = new BrentOptimizer(REL_ERROR, 1e-8);
                 UnivariatePointValuePair optimum
                         = optimizer.optimize(new UnivariateObjectiveFunction(
-                                estimateBeta_Diag(metricLearningObjective, mk, gradientOfLwrtL)),
+                                lineSearch::value_Diag),
                                 new MaxEval(100),
                                 GoalType.MINIMIZE,
                                 new SearchInterval(0.0, 1.0));
@@ -227,7 +228,7 @@ public class MMCLearning {
 
             mk = mk.subtract(gradientOfLwrtL.scalarMultiply(alphaK));
 
-            mk = SupportingFunctionality.ProjectMToPSD(mk);
+            mk = psdProjection.project(mk);
 
             jt_1 = metricLearningObjective.execute(mk);
 
@@ -273,27 +274,6 @@ public class MMCLearning {
 
     }
     
-    /**
-     * 
-     * @param metricLearningObjective
-     * @param mk
-     * @param gradientOfLwrtL
-     * @return 
-     */
-    private UnivariateFunction estimateBeta_Diag(
-            MMC_Diag_MetricLearningObjective metricLearningObjective,
-            RealMatrix mk,
-            RealMatrix gradientOfLwrtL) {
-
-        return (double x) -> {
-            RealMatrix tmpmk = mk.subtract(gradientOfLwrtL.scalarMultiply(x));
-            tmpmk = SupportingFunctionality.ProjectMToPSD(tmpmk);
-
-            return metricLearningObjective.execute(tmpmk);
-        };
-
-    }
-
     public void setREL_ERROR(double REL_ERROR) {
         this.REL_ERROR = REL_ERROR;
     }
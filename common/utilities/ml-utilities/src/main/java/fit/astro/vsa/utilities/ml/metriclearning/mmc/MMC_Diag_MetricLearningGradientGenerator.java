@@ -16,21 +16,25 @@
  */
 package fit.astro.vsa.utilities.ml.metriclearning.mmc;
 
-import fit.astro.vsa.utilities.ml.MetricDistance;
+import fit.astro.vsa.utilities.ml.utils.ParallelReduction;
 import java.util.Map;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 
 /**
+ * The pairs are summed in parallel by ParallelReduction, each pair once for
+ * both of its orders.
  *
  * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
  */
 public class MMC_Diag_MetricLearningGradientGenerator {
 
-    private final Map<Integer, RealVector> mapOfPatterns;
-    private final Map<Integer, String> mapOfClasses;
-    private final Map<String, Map<Integer, RealVector>> classMembers;
+    private static final int CHUNK_ROWS = 8;
+
+    // Samples in key order
+    private final double[][] patterns;
+    private final String[] labels;
 
     // =======================================
     /**
@@ -42,9 +46,15 @@ public class MMC_Diag_MetricLearningGradientGenerator {
     public MMC_Diag_MetricLearningGradientGenerator(Map<Integer, RealVector> mapOfPatterns,
             Map<Integer, String> mapOfClasses,
             Map<String, Map<Integer, RealVector>> classMembers) {
-        this.mapOfPatterns = mapOfPatterns;
-        this.mapOfClasses = mapOfClasses;
-        this.classMembers = classMembers;
+        int[] ids = mapOfPatterns.keySet().stream()
+                .mapToInt(Integer::intValue).toArray();
+
+        this.patterns = new double[ids.length][];
+        this.labels = new String[ids.length];
+        for (int idx = 0; idx < ids.length; idx++) {
+            patterns[idx] = mapOfPatterns.get(ids[idx]).toArray();
+            labels[idx] = mapOfClasses.get(ids[idx]);
+        }
     }
 
     /**
@@ -55,62 +65,37 @@ public class MMC_Diag_MetricLearningGradientGenerator {
      */
     public RealMatrix execute(RealMatrix mk) {
 
-        MetricDistance metricDistance = new MetricDistance(mk);
-
-        // =============================================
-        RealMatrix sumij = MatrixUtils.createRealMatrix(
-                mk.getRowDimension(), mk.getColumnDimension());
-
-        for (String label : classMembers.keySet()) {
-
-            Map<Integer, RealVector> similar = classMembers.get(label);
-
-            //similarity pairwise distance
-            for (Integer idx : similar.keySet()) {
-                RealVector x_i = similar.get(idx);
-
-                for (Integer jdx : similar.keySet()) {
-                    RealVector x_j = similar.get(jdx);
-                    RealVector deltaij = x_i.subtract(x_j);
-
-                    sumij = sumij.add(deltaij.outerProduct(deltaij));
-                }
-            }
-        }
-
-        // ===============  Push Error ========================
-        RealMatrix sumil = MatrixUtils.createRealMatrix(
-                mk.getRowDimension(), mk.getColumnDimension());
-
-        for (Integer idx : mapOfPatterns.keySet()) {
-
-            RealVector x_i = mapOfPatterns.get(idx);
-            String label_i = mapOfClasses.get(idx);
-
-            // sum_ij
-            for (String label_j : classMembers.keySet()) {
-
-                if (label_i.equalsIgnoreCase(label_j)) {
-                    continue;
-                }
-
-                Map<Integer, RealVector> dissimilar = classMembers.get(label_j);
-
-                // sum_ik
-                for (Integer kdx : dissimilar.keySet()) {
-
-                    RealVector x_l = mapOfPatterns.get(kdx);
-
-                    RealVector delta = x_i.subtract(x_l);
-                    RealMatrix cil = delta.outerProduct(delta);
-                    
-                    sumil = sumil.add(cil
-                            .scalarMultiply(1.0/(2.0*metricDistance.distance(x_i, x_l))));
-                }
-            }
-        }
-        
-        return sumij.subtract(sumil);
+        double[][] m = mk.getData();
+        int D = m.length;
+
+        // Each pair once, for both orders: sum_ij C_ij and
+        // sum_il C_il / (2 d_il)
+        double[][][] sums = ParallelReduction.sum(patterns.length, CHUNK_ROWS,
+                new int[][]{{D, D}, {D, D}}, (idx, partials) -> {
+
+                    double[] delta = new double[D];
+                    for (int jdx = idx + 1; jdx < patterns.length; jdx++) {
+
+                        boolean isSimilar = labels[idx].equals(labels[jdx]);
+                        if (!isSimilar && labels[idx].equalsIgnoreCase(labels[jdx])) {
+                            continue;
+                        }
+
+                        for (int ddx = 0; ddx < D; ddx++) {
+                            delta[ddx] = patterns[idx][ddx] - patterns[jdx][ddx];
+                        }
+
+                        if (isSimilar) {
+                            ParallelReduction.addOuterProduct(partials[0], delta, 2.0);
+                        } else {
+                            ParallelReduction.addOuterProduct(partials[1], delta,
+                                    1.0 / ParallelReduction.quadraticForm(m, delta));
+                        }
+                    }
+                });
+
+        return MatrixUtils.createRealMatrix(sums[0])
+                .subtract(MatrixUtils.createRealMatrix(sums[1]));
     }
 
 }
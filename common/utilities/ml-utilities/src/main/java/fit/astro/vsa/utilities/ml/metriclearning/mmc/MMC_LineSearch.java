@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston <kyjohnst2000@my.fit.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning.mmc;
+
+import fit.astro.vsa.utilities.ml.utils.PSDProjection;
+import fit.astro.vsa.utilities.ml.utils.ParallelReduction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * The MMC objectives along a line M(x) = P(mk + x direction), P the
+ * projection onto the PSD cone. The squared distances of every pair along the
+ * line are a + x b, with a = d' mk d and b = d' direction d cached once per
+ * line. The projection only removes the negative eigenpairs, which lower the
+ * squared distances by sum_k lambda_k (v_k' d)^2, so an evaluation costs a
+ * pass over the pairs instead of a d x d product per pair.
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class MMC_LineSearch {
+
+    private final double[][] patterns;
+
+    // Pairs, each once
+    private final int[][] similar;
+    private final int[][] dissimilar;
+
+    private final PSDProjection psdProjection;
+
+    // ==================================
+    // Along the line
+    private RealMatrix mk;
+    private RealMatrix direction;
+
+    private double[][] similar_ab;
+    private double[][] dissimilar_ab;
+
+    /**
+     *
+     * @param mapOfPatterns
+     * @param mapOfClasses
+     * @param psdProjection
+     */
+    public MMC_LineSearch(Map<Integer, RealVector> mapOfPatterns,
+            Map<Integer, String> mapOfClasses, PSDProjection psdProjection) {
+
+        this.psdProjection = psdProjection;
+
+        int[] ids = mapOfPatterns.keySet().stream()
+                .mapToInt(Integer::intValue).toArray();
+
+        this.patterns = new double[ids.length][];
+        String[] labels = new String[ids.length];
+        for (int idx = 0; idx < ids.length; idx++) {
+            patterns[idx] = mapOfPatterns.get(ids[idx]).toArray();
+            labels[idx] = mapOfClasses.get(ids[idx]);
+        }
+
+        List<int[]> listSimilar = new ArrayList<>();
+        List<int[]> listDissimilar = new ArrayList<>();
+        for (int idx = 0; idx < ids.length; idx++) {
+            for (int jdx = idx + 1; jdx < ids.length; jdx++) {
+                if (labels[idx].equals(labels[jdx])) {
+                    listSimilar.add(new int[]{idx, jdx});
+                } else if (!labels[idx].equalsIgnoreCase(labels[jdx])) {
+                    listDissimilar.add(new int[]{idx, jdx});
+                }
+            }
+        }
+        this.similar = listSimilar.toArray(new int[0][]);
+        this.dissimilar = listDissimilar.toArray(new int[0][]);
+    }
+
+    /**
+     * Cache the squared distances along mk + x direction
+     *
+     * @param mk
+     * @param direction
+     */
+    public void setLine(RealMatrix mk, RealMatrix direction) {
+        this.mk = mk;
+        this.direction = direction;
+
+        double[][] m = mk.getData();
+        double[][] g = direction.getData();
+
+        this.similar_ab = lineTerms(similar, m, g);
+        this.dissimilar_ab = lineTerms(dissimilar, m, g);
+    }
+
+    /**
+     * MMC_MetricLearningObjective at M(x)
+     *
+     * @param x
+     * @return
+     */
+    public double value(double x) {
+
+        double[][] projections = project(x);
+
+        double sumij = 0;
+        for (double distance : squaredDistances(x, dissimilar, dissimilar_ab, projections)) {
+            sumij = sumij + Math.sqrt(distance);
+        }
+
+        // Ordered pairs
+        return 2.0 * sumij;
+    }
+
+    /**
+     * MMC_Diag_MetricLearningObjective at M(x)
+     *
+     * @param x
+     * @return
+     */
+    public double value_Diag(double x) {
+
+        double[][] projections = project(x);
+
+        double sumij = 0;
+        for (double distance : squaredDistances(x, similar, similar_ab, projections)) {
+            sumij = sumij + distance;
+        }
+
+        double sumil = 0;
+        for (double distance : squaredDistances(x, dissimilar, dissimilar_ab, projections)) {
+            sumil = sumil + Math.sqrt(distance);
+        }
+
+        // Ordered pairs
+        return 2.0 * sumij + Math.log(2.0 * sumil);
+    }
+
+    // ================================================================
+    /**
+     * Projects mk + x direction, the samples onto the removed eigenvectors
+     *
+     * @return projections[k][sample]
+     */
+    private double[][] project(double x) {
+
+        psdProjection.project(mk.add(direction.scalarMultiply(x)));
+
+        double[][] vectors = psdProjection.getNegativeVectors();
+        double[][] projections = new double[vectors.length][patterns.length];
+
+        for (int kdx = 0; kdx < vectors.length; kdx++) {
+            for (int idx = 0; idx < patterns.length; idx++) {
+                double sum = 0;
+                for (int ddx = 0; ddx < vectors[kdx].length; ddx++) {
+                    sum += vectors[kdx][ddx] * patterns[idx][ddx];
+                }
+                projections[kdx][idx] = sum;
+            }
+        }
+        return projections;
+    }
+
+    private double[] squaredDistances(double x, int[][] pairs, double[][] ab,
+            double[][] projections) {
+
+        double[] values = psdProjection.getNegativeValues();
+
+        double[] distances = new double[pairs.length];
+        for (int pdx = 0; pdx < pairs.length; pdx++) {
+            double distance = ab[pdx][0] + x * ab[pdx][1];
+
+            for (int kdx = 0; kdx < values.length; kdx++) {
+                double delta = projections[kdx][pairs[pdx][0]]
+                        - projections[kdx][pairs[pdx][1]];
+                distance -= values[kdx] * delta * delta;
+            }
+
+            // PSD up to rounding
+            distances[pdx] = Math.max(distance, 0.0);
+        }
+        return distances;
+    }
+
+    /**
+     * @return {d' m d, d' g d} of each pair
+     */
+    private double[][] lineTerms(int[][] pairs, double[][] m, double[][] g) {
+
+        int D = m.length;
+
+        double[][] ab = new double[pairs.length][];
+        IntStream.range(0, pairs.length).parallel().forEach((pdx) -> {
+            double[] delta = new double[D];
+            for (int ddx = 0; ddx < D; ddx++) {
+                delta[ddx] = patterns[pairs[pdx][0]][ddx] - patterns[pairs[pdx][1]][ddx];
+            }
+            ab[pdx] = new double[]{ParallelReduction.quadraticForm(m, delta),
+                ParallelReduction.quadraticForm(g, delta)};
+        });
+        return ab;
+    }
+}
@@ -17,21 +17,25 @@
 package fit.astro.vsa.utilities.ml.metriclearning.mmc;
 
 import fit.astro.vsa.common.utilities.math.NumericTests;
-import fit.astro.vsa.utilities.ml.MetricDistance;
+import fit.astro.vsa.utilities.ml.utils.ParallelReduction;
 import java.util.Map;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 
 /**
+ * The pairs are summed in parallel by ParallelReduction, each pair once for
+ * both of its orders.
  *
  * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
  */
 public class MMC_MetricLearningGradientGenerator {
 
-    private final Map<Integer, RealVector> mapOfPatterns;
-    private final Map<Integer, String> mapOfClasses;
-    private final Map<String, Map<Integer, RealVector>> classMembers;
+    private static final int CHUNK_ROWS = 8;
+
+    // Samples in key order
+    private final double[][] patterns;
+    private final String[] labels;
 
     // =======================================
     /**
@@ -43,9 +47,15 @@ public class MMC_MetricLearningGradientGenerator {
     public MMC_MetricLearningGradientGenerator(Map<Integer, RealVector> mapOfPatterns,
             Map<Integer, String> mapOfClasses,
             Map<String, Map<Integer, RealVector>> classMembers) {
-        this.mapOfPatterns = mapOfPatterns;
-        this.mapOfClasses = mapOfClasses;
-        this.classMembers = classMembers;
+        int[] ids = mapOfPatterns.keySet().stream()
+                .mapToInt(Integer::intValue).toArray();
+
+        this.patterns = new double[ids.length][];
+        this.labels = new String[ids.length];
+        for (int idx = 0; idx < ids.length; idx++) {
+            patterns[idx] = mapOfPatterns.get(ids[idx]).toArray();
+            labels[idx] = mapOfClasses.get(ids[idx]);
+        }
     }
 
     /**
@@ -56,38 +66,34 @@ public class MMC_MetricLearningGradientGenerator {
      */
     public RealMatrix execute(RealMatrix mk) {
 
-        MetricDistance metricDistance = new MetricDistance(mk);
+        double[][] m = mk.getData();
+        int D = m.length;
 
         // ================== Push Error ===========================
-        RealMatrix sumij = MatrixUtils.createRealMatrix(
-                mk.getRowDimension(), mk.getColumnDimension());
+        // Each dissimilar pair once, for both orders
+        double[][][] sums = ParallelReduction.sum(patterns.length, CHUNK_ROWS,
+                new int[][]{{D, D}}, (idx, partials) -> {
 
-        //pairwise distance
-        for (Integer idx : mapOfPatterns.keySet()) {
-            RealVector x_i = mapOfPatterns.get(idx);
-            String label_i = mapOfClasses.get(idx);
+                    double[] delta_ij = new double[D];
+                    for (int jdx = idx + 1; jdx < patterns.length; jdx++) {
 
-            for (String label_j : classMembers.keySet()) {
+                        if (labels[idx].equalsIgnoreCase(labels[jdx])) {
+                            continue;
+                        }
 
-                if (label_i.equalsIgnoreCase(label_j)) {
-                    continue;
-                }
-                Map<Integer, RealVector> dissimilar = classMembers.get(label_j);
+                        for (int ddx = 0; ddx < D; ddx++) {
+                            delta_ij[ddx] = patterns[idx][ddx] - patterns[jdx][ddx];
+                        }
 
-                for (Integer jdx : dissimilar.keySet()) {
-                    RealVector x_j = dissimilar.get(jdx);
-                    RealVector delta_ij = x_i.subtract(x_j);
+                        double distance = Math.sqrt(ParallelReduction.quadraticForm(m, delta_ij));
 
-                    double distance = metricDistance.distanceSqrt(x_i, x_j);
-
-                    if (!NumericTests.isApproxZero(distance)) {
-                        sumij = sumij.add(delta_ij.outerProduct(delta_ij));
+                        if (!NumericTests.isApproxZero(distance)) {
+                            ParallelReduction.addOuterProduct(partials[0], delta_ij, 2.0);
+                        }
                     }
-                }
-            }
-        }
+                });
 
-        return sumij;
+        return MatrixUtils.createRealMatrix(sums[0]);
     }
 
 }
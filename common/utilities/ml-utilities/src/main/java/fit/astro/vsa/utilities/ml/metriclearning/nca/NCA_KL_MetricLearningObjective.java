@@ -16,28 +16,30 @@
  */
 package fit.astro.vsa.utilities.ml.metriclearning.nca;
 
-import fit.astro.vsa.utilities.ml.MetricDistance;
 import java.util.Map;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 
 /**
+ * -sum_i log(p_i), see {@link NCA_ScatterGradient}
  *
  * @author Kyle Johnston kyjohnst2000@my.fit.edu
  */
 public class NCA_KL_MetricLearningObjective {
 
-    private final Map<String, Map<Integer, RealVector>> classMembers;
-    private final Map<Integer, RealVector> mapOfPatterns;
-    private final Map<Integer, String> mapOfClasses;
+    private final NCA_ScatterGradient scatterGradient;
 
+    /**
+     *
+     * @param classMembers patterns by class, kept for compatibility
+     * @param mapOfPatterns map of patterns, (Index, Pattern) pair
+     * @param mapOfClasses map of classes, (Index, Class) pair
+     */
     public NCA_KL_MetricLearningObjective(
             Map<String, Map<Integer, RealVector>> classMembers,
             Map<Integer, RealVector> mapOfPatterns,
             Map<Integer, String> mapOfClasses) {
-        this.classMembers = classMembers;
-        this.mapOfPatterns = mapOfPatterns;
-        this.mapOfClasses = mapOfClasses;
+        this.scatterGradient = new NCA_ScatterGradient(mapOfPatterns, mapOfClasses);
     }
 
     /**
@@ -48,56 +50,6 @@ public class NCA_KL_MetricLearningObjective {
      * @return
      */
     public double valueL(RealMatrix lk) {
-
-        //======================================================
-        RealMatrix metric = lk.transpose().multiply(lk);
-        MetricDistance metricDistance = new MetricDistance(metric);
-        double expectation = 0;
-
-        for (Integer idx : mapOfPatterns.keySet()) {
-
-            RealVector x_i = mapOfPatterns.get(idx);
-
-            //=================================================================
-            // Cycle Over ALL Points in the Dataset (once per pattern)
-            double bottom = 0;
-            for (RealVector x_k : mapOfPatterns.values()) {
-
-                if (!x_k.equals(x_i)) {
-                    double distance = metricDistance.distance(x_i, x_k);
-                    bottom = bottom + Math.exp(-distance);
-                }
-            }
-
-            if (bottom == 0.0) {
-                continue;
-            }
-            //=================================================================
-            double p_i = 0;
-
-            // Cycle Over All Points IN CLASS
-            Map<Integer, RealVector> classMemberList = classMembers
-                    .get(mapOfClasses.get(idx));
-
-            for (RealVector x_j : classMemberList.values()) {
-                if (!x_j.equals(x_i)) {
-                    double distance = metricDistance.distance(x_i, x_j);
-                    double p_ij = Math.exp(-distance) / bottom;
-
-                    p_i = p_i + p_ij;
-                }
-            }
-
-            if (p_i > 1.0) {
-                p_i = 1.0;
-            }
-
-            // sum over points in training set
-            expectation = expectation + Math.log(p_i);
-        }
-
-        //turn maximization into minimization (-1)
-        return -expectation;
+        return scatterGradient.value_KL(lk);
     }
-
 }
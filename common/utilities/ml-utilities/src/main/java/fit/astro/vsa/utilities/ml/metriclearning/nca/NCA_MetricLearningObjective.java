@@ -16,33 +16,31 @@
  */
 package fit.astro.vsa.utilities.ml.metriclearning.nca;
 
-import fit.astro.vsa.common.utilities.math.NumericTests;
-import fit.astro.vsa.utilities.ml.MetricDistance;
 import java.util.Map;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 
 /**
+ * sum_i p_i, the expected number of correctly classified points, see
+ * {@link NCA_ScatterGradient}
  *
  * @author Kyle Johnston kyjohnst2000@my.fit.edu
  */
 public class NCA_MetricLearningObjective {
 
-    private final Map<String, Map<Integer, RealVector>> classMembers;
-    private final Map<Integer, RealVector> mapOfPatterns;
-    private final Map<Integer, String> mapOfClasses;
-
-    private double p_i;
-    private double bottom;
-    private double expectation;
+    private final NCA_ScatterGradient scatterGradient;
 
+    /**
+     *
+     * @param classMembers patterns by class, kept for compatibility
+     * @param mapOfPatterns map of patterns, (Index, Pattern) pair
+     * @param mapOfClasses map of classes, (Index, Class) pair
+     */
     public NCA_MetricLearningObjective(
             Map<String, Map<Integer, RealVector>> classMembers,
             Map<Integer, RealVector> mapOfPatterns,
             Map<Integer, String> mapOfClasses) {
-        this.classMembers = classMembers;
-        this.mapOfPatterns = mapOfPatterns;
-        this.mapOfClasses = mapOfClasses;
+        this.scatterGradient = new NCA_ScatterGradient(mapOfPatterns, mapOfClasses);
     }
 
     /**
@@ -53,54 +51,6 @@ public class NCA_MetricLearningObjective {
      * @return
      */
     public double valueL(RealMatrix lk) {
-
-        //======================================================
-        RealMatrix metric = lk.transpose().multiply(lk);
-        MetricDistance metricDistance = new MetricDistance(metric);
-
-        expectation = 0;
-
-        for (Integer idx : mapOfPatterns.keySet()) {
-
-            RealVector x_i = mapOfPatterns.get(idx);
-
-            //=================================================================
-            // Cycle Over ALL Points in the Dataset (once per pattern)
-            bottom = 0;
-            mapOfPatterns.values().stream().filter((x_k) -> (!x_k.equals(x_i)))
-                    .map((x_k) -> metricDistance
-                    .distance(x_i, x_k)).forEachOrdered((distance) -> {
-                bottom = bottom + Math.exp(-distance);
-            });
-
-            if (NumericTests.isApproxZero(bottom)) {
-                // underflow from the exp
-                continue;
-            }
-            //=================================================================
-            p_i = 0;
-
-            // Cycle Over All Points IN CLASS
-            Map<Integer, RealVector> classMemberList
-                    = classMembers.get(mapOfClasses.get(idx));
-
-            classMemberList.values().stream().filter((x_j) -> (!x_j.equals(x_i)))
-                    .map((x_j) -> metricDistance
-                    .distance(x_i, x_j)).map((distance) -> Math.exp(-distance) / bottom)
-                    .forEachOrdered((p_ij) -> {
-                        p_i += p_ij;
-                    });
-
-            if (p_i > 1.0) {
-                p_i = 1.0;
-            }
-
-            // sum over points in training set
-            expectation += p_i;
-        }
-
-        // 1 for minimization problem
-        return expectation;
+        return scatterGradient.value(lk);
     }
-
 }
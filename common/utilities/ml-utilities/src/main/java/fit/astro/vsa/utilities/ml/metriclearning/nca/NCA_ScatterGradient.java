@@ -0,0 +1,507 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning.nca;
+
+import fit.astro.vsa.common.utilities.math.NumericTests;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * NCA objectives and gradients from one pass over the softmax neighbor
+ * probabilities p_ik = exp(-|Lx_i - Lx_k|^2) / sum_l exp(-|Lx_i - Lx_l|^2),
+ * computed a block of rows at a time in primitive arrays, blocks in parallel.
+ * <p>
+ * Both gradients are sums of weighted outer products, sum_ik w_ik (x_i -
+ * x_k)(x_i - x_k)', formed as the scatter X'(D - W - W')X with D the row plus
+ * column sums of W, so no d x d matrix is built per pair:
+ * <ul>
+ * <li>NCA: w_ik = p_i p_ik - [c_i = c_k] p_ik</li>
+ * <li>KL: w_ik = p_ik - [c_i = c_k] p_ik / p_i</li>
+ * </ul>
+ * Equal patterns are left out of each other's neighborhoods, and a row whose
+ * normalizer underflows is skipped, as in the pairwise implementation.
+ * <p>
+ * The objectives can also be taken for queries outside the patterns, with
+ * the patterns as their only candidate neighbors.
+ *
+ * @author Kyle Johnston kyjohnst2000@my.fit.edu
+ */
+public class NCA_ScatterGradient {
+
+    /**
+     * Rows of P held per parallel task
+     */
+    private static final int BLOCK_ROWS = 64;
+
+    // Input, centered (distances and scatter do not depend on the origin)
+    private final double[][] patterns;
+    private final int[] classIndex;
+
+    // Equal patterns share an index
+    private final int[] duplicateIndex;
+
+    private final int numPatterns;
+    private final int dimension;
+
+    private final Map<Integer, Integer> positions;
+    private final int[] allRows;
+
+    // Indices for queries outside the patterns
+    private final Map<String, Integer> labels;
+    private final Map<RealVector, Integer> uniquePatterns;
+    private final double[] mean;
+
+    /**
+     *
+     * @param mapOfPatterns map of patterns, (Index, Pattern) pair
+     * @param mapOfClasses map of classes, (Index, Class) pair
+     */
+    public NCA_ScatterGradient(Map<Integer, RealVector> mapOfPatterns,
+            Map<Integer, String> mapOfClasses) {
+
+        this.numPatterns = mapOfPatterns.size();
+        this.dimension = mapOfPatterns.values().iterator().next().getDimension();
+        this.patterns = new double[numPatterns][];
+        this.classIndex = new int[numPatterns];
+        this.duplicateIndex = new int[numPatterns];
+        this.positions = new HashMap<>(numPatterns);
+        this.allRows = IntStream.range(0, numPatterns).toArray();
+
+        this.labels = new HashMap<>();
+        this.uniquePatterns = new HashMap<>();
+        this.mean = new double[dimension];
+
+        int position = 0;
+        for (Integer idx : mapOfPatterns.keySet()) {
+            RealVector pattern = mapOfPatterns.get(idx);
+            patterns[position] = pattern.toArray();
+            positions.put(idx, position);
+
+            String label = mapOfClasses.get(idx);
+            if (!labels.containsKey(label)) {
+                labels.put(label, labels.size());
+            }
+            classIndex[position] = labels.get(label);
+
+            if (!uniquePatterns.containsKey(pattern)) {
+                uniquePatterns.put(pattern, uniquePatterns.size());
+            }
+            duplicateIndex[position] = uniquePatterns.get(pattern);
+
+            for (int adx = 0; adx < dimension; adx++) {
+                mean[adx] += patterns[position][adx] / numPatterns;
+            }
+            position++;
+        }
+
+        for (double[] pattern : patterns) {
+            for (int adx = 0; adx < dimension; adx++) {
+                pattern[adx] -= mean[adx];
+            }
+        }
+    }
+
+    /**
+     * @param lk
+     * @return sum_i min(p_i, 1)
+     */
+    public double value(RealMatrix lk) {
+        return sweep(lk, false, false, allRows).value;
+    }
+
+    /**
+     * @param lk
+     * @return -sum_i log(min(p_i, 1))
+     */
+    public double value_KL(RealMatrix lk) {
+        return sweep(lk, true, false, allRows).value;
+    }
+
+    /**
+     * @param lk
+     * @return -2L sum_i (p_i sum_k p_ik x_ik x_ik' - sum_j p_ij x_ij x_ij')
+     */
+    public RealMatrix gradient(RealMatrix lk) {
+        return gradient(lk, allRows);
+    }
+
+    /**
+     * @param lk
+     * @return -2L sum_i (sum_k p_ik x_ik x_ik' - sum_j p_ij x_ij x_ij' / p_i)
+     */
+    public RealMatrix gradient_KL(RealMatrix lk) {
+        return gradient_KL(lk, allRows);
+    }
+
+    // ================================================================
+    // Query Subsets, every pattern stays a candidate neighbor
+    /**
+     * @param lk
+     * @param queryIDs the i of the sum
+     * @return sum_i min(p_i, 1)
+     */
+    public double value(RealMatrix lk, Collection<Integer> queryIDs) {
+        return sweep(lk, false, false, rows(queryIDs)).value;
+    }
+
+    /**
+     * @param lk
+     * @param queryIDs the i of the sum
+     * @return -sum_i log(min(p_i, 1))
+     */
+    public double value_KL(RealMatrix lk, Collection<Integer> queryIDs) {
+        return sweep(lk, true, false, rows(queryIDs)).value;
+    }
+
+    /**
+     * @param lk
+     * @param queryIDs the i of the sum
+     * @return -2L sum_i (p_i sum_k p_ik x_ik x_ik' - sum_j p_ij x_ij x_ij')
+     */
+    public RealMatrix gradient(RealMatrix lk, Collection<Integer> queryIDs) {
+        return gradient(lk, rows(queryIDs));
+    }
+
+    /**
+     * @param lk
+     * @param queryIDs the i of the sum
+     * @return -2L sum_i (sum_k p_ik x_ik x_ik' - sum_j p_ij x_ij x_ij' / p_i)
+     */
+    public RealMatrix gradient_KL(RealMatrix lk, Collection<Integer> queryIDs) {
+        return gradient_KL(lk, rows(queryIDs));
+    }
+
+    // ================================================================
+    // Queries outside the patterns, the patterns are the candidate neighbors
+    /**
+     * @param lk
+     * @param queryPatterns the i of the sum
+     * @param queryClasses classes of the queries
+     * @return sum_i min(p_i, 1)
+     */
+    public double value(RealMatrix lk, Map<Integer, RealVector> queryPatterns,
+            Map<Integer, String> queryClasses) {
+        return sweepQueries(lk, false, queryPatterns, queryClasses);
+    }
+
+    /**
+     * @param lk
+     * @param queryPatterns the i of the sum
+     * @param queryClasses classes of the queries
+     * @return -sum_i log(min(p_i, 1))
+     */
+    public double value_KL(RealMatrix lk, Map<Integer, RealVector> queryPatterns,
+            Map<Integer, String> queryClasses) {
+        return sweepQueries(lk, true, queryPatterns, queryClasses);
+    }
+
+    private RealMatrix gradient(RealMatrix lk, int[] rows) {
+        return lk.multiply(sweep(lk, false, true, rows).scatter).scalarMultiply(-2.0);
+    }
+
+    private RealMatrix gradient_KL(RealMatrix lk, int[] rows) {
+        return lk.multiply(sweep(lk, true, true, rows).scatter).scalarMultiply(-2.0);
+    }
+
+    private int[] rows(Collection<Integer> queryIDs) {
+        return queryIDs.stream().mapToInt(positions::get).toArray();
+    }
+
+    // ================================================================
+    // Softmax Sweep
+    private SweepResult sweep(RealMatrix lk, boolean isKL, boolean isGradient,
+            int[] rows) {
+
+        double[][] projected = project(lk.getData());
+
+        // Row sums and W X by row, each row written by one task
+        double[] rowSums = isGradient ? new double[numPatterns] : null;
+        double[][] weightedSums = isGradient ? new double[numPatterns][] : null;
+
+        int numBlocks = (rows.length + BLOCK_ROWS - 1) / BLOCK_ROWS;
+
+        BlockResult total = IntStream.range(0, numBlocks).parallel().mapToObj((block) -> {
+
+            int start = block * BLOCK_ROWS;
+            int end = Math.min(rows.length, start + BLOCK_ROWS);
+
+            BlockResult result = new BlockResult(isGradient ? numPatterns : 0);
+            double[][] probabilities = new double[end - start][numPatterns];
+
+            for (int idx = start; idx < end; idx++) {
+
+                int row = rows[idx];
+                double[] probability = probabilities[idx - start];
+                double p_i = softmaxRow(projected, projected[row],
+                        duplicateIndex[row], classIndex[row], probability, isKL);
+
+                if (Double.isNaN(p_i) || (isKL && p_i == 0.0)) {
+                    // underflow from the exp
+                    continue;
+                }
+
+                double clamped = Math.min(p_i, 1.0);
+                result.value += isKL ? -Math.log(clamped) : clamped;
+
+                if (isGradient) {
+                    rowSums[row] = weightRow(row, probability, p_i, isKL,
+                            result.columnSums);
+                    weightedSums[row] = multiplyRow(probability);
+                }
+            }
+            return result;
+        }).reduce(BlockResult::add).orElse(new BlockResult(0));
+
+        SweepResult result = new SweepResult();
+        result.value = total.value;
+        if (isGradient) {
+            result.scatter = scatter(rowSums, total.columnSums, weightedSums);
+        }
+        return result;
+    }
+
+    private double sweepQueries(RealMatrix lk, boolean isKL,
+            Map<Integer, RealVector> queryPatterns, Map<Integer, String> queryClasses) {
+
+        double[][] transform = lk.getData();
+        double[][] projected = project(transform);
+
+        Integer[] queryIDs = queryPatterns.keySet().toArray(new Integer[0]);
+
+        // Terms by query, summed in query order
+        double[] terms = new double[queryIDs.length];
+        IntStream.range(0, queryIDs.length).parallel().forEach((qdx) -> {
+
+            RealVector query = queryPatterns.get(queryIDs[qdx]);
+            double[] centered = query.toArray();
+            for (int adx = 0; adx < dimension; adx++) {
+                centered[adx] -= mean[adx];
+            }
+
+            double[] probability = new double[numPatterns];
+            double p_i = softmaxRow(projected, image(transform, centered),
+                    uniquePatterns.getOrDefault(query, -1),
+                    labels.getOrDefault(queryClasses.get(queryIDs[qdx]), -1),
+                    probability, isKL);
+
+            if (Double.isNaN(p_i) || (isKL && p_i == 0.0)) {
+                // underflow from the exp
+                return;
+            }
+
+            double clamped = Math.min(p_i, 1.0);
+            terms[qdx] = isKL ? -Math.log(clamped) : clamped;
+        });
+
+        double value = 0.0;
+        for (double term : terms) {
+            value += term;
+        }
+        return value;
+    }
+
+    private double[][] project(double[][] transform) {
+
+        double[][] projected = new double[numPatterns][];
+        Arrays.parallelSetAll(projected, (idx) -> image(transform, patterns[idx]));
+        return projected;
+    }
+
+    private double[] image(double[][] transform, double[] pattern) {
+
+        double[] image = new double[transform.length];
+        for (int rdx = 0; rdx < transform.length; rdx++) {
+            double[] transformRow = transform[rdx];
+            double sum = 0.0;
+            for (int adx = 0; adx < dimension; adx++) {
+                sum += transformRow[adx] * pattern[adx];
+            }
+            image[rdx] = sum;
+        }
+        return image;
+    }
+
+    /**
+     * Row of P into probability, zero for equal patterns
+     *
+     * @param image projected query
+     * @param duplicate duplicate index of the query, -1 if none
+     * @param label class index of the query, -1 if none
+     * @return p_i, NaN if the normalizer underflows
+     */
+    private double softmaxRow(double[][] projected, double[] image, int duplicate,
+            int label, double[] probability, boolean isKL) {
+
+        double bottom = 0.0;
+        for (int kdx = 0; kdx < numPatterns; kdx++) {
+            if (duplicateIndex[kdx] == duplicate) {
+                probability[kdx] = 0.0;
+                continue;
+            }
+
+            double[] other = projected[kdx];
+            double distanceSq = 0.0;
+            for (int rdx = 0; rdx < image.length; rdx++) {
+                double delta = image[rdx] - other[rdx];
+                distanceSq += delta * delta;
+            }
+            probability[kdx] = Math.exp(-distanceSq);
+            bottom += probability[kdx];
+        }
+
+        if (isKL ? bottom == 0.0 : NumericTests.isApproxZero(bottom)) {
+            return Double.NaN;
+        }
+
+        double p_i = 0.0;
+        for (int kdx = 0; kdx < numPatterns; kdx++) {
+            probability[kdx] /= bottom;
+            if (classIndex[kdx] == label) {
+                p_i += probability[kdx];
+            }
+        }
+        return p_i;
+    }
+
+    /**
+     * Probability row into weight row w_ik, in place
+     *
+     * @return sum_k w_ik
+     */
+    private double weightRow(int row, double[] probability, double p_i, boolean isKL,
+            double[] columnSums) {
+
+        double rowSum = 0.0;
+        for (int kdx = 0; kdx < numPatterns; kdx++) {
+            boolean isSameClass = classIndex[kdx] == classIndex[row];
+
+            double weight;
+            if (isKL) {
+                weight = isSameClass
+                        ? probability[kdx] - probability[kdx] / p_i : probability[kdx];
+            } else {
+                weight = isSameClass
+                        ? p_i * probability[kdx] - probability[kdx] : p_i * probability[kdx];
+            }
+
+            probability[kdx] = weight;
+            rowSum += weight;
+            columnSums[kdx] += weight;
+        }
+        return rowSum;
+    }
+
+    /**
+     * @return sum_k w_ik x_k
+     */
+    private double[] multiplyRow(double[] weights) {
+
+        double[] weightedSum = new double[dimension];
+        for (int kdx = 0; kdx < numPatterns; kdx++) {
+            double weight = weights[kdx];
+            if (weight == 0.0) {
+                continue;
+            }
+            double[] pattern = patterns[kdx];
+            for (int adx = 0; adx < dimension; adx++) {
+                weightedSum[adx] += weight * pattern[adx];
+            }
+        }
+        return weightedSum;
+    }
+
+    /**
+     * X'DX - X'(WX) - (WX)'X, blocks of rows in parallel
+     */
+    private RealMatrix scatter(double[] rowSums, double[] columnSums,
+            double[][] weightedSums) {
+
+        int numBlocks = (numPatterns + BLOCK_ROWS - 1) / BLOCK_ROWS;
+
+        double[] scatter = IntStream.range(0, numBlocks).parallel().mapToObj((block) -> {
+
+            int start = block * BLOCK_ROWS;
+            int end = Math.min(numPatterns, start + BLOCK_ROWS);
+
+            double[] partial = new double[dimension * dimension];
+            double[] skipped = new double[dimension];
+            for (int row = start; row < end; row++) {
+
+                // A skipped row still carries the column weight of the others
+                double[] pattern = patterns[row];
+                double[] weightedSum = (weightedSums[row] != null)
+                        ? weightedSums[row] : skipped;
+                double diagonal = rowSums[row] + columnSums[row];
+
+                for (int adx = 0; adx < dimension; adx++) {
+                    int offset = adx * dimension;
+                    for (int bdx = 0; bdx < dimension; bdx++) {
+                        partial[offset + bdx] += diagonal * pattern[adx] * pattern[bdx]
+                                - pattern[adx] * weightedSum[bdx]
+                                - weightedSum[adx] * pattern[bdx];
+                    }
+                }
+            }
+            return partial;
+        }).reduce(NCA_ScatterGradient::addInPlace)
+                .orElse(new double[dimension * dimension]);
+
+        double[][] scatterData = new double[dimension][dimension];
+        for (int adx = 0; adx < dimension; adx++) {
+            System.arraycopy(scatter, adx * dimension, scatterData[adx], 0, dimension);
+        }
+        return MatrixUtils.createRealMatrix(scatterData);
+    }
+
+    private static double[] addInPlace(double[] left, double[] right) {
+        for (int idx = 0; idx < left.length; idx++) {
+            left[idx] += right[idx];
+        }
+        return left;
+    }
+
+    /**
+     * Objective and column sums of W over a block of rows
+     */
+    private static class BlockResult {
+
+        private double value = 0.0;
+        private final double[] columnSums;
+
+        BlockResult(int numPatterns) {
+            this.columnSums = new double[numPatterns];
+        }
+
+        BlockResult add(BlockResult other) {
+            value += other.value;
+            addInPlace(columnSums, other.columnSums);
+            return this;
+        }
+    }
+
+    private static class SweepResult {
+
+        private double value;
+        private RealMatrix scatter;
+    }
+}
@@ -17,7 +17,13 @@
 package fit.astro.vsa.utilities.ml.metriclearning.nca;
 
 import fit.astro.vsa.common.datahandling.LabelHandling;
+import fit.astro.vsa.utilities.ml.training.StandardTrainingImplementation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
@@ -46,6 +52,29 @@ public class NeighbourhoodComponentsAnalysis {
 
     private final int MAX_ITER = Integer.MAX_VALUE;
 
+    // ===============================================
+    // Mini-Batch Training
+    /**
+     * Step rule of the mini-batch training
+     */
+    public enum StochasticUpdate {
+        MOMENTUM, ADAM
+    }
+
+    private StochasticUpdate stochasticUpdate = StochasticUpdate.ADAM;
+    private double LEARNING_RATE = 0.01;
+    private double LEARNING_RATE_DECAY = 0.05;
+    private double MOMENTUM = 0.9;
+    private double HOLD_OUT_FRACTION = 0.1;
+    private int MAX_EPOCHS = 200;
+    private int PATIENCE = 5;
+
+    private static final double ADAM_BETA_1 = 0.9;
+    private static final double ADAM_BETA_2 = 0.999;
+    private static final double ADAM_EPSILON = 1e-8;
+
+    private Random rand = new Random();
+
     /**
      *
      * @param mapOfPatterns map of patterns, (Index, Pattern) pair
@@ -231,6 +260,172 @@ public class NeighbourhoodComponentsAnalysis {
         return (lk.transpose()).multiply(lk);
     }
 
+    /**
+     * Mini-batch training: the queries of each step are a batch of the
+     * training patterns, every training pattern stays a candidate neighbor,
+     * so memory is bounded by a block of rows of P rather than n x n. The
+     * held-out patterns are never neighbors of the training patterns, their
+     * objective is taken with the training patterns as neighbors. The step size
+     * decays as LEARNING_RATE / (1 + LEARNING_RATE_DECAY * epoch). Training
+     * stops once the objective on a held-out, class stratified part of the
+     * data has not improved by REL_ERROR (relative) for PATIENCE epochs, the
+     * best metric seen is returned.
+     *
+     * @param intDimensions
+     * @param numBatches mini-batches per epoch
+     * @return the M Matrix that has learned the Mahalanobis Distance
+     */
+    public RealMatrix generateMetric_MiniBatch(int intDimensions, int numBatches) {
+
+        int D = mapOfPatterns.values().iterator().next().getDimension();
+
+        // Truncated identity, a zero start has a zero gradient
+        RealMatrix lk = MatrixUtils.createRealIdentityMatrix(D)
+                .getSubMatrix(0, Math.min(intDimensions, D) - 1, 0, D - 1)
+                .scalarMultiply(0.01);
+
+        return miniBatch(lk, numBatches, false);
+    }
+
+    /**
+     * Mini-batch training of the KL objective, see generateMetric_MiniBatch
+     *
+     * @param numBatches mini-batches per epoch
+     * @return the M Matrix that has learned the Mahalanobis Distance
+     */
+    public RealMatrix generateMetric_KL_MiniBatch(int numBatches) {
+
+        RealMatrix lk = MatrixUtils.createRealIdentityMatrix(
+                mapOfPatterns.values().iterator().next().getDimension());
+
+        return miniBatch(lk, numBatches, true);
+    }
+
+    private RealMatrix miniBatch(RealMatrix lk, int numBatches, boolean isKL) {
+
+        // ========================================
+        // Held out queries, stratified by class
+        Map<Integer, RealVector> heldOutPatterns = new HashMap<>();
+        Map<Integer, RealVector> trainingPatterns = new HashMap<>();
+        Map<Integer, String> trainingClasses = new HashMap<>();
+
+        Map<String, List<Integer>> classMembers
+                = LabelHandling.sortIntoMaps(mapOfClasses);
+        for (List<Integer> members : classMembers.values()) {
+            List<Integer> shuffled = new ArrayList<>(members);
+            shuffled.retainAll(mapOfPatterns.keySet());
+            Collections.shuffle(shuffled, rand);
+
+            int numHeldOut = (int) Math.round(HOLD_OUT_FRACTION * shuffled.size());
+            shuffled.subList(0, numHeldOut).forEach((idx)
+                    -> heldOutPatterns.put(idx, mapOfPatterns.get(idx)));
+            shuffled.subList(numHeldOut, shuffled.size()).forEach((idx) -> {
+                trainingPatterns.put(idx, mapOfPatterns.get(idx));
+                trainingClasses.put(idx, mapOfClasses.get(idx));
+            });
+        }
+
+        // Neighbors from the training patterns only
+        NCA_ScatterGradient scatterGradient
+                = new NCA_ScatterGradient(trainingPatterns, trainingClasses);
+
+        Map<Integer, RealVector> monitored = heldOutPatterns.isEmpty()
+                ? trainingPatterns : heldOutPatterns;
+
+        StandardTrainingImplementation batching
+                = new StandardTrainingImplementation(trainingClasses);
+        batching.setRand(rand);
+
+        // ========================================
+        // Optimizer state
+        int rows = lk.getRowDimension();
+        int columns = lk.getColumnDimension();
+        double[][] lkData = lk.getData();
+        double[][] firstMoment = new double[rows][columns];
+        double[][] secondMoment = new double[rows][columns];
+        int numSteps = 0;
+
+        RealMatrix bestLk = lk.copy();
+        double bestLoss = heldOutLoss(scatterGradient, lk, monitored, isKL);
+        int sinceBest = 0;
+
+        LOGGER.info("Mini-batch " + stochasticUpdate + ", held-out objective is to be minimized");
+
+        for (int epoch = 0; epoch < MAX_EPOCHS; epoch++) {
+
+            double learningRate = LEARNING_RATE / (1.0 + LEARNING_RATE_DECAY * epoch);
+
+            for (List<Integer> batch : batching.generateMiniBatches(numBatches)) {
+                if (batch.isEmpty()) {
+                    continue;
+                }
+
+                RealMatrix current = MatrixUtils.createRealMatrix(lkData);
+                double[][] gradient = (isKL
+                        ? scatterGradient.gradient_KL(current, batch)
+                        : scatterGradient.gradient(current, batch))
+                        .scalarMultiply(1.0 / batch.size()).getData();
+
+                numSteps++;
+                double correction_1 = 1.0 - Math.pow(ADAM_BETA_1, numSteps);
+                double correction_2 = 1.0 - Math.pow(ADAM_BETA_2, numSteps);
+
+                for (int idx = 0; idx < rows; idx++) {
+                    for (int jdx = 0; jdx < columns; jdx++) {
+                        double g = gradient[idx][jdx];
+
+                        if (stochasticUpdate == StochasticUpdate.ADAM) {
+                            firstMoment[idx][jdx] = ADAM_BETA_1 * firstMoment[idx][jdx]
+                                    + (1.0 - ADAM_BETA_1) * g;
+                            secondMoment[idx][jdx] = ADAM_BETA_2 * secondMoment[idx][jdx]
+                                    + (1.0 - ADAM_BETA_2) * g * g;
+
+                            lkData[idx][jdx] -= learningRate
+                                    * (firstMoment[idx][jdx] / correction_1)
+                                    / (Math.sqrt(secondMoment[idx][jdx] / correction_2)
+                                    + ADAM_EPSILON);
+                        } else {
+                            // velocity
+                            firstMoment[idx][jdx] = MOMENTUM * firstMoment[idx][jdx]
+                                    - learningRate * g;
+                            lkData[idx][jdx] += firstMoment[idx][jdx];
+                        }
+                    }
+                }
+            }
+
+            // ========================================
+            // Convergence on the held-out objective
+            RealMatrix current = MatrixUtils.createRealMatrix(lkData);
+            double loss = heldOutLoss(scatterGradient, current, monitored, isKL);
+
+            LOGGER.info("Epoch: " + epoch + "  Held-out Objective: " + loss);
+
+            if (loss < bestLoss - REL_ERROR * Math.abs(bestLoss)) {
+                bestLoss = loss;
+                bestLk = current;
+                sinceBest = 0;
+            } else if (++sinceBest >= PATIENCE) {
+                break;
+            }
+        }
+
+        return (bestLk.transpose()).multiply(bestLk);
+    }
+
+    /**
+     * Mean over the held-out queries, -p_i or -log(p_i)
+     */
+    private double heldOutLoss(NCA_ScatterGradient scatterGradient,
+            RealMatrix lk, Map<Integer, RealVector> heldOut, boolean isKL) {
+
+        double value = isKL
+                ? scatterGradient.value_KL(lk, heldOut, mapOfClasses)
+                : -scatterGradient.value(lk, heldOut, mapOfClasses);
+
+        return value / heldOut.size();
+    }
+
     private double generateBeta_BB(
             RealMatrix gradiantOfJwrtLMatrix, RealMatrix gradM_k,
             RealMatrix l_k, RealMatrix l_k_1) {
@@ -256,6 +451,71 @@ public class NeighbourhoodComponentsAnalysis {
     public void setREL_ERROR(double REL_ERROR) {
         this.REL_ERROR = REL_ERROR;
     }
+
+    /**
+     *
+     * @param stochasticUpdate momentum or Adam for the mini-batch training
+     */
+    public void setStochasticUpdate(StochasticUpdate stochasticUpdate) {
+        this.stochasticUpdate = stochasticUpdate;
+    }
+
+    /**
+     *
+     * @param LEARNING_RATE initial mini-batch step size
+     */
+    public void setLEARNING_RATE(double LEARNING_RATE) {
+        this.LEARNING_RATE = LEARNING_RATE;
+    }
+
+    /**
+     *
+     * @param LEARNING_RATE_DECAY inverse time decay per epoch
+     */
+    public void setLEARNING_RATE_DECAY(double LEARNING_RATE_DECAY) {
+        this.LEARNING_RATE_DECAY = LEARNING_RATE_DECAY;
+    }
+
+    /**
+     *
+     * @param MOMENTUM velocity retained per step
+     */
+    public void setMOMENTUM(double MOMENTUM) {
+        this.MOMENTUM = MOMENTUM;
+    }
+
+    /**
+     *
+     * @param HOLD_OUT_FRACTION fraction of each class held out for
+     * convergence
+     */
+    public void setHOLD_OUT_FRACTION(double HOLD_OUT_FRACTION) {
+        this.HOLD_OUT_FRACTION = HOLD_OUT_FRACTION;
+    }
+
+    /**
+     *
+     * @param MAX_EPOCHS
+     */
+    public void setMAX_EPOCHS(int MAX_EPOCHS) {
+        this.MAX_EPOCHS = MAX_EPOCHS;
+    }
+
+    /**
+     *
+     * @param PATIENCE epochs without held-out improvement before stopping
+     */
+    public void setPATIENCE(int PATIENCE) {
+        this.PATIENCE = PATIENCE;
+    }
+
+    /**
+     *
+     * @param rand
+     */
+    public void setRand(Random rand) {
+        this.rand = rand;
+    }
     
     
     
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning.pmml;
+
+import fit.astro.vsa.utilities.ml.PackedDistanceMatrix;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * The sample pairs of PMML, each identified by its index in the packed upper
+ * triangle (PackedDistanceMatrix order). Every pair is taken from index
+ * arithmetic without being stored, or a sample stratified by same and
+ * different class is kept as a sorted array of packed indices.
+ * <p>
+ * Positions index the samples, pairs are numbered 0 to size() - 1.
+ *
+ * @author Kyle Johnston
+ */
+public class PMMLPairs {
+
+    private final int[] classIndex;
+
+    // Null for every pair
+    private final long[] sampled;
+
+    /**
+     * Every pair
+     *
+     * @param classIndex class of each position
+     */
+    public PMMLPairs(int[] classIndex) {
+        this(classIndex, null);
+    }
+
+    private PMMLPairs(int[] classIndex, long[] sampled) {
+        this.classIndex = classIndex;
+        this.sampled = sampled;
+    }
+
+    /**
+     * Pairs drawn without replacement within each stratum, a stratum with
+     * fewer pairs than requested is taken whole
+     *
+     * @param classIndex class of each position
+     * @param numSimilar pairs of the same class
+     * @param numDissimilar pairs of different classes
+     * @param rand
+     * @return
+     */
+    public static PMMLPairs stratified(int[] classIndex, int numSimilar,
+            int numDissimilar, Random rand) {
+
+        int numSamples = classIndex.length;
+
+        // ========================================
+        // Positions of each class
+        int numClasses = Arrays.stream(classIndex).max().orElse(-1) + 1;
+        int[] counts = new int[numClasses];
+        for (int label : classIndex) {
+            counts[label]++;
+        }
+        int[][] members = new int[numClasses][];
+        for (int cdx = 0; cdx < numClasses; cdx++) {
+            members[cdx] = new int[counts[cdx]];
+            counts[cdx] = 0;
+        }
+        for (int idx = 0; idx < numSamples; idx++) {
+            members[classIndex[idx]][counts[classIndex[idx]]++] = idx;
+        }
+
+        long totalSimilar = Arrays.stream(members).mapToLong((member)
+                -> PackedDistanceMatrix.packedSize(member.length)).sum();
+        long totalDissimilar = PackedDistanceMatrix.packedSize(numSamples) - totalSimilar;
+
+        // ========================================
+        // Same class
+        long[] similar;
+        if (numSimilar >= totalSimilar) {
+            similar = enumerate(classIndex, (int) totalSimilar, true);
+        } else {
+            similar = drawUnique(numSimilar, () -> {
+                long pair = nextLong(rand, totalSimilar);
+                int cdx = 0;
+                while (pair >= PackedDistanceMatrix.packedSize(members[cdx].length)) {
+                    pair -= PackedDistanceMatrix.packedSize(members[cdx].length);
+                    cdx++;
+                }
+                int[] member = members[cdx];
+                int row = PackedDistanceMatrix.packedRow(member.length, pair);
+                int column = PackedDistanceMatrix.packedColumn(member.length, row, pair);
+                return PackedDistanceMatrix.packedIndex(numSamples,
+                        member[row], member[column]);
+            });
+        }
+
+        // ========================================
+        // Different classes, by rejection
+        long[] dissimilar;
+        if (numDissimilar >= totalDissimilar) {
+            dissimilar = enumerate(classIndex, (int) totalDissimilar, false);
+        } else {
+            long totalPairs = PackedDistanceMatrix.packedSize(numSamples);
+            dissimilar = drawUnique(numDissimilar, () -> {
+                while (true) {
+                    long pair = nextLong(rand, totalPairs);
+                    int row = PackedDistanceMatrix.packedRow(numSamples, pair);
+                    int column = PackedDistanceMatrix.packedColumn(numSamples, row, pair);
+                    if (classIndex[row] != classIndex[column]) {
+                        return pair;
+                    }
+                }
+            });
+        }
+
+        long[] sampled = Arrays.copyOf(similar, similar.length + dissimilar.length);
+        System.arraycopy(dissimilar, 0, sampled, similar.length, dissimilar.length);
+        Arrays.sort(sampled);
+
+        return new PMMLPairs(classIndex, sampled);
+    }
+
+    /**
+     * @return number of pairs
+     */
+    public long size() {
+        return (sampled == null)
+                ? PackedDistanceMatrix.packedSize(classIndex.length) : sampled.length;
+    }
+
+    /**
+     *
+     * @param rand
+     * @return a pair, uniformly
+     */
+    public long sample(Random rand) {
+        return nextLong(rand, size());
+    }
+
+    /**
+     *
+     * @param pair
+     * @return index of the pair in the packed upper triangle
+     */
+    public long packedIndex(long pair) {
+        return (sampled == null) ? pair : sampled[(int) pair];
+    }
+
+    /**
+     *
+     * @param pair
+     * @return smaller position of the pair
+     */
+    public int first(long pair) {
+        return PackedDistanceMatrix.packedRow(classIndex.length, packedIndex(pair));
+    }
+
+    /**
+     *
+     * @param pair
+     * @return larger position of the pair
+     */
+    public int second(long pair) {
+        long packed = packedIndex(pair);
+        return PackedDistanceMatrix.packedColumn(classIndex.length,
+                PackedDistanceMatrix.packedRow(classIndex.length, packed), packed);
+    }
+
+    /**
+     *
+     * @param pair
+     * @return true if both samples have the same class
+     */
+    public boolean isSimilar(long pair) {
+        long packed = packedIndex(pair);
+        int row = PackedDistanceMatrix.packedRow(classIndex.length, packed);
+        return classIndex[row]
+                == classIndex[PackedDistanceMatrix.packedColumn(classIndex.length, row, packed)];
+    }
+
+    // ================================================================
+    private static long nextLong(Random rand, long bound) {
+
+        if (bound <= Integer.MAX_VALUE) {
+            return rand.nextInt((int) bound);
+        }
+        return Math.min(bound - 1, (long) (rand.nextDouble() * bound));
+    }
+
+    private static long[] drawUnique(int count, LongSupplier draw) {
+
+        long[] pairs = new long[count];
+        int filled = 0;
+        while (filled < count) {
+            for (int idx = filled; idx < count; idx++) {
+                pairs[idx] = draw.getAsLong();
+            }
+            Arrays.sort(pairs);
+
+            filled = 0;
+            for (int idx = 0; idx < count; idx++) {
+                if (idx == 0 || pairs[idx] != pairs[filled - 1]) {
+                    pairs[filled++] = pairs[idx];
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private static long[] enumerate(int[] classIndex, int count, boolean isSameClass) {
+
+        long[] pairs = new long[count];
+        int filled = 0;
+        for (int row = 0; row < classIndex.length; row++) {
+            for (int column = row + 1; column < classIndex.length; column++) {
+                if ((classIndex[row] == classIndex[column]) == isSameClass) {
+                    pairs[filled++] = PackedDistanceMatrix.packedIndex(
+                            classIndex.length, row, column);
+                }
+            }
+        }
+        return pairs;
+    }
+}
@@ -16,26 +16,25 @@
  */
 package fit.astro.vsa.utilities.ml.metriclearning.pmml;
 
-import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric;
-import java.util.Map;
 import org.apache.commons.math3.linear.LUDecomposition;
-import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
+ * PMML objective, kept current under the updates of the engine: the
+ * regularization of each view through its trace and log determinant, the
+ * margin constraint through the running sum of the losses of the pairs. A
+ * pair that was never updated has zero loss.
  *
  * @author kjohnston
  */
 public class PMML_MetricLearningObjective {
 
-    private static final Logger LOGGER
-            = LoggerFactory.getLogger(PMML_MetricLearningObjective.class);
-    
-    private final Map<int[], Double> del_ijs;
+    private final long numPairs;
+
+    private final double[] trace;
+    private final double[] logDet;
+    private final int[] dimension;
 
-    private double sumLogDet;
     private double sumij;
 
     // 
@@ -45,68 +44,68 @@ public class PMML_MetricLearningObjective {
 
     /**
      *
-     * @param del_ijs
+     * @param numPairs
+     * @param numViews
+     */
+    public PMML_MetricLearningObjective(long numPairs, int numViews) {
+        this.numPairs = numPairs;
+        this.trace = new double[numViews];
+        this.logDet = new double[numViews];
+        this.dimension = new int[numViews];
+    }
+
+    /**
+     * Regularization of a view from its metric, the prior is the identity
+     *
+     * @param view
+     * @param mk
      */
-    public PMML_MetricLearningObjective(
-            Map<int[], Double> del_ijs) {
-        this.del_ijs = del_ijs;
+    public void setView(int view, RealMatrix mk) {
+        trace[view] = mk.getTrace();
+        logDet[view] = Math.log(new LUDecomposition(mk).getDeterminant());
+        dimension[view] = mk.getRowDimension();
     }
 
-    public double estimateObjective(
-            Map<int[], Double> eta_ijs,
-            Map<String, MultiViewMetric> pmmlVariables) {
+    /**
+     * After mk + mu p p'
+     *
+     * @param view
+     * @param traceChange mu p'p
+     * @param logDetChange log(1 + mu p' mk^-1 p)
+     */
+    public void updateView(int view, double traceChange, double logDetChange) {
+        trace[view] += traceChange;
+        logDet[view] += logDetChange;
+    }
+
+    /**
+     *
+     * @param etaOld
+     * @param etaNew
+     * @param del 1 for the same class, -1 otherwise
+     */
+    public void updatePair(double etaOld, double etaNew, double del) {
+        sumij += lossFunction(etaNew, del * rho - tau)
+                - lossFunction(etaOld, del * rho - tau);
+    }
+
+    /**
+     * @return the objective
+     */
+    public double getObjective() {
 
         //======================================================
         // Log Det Component (Regularization)
-        sumLogDet = 0;
-        for (String view : pmmlVariables.keySet()) {
-            
-            // 
-            RealMatrix mk = pmmlVariables.get(view).getMk();
-
-            RealMatrix mk_0 = MatrixUtils.createRealIdentityMatrix(
-                    mk.getRowDimension()).scalarMultiply(1e0);
-
-            
-//            sumLogDet += (mk.subtract(mk_0)).getFrobeniusNorm();
-            
-            //
-            RealMatrix mk_0_inv = new LUDecomposition(mk_0).getSolver().getInverse();
-
-            RealMatrix mTimesm0 = mk.multiply(mk_0_inv);
-            
-            double trace = (mTimesm0).getTrace();
-
-//            CholeskyDecomposition choDecomp = new CholeskyDecomposition(mTimesm0);
-//            
-//            RealMatrix lDecomp = choDecomp.getL();
-//            double logDet = 0.0;
-//            for(int idx = 0; idx < lDecomp.getColumnDimension(); idx++){
-//                logDet += Math.log(lDecomp.getEntry(idx, idx));
-//            }
-//            logDet = logDet*2;
-            
-            double det = new LUDecomposition(mTimesm0).getDeterminant();
-            double logDet = Math.log(det);
-
-            sumLogDet += trace - logDet - mk.getRowDimension();
+        double sumLogDet = 0;
+        for (int view = 0; view < trace.length; view++) {
+            sumLogDet += trace[view] - logDet[view] - dimension[view];
         }
 
-        double firstElement = sumLogDet / (double) pmmlVariables.keySet().size();
-        
+        double firstElement = sumLogDet / (double) trace.length;
+
         //======================================================
         // Margin Constraint
-        sumij = 0;
-        for (int[] idx : del_ijs.keySet()) {
-
-            double eta = eta_ijs.get(idx);
-            double del = del_ijs.get(idx);
-
-            sumij += lossFunction(eta, del * rho - tau);
-        }
-        
-        return firstElement + (gamma / (double) del_ijs.size()) * sumij;
-
+        return firstElement + (gamma / (double) numPairs) * sumij;
     }
 
     private double lossFunction(double x, double x_0) {
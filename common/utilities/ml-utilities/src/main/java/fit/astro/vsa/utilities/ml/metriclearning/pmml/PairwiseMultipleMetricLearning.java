@@ -18,8 +18,8 @@ package fit.astro.vsa.utilities.ml.metriclearning.pmml;
 
 import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -27,9 +27,7 @@ import java.util.Set;
 import org.apache.commons.math3.analysis.UnivariateFunction;
 import org.apache.commons.math3.analysis.solvers.BrentSolver;
 import org.apache.commons.math3.linear.MatrixUtils;
-import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
-import org.apache.commons.math3.util.CombinatoricsUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +36,12 @@ import org.slf4j.LoggerFactory;
  * region descriptors via multiple metric learning for face recognition in the
  * wild. In Proceedings of the IEEE Conference on Computer Vision and Pattern
  * Recognition (pp. 3554-3561).
+ * <p>
+ * The pairs are taken by their packed index (PMMLPairs), every pair or a
+ * sample stratified by class, and only the pairs updated so far keep their
+ * eta and nu, in primitive arrays. A step does not depend on the number of
+ * pairs: the metrics are updated in place by their rank one change and the
+ * objective follows from the change of the updated pair and views.
  *
  * @author Kyle Johnston
  */
@@ -54,6 +58,9 @@ public class PairwiseMultipleMetricLearning {
     private Random rand = new Random();
     private int MAX_ITER = Integer.MAX_VALUE;
 
+    // Zero for every pair
+    private int NUM_PAIRS = 0;
+
     // ====================================================================
     // Convergence
     private double REL_ERROR = 1e-7;
@@ -81,54 +88,53 @@ public class PairwiseMultipleMetricLearning {
      */
     public Map<String, MultiViewMetric> execute(double tau, double rho, double gamma) {
 
-        Map<String, RealVector> startingSet = mapOfPatterns.values().iterator()
-                .next();
-
-        //======================================================
-        // Initialize L Matrix (Covariance Matrix for) to the identity matrix
-        Map<String, MultiViewMetric> pmmlVariables = new HashMap<>();
-
-        for (String idx : features) {
-            RealMatrix mk = MatrixUtils.createRealIdentityMatrix(
-                    startingSet.get(idx).getDimension()).scalarMultiply(0.001);
+        List<String> views = new ArrayList<>(features);
+        int numViews = views.size();
 
-            pmmlVariables.put(idx, new MultiViewMetric(mk, 1.0 / (double) features.size()));
-        }
+        int[] ids = mapOfPatterns.keySet().stream()
+                .mapToInt(Integer::intValue).sorted().toArray();
 
-        //
-        List<Integer> indexValues = new ArrayList<>(mapOfPatterns.keySet());
-        Iterator<int[]> comboIter = CombinatoricsUtils
-                .combinationsIterator(indexValues.size(), 2);
-
-        //
-        Map<int[], Double> eta_ijs = new HashMap<>();
-        Map<int[], Double> nu_ijs = new HashMap<>();
-        Map<int[], Double> del_ijs = new HashMap<>();
-
-        while (comboIter.hasNext()) {
-            int[] arrayOfIdx = comboIter.next();
-
-            double del_ij;
-            if (mapOfClasses.get(indexValues.get(arrayOfIdx[0])).equalsIgnoreCase(
-                    mapOfClasses.get(indexValues.get(arrayOfIdx[1])))) {
-                del_ij = 1.0;
-            } else {
-                del_ij = -1.0;
+        //======================================================
+        // Patterns and classes by position
+        double[][][] patterns = new double[numViews][ids.length][];
+        int[] classIndex = new int[ids.length];
+
+        Map<String, Integer> labels = new HashMap<>();
+        for (int idx = 0; idx < ids.length; idx++) {
+            for (int vdx = 0; vdx < numViews; vdx++) {
+                patterns[vdx][idx] = mapOfPatterns.get(ids[idx])
+                        .get(views.get(vdx)).toArray();
             }
-            // fixed
-            del_ijs.put(arrayOfIdx, del_ij);
-            // initialization
-            eta_ijs.put(arrayOfIdx, del_ij * rho - tau);
-            // initialization
-            nu_ijs.put(arrayOfIdx, 0.0);
+            String label = mapOfClasses.get(ids[idx]).toLowerCase();
+            if (!labels.containsKey(label)) {
+                labels.put(label, labels.size());
+            }
+            classIndex[idx] = labels.get(label);
         }
 
+        PMMLPairs pairs = (NUM_PAIRS > 0)
+                ? PMMLPairs.stratified(classIndex, NUM_PAIRS / 2,
+                        NUM_PAIRS - NUM_PAIRS / 2, rand)
+                : new PMMLPairs(classIndex);
+
+        //======================================================
+        // Initialize L Matrix (Covariance Matrix for) to the identity matrix
+        double[][][] metrics = new double[numViews][][];
+
         PMML_MetricLearningObjective learningObjective
-                = new PMML_MetricLearningObjective(del_ijs);
+                = new PMML_MetricLearningObjective(pairs.size(), numViews);
         learningObjective.setGamma(gamma);
         learningObjective.setRho(rho);
         learningObjective.setTau(tau);
 
+        for (int vdx = 0; vdx < numViews; vdx++) {
+            metrics[vdx] = MatrixUtils.createRealIdentityMatrix(
+                    patterns[vdx][0].length).scalarMultiply(0.001).getData();
+            learningObjective.setView(vdx, MatrixUtils.createRealMatrix(metrics[vdx]));
+        }
+
+        PairState pairState = new PairState();
+
         //======================================================
         // Initialization
         double jt = 0;
@@ -136,68 +142,71 @@ public class PairwiseMultipleMetricLearning {
         LOGGER.info("Objective Function is to be minimized");
         LOGGER.info("Every Other Step Logged");
 
-        List<int[]> keySet = new ArrayList<>(del_ijs.keySet());
-
         double n2gamma = (double) mapOfPatterns.size() / (2.0 * gamma);
 
+        double[][] deltaij = new double[numViews][];
+        double[][] projected = new double[numViews][];
+        double[] dij = new double[numViews];
+
         for (int idx = 0; idx < MAX_ITER; idx++) {
 
             // ================================================
             // Step 1 Random Selection of ij
-            int[] randKey_i = keySet.get(rand.nextInt(keySet.size()));
+            long pair = pairs.sample(rand);
 
-            Map<String, RealVector> x_i = mapOfPatterns.get(indexValues.get(randKey_i[0]));
-            Map<String, RealVector> x_j = mapOfPatterns.get(indexValues.get(randKey_i[1]));
+            int first = pairs.first(pair);
+            int second = pairs.second(pair);
+            double del = pairs.isSimilar(pair) ? 1.0 : -1.0;
 
-            if (!testMargin(pmmlVariables, x_i, x_j,
-                    del_ijs.get(randKey_i), tau, rho)) {
+            double sum = 0;
+            for (int vdx = 0; vdx < numViews; vdx++) {
+                deltaij[vdx] = subtract(patterns[vdx][first], patterns[vdx][second]);
+                projected[vdx] = operate(metrics[vdx], deltaij[vdx]);
+                dij[vdx] = dotProduct(deltaij[vdx], projected[vdx]);
+                sum += dij[vdx];
+            }
+
+            if (!((del * sum) / (double) numViews > (del * rho - tau))) {
                 continue;
             }
 
+            int slot = pairState.slot(pair, del * rho - tau);
+            double eta = pairState.eta[slot];
+
             // ================================================
             // Step 2 Dynamic Estimation of Beta
-            AlphaFunction af = new AlphaFunction(pmmlVariables, x_i, x_j,
-                    eta_ijs.get(randKey_i),
-                    del_ijs.get(randKey_i), n2gamma);
+            AlphaFunction af = new AlphaFunction(dij, eta, del, n2gamma);
 
             BrentSolver optimizer = new BrentSolver(REL_ERROR, 1e-8);
             double alphaK = optimizer.solve(100,
                     af, -100.0, 100.0);
 
-            alphaK = Math.min(alphaK, nu_ijs.get(randKey_i));
+            alphaK = Math.min(alphaK, pairState.nu[slot]);
 
-            double updateNu = nu_ijs.get(randKey_i) - alphaK;
-            nu_ijs.put(randKey_i, updateNu);
+            pairState.nu[slot] = pairState.nu[slot] - alphaK;
 
             // ================================================
-            // Step 3 Update Lk
-            for (String kdx : features) {
-
-                RealVector deltaij = x_i.get(kdx).subtract(x_j.get(kdx));
-
-                RealMatrix mk = pmmlVariables.get(kdx).getMk();
-                double dij = deltaij.dotProduct(mk.operate(deltaij));
-                double del = del_ijs.get(randKey_i);
+            // Step 3 Update Lk, mk + mu (mk d)(mk d)'
+            for (int vdx = 0; vdx < numViews; vdx++) {
 
-                double mu = (del * alphaK) / (1 - del * alphaK * dij);
+                double mu = (del * alphaK) / (1 - del * alphaK * dij[vdx]);
 
-                RealMatrix mk_t = pmmlVariables.get(kdx).getMk();
+                addOuterProduct(metrics[vdx], projected[vdx], mu);
 
-                RealMatrix mk_t1 = mk_t.add((mk_t.multiply(deltaij.outerProduct(deltaij))
-                        .multiply(mk_t))
-                        .scalarMultiply(mu));
-
-                pmmlVariables.put(kdx, new MultiViewMetric(mk_t1, 1.0 / (double) features.size()));
+                learningObjective.updateView(vdx,
+                        mu * dotProduct(projected[vdx], projected[vdx]),
+                        Math.log1p(mu * dij[vdx]));
             }
 
             // ================================================
             // Step 4 Update eta
-            double etaTmp = eta_ijs.get(randKey_i) - n2gamma * alphaK;
-            eta_ijs.put(randKey_i, etaTmp);
-            
+            double etaTmp = eta - n2gamma * alphaK;
+            pairState.eta[slot] = etaTmp;
+            learningObjective.updatePair(eta, etaTmp, del);
+
             // ================================================
             // estimate delta opt change
-            double jt_1 = learningObjective.estimateObjective(eta_ijs, pmmlVariables);
+            double jt_1 = learningObjective.getObjective();
 
             double delta = Math.abs(jt_1 - jt);
 
@@ -212,6 +221,13 @@ public class PairwiseMultipleMetricLearning {
             jt = jt_1;
         }
 
+        Map<String, MultiViewMetric> pmmlVariables = new HashMap<>();
+        for (int vdx = 0; vdx < numViews; vdx++) {
+            pmmlVariables.put(views.get(vdx), new MultiViewMetric(
+                    MatrixUtils.createRealMatrix(metrics[vdx]),
+                    1.0 / (double) numViews));
+        }
+
         return pmmlVariables;
     }
 
@@ -239,14 +255,22 @@ public class PairwiseMultipleMetricLearning {
         this.REL_ERROR = REL_ERROR;
     }
 
+    /**
+     * Pairs sampled, half of the same class and half of different classes;
+     * zero (default) for every pair
+     *
+     * @param NUM_PAIRS
+     */
+    public void setNUM_PAIRS(int NUM_PAIRS) {
+        this.NUM_PAIRS = NUM_PAIRS;
+    }
+
     /**
      *
      */
     private static class AlphaFunction implements UnivariateFunction {
 
-        private final Map<String, MultiViewMetric> metrics;
-        private final Map<String, RealVector> x_i;
-        private final Map<String, RealVector> x_j;
+        private final double[] dij;
 
         private final double eta_ij;
         private final double del_ij;
@@ -254,19 +278,14 @@ public class PairwiseMultipleMetricLearning {
 
         /**
          *
-         * @param metrics
-         * @param x_i
-         * @param x_j
+         * @param dij distance of the pair in each view
          * @param eta_ij
          * @param del_ij
          * @param n2gamma
          */
-        public AlphaFunction(Map<String, MultiViewMetric> metrics,
-                Map<String, RealVector> x_i, Map<String, RealVector> x_j,
+        public AlphaFunction(double[] dij,
                 double eta_ij, double del_ij, double n2gamma) {
-            this.metrics = metrics;
-            this.x_i = x_i;
-            this.x_j = x_j;
+            this.dij = dij;
             this.eta_ij = eta_ij;
             this.del_ij = del_ij;
             this.n2gamma = n2gamma;
@@ -277,32 +296,124 @@ public class PairwiseMultipleMetricLearning {
 
             double sum = 0;
 
-            for (String view : metrics.keySet()) {
-                RealVector deltaij = x_i.get(view).subtract(x_j.get(view));
-                RealMatrix mk = metrics.get(view).getMk();
-                double dij = deltaij.dotProduct(mk.operate(deltaij));
+            for (double distance : dij) {
+                sum += distance / (1.0 - del_ij * alpha * distance);
+            }
+
+            return (del_ij * sum) / (double) dij.length - (eta_ij - n2gamma * alpha);
+        }
 
-                sum += dij / (1.0 - del_ij * alpha * dij);
+    }
+
+    /**
+     * eta and nu of the updated pairs, open addressing on the pair
+     */
+    private static class PairState {
+
+        private long[] keys = emptyKeys(64);
+        private double[] eta = new double[64];
+        private double[] nu = new double[64];
+        private int size = 0;
+
+        /**
+         *
+         * @param pair
+         * @param etaStart eta of a pair not updated yet, its nu is zero
+         * @return slot of the pair
+         */
+        int slot(long pair, double etaStart) {
+
+            if (2 * (size + 1) > keys.length) {
+                grow();
+            }
+
+            int slot = find(keys, pair);
+            if (keys[slot] != pair) {
+                keys[slot] = pair;
+                eta[slot] = etaStart;
+                nu[slot] = 0.0;
+                size++;
+            }
+            return slot;
+        }
+
+        private void grow() {
+
+            long[] oldKeys = keys;
+            double[] oldEta = eta;
+            double[] oldNu = nu;
+
+            keys = emptyKeys(2 * oldKeys.length);
+            eta = new double[keys.length];
+            nu = new double[keys.length];
+
+            for (int idx = 0; idx < oldKeys.length; idx++) {
+                if (oldKeys[idx] >= 0) {
+                    int slot = find(keys, oldKeys[idx]);
+                    keys[slot] = oldKeys[idx];
+                    eta[slot] = oldEta[idx];
+                    nu[slot] = oldNu[idx];
+                }
             }
+        }
+
+        private static int find(long[] keys, long pair) {
+
+            int mask = keys.length - 1;
+            int slot = Long.hashCode(pair * 0x9E3779B97F4A7C15L) & mask;
+            while (keys[slot] >= 0 && keys[slot] != pair) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private static long[] emptyKeys(int length) {
+            long[] keys = new long[length];
+            Arrays.fill(keys, -1L);
+            return keys;
+        }
+    }
+
+    // ================================================================
+    private static double[] subtract(double[] x_i, double[] x_j) {
 
-            return (del_ij * sum) / (double) metrics.keySet().size() - (eta_ij - n2gamma * alpha);
+        double[] delta = new double[x_i.length];
+        for (int idx = 0; idx < delta.length; idx++) {
+            delta[idx] = x_i[idx] - x_j[idx];
         }
+        return delta;
+    }
+
+    private static double[] operate(double[][] mk, double[] delta) {
 
+        double[] product = new double[mk.length];
+        for (int idx = 0; idx < mk.length; idx++) {
+            product[idx] = dotProduct(mk[idx], delta);
+        }
+        return product;
     }
 
-    private boolean testMargin(Map<String, MultiViewMetric> metrics,
-            Map<String, RealVector> x_i, Map<String, RealVector> x_j,
-            double del_ij, double tau, double rho) {
+    private static double dotProduct(double[] a, double[] b) {
 
         double sum = 0;
-        for (String view : metrics.keySet()) {
-            RealVector deltaij = x_i.get(view).subtract(x_j.get(view));
-            RealMatrix mk = metrics.get(view).getMk();
-            double dij = deltaij.dotProduct(mk.operate(deltaij));
+        for (int idx = 0; idx < a.length; idx++) {
+            sum += a[idx] * b[idx];
+        }
+        return sum;
+    }
 
-            sum += dij;
+    /**
+     * mk + mu p p', upper triangle mirrored to keep mk symmetric
+     */
+    private static void addOuterProduct(double[][] mk, double[] p, double mu) {
+
+        for (int idx = 0; idx < p.length; idx++) {
+            double scaled = mu * p[idx];
+            for (int jdx = idx; jdx < p.length; jdx++) {
+                mk[idx][jdx] += scaled * p[jdx];
+                mk[jdx][idx] = mk[idx][jdx];
+            }
         }
-        return ((del_ij * sum) / (double) metrics.keySet().size()) > (del_ij * rho - tau);
     }
 
 }
@@ -16,6 +16,7 @@
  */
 package fit.astro.vsa.utilities.ml.training;
 
+import fit.astro.vsa.common.datahandling.training.CrossValidationExecutor;
 import fit.astro.vsa.common.datahandling.training.TrainCrossData;
 import fit.astro.vsa.common.datahandling.training.TrainCrossGenerator;
 import fit.astro.vsa.common.bindings.analysis.MatrixVariateTransform;
@@ -33,10 +34,14 @@ import fit.astro.vsa.common.datahandling.LabelHandling;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
@@ -90,7 +95,7 @@ public class StandardTrainingImplementation {
 
         //=========================================================
         // batch split
-        int size = trainingData.size() / numBatches;
+        int size = (trainingData.size() + numBatches - 1) / numBatches;
         Iterator<Integer> iterTraining = trainingData.iterator();
         for (int i = 0; i < numBatches; i++) {
             List<Integer> idxSet = new ArrayList<>();
@@ -99,11 +104,11 @@ public class StandardTrainingImplementation {
             while (iterTraining.hasNext()) {
                 idxSet.add(iterTraining.next());
                 counter++;
-                if (counter > size) {
+                if (counter == size) {
                     break;
                 }
             }
-            miniBatchIdx.add(i, idxSet);
+            miniBatchIdx.set(i, idxSet);
         }
 
         return miniBatchIdx;
@@ -131,16 +136,24 @@ public class StandardTrainingImplementation {
             MatrixVariateTransform transform) throws NotEnoughDataException {
 
         // ============================================================
-        // CV and Error Estimates 
-        double errorProbMeanKNN = 0;
+        // Generate the Variates once, every fold below reuses them
+        Map<Integer, RealMatrix> setOfVariates = inputData.keySet()
+                .parallelStream()
+                .collect(Collectors.toMap(Function.identity(),
+                        (idx) -> transform.evaluate(inputData.get(idx))));
 
         // ============================================================
         // CV and Error Estimates 
-        for (Integer jdx : trainCrossGenerator.getCrossvalMap().keySet()) {
+        CrossValidationExecutor executor = new CrossValidationExecutor(
+                trainCrossGenerator.getCrossvalMap());
+        executor.setRand(rand);
+
+        RealMatrix errorProbMeanKNN = executor.execute((jdx, foldRand) -> {
 
             // ========================================================
             // Data Wrangling
-            List<Integer> trainingList = trainCrossGenerator.getCrossvalMap().get(jdx);
+            Set<Integer> trainingSet = new HashSet<>(
+                    trainCrossGenerator.getCrossvalMap().get(jdx));
 
             // Cycle Over Classes Create Mean for Class
             Map<String, RealMatrix> meanMatrixSet = new HashMap<>();
@@ -153,16 +166,11 @@ public class StandardTrainingImplementation {
                 int counter = 0;
                 for (Integer idx : classMembers.get(e)) {
 
-                    if (!trainingList.contains(idx)) {
+                    if (!trainingSet.contains(idx)) {
                         continue;
                     }
 
-                    Real2DCurve input = inputData.get(idx);
-
-                    // Generate the MC 
-                    RealMatrix matrixVar = transform.evaluate(input);
-
-                    meanMatrix = meanMatrix.add(matrixVar);
+                    meanMatrix = meanMatrix.add(setOfVariates.get(idx));
                     counter++;
                 }
 
@@ -188,13 +196,11 @@ public class StandardTrainingImplementation {
             Map<Integer, RealVector> featureSpace = new HashMap<>();
             for (Integer idx : inputData.keySet()) {
 
-                Real2DCurve input = inputData.get(idx);
-
                 // Estimate Time Domain Averages
                 List<Double> pattern = new ArrayList<>();
 
-                // Generate the VAriate 
-                RealMatrix variate = transform.evaluate(input);
+                // Grab the Variate 
+                RealMatrix variate = setOfVariates.get(idx);
 
                 for (String e : meanMatrixSet.keySet()) {
 
@@ -228,10 +234,10 @@ public class StandardTrainingImplementation {
                             classificationResultKNN,
                             tcd.getSetOfCrossvalClasses());
 
-            errorProbMeanKNN += errorKNN / (double) trainCrossGenerator.getCrossvalMap().size();
+            return MatrixUtils.createRealMatrix(new double[][]{{errorKNN}});
+        });
 
-        }
-        return new ArrayRealVector(new double[]{errorProbMeanKNN});
+        return new ArrayRealVector(errorProbMeanKNN.getRow(0));
 
     }
 
@@ -255,10 +261,6 @@ public class StandardTrainingImplementation {
     public RealVector execute_ClassIndependent(Map<Integer, RealMatrix> featureSpace,
             TrainCrossGenerator trainCrossGenerator) throws NotEnoughDataException {
 
-        // ============================================================
-        // CV and Error Estimates 
-        double errorProbMeanKNN = 0;
-
         KMeansMatrixClustering kmmc
                 = new KMeansMatrixClustering(featureSpace);
 
@@ -284,8 +286,13 @@ public class StandardTrainingImplementation {
             featureSpaceVector.put(idx, distVector);
         }
 
-        // Cross Validation
-        for (Integer idx : trainCrossGenerator.getCrossvalMap().keySet()) {
+        // ============================================================
+        // CV and Error Estimates 
+        CrossValidationExecutor executor = new CrossValidationExecutor(
+                trainCrossGenerator.getCrossvalMap());
+        executor.setRand(rand);
+
+        RealMatrix errorProbMeanKNN = executor.execute((idx, foldRand) -> {
 
             // ========================================================
             // Data Wrangling
@@ -314,13 +321,10 @@ public class StandardTrainingImplementation {
                             classificationResultKNN,
                             tcdMatrix.getSetOfCrossvalClasses());
 
-            errorProbMeanKNN += errorKNN / (double) trainCrossGenerator.getCrossvalMap().size();
-
-            // ========================================================
-        }
+            return MatrixUtils.createRealMatrix(new double[][]{{errorKNN}});
+        });
 
-        return new ArrayRealVector(
-                new double[]{errorProbMeanKNN});
+        return new ArrayRealVector(errorProbMeanKNN.getRow(0));
 
     }
 
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.utils;
+
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Projection onto the PSD cone for iterative learners, where the metric moves
+ * a little per step. A positive definite input, found by a Cholesky
+ * factorization, is returned as is. Otherwise the input is rotated into the
+ * eigenvectors of the last decomposition and diagonalized by cyclic Jacobi
+ * sweeps, a few when the metric has changed little. The projection removes
+ * the negative eigenpairs only, M - sum_k lambda_k v_k v_k'.
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class PSDProjection {
+
+    private static final double EPSILON = 1e-15;
+
+    private int MAX_SWEEPS = 100;
+
+    // Eigenvectors of the last decomposition, as columns
+    private double[][] basis;
+
+    // Removed by the last projection
+    private double[] negativeValues = new double[0];
+    private double[][] negativeVectors = new double[0][];
+
+    /**
+     *
+     * @param mk symmetric
+     * @return the nearest PSD matrix in Frobenius norm
+     */
+    public RealMatrix project(RealMatrix mk) {
+
+        int D = mk.getRowDimension();
+
+        double[][] m = new double[D][D];
+        for (int idx = 0; idx < D; idx++) {
+            for (int jdx = idx; jdx < D; jdx++) {
+                m[idx][jdx] = 0.5 * (mk.getEntry(idx, jdx) + mk.getEntry(jdx, idx));
+                m[jdx][idx] = m[idx][jdx];
+            }
+        }
+
+        if (isPositiveDefinite(m)) {
+            negativeValues = new double[0];
+            negativeVectors = new double[0][];
+            return MatrixUtils.createRealMatrix(m);
+        }
+
+        double[] eigenvalues = decompose(m);
+
+        // ========================================
+        // Negative eigenpairs
+        int numNegative = 0;
+        for (double eigenvalue : eigenvalues) {
+            if (eigenvalue < 0) {
+                numNegative++;
+            }
+        }
+
+        negativeValues = new double[numNegative];
+        negativeVectors = new double[numNegative][D];
+
+        int kdx = 0;
+        for (int col = 0; col < D; col++) {
+            if (eigenvalues[col] < 0) {
+                negativeValues[kdx] = eigenvalues[col];
+                for (int row = 0; row < D; row++) {
+                    negativeVectors[kdx][row] = basis[row][col];
+                }
+                kdx++;
+            }
+        }
+
+        // ========================================
+        // M - sum_k lambda_k v_k v_k', upper triangle mirrored
+        for (kdx = 0; kdx < numNegative; kdx++) {
+            double[] v = negativeVectors[kdx];
+            for (int idx = 0; idx < D; idx++) {
+                double scaled = negativeValues[kdx] * v[idx];
+                for (int jdx = idx; jdx < D; jdx++) {
+                    m[idx][jdx] -= scaled * v[jdx];
+                    m[jdx][idx] = m[idx][jdx];
+                }
+            }
+        }
+
+        return MatrixUtils.createRealMatrix(m);
+    }
+
+    /**
+     * @return the negative eigenvalues removed by the last projection
+     */
+    public double[] getNegativeValues() {
+        return negativeValues;
+    }
+
+    /**
+     * @return the eigenvectors of the negative eigenvalues, one per row
+     */
+    public double[][] getNegativeVectors() {
+        return negativeVectors;
+    }
+
+    /**
+     *
+     * @param MAX_SWEEPS Jacobi sweeps per decomposition, default is 100
+     */
+    public void setMAX_SWEEPS(int MAX_SWEEPS) {
+        this.MAX_SWEEPS = MAX_SWEEPS;
+    }
+
+    // ================================================================
+    /**
+     * Jacobi eigenvalue iteration started from the last basis, the basis is
+     * replaced by the eigenvectors of m
+     *
+     * @param m symmetric
+     * @return eigenvalues, in the order of the basis columns
+     */
+    private double[] decompose(double[][] m) {
+
+        int D = m.length;
+
+        if (basis == null || basis.length != D) {
+            basis = MatrixUtils.createRealIdentityMatrix(D).getData();
+        }
+        double[][] v = basis;
+
+        // b = v' m v
+        double[][] mv = new double[D][D];
+        for (int idx = 0; idx < D; idx++) {
+            for (int kdx = 0; kdx < D; kdx++) {
+                double m_ik = m[idx][kdx];
+                if (m_ik == 0.0) {
+                    continue;
+                }
+                for (int jdx = 0; jdx < D; jdx++) {
+                    mv[idx][jdx] += m_ik * v[kdx][jdx];
+                }
+            }
+        }
+
+        double[][] b = new double[D][D];
+        for (int idx = 0; idx < D; idx++) {
+            for (int jdx = idx; jdx < D; jdx++) {
+                double sum = 0;
+                for (int kdx = 0; kdx < D; kdx++) {
+                    sum += v[kdx][idx] * mv[kdx][jdx];
+                }
+                b[idx][jdx] = sum;
+                b[jdx][idx] = sum;
+            }
+        }
+
+        // ========================================
+        // Cyclic sweeps
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+
+            double off = 0;
+            double norm = 0;
+            for (int idx = 0; idx < D; idx++) {
+                norm += b[idx][idx] * b[idx][idx];
+                for (int jdx = idx + 1; jdx < D; jdx++) {
+                    off += b[idx][jdx] * b[idx][jdx];
+                }
+            }
+            norm += 2 * off;
+
+            if (off <= EPSILON * EPSILON * norm) {
+                break;
+            }
+
+            for (int p = 0; p < D - 1; p++) {
+                for (int q = p + 1; q < D; q++) {
+                    if (b[p][q] == 0.0) {
+                        continue;
+                    }
+                    rotate(b, v, p, q);
+                }
+            }
+        }
+
+        double[] eigenvalues = new double[D];
+        for (int idx = 0; idx < D; idx++) {
+            eigenvalues[idx] = b[idx][idx];
+        }
+        return eigenvalues;
+    }
+
+    /**
+     * Rotation in the (p, q) plane that zeros b[p][q], b = J' b J and v = v J
+     */
+    private static void rotate(double[][] b, double[][] v, int p, int q) {
+
+        int D = b.length;
+
+        double theta = (b[q][q] - b[p][p]) / (2 * b[p][q]);
+        double t;
+        if (theta == 0.0) {
+            t = 1;
+        } else if (Math.abs(theta) > 1e150) {
+            t = 1 / (2 * theta);
+        } else {
+            t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+        }
+        double c = 1 / Math.sqrt(t * t + 1);
+        double s = t * c;
+
+        for (int kdx = 0; kdx < D; kdx++) {
+            double bkp = b[kdx][p];
+            double bkq = b[kdx][q];
+            b[kdx][p] = c * bkp - s * bkq;
+            b[kdx][q] = s * bkp + c * bkq;
+        }
+        for (int kdx = 0; kdx < D; kdx++) {
+            double bpk = b[p][kdx];
+            double bqk = b[q][kdx];
+            b[p][kdx] = c * bpk - s * bqk;
+            b[q][kdx] = s * bpk + c * bqk;
+        }
+        b[p][q] = 0.0;
+        b[q][p] = 0.0;
+
+        for (int kdx = 0; kdx < D; kdx++) {
+            double vkp = v[kdx][p];
+            double vkq = v[kdx][q];
+            v[kdx][p] = c * vkp - s * vkq;
+            v[kdx][q] = s * vkp + c * vkq;
+        }
+    }
+
+    /**
+     * Cholesky factorization, on a copy
+     */
+    private static boolean isPositiveDefinite(double[][] m) {
+
+        int D = m.length;
+        double[][] l = new double[D][D];
+
+        for (int jdx = 0; jdx < D; jdx++) {
+            double diagonal = m[jdx][jdx];
+            for (int kdx = 0; kdx < jdx; kdx++) {
+                diagonal -= l[jdx][kdx] * l[jdx][kdx];
+            }
+            if (!(diagonal > 0)) {
+                return false;
+            }
+            l[jdx][jdx] = Math.sqrt(diagonal);
+
+            for (int idx = jdx + 1; idx < D; idx++) {
+                double sum = m[idx][jdx];
+                for (int kdx = 0; kdx < jdx; kdx++) {
+                    sum -= l[idx][kdx] * l[jdx][kdx];
+                }
+                l[idx][jdx] = sum / l[jdx][jdx];
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.utils;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Parallel sums of matrices over a range of items. The items are split into
+ * chunks of a fixed size, each chunk sums into its own partial matrices and
+ * the partials are added in chunk order, so the result is the same for any
+ * number of threads.
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class ParallelReduction {
+
+    /**
+     * Adds the terms of one item to the partial sums of its chunk
+     */
+    @FunctionalInterface
+    public interface Accumulator {
+
+        /**
+         *
+         * @param item
+         * @param partials one matrix per requested shape, owned by the chunk
+         */
+        void accumulate(int item, double[][][] partials);
+    }
+
+    private ParallelReduction() {
+    }
+
+    /**
+     *
+     * @param numItems items 0 to numItems - 1
+     * @param chunkSize items per chunk
+     * @param shapes {rows, columns} of each sum
+     * @param accumulator
+     * @return the sums, one per shape
+     */
+    public static double[][][] sum(int numItems, int chunkSize, int[][] shapes,
+            Accumulator accumulator) {
+
+        int numChunks = (numItems + chunkSize - 1) / chunkSize;
+
+        List<double[][][]> partials = IntStream.range(0, numChunks).parallel()
+                .mapToObj((chunk) -> {
+                    double[][][] partial = allocate(shapes);
+                    int end = Math.min(numItems, (chunk + 1) * chunkSize);
+                    for (int item = chunk * chunkSize; item < end; item++) {
+                        accumulator.accumulate(item, partial);
+                    }
+                    return partial;
+                }).collect(Collectors.toList());
+
+        double[][][] sums = allocate(shapes);
+        for (double[][][] partial : partials) {
+            for (int sdx = 0; sdx < sums.length; sdx++) {
+                for (int idx = 0; idx < sums[sdx].length; idx++) {
+                    for (int jdx = 0; jdx < sums[sdx][idx].length; jdx++) {
+                        sums[sdx][idx][jdx] += partial[sdx][idx][jdx];
+                    }
+                }
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * sum += weight * delta delta'
+     *
+     * @param sum
+     * @param delta
+     * @param weight
+     */
+    public static void addOuterProduct(double[][] sum, double[] delta, double weight) {
+
+        for (int idx = 0; idx < delta.length; idx++) {
+            double scaled = weight * delta[idx];
+            if (scaled == 0.0) {
+                continue;
+            }
+            double[] row = sum[idx];
+            for (int jdx = 0; jdx < delta.length; jdx++) {
+                row[jdx] += scaled * delta[jdx];
+            }
+        }
+    }
+
+    /**
+     * delta' m delta
+     *
+     * @param m
+     * @param delta
+     * @return
+     */
+    public static double quadraticForm(double[][] m, double[] delta) {
+
+        double sum = 0;
+        for (int idx = 0; idx < delta.length; idx++) {
+            double row = 0;
+            double[] mRow = m[idx];
+            for (int jdx = 0; jdx < delta.length; jdx++) {
+                row += mRow[jdx] * delta[jdx];
+            }
+            sum += delta[idx] * row;
+        }
+        return sum;
+    }
+
+    private static double[][][] allocate(int[][] shapes) {
+
+        double[][][] matrices = new double[shapes.length][][];
+        for (int sdx = 0; sdx < shapes.length; sdx++) {
+            matrices[sdx] = new double[shapes[sdx][0]][shapes[sdx][1]];
+        }
+        return matrices;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.utils;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * Runs one task per view of a multi-view learner on the common fork/join
+ * pool. The parallel streams inside a task run on the same pool, so the
+ * threads of a view that finishes early steal the work of the expensive
+ * views and an iteration takes about as long as its most expensive view.
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class ViewScheduler {
+
+    private ViewScheduler() {
+    }
+
+    /**
+     *
+     * @param <T>
+     * @param views
+     * @param task must only read state shared between the views
+     * @return the result of each view, in the order of views
+     */
+    public static <T> Map<String, T> map(Collection<String> views,
+            Function<String, T> task) {
+
+        Map<String, ForkJoinTask<T>> tasks = new LinkedHashMap<>(views.size());
+        for (String view : views) {
+            tasks.put(view, ForkJoinTask.adapt(() -> task.apply(view)));
+        }
+
+        ForkJoinTask.invokeAll(tasks.values());
+
+        Map<String, T> results = new LinkedHashMap<>(views.size());
+        for (String view : views) {
+            results.put(view, tasks.get(view).join());
+        }
+        return results;
+    }
+}
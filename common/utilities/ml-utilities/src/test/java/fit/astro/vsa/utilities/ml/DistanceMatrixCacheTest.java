@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml;
+
+import fit.astro.vsa.common.bindings.math.vector.VectorDistanceType;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class DistanceMatrixCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random RAND = new Random(42L);
+
+    @Test
+    public void testCachedDistances() throws IOException {
+
+        List<RealVector> observations = randomObservations(60, 8);
+        RealMatrix expected = new PairWiseDistances(observations)
+                .generateDistances(VectorDistanceType.EUCLIDEAN_DISTANCE);
+
+        DistanceMatrixCache cache = new DistanceMatrixCache(folder.getRoot());
+        File cacheFile = cache.getCacheFile(observations, "DF",
+                VectorDistanceType.EUCLIDEAN_DISTANCE, false);
+        assertFalse(cacheFile.exists());
+
+        // Miss, computed and written
+        DistanceMatrix written = cache.getDistances(observations, "DF",
+                VectorDistanceType.EUCLIDEAN_DISTANCE);
+        assertTrue(cacheFile.isFile());
+
+        // Hit, a fresh cache only maps the file
+        DistanceMatrix mapped = new DistanceMatrixCache(folder.getRoot())
+                .getDistances(observations, "DF", VectorDistanceType.EUCLIDEAN_DISTANCE);
+        long modified = cacheFile.lastModified();
+
+        assertEquals(observations.size(), mapped.getDimension());
+        for (int idx = 0; idx < observations.size(); idx++) {
+            for (int jdx = 0; jdx < observations.size(); jdx++) {
+                assertEquals(expected.getEntry(idx, jdx), written.getEntry(idx, jdx), 0.0);
+                assertEquals(expected.getEntry(idx, jdx), mapped.getEntry(idx, jdx), 0.0);
+            }
+        }
+        assertEquals(modified, cacheFile.lastModified());
+
+        // ========================================
+        // Single precision
+        DistanceMatrix singlePrecision = cache.getDistances(observations, "DF",
+                VectorDistanceType.EUCLIDEAN_DISTANCE, true);
+        for (int idx = 0; idx < observations.size(); idx++) {
+            for (int jdx = 0; jdx < observations.size(); jdx++) {
+                assertEquals(expected.getEntry(idx, jdx),
+                        singlePrecision.getEntry(idx, jdx), 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void testCacheKeys() throws IOException {
+
+        List<RealVector> observations = randomObservations(20, 5);
+        DistanceMatrixCache cache = new DistanceMatrixCache(folder.getRoot());
+
+        File euclidean = cache.getCacheFile(observations, "DF",
+                VectorDistanceType.EUCLIDEAN_DISTANCE, false);
+        assertNotEquals(euclidean, cache.getCacheFile(observations, "SSMM",
+                VectorDistanceType.EUCLIDEAN_DISTANCE, false));
+        assertNotEquals(euclidean, cache.getCacheFile(observations, "DF",
+                VectorDistanceType.CITY_BLOCK, false));
+        assertNotEquals(euclidean, cache.getCacheFile(observations, "DF",
+                VectorDistanceType.EUCLIDEAN_DISTANCE, true));
+
+        // Any change to the data is a different dataset
+        String hash = DistanceMatrixCache.datasetHash(observations);
+        assertEquals(hash, DistanceMatrixCache.datasetHash(
+                new ArrayList<>(observations)));
+
+        List<RealVector> changed = new ArrayList<>(observations);
+        RealVector last = changed.get(changed.size() - 1).copy();
+        last.addToEntry(0, 1e-12);
+        changed.set(changed.size() - 1, last);
+        assertNotEquals(hash, DistanceMatrixCache.datasetHash(changed));
+
+        // A damaged file is recomputed
+        cache.getDistances(observations, "DF", VectorDistanceType.CITY_BLOCK);
+        File cityBlock = cache.getCacheFile(observations, "DF",
+                VectorDistanceType.CITY_BLOCK, false);
+        try (java.io.RandomAccessFile file = new java.io.RandomAccessFile(cityBlock, "rw")) {
+            file.setLength(file.length() - 8);
+        }
+
+        DistanceMatrix recomputed = cache.getDistances(observations, "DF",
+                VectorDistanceType.CITY_BLOCK);
+        RealMatrix expected = new PairWiseDistances(observations)
+                .generateDistances(VectorDistanceType.CITY_BLOCK);
+        assertEquals(expected.getEntry(18, 19), recomputed.getEntry(19, 18), 0.0);
+    }
+
+    private List<RealVector> randomObservations(int number, int dimension) {
+
+        List<RealVector> observations = new ArrayList<>();
+        for (int idx = 0; idx < number; idx++) {
+            RealVector observation = MatrixUtils.createRealVector(new double[dimension]);
+            for (int jdx = 0; jdx < dimension; jdx++) {
+                observation.setEntry(jdx, RAND.nextGaussian());
+            }
+            observations.add(observation);
+        }
+        return observations;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml;
+
+import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric;
+import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric_MV;
+import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import fit.astro.vsa.utilities.ml.knn.KNNMultiMatrixMetric;
+import fit.astro.vsa.utilities.ml.knn.VPTree;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class FusedMultiViewDistanceTest {
+
+    private final Random RAND = new Random(42L);
+
+    @Test
+    public void testVectorMetric() {
+
+        Map<String, MultiViewMetric> multiMatrix = new HashMap<>();
+        multiMatrix.put("DF", new MultiViewMetric(randomMetric(12), 0.5));
+        multiMatrix.put("SSMM", new MultiViewMetric(
+                MatrixUtils.createRealIdentityMatrix(6), 0.3));
+        multiMatrix.put("Statistics", new MultiViewMetric(randomMetric(4), 0.2));
+
+        MultiViewMetricDistance metricDistance = new MultiViewMetricDistance(multiMatrix);
+        FusedMultiViewDistance fusedDistance = FusedMultiViewDistance.vectorMetric(multiMatrix);
+
+        for (int idx = 0; idx < 50; idx++) {
+            Map<String, RealVector> x_i = randomVectors();
+            Map<String, RealVector> x_j = randomVectors();
+
+            double expected = metricDistance.multiviewDistance(x_i, x_j);
+            double[][] flat_i = fusedDistance.flattenVectors(x_i);
+            double[][] flat_j = fusedDistance.flattenVectors(x_j);
+
+            assertEquals(expected, fusedDistance.distance(flat_i, flat_j),
+                    1e-10 * expected);
+
+            // Abandoned only when the bound can not be met
+            assertEquals(Double.POSITIVE_INFINITY,
+                    fusedDistance.distance(flat_i, flat_j, 0.5 * expected), 0.0);
+            assertEquals(expected, fusedDistance.distance(flat_i, flat_j, expected),
+                    1e-10 * expected);
+        }
+    }
+
+    @Test
+    public void testMatrixMetric() throws NotEnoughDataException {
+
+        Map<String, MultiViewMetric_MV> multiMatrix = new HashMap<>();
+        multiMatrix.put("DF", new MultiViewMetric_MV(randomMetric(3),
+                randomMetric(5), 0.6));
+        multiMatrix.put("SSMM", new MultiViewMetric_MV(
+                MatrixUtils.createRealIdentityMatrix(4), randomMetric(4), 0.4));
+
+        MultiViewMetricDistance_MV metricDistance
+                = new MultiViewMetricDistance_MV(multiMatrix);
+        FusedMultiViewDistance fusedDistance = FusedMultiViewDistance.matrixMetric(multiMatrix);
+
+        for (int idx = 0; idx < 50; idx++) {
+            Map<String, RealMatrix> x_i = randomMatrices();
+            Map<String, RealMatrix> x_j = randomMatrices();
+
+            double expected = metricDistance.multiviewDistance(x_i, x_j);
+            assertEquals(expected, fusedDistance.distance(
+                    fusedDistance.flattenMatrices(x_i),
+                    fusedDistance.flattenMatrices(x_j)), 1e-10 * expected);
+        }
+
+        // ========================================
+        // Classifier with abandoning agrees with an exhaustive search
+        Map<Integer, Map<String, RealMatrix>> setOfPatterns = new HashMap<>();
+        Map<Integer, String> setOfClasses = new HashMap<>();
+        for (int idx = 0; idx < 300; idx++) {
+            setOfPatterns.put(idx, randomMatrices());
+            setOfClasses.put(idx, (idx % 3 == 0) ? "A" : "B");
+        }
+
+        Map<Integer, Map<String, RealMatrix>> setOfQueries = new HashMap<>();
+        for (int idx = 0; idx < 40; idx++) {
+            setOfQueries.put(idx, randomMatrices());
+        }
+
+        KNNMultiMatrixMetric knn = new KNNMultiMatrixMetric(setOfPatterns, setOfClasses);
+        int[] kValues = new int[]{1, 5};
+
+        Map<Integer, ClassificationResult> result = knn.execute(kValues, "Missed",
+                multiMatrix, setOfQueries);
+        Map<Integer, ClassificationResult> expected = knn.execute(kValues, "Missed",
+                new VPTree<>(setOfPatterns, VPTree.multiViewMetric_MV(multiMatrix), RAND),
+                setOfQueries);
+
+        int agree = 0;
+        for (Integer idx : setOfQueries.keySet()) {
+            if (expected.get(5).getLabelEstimate().get(idx)
+                    .equals(result.get(5).getLabelEstimate().get(idx))) {
+                agree++;
+            }
+        }
+        assertEquals(setOfQueries.size(), agree);
+    }
+
+    private Map<String, RealVector> randomVectors() {
+        Map<String, RealVector> views = new HashMap<>();
+        views.put("DF", randomMatrix(12, 1).getColumnVector(0));
+        views.put("SSMM", randomMatrix(6, 1).getColumnVector(0));
+        views.put("Statistics", randomMatrix(4, 1).getColumnVector(0));
+        return views;
+    }
+
+    private Map<String, RealMatrix> randomMatrices() {
+        Map<String, RealMatrix> views = new HashMap<>();
+        views.put("DF", randomMatrix(5, 3));
+        views.put("SSMM", randomMatrix(4, 4));
+        return views;
+    }
+
+    private RealMatrix randomMatrix(int rows, int columns) {
+        RealMatrix matrix = MatrixUtils.createRealMatrix(rows, columns);
+        for (int idx = 0; idx < rows; idx++) {
+            for (int jdx = 0; jdx < columns; jdx++) {
+                matrix.setEntry(idx, jdx, RAND.nextGaussian());
+            }
+        }
+        return matrix;
+    }
+
+    private RealMatrix randomMetric(int dimension) {
+        RealMatrix factor = randomMatrix(dimension, dimension);
+        return factor.transpose().multiply(factor);
+    }
+}
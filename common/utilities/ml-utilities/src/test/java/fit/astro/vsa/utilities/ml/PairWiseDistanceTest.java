@@ -18,8 +18,10 @@ package fit.astro.vsa.utilities.ml;
 
 import fit.astro.vsa.common.bindings.math.vector.VectorDistanceType;
 import fit.astro.vsa.common.utilities.math.NumericTests;
+import fit.astro.vsa.utilities.ml.distance.MutualInformationDistance;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
@@ -81,4 +83,66 @@ public class PairWiseDistanceTest {
          assertEquals(Boolean.TRUE, NumericTests.isApproxZero(error));
      
      }
+
+    @Test
+    public void testPackedDistances() {
+
+        Random rand = new Random(42L);
+        List<RealVector> patterns = new ArrayList<>();
+        for (int idx = 0; idx < 150; idx++) {
+            double[] pattern = new double[40];
+            for (int jdx = 0; jdx < pattern.length; jdx++) {
+                pattern[jdx] = rand.nextGaussian();
+            }
+            patterns.add(MatrixUtils.createRealVector(pattern));
+        }
+
+        PairWiseDistances distances = new PairWiseDistances(patterns);
+
+        for (VectorDistanceType type : VectorDistanceType.values()) {
+            RealMatrix serial = distances.generateDistances(type);
+            PackedDistanceMatrix packed = distances.generatePackedDistances(type, false);
+            PackedDistanceMatrix packedFloat = distances.generatePackedDistances(type, true);
+
+            for (int idx = 0; idx < patterns.size(); idx++) {
+                for (int jdx = 0; jdx < patterns.size(); jdx++) {
+                    assertEquals(serial.getEntry(idx, jdx), packed.getEntry(idx, jdx), 0.0);
+                    assertEquals(serial.getEntry(jdx, idx), packed.getEntry(idx, jdx), 0.0);
+                    assertEquals(serial.getEntry(idx, jdx), packedFloat.getEntry(idx, jdx),
+                            1e-6 * Math.max(1.0, serial.getEntry(idx, jdx)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMutualInformationDistance() {
+
+        Random rand = new Random(42L);
+        double[] x = new double[500];
+        double[] noise = new double[500];
+        double[] y = new double[500];
+        for (int idx = 0; idx < x.length; idx++) {
+            x[idx] = rand.nextGaussian();
+            noise[idx] = rand.nextGaussian();
+            y[idx] = x[idx] + 0.3 * noise[idx];
+        }
+
+        MutualInformationDistance distance = new MutualInformationDistance(10);
+
+        // Identical and monotone transformed vectors share all information
+        assertEquals(0.0, distance.compute(x, x), 1e-12);
+        double[] scaled = new double[x.length];
+        for (int idx = 0; idx < x.length; idx++) {
+            scaled[idx] = 3.0 * x[idx] - 2.0;
+        }
+        assertEquals(0.0, distance.compute(x, scaled), 1e-12);
+
+        // Dependent vectors are closer than independent ones
+        double dependent = distance.compute(x, y);
+        double independent = distance.compute(x, noise);
+        assertEquals(Boolean.TRUE, dependent < independent);
+        assertEquals(Boolean.TRUE, independent <= 1.0);
+        assertEquals(distance.compute(y, x), dependent, 1e-12);
+    }
 }
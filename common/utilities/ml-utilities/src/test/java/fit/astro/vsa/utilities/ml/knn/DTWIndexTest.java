@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import fit.astro.vsa.utilities.ml.distance.DynamicTimeWarping;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class DTWIndexTest {
+
+    private final Random RAND = new Random(42L);
+
+    @Test
+    public void testDistanceAndBounds() {
+
+        DynamicTimeWarping dtw = new DynamicTimeWarping(5);
+
+        for (int idx = 0; idx < 100; idx++) {
+            double[] query = randomSeries(60, RAND.nextInt(3));
+            double[] candidate = randomSeries(60, RAND.nextInt(3));
+
+            double distance = dtw.compute(query, candidate);
+            assertEquals(fullMatrixDTW(query, candidate, 5), distance, 1e-9);
+
+            // Lower bounds never exceed the distance
+            assertTrue(DynamicTimeWarping.lowerBoundKim(query, candidate) <= distance);
+            assertTrue(DynamicTimeWarping.lowerBoundKeogh(query,
+                    dtw.envelope(candidate), null, Double.POSITIVE_INFINITY) <= distance);
+            assertTrue(DynamicTimeWarping.lowerBoundKeogh(candidate,
+                    dtw.envelope(query), null, Double.POSITIVE_INFINITY) <= distance);
+        }
+
+        // No warping is the squared Euclidean distance
+        double[] query = randomSeries(30, 0);
+        double[] candidate = randomSeries(30, 1);
+        double squared = 0.0;
+        for (int idx = 0; idx < 30; idx++) {
+            squared += (query[idx] - candidate[idx]) * (query[idx] - candidate[idx]);
+        }
+        assertEquals(squared, new DynamicTimeWarping(0).compute(query, candidate), 1e-9);
+    }
+
+    @Test
+    public void testSearchMatchesBruteForce() throws NotEnoughDataException {
+
+        Map<Integer, RealVector> setOfPatterns = new HashMap<>();
+        Map<Integer, String> setOfClasses = new HashMap<>();
+        for (int idx = 0; idx < 300; idx++) {
+            int shape = idx % 3;
+            setOfPatterns.put(idx, new ArrayRealVector(randomSeries(80, shape)));
+            setOfClasses.put(idx, "Class" + shape);
+        }
+
+        DTWIndex dtwIndex = new DTWIndex(setOfPatterns, 8);
+        DynamicTimeWarping dtw = dtwIndex.getDynamicTimeWarping();
+
+        Map<Integer, RealVector> setOfQueries = new HashMap<>();
+        Map<Integer, String> setOfQueryClasses = new HashMap<>();
+        for (int idx = 0; idx < 30; idx++) {
+            int shape = idx % 3;
+            double[] query = randomSeries(80, shape);
+            setOfQueries.put(idx, new ArrayRealVector(query));
+            setOfQueryClasses.put(idx, "Class" + shape);
+
+            NeighborHeap bruteForce = new NeighborHeap(5);
+            for (int position = 0; position < dtwIndex.size(); position++) {
+                bruteForce.offer(dtw.compute(query, setOfPatterns
+                        .get(dtwIndex.getTrainingID(position)).toArray()), position);
+            }
+
+            assertArrayEquals(bruteForce.getSortedPositions(),
+                    dtwIndex.search(query, 5).getSortedPositions());
+        }
+
+        // ========================================
+        // Plugged into the classifier
+        KNNVectorMetric knn = new KNNVectorMetric(setOfPatterns, setOfClasses);
+        Map<Integer, ClassificationResult> result = knn.execute(new int[]{1, 5},
+                "Missed", dtwIndex, setOfQueries);
+
+        for (Integer idx : setOfQueries.keySet()) {
+            assertEquals(setOfQueryClasses.get(idx),
+                    result.get(1).getLabelEstimate().get(idx));
+        }
+    }
+
+    /**
+     * Shifted sine, square or ramp with noise
+     */
+    private double[] randomSeries(int length, int shape) {
+
+        double shift = RAND.nextDouble() * 0.1;
+        double[] series = new double[length];
+        for (int idx = 0; idx < length; idx++) {
+            double phase = (double) idx / length + shift;
+            double value;
+            switch (shape) {
+                case 0:
+                    value = Math.sin(2.0 * Math.PI * phase);
+                    break;
+                case 1:
+                    value = (phase % 1.0 < 0.5) ? 1.0 : -1.0;
+                    break;
+                default:
+                    value = 2.0 * (phase % 1.0) - 1.0;
+                    break;
+            }
+            series[idx] = value + 0.1 * RAND.nextGaussian();
+        }
+        return series;
+    }
+
+    private double fullMatrixDTW(double[] query, double[] candidate, int window) {
+
+        int length = query.length;
+        double[][] cost = new double[length + 1][length + 1];
+        for (double[] row : cost) {
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+        }
+        cost[0][0] = 0.0;
+
+        for (int idx = 1; idx <= length; idx++) {
+            for (int jdx = Math.max(1, idx - window);
+                    jdx <= Math.min(length, idx + window); jdx++) {
+                double delta = query[idx - 1] - candidate[jdx - 1];
+                cost[idx][jdx] = delta * delta + Math.min(cost[idx - 1][jdx - 1],
+                        Math.min(cost[idx - 1][jdx], cost[idx][jdx - 1]));
+            }
+        }
+        return cost[length][length];
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without isEven the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric;
+import fit.astro.vsa.utilities.ml.MetricDistance;
+import fit.astro.vsa.utilities.ml.MultiViewMetricDistance;
+import fit.astro.vsa.utilities.ml.PackedDistanceMatrix;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleBiFunction;
+import java.util.stream.Collectors;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class GenerateNeighborsTest {
+
+    private final Random RAND = new Random(42L);
+
+    @Test
+    public void testNeighborsAndImpostors() {
+
+        Map<Integer, RealVector> mapOfPatterns = new HashMap<>();
+        Map<Integer, String> mapOfClasses = new HashMap<>();
+        for (int idx = 0; idx < 150; idx++) {
+            mapOfPatterns.put(idx, randomVector(6));
+            mapOfClasses.put(idx, "Class" + (idx % 3));
+        }
+
+        GenerateNeighbors generateNeighbors
+                = new GenerateNeighbors(mapOfPatterns, mapOfClasses);
+
+        MetricDistance euclidean = new MetricDistance(
+                MatrixUtils.createRealIdentityMatrix(6));
+        assertEquals(bruteForce(mapOfClasses, 4, true, (idx, jdx) -> euclidean
+                .distance(mapOfPatterns.get(idx), mapOfPatterns.get(jdx))),
+                generateNeighbors.kNN(4));
+
+        RealMatrix factor = randomMatrix(6);
+        RealMatrix metric = factor.transpose().multiply(factor);
+        MetricDistance metricDistance = new MetricDistance(metric);
+
+        assertEquals(bruteForce(mapOfClasses, 3, false, (idx, jdx) -> metricDistance
+                .distance(mapOfPatterns.get(idx), mapOfPatterns.get(jdx))),
+                generateNeighbors.impostors(3, metric));
+        assertEquals(bruteForce(mapOfClasses, 3, true, (idx, jdx) -> metricDistance
+                .distance(mapOfPatterns.get(idx), mapOfPatterns.get(jdx))),
+                generateNeighbors.kNN(3, metric.copy()));
+
+        // Repeated queries from the cached block
+        generateNeighbors.setCacheDistances(true);
+        assertEquals(bruteForce(mapOfClasses, 3, false, (idx, jdx) -> metricDistance
+                .distance(mapOfPatterns.get(idx), mapOfPatterns.get(jdx))),
+                generateNeighbors.impostors(3, metric));
+        assertEquals(bruteForce(mapOfClasses, 3, true, (idx, jdx) -> metricDistance
+                .distance(mapOfPatterns.get(idx), mapOfPatterns.get(jdx))),
+                generateNeighbors.kNN(3, metric.copy()));
+
+        // Back to the identity, the cached block is replaced
+        assertEquals(bruteForce(mapOfClasses, 4, true, (idx, jdx) -> euclidean
+                .distance(mapOfPatterns.get(idx), mapOfPatterns.get(jdx))),
+                generateNeighbors.kNN(4, MatrixUtils.createRealIdentityMatrix(6)));
+    }
+
+    @Test
+    public void testOneShotWithoutBlock() {
+
+        // More samples than a packed block can index
+        int numSamples = 70000;
+        int classSize = 10;
+        assertTrue(PackedDistanceMatrix.packedSize(numSamples) > Integer.MAX_VALUE);
+
+        Map<Integer, RealVector> mapOfPatterns = new HashMap<>();
+        Map<Integer, String> mapOfClasses = new HashMap<>();
+        for (int idx = 0; idx < numSamples; idx++) {
+            mapOfPatterns.put(idx, randomVector(2));
+            mapOfClasses.put(idx, "Class" + (idx / classSize));
+        }
+
+        Map<Integer, List<Integer>> neighbors
+                = new GenerateNeighbors(mapOfPatterns, mapOfClasses).kNN(3);
+        assertEquals(numSamples, neighbors.size());
+
+        // Within a class, as the brute force over that class
+        Map<Integer, String> firstClass = new HashMap<>();
+        for (int idx = 0; idx < classSize; idx++) {
+            firstClass.put(idx, mapOfClasses.get(idx));
+        }
+        MetricDistance euclidean = new MetricDistance(
+                MatrixUtils.createRealIdentityMatrix(2));
+        Map<Integer, List<Integer>> expected = bruteForce(firstClass, 3, true,
+                (idx, jdx) -> euclidean.distance(mapOfPatterns.get(idx),
+                        mapOfPatterns.get(jdx)));
+        for (int idx = 0; idx < classSize; idx++) {
+            assertEquals(expected.get(idx), neighbors.get(idx));
+        }
+
+        // Only the pairs within each class are evaluated
+        AtomicLong evaluations = new AtomicLong();
+        new NeighborSelection(mapOfClasses).targetNeighbors(3, (row, column) -> {
+            evaluations.incrementAndGet();
+            return Math.abs(row - column);
+        });
+        assertEquals((long) numSamples * (classSize - 1), evaluations.get());
+    }
+
+    @Test
+    public void testMultiViewNeighbors() {
+
+        Map<Integer, Map<String, RealVector>> mapOfPatterns = new HashMap<>();
+        Map<Integer, String> mapOfClasses = new HashMap<>();
+        for (int idx = 0; idx < 120; idx++) {
+            Map<String, RealVector> views = new HashMap<>();
+            views.put("DF", randomVector(5));
+            views.put("SSMM", randomVector(3));
+            mapOfPatterns.put(idx, views);
+            mapOfClasses.put(idx, (idx % 4 == 0) ? "A" : "B");
+        }
+
+        Map<String, MultiViewMetric> multiMatrix = new HashMap<>();
+        RealMatrix factor = randomMatrix(5);
+        multiMatrix.put("DF", new MultiViewMetric(factor.transpose().multiply(factor), 0.7));
+        multiMatrix.put("SSMM", new MultiViewMetric(
+                MatrixUtils.createRealIdentityMatrix(3), 0.3));
+
+        MultiViewMetricDistance metricDistance = new MultiViewMetricDistance(multiMatrix);
+        GenerateNeighbors_Multi generateNeighbors
+                = new GenerateNeighbors_Multi(mapOfPatterns, mapOfClasses);
+
+        assertEquals(bruteForce(mapOfClasses, 5, true, (idx, jdx) -> metricDistance
+                .multiviewDistance(mapOfPatterns.get(idx), mapOfPatterns.get(jdx))),
+                generateNeighbors.kNN(5, multiMatrix));
+        assertEquals(bruteForce(mapOfClasses, 2, false, (idx, jdx) -> metricDistance
+                .multiviewDistance(mapOfPatterns.get(idx), mapOfPatterns.get(jdx))),
+                generateNeighbors.impostors(2, multiMatrix));
+    }
+
+    /**
+     * Full sort of every candidate
+     */
+    private Map<Integer, List<Integer>> bruteForce(Map<Integer, String> mapOfClasses,
+            int kValue, boolean isSameClass,
+            ToDoubleBiFunction<Integer, Integer> distance) {
+
+        Map<Integer, List<Integer>> neighbors = new HashMap<>();
+        for (Integer idx : mapOfClasses.keySet()) {
+            List<Integer> candidates = new ArrayList<>();
+            for (Integer jdx : mapOfClasses.keySet()) {
+                if (!idx.equals(jdx) && mapOfClasses.get(idx)
+                        .equals(mapOfClasses.get(jdx)) == isSameClass) {
+                    candidates.add(jdx);
+                }
+            }
+            neighbors.put(idx, candidates.stream()
+                    .sorted(Comparator.comparingDouble((Integer jdx)
+                            -> distance.applyAsDouble(idx, jdx))
+                            .thenComparing(Comparator.naturalOrder()))
+                    .limit(kValue).collect(Collectors.toList()));
+        }
+        return neighbors;
+    }
+
+    private RealVector randomVector(int dimension) {
+        RealVector vector = new ArrayRealVector(dimension);
+        for (int idx = 0; idx < dimension; idx++) {
+            vector.setEntry(idx, RAND.nextGaussian());
+        }
+        return vector;
+    }
+
+    private RealMatrix randomMatrix(int dimension) {
+        RealMatrix matrix = MatrixUtils.createRealMatrix(dimension, dimension);
+        for (int idx = 0; idx < dimension; idx++) {
+            matrix.setColumnVector(idx, randomVector(dimension));
+        }
+        return matrix;
+    }
+}
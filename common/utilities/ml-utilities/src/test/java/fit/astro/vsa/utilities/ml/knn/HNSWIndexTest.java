@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class HNSWIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random RAND = new Random(42L);
+
+    private Map<Integer, RealVector> setOfPatterns;
+    private Map<Integer, String> setOfClasses;
+    private Map<Integer, RealVector> setOfQueries;
+
+    @Before
+    public void setUp() {
+
+        // Two shifted clouds in 20 dimensions
+        setOfPatterns = new HashMap<>();
+        setOfClasses = new HashMap<>();
+        for (int idx = 0; idx < 3000; idx++) {
+            setOfPatterns.put(idx, randomPattern(idx % 2));
+            setOfClasses.put(idx, (idx % 2 == 0) ? "A" : "B");
+        }
+
+        setOfQueries = new HashMap<>();
+        for (int idx = 0; idx < 100; idx++) {
+            setOfQueries.put(idx, randomPattern(idx % 2));
+        }
+    }
+
+    @Test
+    public void testRecall() {
+
+        HNSWIndex hnsw = new HNSWIndex(setOfPatterns, 16, 200, 50, RAND);
+
+        assertTrue(hnsw.estimateRecall(setOfQueries, 10) > 0.9);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+
+        HNSWIndex hnsw = new HNSWIndex(setOfPatterns, 8, 100, 40, RAND);
+
+        File file = folder.newFile("index.hnsw");
+        hnsw.save(file);
+        HNSWIndex loaded = HNSWIndex.load(file);
+
+        assertEquals(hnsw.size(), loaded.size());
+        assertEquals(hnsw.getEfSearch(), loaded.getEfSearch());
+        for (RealVector query : setOfQueries.values()) {
+            assertArrayEquals(hnsw.nearestNeighbors(query.toArray(), 5),
+                    loaded.nearestNeighbors(query.toArray(), 5));
+        }
+    }
+
+    @Test
+    public void testAsNeighborSource() throws NotEnoughDataException {
+
+        KNNVectorMetric knn = new KNNVectorMetric(setOfPatterns, setOfClasses);
+
+        Map<Integer, ClassificationResult> approximate = knn.execute(new int[]{5},
+                "Missed", new HNSWIndex(setOfPatterns, 16, 200, 100, RAND), setOfQueries);
+        ClassificationResult exact = knn.execute(5, "Missed", setOfQueries);
+
+        int agree = 0;
+        for (Integer idx : setOfQueries.keySet()) {
+            if (exact.getLabelEstimate().get(idx).equals(
+                    approximate.get(5).getLabelEstimate().get(idx))) {
+                agree++;
+            }
+        }
+        assertTrue(agree >= 95);
+    }
+
+    private RealVector randomPattern(int shift) {
+        double[] pattern = new double[20];
+        for (int idx = 0; idx < pattern.length; idx++) {
+            pattern[idx] = RAND.nextGaussian() + shift;
+        }
+        return new ArrayRealVector(pattern);
+    }
+}
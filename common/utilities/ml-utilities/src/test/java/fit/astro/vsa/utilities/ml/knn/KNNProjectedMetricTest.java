@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.datahandling.training.TrainCrossData;
+import fit.astro.vsa.common.datahandling.training.TrainCrossGenerator;
+import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import fit.astro.vsa.common.utilities.test.classification.GrabIrisData;
+import fit.astro.vsa.utilities.ml.MetricDistance;
+import fit.astro.vsa.utilities.ml.MetricTransform;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class KNNProjectedMetricTest {
+
+    private final Random RAND = new Random(42L);
+
+    private TrainCrossData crossData;
+
+    @Before
+    public void setUp() throws IOException, URISyntaxException {
+
+        GrabIrisData grabIrisData = new GrabIrisData();
+
+        TrainCrossGenerator trainCross = new TrainCrossGenerator(
+                grabIrisData.getSetOfClasses(), RAND);
+
+        crossData = new TrainCrossData(grabIrisData.getSetOfPatterns(),
+                grabIrisData.getSetOfClasses(), trainCross.getCrossvalMap(), 0);
+    }
+
+    @Test
+    public void testFullRankMetric() throws NotEnoughDataException {
+        compareWithMetricKNN(randomMetric(4));
+    }
+
+    @Test
+    public void testLowRankMetric() throws NotEnoughDataException {
+        // PSD but singular, factored by the eigen square root
+        compareWithMetricKNN(randomMetric(2));
+    }
+
+    private void compareWithMetricKNN(RealMatrix metricMatrix)
+            throws NotEnoughDataException {
+
+        // ========================================
+        // Distances are preserved
+        MetricTransform metricTransform = new MetricTransform(metricMatrix);
+        MetricDistance metricDistance = new MetricDistance(metricMatrix);
+
+        Map<Integer, RealVector> setOfTrainingData = crossData.getSetOfTrainingPatterns();
+        RealVector x_j = crossData.getSetOfCrossvalPatterns().values().iterator().next();
+        for (RealVector x_i : setOfTrainingData.values()) {
+            double expected = metricDistance.distance(x_i, x_j);
+            double projected = metricTransform.transform(x_i)
+                    .subtract(metricTransform.transform(x_j)).getNorm();
+
+            assertEquals(expected, projected * projected, 1e-9 * (1.0 + expected));
+        }
+
+        // ========================================
+        // And so are the neighbors
+        ClassificationResult expected = new KNNVectorMetric(setOfTrainingData,
+                crossData.getSetOfTrainingClasses())
+                .execute(5, "Missed", metricMatrix, crossData.getSetOfCrossvalPatterns());
+
+        ClassificationResult result = new KNNProjectedMetric(setOfTrainingData,
+                crossData.getSetOfTrainingClasses(), metricMatrix)
+                .execute(5, "Missed", crossData.getSetOfCrossvalPatterns());
+
+        assertEquals(expected.getLabelEstimate(), result.getLabelEstimate());
+    }
+
+    private RealMatrix randomMetric(int rank) {
+
+        RealMatrix factor = MatrixUtils.createRealMatrix(rank, 4);
+        for (int idx = 0; idx < rank; idx++) {
+            for (int jdx = 0; jdx < 4; jdx++) {
+                factor.setEntry(idx, jdx, RAND.nextGaussian());
+            }
+        }
+        return factor.transpose().multiply(factor);
+    }
+}
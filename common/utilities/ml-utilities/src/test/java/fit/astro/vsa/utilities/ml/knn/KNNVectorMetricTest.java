@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.datahandling.training.TrainCrossData;
+import fit.astro.vsa.common.datahandling.training.TrainCrossGenerator;
+import fit.astro.vsa.common.utilities.math.NumericTests;
+import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import fit.astro.vsa.common.utilities.math.support.SortingOperations;
+import fit.astro.vsa.common.utilities.test.classification.GrabIrisData;
+import fit.astro.vsa.utilities.ml.MetricDistance;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class KNNVectorMetricTest {
+
+    private final Random RAND = new Random(42L);
+
+    private TrainCrossData crossData;
+
+    @Before
+    public void setUp() throws IOException, URISyntaxException {
+
+        GrabIrisData grabIrisData = new GrabIrisData();
+        Map<Integer, RealVector> setOfPatterns = grabIrisData.getSetOfPatterns();
+        Map<Integer, String> setOfClasses = grabIrisData.getSetOfClasses();
+
+        TrainCrossGenerator trainCross = new TrainCrossGenerator(setOfClasses, RAND);
+
+        crossData = new TrainCrossData(setOfPatterns, setOfClasses,
+                trainCross.getCrossvalMap(), 0);
+    }
+
+    @Test
+    public void testNeighborHeap() {
+
+        double[] distances = new double[200];
+        for (int idx = 0; idx < distances.length; idx++) {
+            // coarse values so there are plenty of ties
+            distances[idx] = RAND.nextInt(20);
+        }
+
+        NeighborHeap heap = new NeighborHeap(7);
+        for (int idx = 0; idx < distances.length; idx++) {
+            heap.offer(distances[idx], idx);
+        }
+
+        Map<Integer, Double> setOfDistances = new HashMap<>();
+        for (int idx = 0; idx < distances.length; idx++) {
+            setOfDistances.put(idx, distances[idx]);
+        }
+        List<Integer> sorted = new ArrayList<>(
+                SortingOperations.sortByAcendingValue(setOfDistances).keySet());
+
+        int[] expected = new int[7];
+        for (int idx = 0; idx < expected.length; idx++) {
+            expected[idx] = sorted.get(idx);
+        }
+
+        assertArrayEquals(expected, heap.getSortedPositions());
+    }
+
+    @Test
+    public void testEuclideanMatchesFullSort() throws NotEnoughDataException {
+
+        KNNVectorMetric knn = new KNNVectorMetric(
+                crossData.getSetOfTrainingPatterns(),
+                crossData.getSetOfTrainingClasses());
+
+        ClassificationResult result = knn.execute(5, "Missed",
+                crossData.getSetOfCrossvalPatterns());
+
+        ClassificationResult expected = fullSort(5, "Missed", null,
+                crossData.getSetOfCrossvalPatterns());
+
+        assertEquals(expected.getLabelEstimate(), result.getLabelEstimate());
+        assertEquals(expected.getLabelAndPostProb(), result.getLabelAndPostProb());
+    }
+
+    @Test
+    public void testMetricMatchesFullSort() throws NotEnoughDataException {
+
+        RealMatrix factor = MatrixUtils.createRealMatrix(4, 4);
+        for (int idx = 0; idx < 4; idx++) {
+            for (int jdx = 0; jdx < 4; jdx++) {
+                factor.setEntry(idx, jdx, RAND.nextGaussian());
+            }
+        }
+        RealMatrix metricMatrix = factor.transpose().multiply(factor);
+
+        KNNVectorMetric knn = new KNNVectorMetric(
+                crossData.getSetOfTrainingPatterns(),
+                crossData.getSetOfTrainingClasses());
+
+        for (int kValue : new int[]{1, 4, 9}) {
+            ClassificationResult result = knn.execute(kValue, "Missed",
+                    metricMatrix, crossData.getSetOfCrossvalPatterns());
+
+            ClassificationResult expected = fullSort(kValue, "Missed", metricMatrix,
+                    crossData.getSetOfCrossvalPatterns());
+
+            assertEquals(expected.getLabelEstimate(), result.getLabelEstimate());
+            assertEquals(expected.getLabelAndPostProb(), result.getLabelAndPostProb());
+        }
+    }
+
+    @Test
+    public void testMultiKMatchesSingleK() throws NotEnoughDataException {
+
+        int[] kValues = new int[]{1, 3, 5, 7, 9};
+        RealMatrix metricMatrix = MatrixUtils.createRealIdentityMatrix(4);
+
+        KNNVectorMetric knn = new KNNVectorMetric(
+                crossData.getSetOfTrainingPatterns(),
+                crossData.getSetOfTrainingClasses());
+
+        Map<Integer, ClassificationResult> results = knn.execute(kValues,
+                "Missed", metricMatrix, crossData.getSetOfCrossvalPatterns());
+
+        assertEquals(kValues.length, results.size());
+        for (int kValue : kValues) {
+            ClassificationResult expected = fullSort(kValue, "Missed", metricMatrix,
+                    crossData.getSetOfCrossvalPatterns());
+
+            assertEquals(expected.getLabelEstimate(),
+                    results.get(kValue).getLabelEstimate());
+            assertEquals(expected.getLabelAndPostProb(),
+                    results.get(kValue).getLabelAndPostProb());
+        }
+    }
+
+    @Test
+    public void testLeaveOneOut() throws NotEnoughDataException {
+
+        int[] kValues = new int[]{1, 5};
+        RealMatrix metricMatrix = MatrixUtils.createRealIdentityMatrix(4);
+
+        Map<Integer, RealVector> setOfTrainingData = crossData.getSetOfTrainingPatterns();
+        Map<Integer, String> setOfTrainingClasses = crossData.getSetOfTrainingClasses();
+
+        Map<Integer, ClassificationResult> results = new KNNVectorMetric(
+                setOfTrainingData, setOfTrainingClasses)
+                .executeLeaveOneOut(kValues, "Missed", metricMatrix);
+
+        for (int kValue : kValues) {
+            assertEquals(setOfTrainingData.size(),
+                    results.get(kValue).getLabelEstimate().size());
+        }
+
+        // Spot check against a classifier trained without the held out pattern
+        for (Integer idx : new ArrayList<>(setOfTrainingData.keySet()).subList(0, 10)) {
+
+            Map<Integer, RealVector> heldInData = new HashMap<>(setOfTrainingData);
+            Map<Integer, String> heldInClasses = new HashMap<>(setOfTrainingClasses);
+            heldInData.remove(idx);
+            heldInClasses.remove(idx);
+
+            Map<Integer, RealVector> heldOut = new HashMap<>();
+            heldOut.put(idx, setOfTrainingData.get(idx));
+
+            for (int kValue : kValues) {
+                ClassificationResult expected = new KNNVectorMetric(
+                        heldInData, heldInClasses)
+                        .execute(kValue, "Missed", metricMatrix, heldOut);
+
+                assertEquals(expected.getLabelAndPostProb().get(idx),
+                        results.get(kValue).getLabelAndPostProb().get(idx));
+            }
+        }
+    }
+
+    /**
+     * Reference: every distance into a map, full sort, first k
+     */
+    private ClassificationResult fullSort(int kValue, String missedLabel,
+            RealMatrix metricMatrix, Map<Integer, RealVector> inputPatternMap) {
+
+        Map<Integer, RealVector> setOfTrainingData = crossData.getSetOfTrainingPatterns();
+        Map<Integer, String> setOfTrainingClasses = crossData.getSetOfTrainingClasses();
+
+        Map<Integer, String> labelEstimate = new HashMap<>();
+        Map<Integer, Map<String, Double>> labelPostProb = new HashMap<>();
+
+        for (Integer idx : inputPatternMap.keySet()) {
+
+            Map<Integer, Double> setOfDistances = new HashMap<>();
+            for (Integer trainingDataID : setOfTrainingData.keySet()) {
+                setOfDistances.put(trainingDataID, (metricMatrix == null)
+                        ? setOfTrainingData.get(trainingDataID).getDistance(inputPatternMap.get(idx))
+                        : new MetricDistance(metricMatrix).distance(
+                                setOfTrainingData.get(trainingDataID), inputPatternMap.get(idx)));
+            }
+
+            Map<String, Double> nearestNeighborResponse = new HashMap<>();
+            setOfTrainingClasses.values().forEach((label) -> {
+                nearestNeighborResponse.put(label, 0.0);
+            });
+
+            int counter = 0;
+            for (Integer jdx : SortingOperations.sortByAcendingValue(setOfDistances).keySet()) {
+                String classLabel = setOfTrainingClasses.get(jdx);
+                nearestNeighborResponse.put(classLabel,
+                        nearestNeighborResponse.get(classLabel) + 1.0 / (double) kValue);
+                if (++counter == kValue) {
+                    break;
+                }
+            }
+            labelPostProb.put(idx, nearestNeighborResponse);
+
+            List<Map.Entry<String, Double>> knnList = new ArrayList<>(
+                    SortingOperations.sortByDecendingValue(nearestNeighborResponse).entrySet());
+            labelEstimate.put(idx, NumericTests.isApproxEqual(
+                    knnList.get(0).getValue(), knnList.get(1).getValue())
+                    ? missedLabel : knnList.get(0).getKey());
+        }
+
+        return new ClassificationResult(labelEstimate, labelPostProb, null);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleBiFunction;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class PivotTableTest {
+
+    private final Random RAND = new Random(42L);
+
+    @Test
+    public void testVectorMetric() throws NotEnoughDataException {
+
+        // Clustered data, where the pivots separate well
+        Map<Integer, RealVector> setOfPatterns = new HashMap<>();
+        Map<Integer, String> setOfClasses = new HashMap<>();
+        for (int idx = 0; idx < 800; idx++) {
+            setOfPatterns.put(idx, clusteredVector(idx % 8, 5));
+            setOfClasses.put(idx, "Class" + (idx % 8) % 3);
+        }
+
+        RealMatrix metricMatrix = randomMetric(5);
+        ToDoubleBiFunction<double[], double[]> metric
+                = PivotTable.vectorMetric(metricMatrix);
+
+        AtomicLong numEvaluations = new AtomicLong();
+        Map<Integer, double[]> setOfArrays = new HashMap<>();
+        setOfPatterns.forEach((idx, pattern) -> setOfArrays.put(idx, pattern.toArray()));
+
+        PivotTable<double[]> pivotTable = new PivotTable<>(setOfArrays, (x_i, x_j) -> {
+            numEvaluations.incrementAndGet();
+            return metric.applyAsDouble(x_i, x_j);
+        }, 12, RAND);
+        assertEquals(12, pivotTable.getNumberOfPivots());
+
+        // ========================================
+        // Neighbors match brute force under the squared form
+        numEvaluations.set(0);
+        Map<Integer, RealVector> setOfQueries = new HashMap<>();
+        for (int idx = 0; idx < 60; idx++) {
+            RealVector query = clusteredVector(RAND.nextInt(8), 5);
+            setOfQueries.put(idx, query);
+
+            NeighborHeap bruteForce = new NeighborHeap(5);
+            for (int position = 0; position < pivotTable.size(); position++) {
+                RealVector delta = setOfPatterns.get(pivotTable.getTrainingID(position))
+                        .subtract(query);
+                bruteForce.offer(delta.dotProduct(metricMatrix.operate(delta)), position);
+            }
+
+            assertArrayEquals(bruteForce.getSortedPositions(),
+                    pivotTable.search(query.toArray(), 5).getSortedPositions());
+        }
+
+        // Most candidates never see the metric
+        assertTrue(numEvaluations.get() < 60L * 800L / 2L);
+
+        // ========================================
+        // And the classifier agrees with the brute force classifier
+        KNNVectorMetric knn = new KNNVectorMetric(setOfPatterns, setOfClasses);
+        int[] kValues = new int[]{1, 5};
+
+        Map<Integer, ClassificationResult> expected = knn.execute(kValues, "Missed",
+                metricMatrix, setOfQueries);
+        Map<Integer, ClassificationResult> result = knn.execute(kValues, "Missed",
+                knn.generatePivotIndex(metricMatrix, 12), setOfQueries);
+
+        for (int kValue : kValues) {
+            assertEquals(expected.get(kValue).getLabelEstimate(),
+                    result.get(kValue).getLabelEstimate());
+        }
+    }
+
+    @Test
+    public void testMatrixMetric() throws NotEnoughDataException {
+
+        Map<Integer, RealMatrix> setOfPatterns = new HashMap<>();
+        Map<Integer, String> setOfClasses = new HashMap<>();
+        for (int idx = 0; idx < 400; idx++) {
+            setOfPatterns.put(idx, randomMatrix(4, 3));
+            setOfClasses.put(idx, (idx % 3 == 0) ? "A" : "B");
+        }
+
+        RealMatrix[] metricMatrix = new RealMatrix[]{
+            randomMetric(3), randomMetric(4)};
+
+        Map<Integer, RealMatrix> setOfQueries = new HashMap<>();
+        for (int idx = 0; idx < 40; idx++) {
+            setOfQueries.put(idx, randomMatrix(4, 3));
+        }
+
+        KNNMatrixMetric knn = new KNNMatrixMetric(setOfPatterns, setOfClasses);
+        int[] kValues = new int[]{1, 3, 7};
+
+        Map<Integer, ClassificationResult> expected = knn.execute(kValues, "Missed",
+                metricMatrix, setOfQueries);
+        Map<Integer, ClassificationResult> result = knn.execute(kValues, "Missed",
+                knn.generatePivotIndex(metricMatrix, 8), setOfQueries);
+
+        for (int kValue : kValues) {
+            assertEquals(expected.get(kValue).getLabelEstimate(),
+                    result.get(kValue).getLabelEstimate());
+        }
+    }
+
+    private RealVector clusteredVector(int cluster, int dimension) {
+        RealVector vector = new ArrayRealVector(dimension);
+        for (int idx = 0; idx < dimension; idx++) {
+            double center = ((cluster >> (idx % 3)) & 1) * 10.0 + cluster;
+            vector.setEntry(idx, center + 0.5 * RAND.nextGaussian());
+        }
+        return vector;
+    }
+
+    private RealMatrix randomMatrix(int rows, int columns) {
+        RealMatrix matrix = MatrixUtils.createRealMatrix(rows, columns);
+        for (int idx = 0; idx < rows; idx++) {
+            for (int jdx = 0; jdx < columns; jdx++) {
+                matrix.setEntry(idx, jdx, RAND.nextGaussian());
+            }
+        }
+        return matrix;
+    }
+
+    private RealMatrix randomMetric(int dimension) {
+        RealMatrix factor = randomMatrix(dimension, dimension);
+        return factor.transpose().multiply(factor);
+    }
+}
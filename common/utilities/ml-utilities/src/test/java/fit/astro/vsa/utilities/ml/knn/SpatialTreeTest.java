@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.math.vector.VectorDistanceType;
+import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.datahandling.training.TrainCrossData;
+import fit.astro.vsa.common.datahandling.training.TrainCrossGenerator;
+import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import fit.astro.vsa.common.utilities.test.classification.GrabIrisData;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class SpatialTreeTest {
+
+    private final Random RAND = new Random(42L);
+
+    private Map<Integer, RealVector> setOfPatterns;
+
+    @Before
+    public void setUp() {
+
+        // Coarse grid so many distances tie
+        setOfPatterns = new HashMap<>();
+        for (int idx = 0; idx < 2000; idx++) {
+            double[] pattern = new double[5];
+            for (int jdx = 0; jdx < pattern.length; jdx++) {
+                pattern[jdx] = RAND.nextInt(8) * 0.25;
+            }
+            setOfPatterns.put(idx, new ArrayRealVector(pattern));
+        }
+    }
+
+    @Test
+    public void testTreesMatchBruteForce() {
+
+        for (VectorDistanceType distanceType : new VectorDistanceType[]{
+            VectorDistanceType.EUCLIDEAN_DISTANCE, VectorDistanceType.CITY_BLOCK}) {
+
+            SpatialTree kdTree = new KDTree(setOfPatterns, distanceType);
+            SpatialTree ballTree = new BallTree(setOfPatterns, distanceType);
+
+            for (int idx = 0; idx < 100; idx++) {
+                double[] query = new double[5];
+                for (int jdx = 0; jdx < query.length; jdx++) {
+                    query[jdx] = RAND.nextDouble() * 2.0;
+                }
+
+                NeighborHeap bruteForce = new NeighborHeap(10);
+                for (int position = 0; position < kdTree.size(); position++) {
+                    bruteForce.offer(kdTree.distance(query, position), position);
+                }
+
+                assertArrayEquals(bruteForce.getSortedPositions(),
+                        kdTree.search(query, 10).getSortedPositions());
+                assertArrayEquals(bruteForce.getSortedPositions(),
+                        ballTree.search(query, 10).getSortedPositions());
+            }
+        }
+    }
+
+    @Test
+    public void testIndexedKNN() throws IOException, URISyntaxException,
+            NotEnoughDataException {
+
+        GrabIrisData grabIrisData = new GrabIrisData();
+        TrainCrossGenerator trainCross = new TrainCrossGenerator(
+                grabIrisData.getSetOfClasses(), RAND);
+
+        TrainCrossData crossData = new TrainCrossData(grabIrisData.getSetOfPatterns(),
+                grabIrisData.getSetOfClasses(), trainCross.getCrossvalMap(), 0);
+
+        KNNVectorMetric knn = new KNNVectorMetric(
+                crossData.getSetOfTrainingPatterns(),
+                crossData.getSetOfTrainingClasses());
+
+        ClassificationResult indexed = knn.execute(5, "Missed",
+                VectorDistanceType.EUCLIDEAN_DISTANCE,
+                crossData.getSetOfCrossvalPatterns());
+
+        ClassificationResult bruteForce = knn.execute(5, "Missed",
+                crossData.getSetOfCrossvalPatterns());
+
+        assertEquals(bruteForce.getLabelEstimate(), indexed.getLabelEstimate());
+        assertEquals(bruteForce.getLabelAndPostProb(), indexed.getLabelAndPostProb());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.knn;
+
+import fit.astro.vsa.common.bindings.ml.ClassificationResult;
+import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric;
+import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.ToDoubleBiFunction;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class VPTreeTest {
+
+    private final Random RAND = new Random(42L);
+
+    @Test
+    public void testMatrixMetric() throws NotEnoughDataException {
+
+        Map<Integer, RealMatrix> setOfPatterns = new HashMap<>();
+        Map<Integer, String> setOfClasses = new HashMap<>();
+        for (int idx = 0; idx < 600; idx++) {
+            setOfPatterns.put(idx, randomMatrix(4, 3));
+            setOfClasses.put(idx, (idx % 3 == 0) ? "A" : "B");
+        }
+
+        RealMatrix[] metricMatrix = new RealMatrix[]{
+            randomMetric(3), randomMetric(4)};
+
+        KNNMatrixMetric knn = new KNNMatrixMetric(setOfPatterns, setOfClasses);
+        NeighborIndex<RealMatrix> vpTree = knn.generateNeighborIndex(metricMatrix);
+
+        // ========================================
+        // Neighbors match brute force under the same metric
+        ToDoubleBiFunction<RealMatrix, RealMatrix> metric
+                = VPTree.matrixMetric(metricMatrix);
+
+        Map<Integer, RealMatrix> setOfQueries = new HashMap<>();
+        for (int idx = 0; idx < 50; idx++) {
+            RealMatrix query = randomMatrix(4, 3);
+            setOfQueries.put(idx, query);
+
+            NeighborHeap bruteForce = new NeighborHeap(7);
+            for (int position = 0; position < vpTree.size(); position++) {
+                bruteForce.offer(metric.applyAsDouble(
+                        setOfPatterns.get(vpTree.getTrainingID(position)), query), position);
+            }
+
+            assertArrayEquals(bruteForce.getSortedPositions(),
+                    vpTree.search(query, 7).getSortedPositions());
+        }
+
+        // ========================================
+        // And the classifier agrees with the brute force classifier
+        int[] kValues = new int[]{1, 3, 7};
+        Map<Integer, ClassificationResult> expected = knn.execute(kValues, "Missed",
+                metricMatrix, setOfQueries);
+        Map<Integer, ClassificationResult> result = knn.execute(kValues, "Missed",
+                vpTree, setOfQueries);
+
+        for (int kValue : kValues) {
+            assertEquals(expected.get(kValue).getLabelEstimate(),
+                    result.get(kValue).getLabelEstimate());
+        }
+    }
+
+    @Test
+    public void testMultiViewMetric() throws NotEnoughDataException {
+
+        Map<Integer, Map<String, RealVector>> setOfPatterns = new HashMap<>();
+        Map<Integer, String> setOfClasses = new HashMap<>();
+        for (int idx = 0; idx < 600; idx++) {
+            setOfPatterns.put(idx, randomViews());
+            setOfClasses.put(idx, (idx % 2 == 0) ? "A" : "B");
+        }
+
+        Map<String, MultiViewMetric> multiMatrix = new HashMap<>();
+        multiMatrix.put("color", new MultiViewMetric(randomMetric(2), 0.3));
+        multiMatrix.put("shape", new MultiViewMetric(randomMetric(5), 0.7));
+
+        KNNMultiVectorMetric knn = new KNNMultiVectorMetric(setOfPatterns, setOfClasses);
+
+        Map<Integer, Map<String, RealVector>> setOfQueries = new HashMap<>();
+        for (int idx = 0; idx < 50; idx++) {
+            setOfQueries.put(idx, randomViews());
+        }
+
+        Map<Integer, ClassificationResult> expected = knn.execute(new int[]{5},
+                "Missed", multiMatrix, setOfQueries);
+        Map<Integer, ClassificationResult> result = knn.execute(new int[]{5},
+                "Missed", knn.generateNeighborIndex(multiMatrix), setOfQueries);
+
+        assertEquals(expected.get(5).getLabelEstimate(),
+                result.get(5).getLabelEstimate());
+    }
+
+    private Map<String, RealVector> randomViews() {
+        Map<String, RealVector> views = new HashMap<>();
+        views.put("color", new ArrayRealVector(new double[]{
+            RAND.nextGaussian(), RAND.nextGaussian()}));
+        views.put("shape", randomMatrix(5, 1).getColumnVector(0));
+        return views;
+    }
+
+    private RealMatrix randomMatrix(int rows, int columns) {
+        RealMatrix matrix = MatrixUtils.createRealMatrix(rows, columns);
+        for (int idx = 0; idx < rows; idx++) {
+            for (int jdx = 0; jdx < columns; jdx++) {
+                matrix.setEntry(idx, jdx, RAND.nextGaussian());
+            }
+        }
+        return matrix;
+    }
+
+    private RealMatrix randomMetric(int dimension) {
+        RealMatrix factor = randomMatrix(dimension, dimension);
+        return factor.transpose().multiply(factor);
+    }
+}
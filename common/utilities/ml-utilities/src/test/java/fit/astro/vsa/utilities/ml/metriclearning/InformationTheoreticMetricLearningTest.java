@@ -16,6 +16,9 @@
  */
 package fit.astro.vsa.utilities.ml.metriclearning;
 
+import fit.astro.vsa.utilities.ml.metriclearning.itml.ITMLConstraint;
+import fit.astro.vsa.utilities.ml.metriclearning.itml.ITMLProjectionEngine;
+import fit.astro.vsa.utilities.ml.metriclearning.itml.ITMLProjectionEngine.ConstraintOrder;
 import fit.astro.vsa.utilities.ml.metriclearning.itml.InformationTheoreticMetricLearning;
 import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataException;
 import fit.astro.vsa.common.utilities.test.classification.GrabIrisData;
@@ -26,9 +29,12 @@ import fit.astro.vsa.common.datahandling.training.TrainCrossData;
 import fit.astro.vsa.common.datahandling.training.TrainCrossTestGenerator;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.junit.AfterClass;
@@ -94,6 +100,104 @@ public class InformationTheoreticMetricLearningTest {
         itml.setRandom(RAND);
         RealMatrix mk = itml.execute();
 
+        double[] errors = crossvalErrors(mk);
+
+        LOGGER.info("===========================================");
+        LOGGER.info("With ITML, k-NN -> 1");
+        LOGGER.info("With Learned Metric Error: " + errors[0]);
+        LOGGER.info("Without Learned Metric Error: " + errors[1]);
+
+        assertEquals(Boolean.TRUE, errors[0] <= errors[1]);
+    }
+
+    @Test
+    public void testITML_RandomOrder() throws IOException, NotEnoughDataException {
+
+        InformationTheoreticMetricLearning itml
+                = new InformationTheoreticMetricLearning(
+                        setOfPatterns, setOfClasses);
+
+        itml.setRandom(RAND);
+        itml.setConstraintOrder(ConstraintOrder.RANDOM);
+        RealMatrix mk = itml.execute();
+
+        double[] errors = crossvalErrors(mk);
+
+        LOGGER.info("===========================================");
+        LOGGER.info("With ITML, random order, k-NN -> 1");
+        LOGGER.info("With Learned Metric Error: " + errors[0]);
+        LOGGER.info("Without Learned Metric Error: " + errors[1]);
+
+        assertEquals(Boolean.TRUE, errors[0] <= errors[1]);
+    }
+
+    @Test
+    public void testRankOneProjection() {
+
+        int D = 6;
+
+        // ==================================================================
+        List<ITMLConstraint> constraints = new ArrayList<>();
+        for (int idx = 0; idx < 40; idx++) {
+            double[] deltaij = new double[D];
+            for (int jdx = 0; jdx < D; jdx++) {
+                deltaij[jdx] = RAND.nextGaussian();
+            }
+            if (idx % 2 == 0) {
+                constraints.add(new ITMLConstraint(1, 2.0, new ArrayRealVector(deltaij)));
+            } else {
+                constraints.add(new ITMLConstraint(-1, 10.0, new ArrayRealVector(deltaij)));
+            }
+        }
+
+        ITMLProjectionEngine engine = new ITMLProjectionEngine(constraints);
+        engine.setREL_ERROR(1e-8);
+        RealMatrix a_matrix = MatrixUtils.createRealMatrix(
+                engine.execute(MatrixUtils.createRealIdentityMatrix(D).getData()));
+
+        // ==================================================================
+        // Dense projections, A = A + beta A v v' A
+        double slack = 1e-4;
+        double gammaProjected = slack / (slack + 1);
+
+        RealMatrix expected = MatrixUtils.createRealIdentityMatrix(D);
+        double[] lambda = new double[constraints.size()];
+        double[] bHat = new double[constraints.size()];
+        for (int idx = 0; idx < constraints.size(); idx++) {
+            bHat[idx] = constraints.get(idx).getBound();
+        }
+
+        double conv = Double.MAX_VALUE;
+        while (conv >= 1e-8) {
+            double[] bHatOld = bHat.clone();
+
+            for (int idx = 0; idx < constraints.size(); idx++) {
+                RealVector v = constraints.get(idx).getDeltaij();
+                double y = constraints.get(idx).getY();
+
+                double distance = v.dotProduct(expected.operate(v));
+                double alpha = Math.min(lambda[idx],
+                        y * gammaProjected * (1 / distance - 1 / bHat[idx]));
+                lambda[idx] = lambda[idx] - alpha;
+
+                double beta = y * alpha / (1 - y * alpha * distance);
+                bHat[idx] = 1 / ((1 / bHat[idx]) + y * (alpha / slack));
+
+                expected = expected.add(expected.multiply(v.outerProduct(v))
+                        .multiply(expected).scalarMultiply(beta));
+            }
+
+            RealVector now = new ArrayRealVector(bHat);
+            RealVector before = new ArrayRealVector(bHatOld);
+            conv = now.subtract(before).getNorm() / (now.getNorm() + before.getNorm());
+        }
+
+        assertEquals(0.0, a_matrix.subtract(expected).getNorm(), 1e-8 * expected.getNorm());
+        assertEquals(0.0, a_matrix.subtract(a_matrix.transpose()).getNorm(), 0.0);
+    }
+
+    private double[] crossvalErrors(RealMatrix mk) throws NotEnoughDataException {
+
         // ==================================================================
         double withError = 0;
         double withoutError = 0;
@@ -131,12 +235,7 @@ public class InformationTheoreticMetricLearningTest {
             withoutError = withoutError + errorWithoutNow / (double) crossvalMap.keySet().size();
         }
 
-        LOGGER.info("===========================================");
-        LOGGER.info("With ITML, k-NN -> 1");
-        LOGGER.info("With Learned Metric Error: " + withError);
-        LOGGER.info("Without Learned Metric Error: " + withoutError);
-
-        assertEquals(Boolean.TRUE, withError <= withoutError);
+        return new double[]{withError, withoutError};
     }
 
 }
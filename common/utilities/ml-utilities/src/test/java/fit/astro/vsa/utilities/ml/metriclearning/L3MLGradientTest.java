@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning;
+
+import fit.astro.vsa.common.utilities.math.NumericTests;
+import fit.astro.vsa.utilities.ml.MetricDistance;
+import fit.astro.vsa.utilities.ml.MetricDistance_MV;
+import fit.astro.vsa.utilities.ml.metriclearning.l3ml.L3MLVariable;
+import fit.astro.vsa.utilities.ml.metriclearning.l3ml.L3ML_MetricLearningGradientGenerator;
+import fit.astro.vsa.utilities.ml.metriclearning.l3ml_mv.L3MLVariable_MV;
+import fit.astro.vsa.utilities.ml.metriclearning.l3ml_mv.L3ML_MV_MetricLearningGradientGenerator;
+import fit.astro.vsa.utilities.ml.utils.SupportingFunctionality;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * The L3ML gradients against the sums taken term by term
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class L3MLGradientTest {
+
+    private static final String[] VIEWS = {"first", "second"};
+    private static final String[] LABELS = {"a", "b", "c"};
+    private static final int NUM_SAMPLES = 60;
+
+    private final Random RAND = new Random(7L);
+
+    @Test
+    public void testGradient() {
+
+        int[] dimensions = {4, 3};
+
+        Map<Integer, Map<String, RealVector>> mapOfPatterns = new HashMap<>();
+        Map<Integer, String> mapOfClasses = new HashMap<>();
+        for (int idx = 0; idx < NUM_SAMPLES; idx++) {
+            Map<String, RealVector> views = new HashMap<>();
+            for (int vdx = 0; vdx < VIEWS.length; vdx++) {
+                views.put(VIEWS[vdx], randomMatrix(1, dimensions[vdx], idx % 3).getRowVector(0));
+            }
+            mapOfPatterns.put(idx, views);
+            mapOfClasses.put(idx, LABELS[idx % 3]);
+        }
+
+        Map<String, L3MLVariable> l3mlVariables = new HashMap<>();
+        for (int vdx = 0; vdx < VIEWS.length; vdx++) {
+            l3mlVariables.put(VIEWS[vdx], new L3MLVariable(
+                    randomMatrix(dimensions[vdx], dimensions[vdx], 0), 0.5, 1.0, 2.0));
+        }
+
+        L3ML_MetricLearningGradientGenerator generator
+                = new L3ML_MetricLearningGradientGenerator(mapOfPatterns, mapOfClasses);
+
+        for (String kdx : VIEWS) {
+            RealMatrix gradient = generator.generateLk(kdx, l3mlVariables);
+
+            // ========================================
+            // Term by term, every ordered pair
+            L3MLVariable l3mlVariable_k = l3mlVariables.get(kdx);
+            RealMatrix lk = l3mlVariable_k.getLk();
+            MetricDistance metricDistanceK = new MetricDistance(lk.transpose().multiply(lk));
+
+            RealMatrix sumij = MatrixUtils.createRealMatrix(lk.getColumnDimension(),
+                    lk.getColumnDimension());
+            RealMatrix sumij_Cross = sumij.copy();
+
+            for (Integer idx : mapOfPatterns.keySet()) {
+                for (Integer jdx : mapOfPatterns.keySet()) {
+                    if (idx.equals(jdx)) {
+                        continue;
+                    }
+                    RealVector x_i = mapOfPatterns.get(idx).get(kdx);
+                    RealVector x_j = mapOfPatterns.get(jdx).get(kdx);
+                    RealMatrix cij = x_i.subtract(x_j).outerProduct(x_i.subtract(x_j));
+
+                    double y_ij = mapOfClasses.get(idx).equals(mapOfClasses.get(jdx)) ? 1 : -1;
+                    double z = l3mlVariable_k.getTau()
+                            - y_ij * (l3mlVariable_k.getMu() - metricDistanceK.distance(x_i, x_j));
+                    sumij = sumij.add(cij.scalarMultiply(
+                            SupportingFunctionality.HingePrimeApproxGLL(z) * y_ij));
+
+                    double d_k = metricDistanceK.distanceSqrt(x_i, x_j);
+                    for (String ldx : VIEWS) {
+                        if (ldx.equals(kdx) || NumericTests.isApproxZero(d_k)) {
+                            continue;
+                        }
+                        RealMatrix ll = l3mlVariables.get(ldx).getLk();
+                        double d_l = new MetricDistance(ll.transpose().multiply(ll)).distanceSqrt(
+                                mapOfPatterns.get(idx).get(ldx), mapOfPatterns.get(jdx).get(ldx));
+                        sumij_Cross = sumij_Cross.add(cij.scalarMultiply(1 - d_l / d_k));
+                    }
+                }
+            }
+
+            RealMatrix expected = lk.multiply(sumij.scalarMultiply(0.25)
+                    .add(sumij_Cross.scalarMultiply(0.1))).scalarMultiply(2.0);
+
+            assertEquals(0.0, gradient.subtract(expected).getNorm(), 1e-10 * expected.getNorm());
+
+            // The same sums in the same order, every time
+            assertEquals(0.0, gradient.subtract(generator.generateLk(kdx, l3mlVariables))
+                    .getNorm(), 0.0);
+        }
+    }
+
+    @Test
+    public void testGradient_MV() {
+
+        int[][] shapes = {{3, 4}, {2, 3}};
+
+        Map<Integer, Map<String, RealMatrix>> mapOfPatterns = new HashMap<>();
+        Map<Integer, String> mapOfClasses = new HashMap<>();
+        for (int idx = 0; idx < NUM_SAMPLES; idx++) {
+            Map<String, RealMatrix> views = new HashMap<>();
+            for (int vdx = 0; vdx < VIEWS.length; vdx++) {
+                views.put(VIEWS[vdx], randomMatrix(shapes[vdx][0], shapes[vdx][1], idx % 3));
+            }
+            mapOfPatterns.put(idx, views);
+            mapOfClasses.put(idx, LABELS[idx % 3]);
+        }
+
+        // Four others of the same class as target neighbors
+        Map<Integer, List<Integer>> classMemberNear = new HashMap<>();
+        for (int idx = 0; idx < NUM_SAMPLES; idx++) {
+            List<Integer> listxj = new ArrayList<>();
+            for (int jdx = idx % 3; listxj.size() < 4; jdx += 3) {
+                if (jdx != idx) {
+                    listxj.add(jdx);
+                }
+            }
+            classMemberNear.put(idx, listxj);
+        }
+
+        Map<String, L3MLVariable_MV> l3mlVariables = new HashMap<>();
+        for (int vdx = 0; vdx < VIEWS.length; vdx++) {
+            l3mlVariables.put(VIEWS[vdx], new L3MLVariable_MV(
+                    randomMatrix(shapes[vdx][1], shapes[vdx][1], 0),
+                    randomMatrix(shapes[vdx][0], shapes[vdx][0], 0), 0.5));
+        }
+
+        L3ML_MV_MetricLearningGradientGenerator generator
+                = new L3ML_MV_MetricLearningGradientGenerator(
+                        classMemberNear, mapOfPatterns, mapOfClasses);
+
+        for (String kdx : VIEWS) {
+            RealMatrix[] gradient = generator.generateLk(kdx, l3mlVariables);
+
+            // ========================================
+            // Term by term
+            L3MLVariable_MV l3mlVariable = l3mlVariables.get(kdx);
+            RealMatrix uk = l3mlVariable.getUk();
+            RealMatrix vk = l3mlVariable.getVk();
+            MetricDistance_MV metricDistanceK = new MetricDistance_MV(uk, vk);
+            double scaleMN = uk.getColumnDimension() * vk.getColumnDimension();
+
+            RealMatrix[] pull = {zeros(uk), zeros(vk)};
+            RealMatrix[] push = {zeros(uk), zeros(vk)};
+            RealMatrix[] cross = {zeros(uk), zeros(vk)};
+
+            for (Integer idx : classMemberNear.keySet()) {
+                RealMatrix x_i = mapOfPatterns.get(idx).get(kdx);
+
+                for (Integer jdx : classMemberNear.get(idx)) {
+                    RealMatrix[] abij = pairMatrices(
+                            x_i.subtract(mapOfPatterns.get(jdx).get(kdx)), uk, vk);
+                    double distanceij = metricDistanceK.matrixDistance(
+                            x_i, mapOfPatterns.get(jdx).get(kdx));
+
+                    for (Integer ldx : mapOfPatterns.keySet()) {
+                        if (mapOfClasses.get(ldx).equals(mapOfClasses.get(idx))) {
+                            continue;
+                        }
+                        RealMatrix x_l = mapOfPatterns.get(ldx).get(kdx);
+                        RealMatrix[] abil = pairMatrices(x_i.subtract(x_l), uk, vk);
+                        double hPrime = SupportingFunctionality.HingePrimeApproxGLL(
+                                1 + distanceij - metricDistanceK.matrixDistance(x_i, x_l));
+
+                        for (int gdx = 0; gdx < 2; gdx++) {
+                            push[gdx] = push[gdx].add(
+                                    abij[gdx].subtract(abil[gdx]).scalarMultiply(hPrime));
+                        }
+                    }
+
+                    for (String qdx : VIEWS) {
+                        if (qdx.equals(kdx)) {
+                            continue;
+                        }
+                        L3MLVariable_MV l3mlVariableQ = l3mlVariables.get(qdx);
+                        double scaleAB = l3mlVariableQ.getUk().getColumnDimension()
+                                * l3mlVariableQ.getVk().getColumnDimension();
+                        double d_ij_q = new MetricDistance_MV(l3mlVariableQ.getUk(),
+                                l3mlVariableQ.getVk()).matrixDistance(
+                                        mapOfPatterns.get(idx).get(qdx),
+                                        mapOfPatterns.get(jdx).get(qdx));
+
+                        for (int gdx = 0; gdx < 2; gdx++) {
+                            cross[gdx] = cross[gdx].add(abij[gdx].scalarMultiply(
+                                    (distanceij / scaleMN / scaleMN
+                                    - d_ij_q / scaleAB / scaleAB) / scaleMN));
+                        }
+                    }
+
+                    for (int gdx = 0; gdx < 2; gdx++) {
+                        pull[gdx] = pull[gdx].add(abij[gdx]);
+                    }
+                }
+            }
+
+            RealMatrix[] factors = {l3mlVariable.getGammak(), l3mlVariable.getNuk()};
+            for (int gdx = 0; gdx < 2; gdx++) {
+                int dimension = factors[gdx].getColumnDimension();
+                RealMatrix reg = MatrixUtils.createRealIdentityMatrix(dimension)
+                        .scalarMultiply(0.5 / (dimension * dimension));
+
+                RealMatrix expected = factors[gdx].multiply(pull[gdx].scalarMultiply(0.5 / scaleMN)
+                        .add(push[gdx].scalarMultiply(0.5 / scaleMN)).add(reg))
+                        .scalarAdd(2.0).scalarMultiply(0.25)
+                        .add(factors[gdx].multiply(cross[gdx]).scalarMultiply(2.0 / scaleMN));
+
+                assertEquals(0.0, gradient[gdx].subtract(expected).getNorm(),
+                        1e-10 * expected.getNorm());
+            }
+
+            // The same sums in the same order, every time
+            RealMatrix[] again = generator.generateLk(kdx, l3mlVariables);
+            for (int gdx = 0; gdx < 2; gdx++) {
+                assertEquals(0.0, gradient[gdx].subtract(again[gdx]).getNorm(), 0.0);
+            }
+        }
+    }
+
+    private static RealMatrix[] pairMatrices(RealMatrix deltaij, RealMatrix uk, RealMatrix vk) {
+        return new RealMatrix[]{
+            deltaij.transpose().multiply(vk).multiply(deltaij),
+            deltaij.multiply(uk).multiply(deltaij.transpose())};
+    }
+
+    private static RealMatrix zeros(RealMatrix shape) {
+        return MatrixUtils.createRealMatrix(shape.getRowDimension(), shape.getColumnDimension());
+    }
+
+    /**
+     * Identity plus a class dependent offset and Gaussian noise
+     */
+    private RealMatrix randomMatrix(int rows, int columns, int mean) {
+
+        RealMatrix matrix = MatrixUtils.createRealMatrix(rows, columns);
+        for (int idx = 0; idx < rows; idx++) {
+            for (int jdx = 0; jdx < columns; jdx++) {
+                matrix.setEntry(idx, jdx, (idx == jdx ? 1.0 : 0.0) + mean + 0.3 * RAND.nextGaussian());
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning;
+
+import fit.astro.vsa.utilities.ml.metriclearning.l3ml.L3MLVariable;
+import fit.astro.vsa.utilities.ml.metriclearning.l3ml.L3ML_MetricLearningGradientGenerator;
+import fit.astro.vsa.utilities.ml.metriclearning.l3ml.L3ML_MetricLearningObjective;
+import fit.astro.vsa.utilities.ml.metriclearning.l3ml_mv.L3MLVariable_MV;
+import fit.astro.vsa.utilities.ml.metriclearning.l3ml_mv.L3ML_MV_MetricLearningGradientGenerator;
+import fit.astro.vsa.utilities.ml.metriclearning.l3ml_mv.L3ML_MV_MetricLearningObjective;
+import fit.astro.vsa.utilities.ml.utils.ViewScheduler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * The L3ML views evaluated in parallel by ViewScheduler against the same
+ * evaluations taken one view after the other
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class L3MLViewSchedulerTest {
+
+    private static final String[] VIEWS = {"first", "second", "third", "fourth"};
+    private static final String[] LABELS = {"a", "b", "c"};
+    private static final int NUM_SAMPLES = 45;
+    private static final int NUM_REPEATS = 5;
+
+    private final Random RAND = new Random(13L);
+
+    @Test
+    public void testMap() {
+
+        List<String> views = Arrays.asList(VIEWS);
+        Map<String, Integer> lengths = ViewScheduler.map(views, String::length);
+
+        assertEquals(views, new ArrayList<>(lengths.keySet()));
+        for (String view : views) {
+            assertEquals(view.length(), lengths.get(view).intValue());
+        }
+    }
+
+    @Test
+    public void testViews() {
+
+        int[] dimensions = {4, 3, 5, 2};
+
+        Map<Integer, Map<String, RealVector>> mapOfPatterns = new HashMap<>();
+        Map<Integer, String> mapOfClasses = new HashMap<>();
+        for (int idx = 0; idx < NUM_SAMPLES; idx++) {
+            Map<String, RealVector> views = new HashMap<>();
+            for (int vdx = 0; vdx < VIEWS.length; vdx++) {
+                views.put(VIEWS[vdx], randomMatrix(1, dimensions[vdx], idx % 3).getRowVector(0));
+            }
+            mapOfPatterns.put(idx, views);
+            mapOfClasses.put(idx, LABELS[idx % 3]);
+        }
+
+        Map<String, L3MLVariable> l3mlVariables = new HashMap<>();
+        for (int vdx = 0; vdx < VIEWS.length; vdx++) {
+            l3mlVariables.put(VIEWS[vdx], new L3MLVariable(
+                    randomMatrix(dimensions[vdx], dimensions[vdx], 0), 0.5, 1.0, 2.0));
+        }
+
+        L3ML_MetricLearningGradientGenerator generator
+                = new L3ML_MetricLearningGradientGenerator(mapOfPatterns, mapOfClasses);
+        L3ML_MetricLearningObjective objective
+                = new L3ML_MetricLearningObjective(mapOfPatterns, mapOfClasses);
+
+        // ========================================
+        // One view after the other
+        Map<String, RealMatrix> gradients = new HashMap<>();
+        Map<String, Double> ikMap = new HashMap<>();
+        for (String kdx : VIEWS) {
+            gradients.put(kdx, generator.generateLk(kdx, l3mlVariables));
+            ikMap.put(kdx, objective.valueIK(kdx, l3mlVariables));
+        }
+        Map<String, Double> jkMap = new HashMap<>();
+        for (String kdx : VIEWS) {
+            jkMap.put(kdx, objective.valueJK(kdx, l3mlVariables, ikMap));
+        }
+
+        // ========================================
+        // In parallel, every time the same
+        for (int repeat = 0; repeat < NUM_REPEATS; repeat++) {
+            Map<String, RealMatrix> parallel = ViewScheduler.map(l3mlVariables.keySet(),
+                    (kdx) -> generator.generateLk(kdx, l3mlVariables));
+            Map<String, Double> parallelJK = ViewScheduler.map(l3mlVariables.keySet(),
+                    (kdx) -> objective.valueJK(kdx, l3mlVariables, ikMap));
+
+            for (String kdx : VIEWS) {
+                assertEquals(0.0, parallel.get(kdx).subtract(gradients.get(kdx)).getNorm(), 0.0);
+                assertEquals(jkMap.get(kdx), parallelJK.get(kdx), 0.0);
+            }
+        }
+
+        // Weights from the objectives taken in parallel
+        assertEquals(ikMap, generator.updateWeight(l3mlVariables));
+
+        double sumOverK = 0;
+        for (String kdx : VIEWS) {
+            sumOverK += Math.pow(1.0 / ikMap.get(kdx), 1.0 / (1.0 - 2.0));
+        }
+        for (String kdx : VIEWS) {
+            assertEquals(Math.pow(1.0 / ikMap.get(kdx), 1.0 / (1.0 - 2.0)) / sumOverK,
+                    l3mlVariables.get(kdx).getWeight(), 1e-15);
+        }
+    }
+
+    @Test
+    public void testViews_MV() {
+
+        int[][] shapes = {{3, 4}, {2, 3}, {2, 2}, {4, 2}};
+
+        Map<Integer, Map<String, RealMatrix>> mapOfPatterns = new HashMap<>();
+        Map<Integer, String> mapOfClasses = new HashMap<>();
+        for (int idx = 0; idx < NUM_SAMPLES; idx++) {
+            Map<String, RealMatrix> views = new HashMap<>();
+            for (int vdx = 0; vdx < VIEWS.length; vdx++) {
+                views.put(VIEWS[vdx], randomMatrix(shapes[vdx][0], shapes[vdx][1], idx % 3));
+            }
+            mapOfPatterns.put(idx, views);
+            mapOfClasses.put(idx, LABELS[idx % 3]);
+        }
+
+        // Four others of the same class as target neighbors
+        Map<Integer, List<Integer>> classMemberNear = new HashMap<>();
+        for (int idx = 0; idx < NUM_SAMPLES; idx++) {
+            List<Integer> listxj = new ArrayList<>();
+            for (int jdx = idx % 3; listxj.size() < 4; jdx += 3) {
+                if (jdx != idx) {
+                    listxj.add(jdx);
+                }
+            }
+            classMemberNear.put(idx, listxj);
+        }
+
+        Map<String, L3MLVariable_MV> l3mlVariables = new HashMap<>();
+        for (int vdx = 0; vdx < VIEWS.length; vdx++) {
+            l3mlVariables.put(VIEWS[vdx], new L3MLVariable_MV(
+                    randomMatrix(shapes[vdx][1], shapes[vdx][1], 0),
+                    randomMatrix(shapes[vdx][0], shapes[vdx][0], 0), 0.5));
+        }
+
+        L3ML_MV_MetricLearningGradientGenerator generator
+                = new L3ML_MV_MetricLearningGradientGenerator(
+                        classMemberNear, mapOfPatterns, mapOfClasses);
+        L3ML_MV_MetricLearningObjective objective
+                = new L3ML_MV_MetricLearningObjective(
+                        classMemberNear, mapOfPatterns, mapOfClasses);
+
+        // ========================================
+        // One view after the other
+        Map<String, RealMatrix[]> gradients = new HashMap<>();
+        Map<String, Double> ikMap = new HashMap<>();
+        for (String kdx : VIEWS) {
+            gradients.put(kdx, generator.generateLk(kdx, l3mlVariables));
+            ikMap.put(kdx, objective.valueIK(kdx, l3mlVariables));
+        }
+        Map<String, Double> jkMap = new HashMap<>();
+        for (String kdx : VIEWS) {
+            jkMap.put(kdx, objective.valueJK(kdx, l3mlVariables, ikMap));
+        }
+
+        // ========================================
+        // In parallel, every time the same
+        for (int repeat = 0; repeat < NUM_REPEATS; repeat++) {
+            Map<String, RealMatrix[]> parallel = ViewScheduler.map(l3mlVariables.keySet(),
+                    (kdx) -> generator.generateLk(kdx, l3mlVariables));
+            Map<String, Double> parallelJK = ViewScheduler.map(l3mlVariables.keySet(),
+                    (kdx) -> objective.valueJK(kdx, l3mlVariables, ikMap));
+
+            for (String kdx : VIEWS) {
+                for (int gdx = 0; gdx < 2; gdx++) {
+                    assertEquals(0.0, parallel.get(kdx)[gdx]
+                            .subtract(gradients.get(kdx)[gdx]).getNorm(), 0.0);
+                }
+                assertEquals(jkMap.get(kdx), parallelJK.get(kdx), 0.0);
+            }
+        }
+
+        // Weights from the objectives taken in parallel
+        assertEquals(ikMap, generator.updateWeight(l3mlVariables));
+    }
+
+    /**
+     * Identity plus a class dependent offset and Gaussian noise
+     */
+    private RealMatrix randomMatrix(int rows, int columns, int mean) {
+
+        RealMatrix matrix = MatrixUtils.createRealMatrix(rows, columns);
+        for (int idx = 0; idx < rows; idx++) {
+            for (int jdx = 0; jdx < columns; jdx++) {
+                matrix.setEntry(idx, jdx, (idx == jdx ? 1.0 : 0.0) + mean + 0.3 * RAND.nextGaussian());
+            }
+        }
+        return matrix;
+    }
+}
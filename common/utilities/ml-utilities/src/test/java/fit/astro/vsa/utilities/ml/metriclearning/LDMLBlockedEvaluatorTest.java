@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning;
+
+import fit.astro.vsa.utilities.ml.metriclearning.ldml.LDML_BlockedEvaluator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The blocked LDML objective and gradient against the sums taken term by term
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class LDMLBlockedEvaluatorTest {
+
+    private static final int NUM_SAMPLES = 75;
+    private static final int NUM_CLASSES = 3;
+    private static final int DIMENSION = 4;
+
+    private final Random RAND = new Random(5L);
+
+    private Map<Integer, RealVector> setOfPatterns;
+    private Map<Integer, RealVector> ySet;
+    private RealMatrix lk;
+
+    @Before
+    public void setUp() {
+
+        RealVector[] yVectors = new RealVector[NUM_CLASSES];
+        for (int cdx = 0; cdx < NUM_CLASSES; cdx++) {
+            yVectors[cdx] = new ArrayRealVector(NUM_CLASSES);
+            yVectors[cdx].setEntry(cdx, cdx);
+        }
+
+        this.setOfPatterns = new HashMap<>();
+        this.ySet = new HashMap<>();
+        for (int idx = 0; idx < NUM_SAMPLES; idx++) {
+            RealVector pattern = new ArrayRealVector(DIMENSION);
+            for (int kdx = 0; kdx < DIMENSION; kdx++) {
+                pattern.setEntry(kdx, (kdx == idx % NUM_CLASSES ? 0.5 : 0.0)
+                        + 0.3 * RAND.nextGaussian());
+            }
+            setOfPatterns.put(3 * idx + 1, pattern);
+            ySet.put(3 * idx + 1, yVectors[idx % NUM_CLASSES]);
+        }
+
+        this.lk = MatrixUtils.createRealMatrix(DIMENSION, DIMENSION);
+        for (int idx = 0; idx < DIMENSION; idx++) {
+            for (int jdx = 0; jdx < DIMENSION; jdx++) {
+                lk.setEntry(idx, jdx, (idx == jdx ? 1.0 : 0.0) + 0.2 * RAND.nextGaussian());
+            }
+        }
+    }
+
+    @Test
+    public void testEvaluate() {
+
+        // ========================================
+        // Term by term, every ordered pair
+        RealMatrix metric = lk.transpose().multiply(lk);
+
+        double expectation = 0;
+        RealMatrix sumij = MatrixUtils.createRealMatrix(DIMENSION, DIMENSION);
+        for (Integer idx : setOfPatterns.keySet()) {
+            for (Integer jdx : setOfPatterns.keySet()) {
+                RealVector delta = setOfPatterns.get(idx).subtract(setOfPatterns.get(jdx));
+
+                double t_ij = ySet.get(idx).dotProduct(ySet.get(jdx));
+                double p_ij = 1.0 / (1.0 + Math.exp(-(0.01 - delta.dotProduct(metric.operate(delta)))));
+
+                expectation += t_ij * Math.log(p_ij) + (1 - t_ij) * Math.log(1 - p_ij);
+                sumij = sumij.add(delta.outerProduct(delta).scalarMultiply(t_ij - p_ij));
+            }
+        }
+        RealMatrix expected = lk.multiply(sumij);
+
+        // Partial tiles, then one partial sum of smaller tiles
+        LDML_BlockedEvaluator evaluator = new LDML_BlockedEvaluator(setOfPatterns, ySet);
+        evaluator.setTILE_SIZE(16);
+        for (long maxMemory : new long[]{64L << 20, 3000L}) {
+            evaluator.setMAX_MEMORY(maxMemory);
+            evaluator.evaluate(lk);
+
+            assertEquals(expectation, evaluator.getValue(), 1e-10 * Math.abs(expectation));
+            assertEquals(0.0, evaluator.getGradient().subtract(expected).getNorm(),
+                    1e-10 * expected.getNorm());
+        }
+
+        // A budget above the number of pairs samples every pair
+        evaluator.setPAIR_BUDGET(NUM_SAMPLES * NUM_SAMPLES);
+        evaluator.evaluate(lk);
+        assertEquals(expectation, evaluator.getValue(), 1e-10 * Math.abs(expectation));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxMemory() {
+
+        // Below the projections and a single partial sum
+        LDML_BlockedEvaluator evaluator = new LDML_BlockedEvaluator(setOfPatterns, ySet);
+        evaluator.setMAX_MEMORY(2000L);
+        evaluator.evaluate(lk);
+    }
+
+    @Test
+    public void testPairBudget() {
+
+        LDML_BlockedEvaluator evaluator = new LDML_BlockedEvaluator(setOfPatterns, ySet);
+        evaluator.evaluate(lk);
+        double expectation = evaluator.getValue();
+        RealMatrix expected = evaluator.getGradient();
+
+        // Unbiased, the mean over samples tends to the full sums
+        int numSeeds = 100;
+        double meanValue = 0;
+        RealMatrix meanGradient = MatrixUtils.createRealMatrix(DIMENSION, DIMENSION);
+
+        evaluator.setPAIR_BUDGET(400);
+        for (int seed = 0; seed < numSeeds; seed++) {
+            evaluator.setSEED(seed);
+            evaluator.evaluate(lk);
+
+            meanValue += evaluator.getValue() / numSeeds;
+            meanGradient = meanGradient.add(evaluator.getGradient().scalarMultiply(1.0 / numSeeds));
+        }
+
+        assertEquals(expectation, meanValue, 0.02 * Math.abs(expectation));
+        assertEquals(0.0, meanGradient.subtract(expected).getNorm(), 0.05 * expected.getNorm());
+
+        // The same sample for the same seed
+        evaluator.setSEED(3);
+        evaluator.evaluate(lk);
+        double value = evaluator.getValue();
+        evaluator.evaluate(lk);
+        assertEquals(value, evaluator.getValue(), 0.0);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning;
+
+import fit.astro.vsa.common.utilities.test.classification.GrabIrisData;
+import fit.astro.vsa.utilities.ml.knn.GenerateNeighbors;
+import fit.astro.vsa.utilities.ml.metriclearning.lmnn.LMNN_ActiveSet;
+import fit.astro.vsa.utilities.ml.metriclearning.lmnn.LMNN_MetricLearningGradientGenerator;
+import fit.astro.vsa.utilities.ml.metriclearning.lmnn.LMNN_MetricLearningObjective;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class LMNNActiveSetTest {
+
+    private final Random RAND = new Random(42L);
+
+    @Test
+    public void testActiveSet() throws IOException, URISyntaxException {
+
+        GrabIrisData grabIrisData = new GrabIrisData();
+        Map<Integer, RealVector> setOfPatterns = grabIrisData.getSetOfPatterns();
+        Map<Integer, String> setOfClasses = grabIrisData.getSetOfClasses();
+
+        Map<Integer, List<Integer>> classMemberNear
+                = new GenerateNeighbors(setOfPatterns, setOfClasses).kNN(5);
+
+        LMNN_MetricLearningObjective objective = new LMNN_MetricLearningObjective(
+                classMemberNear, setOfPatterns, setOfClasses);
+        LMNN_MetricLearningGradientGenerator generator
+                = new LMNN_MetricLearningGradientGenerator(
+                        classMemberNear, setOfPatterns, setOfClasses);
+
+        LMNN_ActiveSet activeSet = new LMNN_ActiveSet(
+                classMemberNear, setOfPatterns, setOfClasses);
+
+        // ========================================
+        // A full refresh is the full objective, some triplets inactive
+        RealMatrix lk = randomTransform(4.0);
+        activeSet.refresh(lk);
+
+        assertTrue(activeSet.getNumberOfTriplets() > 0);
+        assertEquals(objective.valueL(lk), activeSet.getValue(),
+                1e-10 * Math.abs(objective.valueL(lk)));
+        RealMatrix expected = generator.execute(lk);
+        assertEquals(0.0, activeSet.getGradient().subtract(expected).getNorm(),
+                1e-10 * expected.getNorm());
+
+        // ========================================
+        // Every triplet active at a small scale, an update only changes weights
+        RealMatrix small = randomTransform(0.2);
+        activeSet.refresh(small);
+
+        RealMatrix moved = small.add(randomTransform(0.05));
+        activeSet.update(moved);
+
+        assertEquals(objective.valueL(moved), activeSet.getValue(),
+                1e-10 * Math.abs(objective.valueL(moved)));
+        expected = generator.execute(moved);
+        assertEquals(0.0, activeSet.getGradient().subtract(expected).getNorm(),
+                1e-10 * expected.getNorm());
+    }
+
+    private RealMatrix randomTransform(double scale) {
+
+        RealMatrix lk = MatrixUtils.createRealMatrix(4, 4);
+        for (int idx = 0; idx < 4; idx++) {
+            for (int jdx = 0; jdx < 4; jdx++) {
+                lk.setEntry(idx, jdx, scale * RAND.nextGaussian());
+            }
+        }
+        return lk;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning;
+
+import fit.astro.vsa.common.utilities.test.classification.GrabIrisMatrixData;
+import fit.astro.vsa.utilities.ml.MetricDistance_MV;
+import fit.astro.vsa.utilities.ml.metriclearning.lmnn_mv.LMNN_MV_MetricLearningEvaluator;
+import fit.astro.vsa.utilities.ml.utils.SupportingFunctionality;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class LMNNMVEvaluatorTest {
+
+    private final Random RAND = new Random(42L);
+
+    @Test
+    public void testFusedEvaluation() throws IOException, URISyntaxException {
+
+        GrabIrisMatrixData grabIrisData = new GrabIrisMatrixData();
+        Map<Integer, RealMatrix> setOfPatterns = grabIrisData.getSetOfPatterns();
+        Map<Integer, String> setOfClasses = grabIrisData.getSetOfClasses();
+
+        // Three others of the same class as target neighbors
+        Map<Integer, List<Integer>> classMemberNear = new HashMap<>();
+        for (Integer idx : setOfPatterns.keySet()) {
+            classMemberNear.put(idx, setOfPatterns.keySet().stream()
+                    .filter((jdx) -> !jdx.equals(idx)
+                    && setOfClasses.get(jdx).equals(setOfClasses.get(idx)))
+                    .limit(3).collect(Collectors.toList()));
+        }
+
+        RealMatrix pattern = setOfPatterns.values().iterator().next();
+        RealMatrix gammak = randomMatrix(pattern.getColumnDimension());
+        RealMatrix nuk = randomMatrix(pattern.getRowDimension());
+
+        LMNN_MV_MetricLearningEvaluator evaluator = new LMNN_MV_MetricLearningEvaluator(
+                classMemberNear, setOfPatterns, setOfClasses);
+        evaluator.evaluate(gammak, nuk);
+
+        // ========================================
+        // Objective, term by term
+        MetricDistance_MV metricDistance = new MetricDistance_MV(
+                gammak.transpose().multiply(gammak), nuk.transpose().multiply(nuk));
+
+        RealMatrix uk = gammak.transpose().multiply(gammak);
+        RealMatrix vk = nuk.transpose().multiply(nuk);
+
+        double sumij = 0;
+        double sumijl = 0;
+
+        RealMatrix sumij_g = MatrixUtils.createRealMatrix(uk.getRowDimension(), uk.getColumnDimension());
+        RealMatrix sumij_n = MatrixUtils.createRealMatrix(vk.getRowDimension(), vk.getColumnDimension());
+        RealMatrix sumijl_g = sumij_g.copy();
+        RealMatrix sumijl_n = sumij_n.copy();
+
+        for (Integer idx : classMemberNear.keySet()) {
+            for (Integer jdx : classMemberNear.get(idx)) {
+                RealMatrix deltaij = setOfPatterns.get(idx).subtract(setOfPatterns.get(jdx));
+                RealMatrix aij = deltaij.transpose().multiply(vk).multiply(deltaij);
+                RealMatrix bij = deltaij.multiply(uk).multiply(deltaij.transpose());
+
+                double distance_ij = metricDistance.matrixDistance(
+                        setOfPatterns.get(idx), setOfPatterns.get(jdx));
+                sumij += distance_ij;
+                sumij_g = sumij_g.add(aij);
+                sumij_n = sumij_n.add(bij);
+
+                for (Integer ldx : setOfPatterns.keySet()) {
+                    if (!setOfClasses.get(ldx).equals(setOfClasses.get(idx))) {
+                        RealMatrix deltail = setOfPatterns.get(idx).subtract(setOfPatterns.get(ldx));
+                        double distance_il = metricDistance.matrixDistance(
+                                setOfPatterns.get(idx), setOfPatterns.get(ldx));
+
+                        sumijl += SupportingFunctionality.HingeApproxGLL(
+                                1 + distance_ij - distance_il);
+
+                        double hPrime = SupportingFunctionality.HingePrimeApproxGLL(
+                                1 + distance_ij - distance_il);
+                        sumijl_g = sumijl_g.add(aij.subtract(deltail.transpose()
+                                .multiply(vk).multiply(deltail)).scalarMultiply(hPrime));
+                        sumijl_n = sumijl_n.add(bij.subtract(deltail.multiply(uk)
+                                .multiply(deltail.transpose())).scalarMultiply(hPrime));
+                    }
+                }
+            }
+        }
+        double normUK = uk.getFrobeniusNorm();
+        double normVK = vk.getFrobeniusNorm();
+        double expected = 0.5 * sumij + 0.5 * sumijl
+                + 0.5 * normUK * normUK + 0.5 * normVK * normVK;
+
+        assertEquals(expected, evaluator.getValue(), 1e-10 * Math.abs(expected));
+
+        // ========================================
+        // Gradient, term by term
+        RealMatrix[] gradient = new RealMatrix[2];
+        gradient[0] = gammak.multiply(sumij_g.scalarMultiply(0.5)
+                .add(sumijl_g.scalarMultiply(0.5))
+                .add(MatrixUtils.createRealIdentityMatrix(uk.getRowDimension())
+                        .scalarMultiply(0.5))).scalarAdd(2.0);
+        gradient[1] = nuk.multiply(sumij_n.scalarMultiply(0.5)
+                .add(sumijl_n.scalarMultiply(0.5))
+                .add(MatrixUtils.createRealIdentityMatrix(vk.getRowDimension())
+                        .scalarMultiply(0.5))).scalarAdd(2.0);
+
+        for (int idx = 0; idx < 2; idx++) {
+            assertEquals(0.0, evaluator.getGradient()[idx].subtract(gradient[idx]).getNorm(),
+                    1e-10 * gradient[idx].getNorm());
+        }
+
+        // ========================================
+        // The same sums in the same order, every time
+        RealMatrix[] first = evaluator.getGradient();
+        evaluator.evaluate(gammak, nuk);
+        for (int idx = 0; idx < 2; idx++) {
+            assertEquals(0.0, evaluator.getGradient()[idx].subtract(first[idx]).getNorm(),
+                    0.0);
+        }
+    }
+
+    private RealMatrix randomMatrix(int dimension) {
+
+        RealMatrix matrix = MatrixUtils.createRealIdentityMatrix(dimension);
+        for (int idx = 0; idx < dimension; idx++) {
+            for (int jdx = 0; jdx < dimension; jdx++) {
+                matrix.addToEntry(idx, jdx, 0.3 * RAND.nextGaussian());
+            }
+        }
+        return matrix;
+    }
+}
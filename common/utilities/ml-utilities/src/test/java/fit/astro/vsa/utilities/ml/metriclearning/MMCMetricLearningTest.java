@@ -20,7 +20,14 @@ import fit.astro.vsa.common.utilities.math.handling.exceptions.NotEnoughDataExce
 import fit.astro.vsa.common.utilities.test.classification.GrabIrisData;
 import fit.astro.vsa.common.bindings.ml.ClassificationResult;
 import fit.astro.vsa.utilities.ml.knn.KNNVectorMetric;
+import fit.astro.vsa.common.datahandling.LabelHandling;
 import fit.astro.vsa.utilities.ml.metriclearning.mmc.MMCLearning;
+import fit.astro.vsa.utilities.ml.metriclearning.mmc.MMC_Diag_MetricLearningGradientGenerator;
+import fit.astro.vsa.utilities.ml.metriclearning.mmc.MMC_Diag_MetricLearningObjective;
+import fit.astro.vsa.utilities.ml.metriclearning.mmc.MMC_LineSearch;
+import fit.astro.vsa.utilities.ml.metriclearning.mmc.MMC_MetricLearningObjective;
+import fit.astro.vsa.utilities.ml.utils.PSDProjection;
+import fit.astro.vsa.utilities.ml.utils.SupportingFunctionality;
 import fit.astro.vsa.utilities.ml.performance.ClassifierPerformance;
 import fit.astro.vsa.common.datahandling.training.TrainCrossData;
 import fit.astro.vsa.common.datahandling.training.TrainCrossTestGenerator;
@@ -230,4 +237,81 @@ public class MMCMetricLearningTest {
         assertEquals(Boolean.TRUE, withError <= withoutError);
     }
 
+    @Test
+    public void testPSDProjection() {
+
+        int D = 8;
+        PSDProjection psdProjection = new PSDProjection();
+
+        RealMatrix mk = MatrixUtils.createRealMatrix(D, D);
+        for (int idx = 0; idx < D; idx++) {
+            for (int jdx = idx; jdx < D; jdx++) {
+                mk.setEntry(idx, jdx, RAND.nextGaussian());
+                mk.setEntry(jdx, idx, mk.getEntry(idx, jdx));
+            }
+        }
+
+        // Cold, then warm started on small changes
+        for (int step = 0; step < 5; step++) {
+            RealMatrix expected = SupportingFunctionality.ProjectMToPSD(mk);
+            RealMatrix projected = psdProjection.project(mk);
+
+            assertEquals(0.0, projected.subtract(expected).getNorm(), 1e-10 * expected.getNorm());
+            assertEquals(0.0, projected.subtract(projected.transpose()).getNorm(), 0.0);
+
+            RealMatrix change = MatrixUtils.createRealMatrix(D, D);
+            for (int idx = 0; idx < D; idx++) {
+                for (int jdx = idx; jdx < D; jdx++) {
+                    change.setEntry(idx, jdx, 0.01 * RAND.nextGaussian());
+                    change.setEntry(jdx, idx, change.getEntry(idx, jdx));
+                }
+            }
+            mk = mk.add(change);
+        }
+
+        // Positive definite, as is
+        RealMatrix pd = mk.transpose().multiply(mk).add(MatrixUtils.createRealIdentityMatrix(D));
+        assertEquals(0.0, psdProjection.project(pd).subtract(pd).getNorm(), 0.0);
+        assertEquals(0, psdProjection.getNegativeValues().length);
+    }
+
+    @Test
+    public void testLineSearch() throws NotEnoughDataException {
+
+        TrainCrossData crossData = new TrainCrossData(
+                setOfPatterns, setOfClasses, crossvalMap, 0);
+
+        Map<Integer, RealVector> patterns = crossData.getSetOfTrainingPatterns();
+        Map<Integer, String> classes = crossData.getSetOfTrainingClasses();
+        Map<String, Map<Integer, RealVector>> classMembers
+                = LabelHandling.sortIntoMaps(patterns, classes);
+
+        RealMatrix mk = MatrixUtils.createRealIdentityMatrix(
+                patterns.values().iterator().next().getDimension());
+
+        // Indefinite direction, the projection is active along the line
+        RealMatrix direction = new MMC_Diag_MetricLearningGradientGenerator(
+                patterns, classes, classMembers).execute(mk).scalarMultiply(-1e-3);
+
+        MMC_LineSearch lineSearch = new MMC_LineSearch(patterns, classes,
+                new PSDProjection());
+        lineSearch.setLine(mk, direction);
+
+        MMC_MetricLearningObjective objective
+                = new MMC_MetricLearningObjective(patterns, classes, classMembers);
+        MMC_Diag_MetricLearningObjective objective_Diag
+                = new MMC_Diag_MetricLearningObjective(patterns, classes, classMembers);
+
+        for (double x : new double[]{0.0, 0.1, 0.5, 1.0}) {
+            RealMatrix projected = SupportingFunctionality.ProjectMToPSD(
+                    mk.add(direction.scalarMultiply(x)));
+
+            double expected = objective.execute(projected);
+            assertEquals(expected, lineSearch.value(x), 1e-8 * expected);
+
+            double expected_Diag = objective_Diag.execute(projected);
+            assertEquals(expected_Diag, lineSearch.value_Diag(x), 1e-8 * Math.abs(expected_Diag));
+        }
+    }
+
 }
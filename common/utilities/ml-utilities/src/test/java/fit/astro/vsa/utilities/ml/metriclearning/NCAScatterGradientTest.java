@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning;
+
+import fit.astro.vsa.utilities.ml.metriclearning.nca.NCA_ScatterGradient;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class NCAScatterGradientTest {
+
+    private final Random RAND = new Random(42L);
+
+    @Test
+    public void testGradients() {
+
+        // Offset from the origin, with a duplicate
+        Map<Integer, RealVector> setOfPatterns = new HashMap<>();
+        Map<Integer, String> setOfClasses = new HashMap<>();
+        for (int idx = 0; idx < 90; idx++) {
+            RealVector pattern = new ArrayRealVector(5);
+            for (int jdx = 0; jdx < 5; jdx++) {
+                pattern.setEntry(jdx, 50.0 + RAND.nextGaussian() + (idx % 3) * (jdx % 2));
+            }
+            setOfPatterns.put(idx, pattern);
+            setOfClasses.put(idx, "Class" + (idx % 3));
+        }
+        setOfPatterns.put(90, setOfPatterns.get(4).copy());
+        setOfClasses.put(90, setOfClasses.get(4));
+
+        NCA_ScatterGradient scatterGradient
+                = new NCA_ScatterGradient(setOfPatterns, setOfClasses);
+
+        // Rectangular L, a projection to three dimensions
+        RealMatrix lk = MatrixUtils.createRealMatrix(3, 5);
+        for (int idx = 0; idx < 3; idx++) {
+            for (int jdx = 0; jdx < 5; jdx++) {
+                lk.setEntry(idx, jdx, 0.4 * RAND.nextGaussian());
+            }
+        }
+
+        // NCA gradient is the descent direction of sum p_i, KL the ascent of -sum log p_i
+        RealMatrix gradient = scatterGradient.gradient(lk);
+        RealMatrix gradient_KL = scatterGradient.gradient_KL(lk);
+
+        double step = 1e-6;
+        for (int idx = 0; idx < 3; idx++) {
+            for (int jdx = 0; jdx < 5; jdx++) {
+                RealMatrix plus = lk.copy();
+                plus.addToEntry(idx, jdx, step);
+                RealMatrix minus = lk.copy();
+                minus.addToEntry(idx, jdx, -step);
+
+                double numeric = (scatterGradient.value(plus)
+                        - scatterGradient.value(minus)) / (2.0 * step);
+                assertEquals(-numeric, gradient.getEntry(idx, jdx),
+                        1e-5 * (1.0 + Math.abs(numeric)));
+
+                double numeric_KL = (scatterGradient.value_KL(plus)
+                        - scatterGradient.value_KL(minus)) / (2.0 * step);
+                assertEquals(numeric_KL, gradient_KL.getEntry(idx, jdx),
+                        1e-5 * (1.0 + Math.abs(numeric_KL)));
+            }
+        }
+
+        // Query batches partition the full objective and gradient
+        List<Integer> evens = new ArrayList<>();
+        List<Integer> odds = new ArrayList<>();
+        setOfPatterns.keySet().forEach((idx) -> (idx % 2 == 0 ? evens : odds).add(idx));
+
+        assertEquals(scatterGradient.value(lk),
+                scatterGradient.value(lk, evens) + scatterGradient.value(lk, odds), 1e-10);
+        assertEquals(scatterGradient.value_KL(lk),
+                scatterGradient.value_KL(lk, evens) + scatterGradient.value_KL(lk, odds), 1e-10);
+
+        RealMatrix batched = scatterGradient.gradient(lk, evens)
+                .add(scatterGradient.gradient(lk, odds));
+        RealMatrix batched_KL = scatterGradient.gradient_KL(lk, evens)
+                .add(scatterGradient.gradient_KL(lk, odds));
+        assertEquals(0.0, batched.subtract(gradient).getNorm(), 1e-10);
+        assertEquals(0.0, batched_KL.subtract(gradient_KL).getNorm(), 1e-10);
+    }
+
+    @Test
+    public void testHeldOutQueries() {
+
+        Map<Integer, RealVector> trainingPatterns = new HashMap<>();
+        Map<Integer, RealVector> heldOutPatterns = new HashMap<>();
+        Map<Integer, String> setOfClasses = new HashMap<>();
+        for (int idx = 0; idx < 80; idx++) {
+            RealVector pattern = new ArrayRealVector(4);
+            for (int jdx = 0; jdx < 4; jdx++) {
+                pattern.setEntry(jdx, RAND.nextGaussian() + (idx % 3) * (jdx % 2));
+            }
+            (idx < 60 ? trainingPatterns : heldOutPatterns).put(idx, pattern);
+            setOfClasses.put(idx, "Class" + (idx % 3));
+        }
+
+        NCA_ScatterGradient scatterGradient
+                = new NCA_ScatterGradient(trainingPatterns, setOfClasses);
+
+        RealMatrix lk = MatrixUtils.createRealMatrix(2, 4);
+        for (int idx = 0; idx < 2; idx++) {
+            for (int jdx = 0; jdx < 4; jdx++) {
+                lk.setEntry(idx, jdx, 0.6 * RAND.nextGaussian());
+            }
+        }
+
+        // The patterns themselves, each left out of its own neighborhood
+        assertEquals(scatterGradient.value(lk),
+                scatterGradient.value(lk, trainingPatterns, setOfClasses), 1e-10);
+        assertEquals(scatterGradient.value_KL(lk),
+                scatterGradient.value_KL(lk, trainingPatterns, setOfClasses), 1e-10);
+
+        // Held out, only the training patterns are neighbors
+        double value = 0.0;
+        double value_KL = 0.0;
+        for (Integer idx : heldOutPatterns.keySet()) {
+            RealVector image = lk.operate(heldOutPatterns.get(idx));
+
+            double bottom = 0.0;
+            double top = 0.0;
+            for (Integer kdx : trainingPatterns.keySet()) {
+                double p_ik = Math.exp(-Math.pow(
+                        image.getDistance(lk.operate(trainingPatterns.get(kdx))), 2));
+                bottom += p_ik;
+                if (setOfClasses.get(kdx).equals(setOfClasses.get(idx))) {
+                    top += p_ik;
+                }
+            }
+            value += Math.min(top / bottom, 1.0);
+            value_KL += -Math.log(Math.min(top / bottom, 1.0));
+        }
+
+        assertEquals(value,
+                scatterGradient.value(lk, heldOutPatterns, setOfClasses), 1e-10);
+        assertEquals(value_KL,
+                scatterGradient.value_KL(lk, heldOutPatterns, setOfClasses), 1e-10);
+    }
+}
@@ -214,4 +214,68 @@ public class NeighborhoodComponentsAnalysisTest {
         assertEquals(Boolean.TRUE, withError <= withoutError);
     }
 
+    @Test
+    public void testNCA_MiniBatch() throws IOException, NotEnoughDataException {
+
+        int kNeigh = 7;
+
+        TrainCrossData crossDataNCA = new TrainCrossData(
+                setOfPatterns, setOfClasses, crossvalMap, 0);
+
+        RealMatrix idMatrix = MatrixUtils.createRealIdentityMatrix(
+                setOfPatterns.values().iterator().next().getDimension());
+        //===================================================================
+        // Try NCA, five query batches per epoch
+        NeighbourhoodComponentsAnalysis nca
+                = new NeighbourhoodComponentsAnalysis(
+                        crossDataNCA.getSetOfTrainingPatterns(),
+                        crossDataNCA.getSetOfTrainingClasses());
+        nca.setRand(new Random(42L));
+
+        RealMatrix mk = nca.generateMetric_MiniBatch(4, 5);
+
+        // ==================================================================
+        double withError = 0;
+        double withoutError = 0;
+
+        for (Integer idx : crossvalMap.keySet()) {
+
+            TrainCrossData crossDataKNN = new TrainCrossData(
+                    setOfPatterns, setOfClasses, crossvalMap, idx);
+
+            // =============== Train and Apply Classifiers
+            KNNVectorMetric knnWithout = new KNNVectorMetric(
+                    crossDataKNN.getSetOfTrainingPatterns(),
+                    crossDataKNN.getSetOfTrainingClasses());
+
+            ClassificationResult knnWithoutResults = knnWithout.execute(kNeigh,
+                    "Missed", idMatrix, crossDataKNN.getSetOfCrossvalPatterns());
+
+            KNNVectorMetric knnWith = new KNNVectorMetric(
+                    crossDataKNN.getSetOfTrainingPatterns(),
+                    crossDataKNN.getSetOfTrainingClasses());
+
+            ClassificationResult knnWithResults = knnWith.execute(kNeigh,
+                    "Missed", mk, crossDataKNN.getSetOfCrossvalPatterns());
+
+            double errorWithNow = ClassifierPerformance
+                    .estimateMisclassificationError(knnWithResults,
+                            crossDataKNN.getSetOfCrossvalClasses());
+
+            double errorWithoutNow = ClassifierPerformance
+                    .estimateMisclassificationError(knnWithoutResults,
+                            crossDataKNN.getSetOfCrossvalClasses());
+
+            withError = withError + errorWithNow / (double) crossvalMap.keySet().size();
+            withoutError = withoutError + errorWithoutNow / (double) crossvalMap.keySet().size();
+        }
+
+        LOGGER.info("===========================================");
+        LOGGER.info("With NCA - Mini-Batch, kNN -> " + kNeigh);
+        LOGGER.info("With Learned Metric Error: " + withError);
+        LOGGER.info("Without Learned Metric Error: " + withoutError);
+
+        assertEquals(Boolean.TRUE, withError <= withoutError);
+    }
+
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 Kyle Johnston
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fit.astro.vsa.utilities.ml.metriclearning;
+
+import fit.astro.vsa.common.bindings.ml.metric.MultiViewMetric;
+import fit.astro.vsa.utilities.ml.PackedDistanceMatrix;
+import fit.astro.vsa.utilities.ml.metriclearning.pmml.PMMLPairs;
+import fit.astro.vsa.utilities.ml.metriclearning.pmml.PMML_MetricLearningObjective;
+import fit.astro.vsa.utilities.ml.metriclearning.pmml.PairwiseMultipleMetricLearning;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.linear.CholeskyDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * PMML pairs by packed index, and the objective kept under rank one updates
+ *
+ * @author Kyle Johnston <kyjohnst2000@my.fit.edu>
+ */
+public class PMMLPairsTest {
+
+    private static final String[] VIEWS = {"first", "second"};
+    private static final String[] LABELS = {"a", "b", "c"};
+
+    private final Random RAND = new Random(11L);
+
+    @Test
+    public void testEveryPair() {
+
+        int numSamples = 23;
+        int[] classIndex = new int[numSamples];
+        for (int idx = 0; idx < numSamples; idx++) {
+            classIndex[idx] = idx % 3;
+        }
+
+        PMMLPairs pairs = new PMMLPairs(classIndex);
+        assertEquals(PackedDistanceMatrix.packedSize(numSamples), pairs.size());
+
+        for (long pair = 0; pair < pairs.size(); pair++) {
+            int first = pairs.first(pair);
+            int second = pairs.second(pair);
+
+            assertTrue(first < second);
+            assertEquals(pair, PackedDistanceMatrix.packedIndex(numSamples, first, second));
+            assertEquals(first % 3 == second % 3, pairs.isSimilar(pair));
+        }
+    }
+
+    @Test
+    public void testStratified() {
+
+        int numSamples = 60;
+        int[] classIndex = new int[numSamples];
+        for (int idx = 0; idx < numSamples; idx++) {
+            classIndex[idx] = idx % 3;
+        }
+
+        PMMLPairs pairs = PMMLPairs.stratified(classIndex, 100, 150, RAND);
+        assertEquals(250, pairs.size());
+        assertEquals(100, countSimilar(pairs));
+
+        for (long pair = 1; pair < pairs.size(); pair++) {
+            assertTrue(pairs.packedIndex(pair - 1) < pairs.packedIndex(pair));
+        }
+
+        // 3 * 20 * 19 / 2 pairs of the same class
+        PMMLPairs allSimilar = PMMLPairs.stratified(classIndex, 1000, 10, RAND);
+        assertEquals(570 + 10, allSimilar.size());
+        assertEquals(570, countSimilar(allSimilar));
+    }
+
+    @Test
+    public void testObjective() {
+
+        int dimension = 4;
+        RealMatrix lk = randomMatrix(dimension);
+        RealMatrix mk = lk.transpose().multiply(lk).add(
+                MatrixUtils.createRealIdentityMatrix(dimension));
+
+        PMML_MetricLearningObjective objective
+                = new PMML_MetricLearningObjective(10, 1);
+        objective.setView(0, mk);
+
+        // mk + mu (mk d)(mk d)'
+        RealVector delta = randomMatrix(dimension).getColumnVector(0);
+        RealVector projected = mk.operate(delta);
+        double dij = delta.dotProduct(projected);
+        double mu = -0.5 / dij;
+
+        objective.updateView(0, mu * projected.dotProduct(projected),
+                Math.log1p(mu * dij));
+        objective.updatePair(0.0, 2.0, 1.0);
+
+        PMML_MetricLearningObjective expected
+                = new PMML_MetricLearningObjective(10, 1);
+        expected.setView(0, mk.add(projected.outerProduct(projected).scalarMultiply(mu)));
+        expected.updatePair(0.0, 2.0, 1.0);
+
+        assertEquals(expected.getObjective(), objective.getObjective(), 1e-12);
+    }
+
+    @Test
+    public void testPMML() {
+
+        int[] dimensions = {4, 3};
+
+        Map<Integer, Map<String, RealVector>> mapOfPatterns = new HashMap<>();
+        Map<Integer, String> mapOfClasses = new HashMap<>();
+        for (int idx = 0; idx < 90; idx++) {
+            Map<String, RealVector> views = new HashMap<>();
+            for (int vdx = 0; vdx < VIEWS.length; vdx++) {
+                RealVector pattern = MatrixUtils.createRealVector(new double[dimensions[vdx]]);
+                for (int jdx = 0; jdx < dimensions[vdx]; jdx++) {
+                    pattern.setEntry(jdx, (jdx == idx % 3 ? 1.0 : 0.0) + 0.5 * RAND.nextGaussian());
+                }
+                views.put(VIEWS[vdx], pattern);
+            }
+            mapOfPatterns.put(idx, views);
+            mapOfClasses.put(idx, LABELS[idx % 3]);
+        }
+
+        for (int numPairs : new int[]{0, 400}) {
+            PairwiseMultipleMetricLearning pmml
+                    = new PairwiseMultipleMetricLearning(mapOfPatterns, mapOfClasses);
+            pmml.setRand(new Random(3L));
+            pmml.setMAX_ITER(2000);
+            pmml.setNUM_PAIRS(numPairs);
+
+            Map<String, MultiViewMetric> outputVar = pmml.execute(2.0, 5e0, 1.5);
+
+            assertEquals(VIEWS.length, outputVar.size());
+            for (MultiViewMetric metric : outputVar.values()) {
+                RealMatrix mk = metric.getMk();
+                assertEquals(0.0, mk.subtract(mk.transpose()).getNorm(), 0.0);
+                new CholeskyDecomposition(mk);
+            }
+        }
+    }
+
+    // ================================================================
+    private int countSimilar(PMMLPairs pairs) {
+
+        int count = 0;
+        for (long pair = 0; pair < pairs.size(); pair++) {
+            if (pairs.isSimilar(pair)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private RealMatrix randomMatrix(int dimension) {
+
+        RealMatrix matrix = MatrixUtils.createRealMatrix(dimension, dimension);
+        for (int idx = 0; idx < dimension; idx++) {
+            for (int jdx = 0; jdx < dimension; jdx++) {
+                matrix.setEntry(idx, jdx, RAND.nextGaussian());
+            }
+        }
+        return matrix;
+    }
+}